@@ -0,0 +1,140 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.android.mms.pdu_alt.PduHeaders;
+
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.thoughtcrime.securesms.crypto.DatabaseSecret;
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.database.model.MessageRecord;
+
+import java.security.SecureRandom;
+import java.util.Random;
+
+import kotlin.Pair;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Resolves quotes in a single 100k message thread, once through the conversation union and once
+ * through the (date sent, address) indexes. Run with {@code ./gradlew connectedAndroidTest}; timings
+ * are written to logcat.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QuoteLookupBenchmark {
+
+  private static final String TAG = QuoteLookupBenchmark.class.getSimpleName();
+
+  private static final int  MESSAGE_COUNT   = 100_000;
+  private static final int  AUTHOR_COUNT    = 16;
+  private static final int  LOOKUP_COUNT    = 50;
+  private static final long THREAD_ID       = 1;
+  private static final long FIRST_TIMESTAMP = 1_600_000_000_000L;
+
+  private Context             context;
+  private SQLCipherOpenHelper databaseHelper;
+  private MmsSmsDatabase      mmsSmsDatabase;
+
+  @Before
+  public void setUp() {
+    // The instrumentation context has its own data directory, so this doesn't touch the app's database
+    context = InstrumentationRegistry.getInstrumentation().getContext();
+    context.deleteDatabase("signal.db");
+    SQLiteDatabase.loadLibs(context);
+
+    byte[] key = new byte[32];
+    new SecureRandom().nextBytes(key);
+
+    databaseHelper = new SQLCipherOpenHelper(context, new DatabaseSecret(key));
+    mmsSmsDatabase = new MmsSmsDatabase(context, databaseHelper);
+
+    populateThread(databaseHelper.getWritableDatabase());
+  }
+
+  @After
+  public void tearDown() {
+    databaseHelper.close();
+    context.deleteDatabase("signal.db");
+  }
+
+  @Test
+  public void resolveQuotesInLargeThread() {
+    Random random  = new Random(42);
+    int[]  indices = new int[LOOKUP_COUNT];
+    for (int i = 0; i < LOOKUP_COUNT; i++) indices[i] = random.nextInt(MESSAGE_COUNT);
+
+    long unionStart = System.nanoTime();
+    for (int index : indices) {
+      MessageRecord record = mmsSmsDatabase.getMessageFor(timestampFor(index), authorFor(index));
+      assertNotNull(record);
+    }
+    long unionNanos = System.nanoTime() - unionStart;
+
+    long indexedStart = System.nanoTime();
+    for (int index : indices) {
+      Pair<Long, Boolean> messageID = mmsSmsDatabase.getMessageIdFor(timestampFor(index), authorFor(index));
+      assertNotNull(messageID);
+      assertEquals(isMms(index), messageID.getSecond());
+    }
+    long indexedNanos = System.nanoTime() - indexedStart;
+
+    assertNull(mmsSmsDatabase.getMessageIdFor(timestampFor(0), authorFor(1)));
+
+    Log.i(TAG, String.format("%d lookups over %d messages: union %.2f ms/lookup, indexed %.3f ms/lookup",
+                             LOOKUP_COUNT, MESSAGE_COUNT,
+                             unionNanos / 1e6 / LOOKUP_COUNT, indexedNanos / 1e6 / LOOKUP_COUNT));
+  }
+
+  private void populateThread(SQLiteDatabase database) {
+    database.beginTransaction();
+    try {
+      for (int i = 0; i < MESSAGE_COUNT; i++) {
+        ContentValues values = new ContentValues();
+        values.put(MmsSmsColumns.THREAD_ID, THREAD_ID);
+        values.put(MmsSmsColumns.ADDRESS, authorFor(i));
+        values.put(MmsSmsColumns.BODY, "Message " + i);
+
+        if (isMms(i)) {
+          values.put(MmsDatabase.DATE_SENT, timestampFor(i));
+          values.put(MmsDatabase.DATE_RECEIVED, timestampFor(i));
+          values.put(MmsDatabase.MESSAGE_BOX, MmsSmsColumns.Types.BASE_INBOX_TYPE);
+          values.put(MmsDatabase.MESSAGE_TYPE, PduHeaders.MESSAGE_TYPE_RETRIEVE_CONF);
+          database.insert(MmsDatabase.TABLE_NAME, null, values);
+        } else {
+          values.put(SmsDatabase.DATE_SENT, timestampFor(i));
+          values.put(SmsDatabase.DATE_RECEIVED, timestampFor(i));
+          values.put(SmsDatabase.TYPE, MmsSmsColumns.Types.BASE_INBOX_TYPE);
+          database.insert(SmsDatabase.TABLE_NAME, null, values);
+        }
+      }
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
+    }
+  }
+
+  private static long timestampFor(int index) {
+    return FIRST_TIMESTAMP + index;
+  }
+
+  private static String authorFor(int index) {
+    return String.format("05%062x", index % AUTHOR_COUNT);
+  }
+
+  private static boolean isMms(int index) {
+    return index % 4 == 0;
+  }
+}
@@ -0,0 +1,151 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.session.libsession.utilities.TextSecurePreferences;
+import org.thoughtcrime.securesms.crypto.DatabaseSecret;
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+
+import java.security.SecureRandom;
+
+import kotlin.Pair;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Handles two bursts of successful sends in a 100k message thread, making the same database calls
+ * as Storage, DatabaseAttachmentProvider and ExpiringMessageManager do for MessageSendJob and
+ * MessageSender.handleSuccessfulMessageSend: once by sent timestamp and author, as for messages
+ * without a local ID, and once by the local message ID carried through the send job. Each send
+ * checks that the message is still outgoing, marks it as sent and unidentified, and looks up what
+ * starting its expiration needs. Run with {@code ./gradlew connectedAndroidTest}; timings are
+ * written to logcat.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SentMessageUpdateBenchmark {
+
+  private static final String TAG = SentMessageUpdateBenchmark.class.getSimpleName();
+
+  private static final int    MESSAGE_COUNT   = 100_000;
+  private static final int    SEND_COUNT      = 200;
+  // Marking a message as sent refreshes its thread through DatabaseFactory. No thread in the app's
+  // database has this ID, so that refresh finds nothing and doesn't write.
+  private static final long   THREAD_ID       = 1L << 40;
+  private static final long   FIRST_TIMESTAMP = 1_600_000_000_000L;
+  private static final String LOCAL_NUMBER    = String.format("05%062x", 1);
+  private static final String RECIPIENT       = String.format("05%062x", 2);
+
+  private Context             context;
+  private SQLCipherOpenHelper databaseHelper;
+  private SmsDatabase         smsDatabase;
+  private MmsDatabase         mmsDatabase;
+  private MmsSmsDatabase      mmsSmsDatabase;
+  private long[]              sentMessageIds;
+
+  @Before
+  public void setUp() {
+    // The instrumentation context has its own data directory and preferences, so this doesn't
+    // touch the app's database or local number
+    context = InstrumentationRegistry.getInstrumentation().getContext();
+    context.deleteDatabase("signal.db");
+    SQLiteDatabase.loadLibs(context);
+    TextSecurePreferences.setLocalNumber(context, LOCAL_NUMBER);
+
+    byte[] key = new byte[32];
+    new SecureRandom().nextBytes(key);
+
+    databaseHelper = new SQLCipherOpenHelper(context, new DatabaseSecret(key));
+    smsDatabase    = new SmsDatabase(context, databaseHelper);
+    mmsDatabase    = new MmsDatabase(context, databaseHelper);
+    mmsSmsDatabase = new MmsSmsDatabase(context, databaseHelper);
+
+    sentMessageIds = populateThread(databaseHelper.getWritableDatabase());
+  }
+
+  @After
+  public void tearDown() {
+    databaseHelper.close();
+    context.deleteDatabase("signal.db");
+    TextSecurePreferences.removeLocalNumber(context);
+  }
+
+  @Test
+  public void markBurstOfSentMessages() {
+    long timestampStart = System.nanoTime();
+    for (int i = 0; i < SEND_COUNT; i++) {
+      long timestamp = timestampFor(MESSAGE_COUNT - 2 * SEND_COUNT + i);
+      assertTrue(smsDatabase.isOutgoingMessage(timestamp) || mmsDatabase.isOutgoingMessage(timestamp));
+      // Storage.getMessageIdInDatabase, markAsSent and markUnidentified each look the message up again
+      for (int lookup = 0; lookup < 3; lookup++) {
+        Pair<Long, Boolean> messageId = mmsSmsDatabase.getMessageIdFor(timestamp, LOCAL_NUMBER);
+        assertNotNull(messageId);
+        assertEquals(sentMessageIds[i], (long) messageId.getFirst());
+        if (lookup == 1) smsDatabase.markAsSent(messageId.getFirst(), true);
+        if (lookup == 2) smsDatabase.markUnidentified(messageId.getFirst(), true);
+      }
+      assertNotNull(mmsSmsDatabase.getMessageFor(timestamp, LOCAL_NUMBER));
+    }
+    long timestampNanos = System.nanoTime() - timestampStart;
+
+    long idStart = System.nanoTime();
+    for (int i = SEND_COUNT; i < 2 * SEND_COUNT; i++) {
+      assertTrue(smsDatabase.isOutgoingMessageWithId(sentMessageIds[i]));
+      smsDatabase.markAsSent(sentMessageIds[i], true);
+      smsDatabase.markUnidentified(sentMessageIds[i], true);
+      assertEquals(THREAD_ID, smsDatabase.getThreadIdForMessage(sentMessageIds[i]));
+    }
+    long idNanos = System.nanoTime() - idStart;
+
+    String query = "SELECT COUNT(*) FROM " + SmsDatabase.TABLE_NAME + " WHERE " + SmsDatabase.THREAD_ID + " = ? AND " + SmsDatabase.UNIDENTIFIED + " = 1";
+    try (Cursor cursor = databaseHelper.getReadableDatabase().rawQuery(query, new String[] { String.valueOf(THREAD_ID) })) {
+      cursor.moveToFirst();
+      assertEquals(2 * SEND_COUNT, cursor.getInt(0));
+    }
+
+    Log.i(TAG, String.format("%d sends in a %d message thread: by timestamp %.2f ms/send, by ID %.3f ms/send",
+                             SEND_COUNT, MESSAGE_COUNT,
+                             timestampNanos / 1e6 / SEND_COUNT, idNanos / 1e6 / SEND_COUNT));
+  }
+
+  private long[] populateThread(SQLiteDatabase database) {
+    long[] sentMessageIds = new long[2 * SEND_COUNT];
+    int    firstSent      = MESSAGE_COUNT - 2 * SEND_COUNT;
+    database.beginTransaction();
+    try {
+      for (int i = 0; i < MESSAGE_COUNT; i++) {
+        boolean       isOutgoing = i % 2 == 0 || i >= firstSent;
+        ContentValues values     = new ContentValues();
+        values.put(MmsSmsColumns.THREAD_ID, THREAD_ID);
+        values.put(MmsSmsColumns.ADDRESS, RECIPIENT);
+        values.put(MmsSmsColumns.BODY, "Message " + i);
+        values.put(SmsDatabase.DATE_SENT, timestampFor(i));
+        values.put(SmsDatabase.DATE_RECEIVED, timestampFor(i));
+        values.put(SmsDatabase.TYPE, isOutgoing ? MmsSmsColumns.Types.BASE_SENDING_TYPE : MmsSmsColumns.Types.BASE_INBOX_TYPE);
+        long id = database.insert(SmsDatabase.TABLE_NAME, null, values);
+        if (i >= firstSent) sentMessageIds[i - firstSent] = id;
+      }
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
+    }
+    return sentMessageIds;
+  }
+
+  private static long timestampFor(int index) {
+    return FIRST_TIMESTAMP + index;
+  }
+}
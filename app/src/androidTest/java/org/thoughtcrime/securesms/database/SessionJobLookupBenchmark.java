@@ -0,0 +1,203 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.session.libsession.messaging.jobs.AttachmentUploadJob;
+import org.session.libsession.messaging.jobs.Job;
+import org.session.libsession.messaging.jobs.MessageSendJob;
+import org.session.libsession.messaging.messages.Destination;
+import org.session.libsession.messaging.messages.visible.VisibleMessage;
+import org.session.libsession.messaging.utilities.Data;
+import org.session.libsession.messaging.utilities.KryoPool;
+import org.thoughtcrime.securesms.crypto.DatabaseSecret;
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Persists 10k jobs, as can pile up after a long time offline, and compares the job lookups that
+ * used to load and deserialize every job of a type (finding an attachment's upload job, cancelling
+ * a thread's sends, and checking whether a job was canceled) with the indexed queries. Run with
+ * {@code ./gradlew connectedAndroidTest}; timings are written to logcat.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SessionJobLookupBenchmark {
+
+  private static final String TAG = SessionJobLookupBenchmark.class.getSimpleName();
+
+  private static final int JOB_COUNT         = 10_000;
+  private static final int UPLOAD_JOB_COUNT  = 1_000;
+  private static final int THREAD_COUNT      = 500;
+  private static final int LOOKUP_COUNT      = 100;
+  private static final int CANCEL_COUNT      = 20;
+  private static final int EXISTENCE_CHECKS  = 1_000;
+  private static final long FIRST_ATTACHMENT = 1_000;
+
+  private Context             context;
+  private SQLCipherOpenHelper databaseHelper;
+  private SessionJobDatabase  jobDatabase;
+
+  @Before
+  public void setUp() {
+    // The instrumentation context has its own data directory, so this doesn't touch the app's database
+    context = InstrumentationRegistry.getInstrumentation().getContext();
+    context.deleteDatabase("signal.db");
+    SQLiteDatabase.loadLibs(context);
+
+    byte[] key = new byte[32];
+    new SecureRandom().nextBytes(key);
+
+    databaseHelper = new SQLCipherOpenHelper(context, new DatabaseSecret(key));
+    jobDatabase    = new SessionJobDatabase(context, databaseHelper);
+
+    for (int i = 0; i < JOB_COUNT; i++) {
+      long threadID = i % THREAD_COUNT;
+      VisibleMessage message = new VisibleMessage();
+      message.setText("Queued message " + i);
+      message.setId((long) i);
+      message.setThreadID(threadID);
+      message.setSentTimestamp(1_600_000_000_000L + i);
+      Job job;
+      if (i < UPLOAD_JOB_COUNT) {
+        job = new AttachmentUploadJob(FIRST_ATTACHMENT + i, String.valueOf(threadID), message, "send-" + i);
+      } else {
+        job = new MessageSendJob(message, new Destination.Contact(String.format("05%062x", threadID)));
+      }
+      job.setId(String.valueOf(i));
+      jobDatabase.persistJob(job);
+    }
+    // Reads flush the write-behind log first
+    assertNotNull(jobDatabase.getMessageSendJob(String.valueOf(JOB_COUNT - 1)));
+  }
+
+  @After
+  public void tearDown() {
+    databaseHelper.close();
+    context.deleteDatabase("signal.db");
+  }
+
+  @Test
+  public void attachmentUploadJobLookup() {
+    long scanStart = System.nanoTime();
+    for (int i = 0; i < LOOKUP_COUNT; i++) {
+      AttachmentUploadJob job = scanForAttachmentUploadJob(FIRST_ATTACHMENT + i * 7);
+      assertNotNull(job);
+    }
+    long scanNanos = System.nanoTime() - scanStart;
+
+    long indexedStart = System.nanoTime();
+    for (int i = 0; i < LOOKUP_COUNT; i++) {
+      AttachmentUploadJob job = jobDatabase.getAttachmentUploadJob(FIRST_ATTACHMENT + i * 7);
+      assertNotNull(job);
+      assertEquals(FIRST_ATTACHMENT + i * 7, job.getAttachmentID());
+    }
+    long indexedNanos = System.nanoTime() - indexedStart;
+
+    report("getAttachmentUploadJob", LOOKUP_COUNT, scanNanos, indexedNanos);
+  }
+
+  @Test
+  public void cancelPendingMessageSendJobs() {
+    // Scanning only finds the jobs to delete; deleting them is the same either way
+    long scanStart = System.nanoTime();
+    int found = 0;
+    for (int threadID = 0; threadID < CANCEL_COUNT; threadID++) {
+      found += scanForThreadJobIds(MessageSendJob.Companion.getKEY(), threadID).size();
+      found += scanForThreadJobIds(AttachmentUploadJob.Companion.getKEY(), threadID).size();
+    }
+    long scanNanos = System.nanoTime() - scanStart;
+    assertEquals(CANCEL_COUNT * (JOB_COUNT / THREAD_COUNT), found);
+
+    long indexedStart = System.nanoTime();
+    for (int threadID = 0; threadID < CANCEL_COUNT; threadID++) {
+      jobDatabase.cancelPendingMessageSendJobs(threadID);
+    }
+    long indexedNanos = System.nanoTime() - indexedStart;
+    assertTrue(scanForThreadJobIds(MessageSendJob.Companion.getKEY(), 0).isEmpty());
+    assertFalse(scanForThreadJobIds(MessageSendJob.Companion.getKEY(), CANCEL_COUNT).isEmpty());
+
+    report("cancelPendingMessageSendJobs", CANCEL_COUNT, scanNanos, indexedNanos);
+  }
+
+  @Test
+  public void isJobCanceled() {
+    List<Job> jobs = new ArrayList<>();
+    for (int i = 0; i < EXISTENCE_CHECKS; i++) {
+      jobs.add(jobDatabase.getMessageSendJob(String.valueOf(JOB_COUNT - 1 - i)));
+    }
+
+    SQLiteDatabase database = databaseHelper.getReadableDatabase();
+    long selectAllStart = System.nanoTime();
+    for (Job job : jobs) {
+      try (Cursor cursor = database.rawQuery("SELECT * FROM " + SessionJobDatabase.sessionJobTable + " WHERE " + SessionJobDatabase.jobID + " = ?", new String[] { job.getId() })) {
+        assertTrue(cursor.moveToFirst());
+      }
+    }
+    long selectAllNanos = System.nanoTime() - selectAllStart;
+
+    long indexedStart = System.nanoTime();
+    for (Job job : jobs) {
+      assertFalse(jobDatabase.isJobCanceled(job));
+    }
+    long indexedNanos = System.nanoTime() - indexedStart;
+
+    report("isJobCanceled", EXISTENCE_CHECKS, selectAllNanos, indexedNanos);
+  }
+
+  // What getAttachmentUploadJob used to do
+  private AttachmentUploadJob scanForAttachmentUploadJob(long attachmentID) {
+    for (Job job : loadAll(AttachmentUploadJob.Companion.getKEY())) {
+      if (((AttachmentUploadJob) job).getAttachmentID() == attachmentID) return (AttachmentUploadJob) job;
+    }
+    return null;
+  }
+
+  // What cancelPendingMessageSendJobs used to do to find a thread's jobs
+  private List<String> scanForThreadJobIds(String type, long threadID) {
+    List<String> result = new ArrayList<>();
+    for (Job job : loadAll(type)) {
+      Long jobThreadID = job instanceof MessageSendJob ? ((MessageSendJob) job).getMessage().getThreadID()
+                                                       : Long.valueOf(((AttachmentUploadJob) job).getThreadID());
+      if (jobThreadID != null && jobThreadID == threadID) result.add(job.getId());
+    }
+    return result;
+  }
+
+  private List<Job> loadAll(String type) {
+    List<Job> result = new ArrayList<>();
+    SQLiteDatabase database = databaseHelper.getReadableDatabase();
+    try (Cursor cursor = database.query(SessionJobDatabase.sessionJobTable, null, SessionJobDatabase.jobType + " = ?", new String[] { type }, null, null, null)) {
+      while (cursor.moveToNext()) {
+        byte[] bytes = cursor.getBlob(cursor.getColumnIndexOrThrow(SessionJobDatabase.serializedData));
+        Data   data  = KryoPool.INSTANCE.deserializeData(bytes);
+        Job    job   = SessionJobHelper.INSTANCE.getSessionJobInstantiator().instantiate(type, data);
+        job.setId(cursor.getString(cursor.getColumnIndexOrThrow(SessionJobDatabase.jobID)));
+        result.add(job);
+      }
+    }
+    return result;
+  }
+
+  private void report(String name, int count, long scanNanos, long indexedNanos) {
+    Log.i(TAG, String.format("%s with %d jobs: %.2f ms per call scanning, %.3f ms per call indexed.",
+                             name, JOB_COUNT, scanNanos / 1e6 / count, indexedNanos / 1e6 / count));
+  }
+}
@@ -158,6 +158,7 @@ public class ApplicationContext extends MultiDexApplication implements Dependenc
                 ()-> KeyPairUtilities.INSTANCE.getUserED25519KeyPair(this)
         );
         SnodeModule.Companion.configure(apiDB, broadcaster);
+        ThreadUtils.queue(() -> DatabaseFactory.getRecipientDatabase(this).loadBlockedAddresses());
         String userPublicKey = TextSecurePreferences.getLocalNumber(this);
         if (userPublicKey != null) {
             registerForFCMIfNeeded(false);
@@ -200,6 +201,7 @@ public class ApplicationContext extends MultiDexApplication implements Dependenc
             poller.stopIfNeeded();
         }
         ClosedGroupPollerV2.getShared().stop();
+        DatabaseFactory.getSessionJobDatabase(this).flushPendingWrites();
     }
 
     @Override
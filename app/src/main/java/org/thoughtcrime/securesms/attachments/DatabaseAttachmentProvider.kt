@@ -67,8 +67,7 @@ class DatabaseAttachmentProvider(context: Context, helper: SQLCipherOpenHelper)
 
     override fun getMessageForQuote(timestamp: Long, author: Address): Pair<Long, Boolean>? {
         val messagingDatabase = DatabaseFactory.getMmsSmsDatabase(context)
-        val message = messagingDatabase.getMessageFor(timestamp, author)
-        return if (message != null) Pair(message.id, message.isMms) else null
+        return messagingDatabase.getMessageIdFor(timestamp, author.serialize())
     }
 
     override fun getAttachmentsAndLinkPreviewFor(mmsId: Long): List<Attachment> {
@@ -116,6 +115,14 @@ class DatabaseAttachmentProvider(context: Context, helper: SQLCipherOpenHelper)
         return smsDatabase.isOutgoingMessage(timestamp) || mmsDatabase.isOutgoingMessage(timestamp)
     }
 
+    override fun isOutgoingMessage(messageID: Long, isMms: Boolean): Boolean {
+        return if (isMms) {
+            DatabaseFactory.getMmsDatabase(context).isOutgoingMessageWithId(messageID)
+        } else {
+            DatabaseFactory.getSmsDatabase(context).isOutgoingMessageWithId(messageID)
+        }
+    }
+
     override fun handleSuccessfulAttachmentUpload(attachmentId: Long, attachmentStream: SignalServiceAttachmentStream, attachmentKey: ByteArray, uploadResult: UploadResult) {
         val database = DatabaseFactory.getAttachmentDatabase(context)
         val databaseAttachment = getDatabaseAttachment(attachmentId) ?: return
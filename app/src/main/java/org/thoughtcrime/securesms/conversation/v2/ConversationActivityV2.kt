@@ -896,6 +896,7 @@ class ConversationActivityV2 : PassphraseRequiredActionBarActivity(), InputBarDe
         mentions.clear()
         // Put the message in the database
         message.id = DatabaseFactory.getSmsDatabase(this).insertMessageOutbox(threadID, outgoingTextMessage, false, message.sentTimestamp!!) { }
+        message.isMms = false
         // Send it
         MessageSender.send(message, thread.address)
         // Send a typing stopped message
@@ -927,6 +928,7 @@ class ConversationActivityV2 : PassphraseRequiredActionBarActivity(), InputBarDe
         if (isShowingAttachmentOptions) { toggleAttachmentOptions() }
         // Put the message in the database
         message.id = DatabaseFactory.getMmsDatabase(this).insertMessageOutbox(outgoingTextMessage, threadID, false) { }
+        message.isMms = true
         // Send it
         MessageSender.send(message, thread.address, attachments, quote, linkPreview)
         // Send a typing stopped message
@@ -1176,6 +1178,7 @@ class ConversationActivityV2 : PassphraseRequiredActionBarActivity(), InputBarDe
             val recipient: Recipient = messageRecord.recipient
             val message = VisibleMessage()
             message.id = messageRecord.getId()
+            message.isMms = messageRecord.isMms
             if (messageRecord.isOpenGroupInvitation) {
                 val openGroupInvitation = OpenGroupInvitation()
                 fromJSON(messageRecord.body)?.let { updateMessageData ->
@@ -1206,11 +1209,7 @@ class ConversationActivityV2 : PassphraseRequiredActionBarActivity(), InputBarDe
                 }
                 message.addSignalAttachments(mmsMessageRecord.slideDeck.asAttachments())
             }
-            val sentTimestamp = message.sentTimestamp
-            val sender = MessagingModuleConfiguration.shared.storage.getUserPublicKey()
-            if (sentTimestamp != null && sender != null) {
-                MessagingModuleConfiguration.shared.storage.markAsSending(sentTimestamp, sender)
-            }
+            MessagingModuleConfiguration.shared.storage.markAsSending(messageRecord.getId(), messageRecord.isMms)
             MessageSender.send(message, recipient.address)
         }
         endActionMode()
@@ -42,8 +42,10 @@ import org.session.libsession.messaging.sending_receiving.attachments.Attachment
 import org.session.libsession.messaging.sending_receiving.attachments.AttachmentTransferProgress;
 import org.session.libsession.messaging.sending_receiving.attachments.DatabaseAttachment;
 import org.session.libsession.messaging.sending_receiving.attachments.DatabaseAttachmentAudioExtras;
+import org.session.libsession.utilities.LinkedBlockingLifoQueue;
 import org.session.libsession.utilities.MediaTypes;
 import org.session.libsession.utilities.Util;
+import org.session.libsignal.utilities.ExecutorRegistry;
 import org.session.libsignal.utilities.ExternalStorageUtil;
 import org.session.libsignal.utilities.JsonUtil;
 import org.session.libsignal.utilities.Log;
@@ -149,7 +151,11 @@ public class AttachmentDatabase extends Database {
     "CREATE INDEX IF NOT EXISTS part_sticker_pack_id_index ON " + TABLE_NAME + " (" + STICKER_PACK_ID + ");",
   };
 
-  private final ExecutorService thumbnailExecutor = Util.newSingleThreadedLifoExecutor();
+  // Most recently requested thumbnails first, as those are the ones on screen
+  private final ExecutorService thumbnailExecutor = ExecutorRegistry.newSerialExecutor("AttachmentDatabase-thumbnails",
+                                                                                      ExecutorRegistry.BackpressurePolicy.CALLER_RUNS,
+                                                                                      new LinkedBlockingLifoQueue<>(256),
+                                                                                      Thread.MIN_PRIORITY);
 
   private final AttachmentSecret attachmentSecret;
 
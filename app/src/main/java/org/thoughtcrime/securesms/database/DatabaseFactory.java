@@ -55,6 +55,7 @@ public class DatabaseFactory {
   private final LokiBackupFilesDatabase lokiBackupFilesDatabase;
   private final SessionJobDatabase sessionJobDatabase;
   private final SessionContactDatabase sessionContactDatabase;
+  private final ReceiveJournalDatabase receiveJournalDatabase;
   private final Storage storage;
   private final DatabaseAttachmentProvider attachmentProvider;
 
@@ -151,6 +152,10 @@ public class DatabaseFactory {
   public static SessionContactDatabase getSessionContactDatabase(Context context) {
     return getInstance(context).sessionContactDatabase;
   }
+
+  public static ReceiveJournalDatabase getReceiveJournalDatabase(Context context) {
+    return getInstance(context).receiveJournalDatabase;
+  }
   // endregion
 
   // region Refactor
@@ -197,6 +202,7 @@ public class DatabaseFactory {
     this.attachmentProvider        = new DatabaseAttachmentProvider(context, databaseHelper);
     this.sessionJobDatabase        = new SessionJobDatabase(context, databaseHelper);
     this.sessionContactDatabase    = new SessionContactDatabase(context, databaseHelper);
+    this.receiveJournalDatabase    = new ReceiveJournalDatabase(context, databaseHelper);
   }
 
 }
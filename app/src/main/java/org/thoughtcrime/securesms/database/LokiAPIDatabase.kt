@@ -97,6 +97,12 @@ class LokiAPIDatabase(context: Context, helper: SQLCipherOpenHelper) : Database(
         public val groupPublicKey = "group_public_key"
         @JvmStatic
         val createClosedGroupPublicKeysTable = "CREATE TABLE $closedGroupPublicKeysTable ($groupPublicKey STRING PRIMARY KEY)"
+        // Configuration sync digests
+        private val configurationSyncDigestTable = "configuration_sync_digest_table"
+        private val configurationEntry = "configuration_entry"
+        private val configurationDigest = "configuration_digest"
+        @JvmStatic
+        val createConfigurationSyncDigestTableCommand = "CREATE TABLE $configurationSyncDigestTable ($configurationEntry STRING PRIMARY KEY, $configurationDigest STRING)"
 
         // region Deprecated
         private val deviceLinkCache = "loki_pairing_authorisation_cache"
@@ -441,6 +447,46 @@ class LokiAPIDatabase(context: Context, helper: SQLCipherOpenHelper) : Database(
         val database = databaseHelper.writableDatabase
         database.delete(closedGroupPublicKeysTable, "${Companion.groupPublicKey} = ?", wrap(groupPublicKey))
     }
+
+    /**
+     * Returns the digest of every entry in the last configuration message that was sent, keyed by entry.
+     */
+    fun getConfigurationSyncDigests(): Map<String, String> {
+        val database = databaseHelper.readableDatabase
+        return database.getAll(configurationSyncDigestTable, null, null) { cursor ->
+            Pair(cursor.getString(cursor.getColumnIndexOrThrow(configurationEntry)), cursor.getString(cursor.getColumnIndexOrThrow(configurationDigest)))
+        }.toMap()
+    }
+
+    /**
+     * Updates the digests of the entries in `newValue`, e.g. after a delta holding only those entries was sent.
+     */
+    fun mergeConfigurationSyncDigests(newValue: Map<String, String>) {
+        val database = databaseHelper.writableDatabase
+        database.beginTransaction()
+        try {
+            for ((entry, digest) in newValue) {
+                database.insertOrUpdate(configurationSyncDigestTable, wrap(mapOf( configurationEntry to entry, configurationDigest to digest )), "$configurationEntry = ?", wrap(entry))
+            }
+            database.setTransactionSuccessful()
+        } finally {
+            database.endTransaction()
+        }
+    }
+
+    fun setConfigurationSyncDigests(newValue: Map<String, String>) {
+        val database = databaseHelper.writableDatabase
+        database.beginTransaction()
+        try {
+            database.delete(configurationSyncDigestTable, null, null)
+            for ((entry, digest) in newValue) {
+                database.insert(configurationSyncDigestTable, null, wrap(mapOf( configurationEntry to entry, configurationDigest to digest )))
+            }
+            database.setTransactionSuccessful()
+        } finally {
+            database.endTransaction()
+        }
+    }
 }
 
 // region Convenience
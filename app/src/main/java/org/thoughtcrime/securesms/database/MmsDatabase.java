@@ -134,6 +134,7 @@ public class MmsDatabase extends MessagingDatabase {
     "CREATE INDEX IF NOT EXISTS mms_message_box_index ON " + TABLE_NAME + " (" + MESSAGE_BOX + ");",
     "CREATE INDEX IF NOT EXISTS mms_date_sent_index ON " + TABLE_NAME + " (" + DATE_SENT + ");",
     "CREATE INDEX IF NOT EXISTS mms_thread_date_index ON " + TABLE_NAME + " (" + THREAD_ID + ", " + DATE_RECEIVED + ");",
+    "CREATE INDEX IF NOT EXISTS mms_date_sent_address_index ON " + TABLE_NAME + " (" + DATE_SENT + ", " + ADDRESS + ");",
   };
 
   private static final String[] MMS_PROJECTION = new String[] {
@@ -239,6 +240,14 @@ public class MmsDatabase extends MessagingDatabase {
     return isOutgoing;
   }
 
+  public boolean isOutgoingMessageWithId(long messageId) {
+    SQLiteDatabase database = databaseHelper.getReadableDatabase();
+
+    try (Cursor cursor = database.query(TABLE_NAME, new String[] { MESSAGE_BOX }, ID_WHERE, new String[] { String.valueOf(messageId) }, null, null, null)) {
+      return cursor.moveToFirst() && Types.isOutgoingMessageType(cursor.getLong(0));
+    }
+  }
+
   public void incrementReceiptCount(SyncMessageId messageId, long timestamp, boolean deliveryReceipt, boolean readReceipt) {
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
     Cursor         cursor   = null;
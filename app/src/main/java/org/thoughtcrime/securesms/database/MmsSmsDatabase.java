@@ -34,6 +34,8 @@ import org.thoughtcrime.securesms.database.model.MessageRecord;
 import java.util.HashSet;
 import java.util.Set;
 
+import kotlin.Pair;
+
 public class MmsSmsDatabase extends Database {
 
   @SuppressWarnings("unused")
@@ -110,6 +112,52 @@ public class MmsSmsDatabase extends Database {
     return getMessageFor(timestamp, author.serialize());
   }
 
+  /**
+   * Finds the message sent at {@code timestamp} by {@code serializedAuthor} by querying the SMS and MMS
+   * tables directly on their (date sent, address) indexes, rather than filtering the conversation union.
+   * Our own messages are stored with the recipient's address, so for those we match on the timestamp
+   * and keep the first outgoing row.
+   *
+   * @return the message's ID and whether it's an MMS, or null if there's no such message
+   */
+  public @Nullable Pair<Long, Boolean> getMessageIdFor(long timestamp, String serializedAuthor) {
+    SQLiteDatabase database    = databaseHelper.getReadableDatabase();
+    boolean        isOwnNumber = Util.isOwnNumber(context, serializedAuthor);
+
+    Long smsId = getMessageIdFor(database, SmsDatabase.TABLE_NAME, SmsDatabase.DATE_SENT, SmsDatabase.TYPE, timestamp, serializedAuthor, isOwnNumber);
+    if (smsId != null) return new Pair<>(smsId, false);
+
+    Long mmsId = getMessageIdFor(database, MmsDatabase.TABLE_NAME, MmsDatabase.DATE_SENT, MmsDatabase.MESSAGE_BOX, timestamp, serializedAuthor, isOwnNumber);
+    if (mmsId != null) return new Pair<>(mmsId, true);
+
+    return null;
+  }
+
+  private @Nullable Long getMessageIdFor(SQLiteDatabase database, String table, String dateSentColumn, String typeColumn,
+                                         long timestamp, String serializedAuthor, boolean isOwnNumber)
+  {
+    if (isOwnNumber) {
+      String[] columns = new String[] { MmsSmsColumns.ID, typeColumn };
+      String[] args    = new String[] { String.valueOf(timestamp) };
+
+      try (Cursor cursor = database.query(table, columns, dateSentColumn + " = ?", args, null, null, null)) {
+        while (cursor.moveToNext()) {
+          if (MmsSmsColumns.Types.isOutgoingMessageType(cursor.getLong(1))) return cursor.getLong(0);
+        }
+      }
+    } else {
+      String[] columns   = new String[] { MmsSmsColumns.ID };
+      String   selection = dateSentColumn + " = ? AND " + MmsSmsColumns.ADDRESS + " = ?";
+      String[] args      = new String[] { String.valueOf(timestamp), serializedAuthor };
+
+      try (Cursor cursor = database.query(table, columns, selection, args, null, null, null, "1")) {
+        if (cursor.moveToFirst()) return cursor.getLong(0);
+      }
+    }
+
+    return null;
+  }
+
   public Cursor getConversation(long threadId, long offset, long limit) {
     String order     = MmsSmsColumns.NORMALIZED_DATE_SENT + " DESC";
     String selection = MmsSmsColumns.THREAD_ID + " = " + threadId;
@@ -0,0 +1,90 @@
+package org.thoughtcrime.securesms.database
+
+import android.content.ContentValues
+import android.content.Context
+import androidx.core.database.getLongOrNull
+import androidx.core.database.getStringOrNull
+import net.sqlcipher.Cursor
+import org.session.libsession.messaging.jobs.MessageReceiveJob
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper
+
+/**
+ * An append-only journal of raw received envelopes. Envelopes from a poll are written in a single transaction and the whole
+ * batch is truncated once every envelope in it has been processed, rather than each `MessageReceiveJob` being inserted into
+ * and deleted from `SessionJobDatabase` individually. Whatever is left in the journal on startup is replayed.
+ */
+class ReceiveJournalDatabase(context: Context, helper: SQLCipherOpenHelper) : Database(context, helper) {
+
+    companion object {
+        private const val receiveJournalTable = "session_receive_journal"
+        const val jobID = "job_id"
+        const val batchID = "batch_id"
+        const val data = "data"
+        const val openGroupMessageServerID = "open_group_message_server_id"
+        const val openGroupID = "open_group_id"
+        @JvmStatic val createReceiveJournalTableCommand =
+            "CREATE TABLE $receiveJournalTable " +
+                "($jobID INTEGER PRIMARY KEY, " +
+                "$batchID INTEGER NOT NULL, " +
+                "$data BLOB NOT NULL, " +
+                "$openGroupMessageServerID INTEGER DEFAULT NULL, " +
+                "$openGroupID TEXT DEFAULT NULL);"
+        @JvmStatic val createBatchIDIndexCommand =
+            "CREATE INDEX IF NOT EXISTS receive_journal_batch_id_index ON $receiveJournalTable ($batchID);"
+    }
+
+    fun append(batchID: Long, jobs: List<MessageReceiveJob>) {
+        val database = databaseHelper.writableDatabase
+        database.beginTransaction()
+        try {
+            val contentValues = ContentValues(5)
+            for (job in jobs) {
+                contentValues.clear()
+                contentValues.put(jobID, job.id!!)
+                contentValues.put(Companion.batchID, batchID)
+                contentValues.put(data, job.data)
+                contentValues.put(openGroupMessageServerID, job.openGroupMessageServerID)
+                contentValues.put(openGroupID, job.openGroupID)
+                database.insert(receiveJournalTable, null, contentValues)
+            }
+            database.setTransactionSuccessful()
+        } finally {
+            database.endTransaction()
+        }
+    }
+
+    fun truncate(batchID: Long) {
+        databaseHelper.writableDatabase.delete(receiveJournalTable, "${Companion.batchID} = ?", arrayOf( batchID.toString() ))
+    }
+
+    /**
+     * Returns the journaled jobs keyed by the batch they were written in, in the order they were received.
+     */
+    fun getAll(): List<Pair<Long, MessageReceiveJob>> {
+        val database = databaseHelper.readableDatabase
+        val result = mutableListOf<Pair<Long, MessageReceiveJob>>()
+        database.query(receiveJournalTable, null, null, null, null, null, "$jobID ASC").use { cursor ->
+            while (cursor.moveToNext()) {
+                result.add(cursor.getLong(batchID) to jobFromCursor(cursor))
+            }
+        }
+        return result
+    }
+
+    fun getJob(jobID: String): MessageReceiveJob? {
+        val database = databaseHelper.readableDatabase
+        return database.get(receiveJournalTable, "${Companion.jobID} = ?", arrayOf( jobID )) { cursor ->
+            jobFromCursor(cursor)
+        }
+    }
+
+    private fun jobFromCursor(cursor: Cursor): MessageReceiveJob {
+        val job = MessageReceiveJob(
+            cursor.getBlob(cursor.getColumnIndexOrThrow(data)),
+            cursor.getLongOrNull(cursor.getColumnIndexOrThrow(openGroupMessageServerID)),
+            cursor.getStringOrNull(openGroupID)
+        )
+        job.id = cursor.getString(jobID)
+        return job
+    }
+}
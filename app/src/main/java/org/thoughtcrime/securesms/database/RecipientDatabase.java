@@ -24,7 +24,10 @@ import org.session.libsignal.utilities.Log;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class RecipientDatabase extends Database {
 
@@ -95,10 +98,38 @@ public class RecipientDatabase extends Database {
           UNIDENTIFIED_ACCESS_MODE + " INTEGER DEFAULT 0, " +
           FORCE_SMS_SELECTION + " INTEGER DEFAULT 0);";
 
+  private final Set<String> blockedAddresses = Collections.newSetFromMap(new ConcurrentHashMap<>());
+  private volatile boolean  blockedAddressesLoaded;
+
   public RecipientDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
   }
 
+  /**
+   * Checks the in-memory blocked set rather than resolving a {@link Recipient}. The set is loaded
+   * from the database once and then kept in sync by {@link #setBlocked(Recipient, boolean)}.
+   */
+  public boolean isBlocked(@NonNull Address address) {
+    if (!blockedAddressesLoaded) loadBlockedAddresses();
+    return blockedAddresses.contains(address.serialize());
+  }
+
+  public void loadBlockedAddresses() {
+    synchronized (blockedAddresses) {
+      if (blockedAddressesLoaded) return;
+
+      SQLiteDatabase database = databaseHelper.getReadableDatabase();
+
+      try (Cursor cursor = database.query(TABLE_NAME, new String[] {ADDRESS}, BLOCK + " = 1", null, null, null, null)) {
+        while (cursor != null && cursor.moveToNext()) {
+          blockedAddresses.add(cursor.getString(cursor.getColumnIndexOrThrow(ADDRESS)));
+        }
+      }
+
+      blockedAddressesLoaded = true;
+    }
+  }
+
   public RecipientReader getRecipientsWithNotificationChannels() {
     SQLiteDatabase database = databaseHelper.getReadableDatabase();
     Cursor         cursor   = database.query(TABLE_NAME, new String[] {ID, ADDRESS}, NOTIFICATION_CHANNEL  + " NOT NULL",
@@ -205,6 +236,11 @@ public class RecipientDatabase extends Database {
     values.put(BLOCK, blocked ? 1 : 0);
     updateOrInsert(recipient.getAddress(), values);
     recipient.resolve().setBlocked(blocked);
+
+    synchronized (blockedAddresses) {
+      if (blocked) blockedAddresses.add(recipient.getAddress().serialize());
+      else         blockedAddresses.remove(recipient.getAddress().serialize());
+    }
   }
 
   public void setMuted(@NonNull Recipient recipient, long until) {
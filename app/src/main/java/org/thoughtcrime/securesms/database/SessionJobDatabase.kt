@@ -5,6 +5,7 @@ import android.content.Context
 import net.sqlcipher.Cursor
 import org.session.libsession.messaging.jobs.*
 import org.session.libsession.messaging.utilities.Data
+import org.session.libsession.messaging.utilities.KryoPool
 import org.session.libsignal.utilities.Log
 import org.thoughtcrime.securesms.database.*
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper
@@ -18,35 +19,107 @@ class SessionJobDatabase(context: Context, helper: SQLCipherOpenHelper) : Databa
         const val jobID = "job_id"
         const val jobType = "job_type"
         const val failureCount = "failure_count"
+        // Holds the job data as a BLOB in the binary format of `KryoPool.serializeData`, or, for rows written before
+        // that format was introduced, as JSON TEXT. SQLite keeps BLOBs as they are regardless of the column's type, so
+        // the two can be told apart per row. JSON rows are rewritten as BLOBs when the job is next persisted or resumed.
         const val serializedData = "serialized_data"
         @JvmStatic val createSessionJobTableCommand
             = "CREATE TABLE $sessionJobTable ($jobID INTEGER PRIMARY KEY, $jobType STRING, $failureCount INTEGER DEFAULT 0, $serializedData TEXT);"
+        // Copies of the fields in `JobMetadata`, so that jobs can be looked up without deserializing them
+        const val attachmentID = "attachment_id"
+        const val threadID = "thread_id"
+        const val messageID = "message_id"
+        const val destination = "destination"
+        const val metadataVersion = "metadata_version"
+        @JvmStatic val addMetadataColumnsCommands = arrayOf(
+            "ALTER TABLE $sessionJobTable ADD COLUMN $attachmentID INTEGER DEFAULT NULL;",
+            "ALTER TABLE $sessionJobTable ADD COLUMN $threadID INTEGER DEFAULT NULL;",
+            "ALTER TABLE $sessionJobTable ADD COLUMN $messageID INTEGER DEFAULT NULL;",
+            "ALTER TABLE $sessionJobTable ADD COLUMN $destination TEXT DEFAULT NULL;",
+            "ALTER TABLE $sessionJobTable ADD COLUMN $metadataVersion INTEGER DEFAULT 0;"
+        )
+        @JvmStatic val createMetadataIndexCommands = arrayOf(
+            "CREATE INDEX IF NOT EXISTS session_job_attachment_id_index ON $sessionJobTable ($attachmentID, $jobType);",
+            "CREATE INDEX IF NOT EXISTS session_job_thread_id_index ON $sessionJobTable ($threadID, $jobType);",
+            "CREATE INDEX IF NOT EXISTS session_job_message_id_index ON $sessionJobTable ($messageID);",
+            "CREATE INDEX IF NOT EXISTS session_job_destination_index ON $sessionJobTable ($destination);"
+        )
+        // When a job that failed should be retried, so that retries keep their schedule across restarts
+        const val nextRunTimestamp = "next_run_timestamp"
+        @JvmStatic val addNextRunTimestampCommand
+            = "ALTER TABLE $sessionJobTable ADD COLUMN $nextRunTimestamp INTEGER DEFAULT NULL;"
     }
 
-    fun persistJob(job: Job) {
-        val database = databaseHelper.writableDatabase
-        val contentValues = ContentValues(4)
-        contentValues.put(jobID, job.id!!)
-        contentValues.put(jobType, job.getFactoryKey())
-        contentValues.put(failureCount, job.failureCount)
-        contentValues.put(serializedData, SessionJobHelper.dataSerializer.serialize(job.serialize()))
-        database.insertOrUpdate(sessionJobTable, contentValues, "$jobID = ?", arrayOf( job.id!! ))
+    private val writeBehindStore = WriteBehindJobStore(object : WriteBehindJobStore.Writer {
+
+        override fun write(upserts: List<WriteBehindJobStore.Entry>, deletedJobIDs: List<String>) {
+            val database = databaseHelper.writableDatabase
+            database.beginTransaction()
+            try {
+                for (entry in upserts) {
+                    val contentValues = ContentValues(10)
+                    contentValues.put(jobID, entry.id)
+                    contentValues.put(jobType, entry.factoryKey)
+                    contentValues.put(failureCount, entry.failureCount)
+                    contentValues.put(serializedData, KryoPool.serializeData(entry.data))
+                    contentValues.put(attachmentID, entry.metadata.attachmentID)
+                    contentValues.put(threadID, entry.metadata.threadID)
+                    contentValues.put(messageID, entry.metadata.messageID)
+                    contentValues.put(destination, entry.metadata.destination)
+                    contentValues.put(metadataVersion, JobMetadata.version)
+                    if (entry.nextRunTimestamp != null) { contentValues.put(nextRunTimestamp, entry.nextRunTimestamp) }
+                    database.insertOrUpdate(sessionJobTable, contentValues, "$jobID = ?", arrayOf( entry.id ))
+                }
+                for (id in deletedJobIDs) {
+                    database.delete(sessionJobTable, "$jobID = ?", arrayOf( id ))
+                }
+                database.setTransactionSuccessful()
+            } finally {
+                database.endTransaction()
+            }
+        }
+    })
+
+    /**
+     * Jobs are written behind (see `WriteBehindJobStore`); everything that reads the job table flushes first.
+     */
+    fun persistJob(job: Job, nextRunTimestamp: Long? = null) {
+        writeBehindStore.persist(job, nextRunTimestamp)
+    }
+
+    /**
+     * Like `persistJob`, but only returns once the job is on disk. Returns whether it got there.
+     */
+    fun persistJobNow(job: Job, nextRunTimestamp: Long): Boolean {
+        writeBehindStore.persist(job, nextRunTimestamp)
+        return writeBehindStore.flush()
     }
 
     fun markJobAsSucceeded(jobID: String) {
-        databaseHelper.writableDatabase.delete(sessionJobTable, "${Companion.jobID} = ?", arrayOf( jobID ))
+        writeBehindStore.delete(jobID)
     }
 
     fun markJobAsFailedPermanently(jobID: String) {
-        databaseHelper.writableDatabase.delete(sessionJobTable, "${Companion.jobID} = ?", arrayOf( jobID ))
+        writeBehindStore.delete(jobID)
+    }
+
+    /**
+     * Writes out pending job changes in the background, so that they're on disk before the app is likely to be killed.
+     */
+    fun flushPendingWrites() {
+        writeBehindStore.requestFlush()
     }
 
     fun getAllPendingJobs(type: String): Map<String, Job?> {
+        writeBehindStore.flush()
         val database = databaseHelper.readableDatabase
         return database.getAll(sessionJobTable, "$jobType = ?", arrayOf( type )) { cursor ->
             val jobID = cursor.getString(jobID)
             try {
-                jobID to jobFromCursor(cursor)
+                val job = jobFromCursor(cursor)
+                // Move jobs that are still around from before the binary format or the current metadata over to them
+                if (job != null && !isCurrent(cursor)) { writeBehindStore.persist(job) }
+                jobID to job
             } catch (e: Exception) {
                 Log.e("Loki", "Error deserializing job of type: $type.", e)
                 jobID to null
@@ -54,17 +127,27 @@ class SessionJobDatabase(context: Context, helper: SQLCipherOpenHelper) : Databa
         }.toMap()
     }
 
+    /**
+     * Returns when each job that's waiting to be retried should next run, keyed by job ID.
+     */
+    fun getJobNextRunTimestamps(): Map<String, Long> {
+        writeBehindStore.flush()
+        val database = databaseHelper.readableDatabase
+        return database.getAll(sessionJobTable, "$nextRunTimestamp IS NOT NULL", null) { cursor ->
+            cursor.getString(jobID) to cursor.getLong(nextRunTimestamp)
+        }.toMap()
+    }
+
     fun getAttachmentUploadJob(attachmentID: Long): AttachmentUploadJob? {
+        writeBehindStore.flush()
         val database = databaseHelper.readableDatabase
-        val result = mutableListOf<AttachmentUploadJob>()
-        database.getAll(sessionJobTable, "$jobType = ?", arrayOf( AttachmentUploadJob.KEY )) { cursor ->
-            val job = jobFromCursor(cursor) as AttachmentUploadJob?
-            if (job != null) { result.add(job) }
+        return database.get(sessionJobTable, "${Companion.attachmentID} = ? AND $jobType = ?", arrayOf( attachmentID.toString(), AttachmentUploadJob.KEY )) { cursor ->
+            jobFromCursor(cursor) as AttachmentUploadJob?
         }
-        return result.firstOrNull { job -> job.attachmentID == attachmentID }
     }
 
     fun getMessageSendJob(messageSendJobID: String): MessageSendJob? {
+        writeBehindStore.flush()
         val database = databaseHelper.readableDatabase
         return database.get(sessionJobTable, "$jobID = ? AND $jobType = ?", arrayOf( messageSendJobID, MessageSendJob.KEY )) { cursor ->
             jobFromCursor(cursor) as MessageSendJob?
@@ -72,6 +155,7 @@ class SessionJobDatabase(context: Context, helper: SQLCipherOpenHelper) : Databa
     }
 
     fun getMessageReceiveJob(messageReceiveJobID: String): MessageReceiveJob? {
+        writeBehindStore.flush()
         val database = databaseHelper.readableDatabase
         return database.get(sessionJobTable, "$jobID = ? AND $jobType = ?", arrayOf( messageReceiveJobID, MessageReceiveJob.KEY )) { cursor ->
             jobFromCursor(cursor) as MessageReceiveJob?
@@ -79,34 +163,18 @@ class SessionJobDatabase(context: Context, helper: SQLCipherOpenHelper) : Databa
     }
 
     fun cancelPendingMessageSendJobs(threadID: Long) {
+        writeBehindStore.flush()
         val database = databaseHelper.writableDatabase
-        val attachmentUploadJobKeys = mutableListOf<String>()
-        database.getAll(sessionJobTable, "$jobType = ?", arrayOf( AttachmentUploadJob.KEY )) { cursor ->
-            val job = jobFromCursor(cursor) as AttachmentUploadJob?
-            if (job != null && job.threadID == threadID.toString()) { attachmentUploadJobKeys.add(job.id!!) }
-        }
-        val messageSendJobKeys = mutableListOf<String>()
-        database.getAll(sessionJobTable, "$jobType = ?", arrayOf( MessageSendJob.KEY )) { cursor ->
-            val job = jobFromCursor(cursor) as MessageSendJob?
-            if (job != null && job.message.threadID == threadID) { messageSendJobKeys.add(job.id!!) }
-        }
-        if (attachmentUploadJobKeys.isNotEmpty()) {
-            val attachmentUploadJobKeysAsString = attachmentUploadJobKeys.joinToString(", ")
-            database.delete(sessionJobTable, "${Companion.jobType} = ? AND ${Companion.jobID} IN (?)",
-                arrayOf( AttachmentUploadJob.KEY, attachmentUploadJobKeysAsString ))
-        }
-        if (messageSendJobKeys.isNotEmpty()) {
-            val messageSendJobKeysAsString = messageSendJobKeys.joinToString(", ")
-            database.delete(sessionJobTable, "${Companion.jobType} = ? AND ${Companion.jobID} IN (?)",
-                arrayOf( MessageSendJob.KEY, messageSendJobKeysAsString ))
-        }
+        database.delete(sessionJobTable, "${Companion.threadID} = ? AND $jobType IN (?, ?)",
+            arrayOf( threadID.toString(), AttachmentUploadJob.KEY, MessageSendJob.KEY ))
     }
 
     fun isJobCanceled(job: Job): Boolean {
+        writeBehindStore.flush()
         val database = databaseHelper.readableDatabase
         var cursor: android.database.Cursor? = null
         try {
-            cursor = database.rawQuery("SELECT * FROM $sessionJobTable WHERE $jobID = ?", arrayOf( job.id!! ))
+            cursor = database.query(sessionJobTable, arrayOf( jobID ), "$jobID = ?", arrayOf( job.id!! ), null, null, null)
             return cursor == null || !cursor.moveToFirst()
         } catch (e: Exception) {
             // Do nothing
@@ -118,12 +186,25 @@ class SessionJobDatabase(context: Context, helper: SQLCipherOpenHelper) : Databa
 
     private fun jobFromCursor(cursor: Cursor): Job? {
         val type = cursor.getString(jobType)
-        val data = SessionJobHelper.dataSerializer.deserialize(cursor.getString(serializedData))
+        val data = if (isBinary(cursor)) {
+            KryoPool.deserializeData(cursor.getBlob(cursor.getColumnIndexOrThrow(serializedData)))
+        } else {
+            SessionJobHelper.dataSerializer.deserialize(cursor.getString(serializedData))
+        }
         val job = SessionJobHelper.sessionJobInstantiator.instantiate(type, data) ?: return null
         job.id = cursor.getString(jobID)
+        writeBehindStore.markPersisted(job.id!!)
         job.failureCount = cursor.getInt(failureCount)
         return job
     }
+
+    private fun isBinary(cursor: Cursor): Boolean {
+        return cursor.getType(cursor.getColumnIndexOrThrow(serializedData)) == android.database.Cursor.FIELD_TYPE_BLOB
+    }
+
+    private fun isCurrent(cursor: Cursor): Boolean {
+        return isBinary(cursor) && cursor.getInt(metadataVersion) >= JobMetadata.version
+    }
 }
 
 object SessionJobHelper {
@@ -88,7 +88,8 @@ public class SmsDatabase extends MessagingDatabase {
     "CREATE INDEX IF NOT EXISTS sms_read_and_notified_and_thread_id_index ON " + TABLE_NAME + "(" + READ + "," + NOTIFIED + ","  + THREAD_ID + ");",
     "CREATE INDEX IF NOT EXISTS sms_type_index ON " + TABLE_NAME + " (" + TYPE + ");",
     "CREATE INDEX IF NOT EXISTS sms_date_sent_index ON " + TABLE_NAME + " (" + DATE_SENT + ");",
-    "CREATE INDEX IF NOT EXISTS sms_thread_date_index ON " + TABLE_NAME + " (" + THREAD_ID + ", " + DATE_RECEIVED + ");"
+    "CREATE INDEX IF NOT EXISTS sms_thread_date_index ON " + TABLE_NAME + " (" + THREAD_ID + ", " + DATE_RECEIVED + ");",
+    "CREATE INDEX IF NOT EXISTS sms_date_sent_address_index ON " + TABLE_NAME + " (" + DATE_SENT + ", " + ADDRESS + ");"
   };
 
   private static final String[] MESSAGE_PROJECTION = new String[] {
@@ -239,6 +240,14 @@ public class SmsDatabase extends MessagingDatabase {
     return isOutgoing;
   }
 
+  public boolean isOutgoingMessageWithId(long messageId) {
+    SQLiteDatabase database = databaseHelper.getReadableDatabase();
+
+    try (Cursor cursor = database.query(TABLE_NAME, new String[] { TYPE }, ID_WHERE, new String[] { String.valueOf(messageId) }, null, null, null)) {
+      return cursor.moveToFirst() && Types.isOutgoingMessageType(cursor.getLong(0));
+    }
+  }
+
   public void incrementReceiptCount(SyncMessageId messageId, boolean deliveryReceipt, boolean readReceipt) {
     SQLiteDatabase database     = databaseHelper.getWritableDatabase();
     Cursor         cursor       = null;
@@ -70,6 +70,18 @@ class Storage(context: Context, helper: SQLCipherOpenHelper) : Database(context,
         ApplicationContext.getInstance(context).jobManager.add(RetrieveProfileAvatarJob(ourRecipient, newValue))
     }
 
+    override fun <T> runInTransaction(block: () -> T): T {
+        val database = databaseHelper.writableDatabase
+        database.beginTransaction()
+        try {
+            val result = block()
+            database.setTransactionSuccessful()
+            return result
+        } finally {
+            database.endTransaction()
+        }
+    }
+
     override fun getOrGenerateRegistrationID(): Int {
         var registrationID = TextSecurePreferences.getLocalRegistrationId(context)
         if (registrationID == 0) {
@@ -161,6 +173,18 @@ class Storage(context: Context, helper: SQLCipherOpenHelper) : Database(context,
         DatabaseFactory.getSessionJobDatabase(context).persistJob(job)
     }
 
+    override fun persistJob(job: Job, nextRunTimestamp: Long) {
+        DatabaseFactory.getSessionJobDatabase(context).persistJob(job, nextRunTimestamp)
+    }
+
+    override fun persistJobNow(job: Job, nextRunTimestamp: Long): Boolean {
+        return DatabaseFactory.getSessionJobDatabase(context).persistJobNow(job, nextRunTimestamp)
+    }
+
+    override fun getJobNextRunTimestamps(): Map<String, Long> {
+        return DatabaseFactory.getSessionJobDatabase(context).getJobNextRunTimestamps()
+    }
+
     override fun markJobAsSucceeded(jobId: String) {
         DatabaseFactory.getSessionJobDatabase(context).markJobAsSucceeded(jobId)
     }
@@ -183,6 +207,7 @@ class Storage(context: Context, helper: SQLCipherOpenHelper) : Database(context,
 
     override fun getMessageReceiveJob(messageReceiveJobID: String): MessageReceiveJob? {
         return DatabaseFactory.getSessionJobDatabase(context).getMessageReceiveJob(messageReceiveJobID)
+            ?: DatabaseFactory.getReceiveJournalDatabase(context).getJob(messageReceiveJobID)
     }
 
     override fun resumeMessageSendJobIfNeeded(messageSendJobID: String) {
@@ -194,6 +219,18 @@ class Storage(context: Context, helper: SQLCipherOpenHelper) : Database(context,
         return DatabaseFactory.getSessionJobDatabase(context).isJobCanceled(job)
     }
 
+    override fun appendToReceiveJournal(batchID: Long, jobs: List<MessageReceiveJob>) {
+        DatabaseFactory.getReceiveJournalDatabase(context).append(batchID, jobs)
+    }
+
+    override fun truncateReceiveJournal(batchID: Long) {
+        DatabaseFactory.getReceiveJournalDatabase(context).truncate(batchID)
+    }
+
+    override fun getReceiveJournal(): List<Pair<Long, MessageReceiveJob>> {
+        return DatabaseFactory.getReceiveJournalDatabase(context).getAll()
+    }
+
     override fun getAuthToken(room: String, server: String): String? {
         val id = "$server.$room"
         return DatabaseFactory.getLokiAPIDatabase(context).getAuthToken(id)
@@ -285,61 +322,67 @@ class Storage(context: Context, helper: SQLCipherOpenHelper) : Database(context,
 
     override fun getMessageIdInDatabase(timestamp: Long, author: String): Long? {
         val database = DatabaseFactory.getMmsSmsDatabase(context)
-        val address = Address.fromSerialized(author)
-        return database.getMessageFor(timestamp, address)?.getId()
+        return database.getMessageIdFor(timestamp, author)?.first
     }
 
     override fun markAsSent(timestamp: Long, author: String) {
         val database = DatabaseFactory.getMmsSmsDatabase(context)
-        val messageRecord = database.getMessageFor(timestamp, author) ?: return
-        if (messageRecord.isMms) {
-            val mmsDatabase = DatabaseFactory.getMmsDatabase(context)
-            mmsDatabase.markAsSent(messageRecord.getId(), true)
+        val (messageID, isMms) = database.getMessageIdFor(timestamp, author) ?: return
+        markAsSent(messageID, isMms)
+    }
+
+    override fun markAsSent(messageID: Long, isMms: Boolean) {
+        if (isMms) {
+            DatabaseFactory.getMmsDatabase(context).markAsSent(messageID, true)
         } else {
-            val smsDatabase = DatabaseFactory.getSmsDatabase(context)
-            smsDatabase.markAsSent(messageRecord.getId(), true)
+            DatabaseFactory.getSmsDatabase(context).markAsSent(messageID, true)
         }
     }
 
     override fun markAsSending(timestamp: Long, author: String) {
         val database = DatabaseFactory.getMmsSmsDatabase(context)
-        val messageRecord = database.getMessageFor(timestamp, author) ?: return
-        if (messageRecord.isMms) {
-            val mmsDatabase = DatabaseFactory.getMmsDatabase(context)
-            mmsDatabase.markAsSending(messageRecord.getId())
+        val (messageID, isMms) = database.getMessageIdFor(timestamp, author) ?: return
+        markAsSending(messageID, isMms)
+    }
+
+    override fun markAsSending(messageID: Long, isMms: Boolean) {
+        if (isMms) {
+            DatabaseFactory.getMmsDatabase(context).markAsSending(messageID)
         } else {
-            val smsDatabase = DatabaseFactory.getSmsDatabase(context)
-            smsDatabase.markAsSending(messageRecord.getId())
-            messageRecord.isPending
+            DatabaseFactory.getSmsDatabase(context).markAsSending(messageID)
         }
     }
 
     override fun markUnidentified(timestamp: Long, author: String) {
         val database = DatabaseFactory.getMmsSmsDatabase(context)
-        val messageRecord = database.getMessageFor(timestamp, author) ?: return
-        if (messageRecord.isMms) {
-            val mmsDatabase = DatabaseFactory.getMmsDatabase(context)
-            mmsDatabase.markUnidentified(messageRecord.getId(), true)
+        val (messageID, isMms) = database.getMessageIdFor(timestamp, author) ?: return
+        markUnidentified(messageID, isMms)
+    }
+
+    override fun markUnidentified(messageID: Long, isMms: Boolean) {
+        if (isMms) {
+            DatabaseFactory.getMmsDatabase(context).markUnidentified(messageID, true)
         } else {
-            val smsDatabase = DatabaseFactory.getSmsDatabase(context)
-            smsDatabase.markUnidentified(messageRecord.getId(), true)
+            DatabaseFactory.getSmsDatabase(context).markUnidentified(messageID, true)
         }
     }
 
     override fun setErrorMessage(timestamp: Long, author: String, error: Exception) {
         val database = DatabaseFactory.getMmsSmsDatabase(context)
-        val messageRecord = database.getMessageFor(timestamp, author) ?: return
-        if (messageRecord.isMms) {
-            val mmsDatabase = DatabaseFactory.getMmsDatabase(context)
-            mmsDatabase.markAsSentFailed(messageRecord.getId())
+        val (messageID, isMms) = database.getMessageIdFor(timestamp, author) ?: return
+        setErrorMessage(messageID, isMms, error)
+    }
+
+    override fun setErrorMessage(messageID: Long, isMms: Boolean, error: Exception) {
+        if (isMms) {
+            DatabaseFactory.getMmsDatabase(context).markAsSentFailed(messageID)
         } else {
-            val smsDatabase = DatabaseFactory.getSmsDatabase(context)
-            smsDatabase.markAsSentFailed(messageRecord.getId())
+            DatabaseFactory.getSmsDatabase(context).markAsSentFailed(messageID)
         }
         if (error.localizedMessage != null) {
-            DatabaseFactory.getLokiMessageDatabase(context).setErrorMessage(messageRecord.getId(), error.localizedMessage!!)
+            DatabaseFactory.getLokiMessageDatabase(context).setErrorMessage(messageID, error.localizedMessage!!)
         } else {
-            DatabaseFactory.getLokiMessageDatabase(context).setErrorMessage(messageRecord.getId(), error.javaClass.simpleName)
+            DatabaseFactory.getLokiMessageDatabase(context).setErrorMessage(messageID, error.javaClass.simpleName)
         }
     }
 
@@ -465,6 +508,10 @@ class Storage(context: Context, helper: SQLCipherOpenHelper) : Database(context,
         DatabaseFactory.getRecipientDatabase(context).setProfileSharing(recipient, value)
     }
 
+    override fun isBlocked(publicKey: String): Boolean {
+        return DatabaseFactory.getRecipientDatabase(context).isBlocked(Address.fromSerialized(publicKey))
+    }
+
     override fun getOrCreateThreadIdFor(address: Address): Long {
         val recipient = Recipient.from(context, address, false)
         return DatabaseFactory.getThreadDatabase(context).getOrCreateThreadIdFor(recipient)
@@ -528,6 +575,13 @@ class Storage(context: Context, helper: SQLCipherOpenHelper) : Database(context,
     override fun addContacts(contacts: List<ConfigurationMessage.Contact>) {
         val recipientDatabase = DatabaseFactory.getRecipientDatabase(context)
         val threadDatabase = DatabaseFactory.getThreadDatabase(context)
+        runInTransaction { addContacts(contacts, recipientDatabase, threadDatabase) }
+        if (contacts.isNotEmpty()) {
+            threadDatabase.notifyConversationListListeners()
+        }
+    }
+
+    private fun addContacts(contacts: List<ConfigurationMessage.Contact>, recipientDatabase: RecipientDatabase, threadDatabase: ThreadDatabase) {
         for (contact in contacts) {
             val address = Address.fromSerialized(contact.publicKey)
             val recipient = Recipient.from(context, address, true)
@@ -545,9 +599,6 @@ class Storage(context: Context, helper: SQLCipherOpenHelper) : Database(context,
             // create Thread if needed
             threadDatabase.getOrCreateThreadIdFor(recipient)
         }
-        if (contacts.isNotEmpty()) {
-            threadDatabase.notifyConversationListListeners()
-        }
     }
 
     override fun getLastUpdated(threadID: Long): Long {
@@ -571,9 +622,8 @@ class Storage(context: Context, helper: SQLCipherOpenHelper) : Database(context,
     override fun insertDataExtractionNotificationMessage(senderPublicKey: String, message: DataExtractionNotificationInfoMessage, sentTimestamp: Long) {
         val database = DatabaseFactory.getMmsDatabase(context)
         val address = fromSerialized(senderPublicKey)
-        val recipient = Recipient.from(context, address, false)
 
-        if (recipient.isBlocked) return
+        if (isBlocked(senderPublicKey)) return
 
         val mediaMessage = IncomingMediaMessage(address, sentTimestamp, -1,
                 0, false,
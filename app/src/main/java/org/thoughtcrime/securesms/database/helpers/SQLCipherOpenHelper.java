@@ -28,6 +28,7 @@ import org.thoughtcrime.securesms.database.LokiBackupFilesDatabase;
 import org.thoughtcrime.securesms.database.LokiMessageDatabase;
 import org.thoughtcrime.securesms.database.LokiThreadDatabase;
 import org.thoughtcrime.securesms.database.LokiUserDatabase;
+import org.thoughtcrime.securesms.database.ReceiveJournalDatabase;
 import org.thoughtcrime.securesms.database.SessionContactDatabase;
 import org.thoughtcrime.securesms.database.SessionJobDatabase;
 
@@ -58,9 +59,14 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
   private static final int lokiV24                          = 45;
   private static final int lokiV25                          = 46;
   private static final int lokiV26                          = 47;
+  private static final int lokiV27                          = 48;
+  private static final int lokiV28                          = 49;
+  private static final int lokiV29                          = 50;
+  private static final int lokiV30                          = 51;
+  private static final int lokiV31                          = 52;
 
   // Loki - onUpgrade(...) must be updated to use Loki version numbers if Signal makes any database changes
-  private static final int    DATABASE_VERSION = lokiV26;
+  private static final int    DATABASE_VERSION = lokiV31;
   private static final String DATABASE_NAME    = "signal.db";
 
   private final Context        context;
@@ -119,6 +125,7 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
     db.execSQL(LokiAPIDatabase.getCreateOpenGroupProfilePictureTableCommand());
     db.execSQL(LokiAPIDatabase.getCreateClosedGroupEncryptionKeyPairsTable());
     db.execSQL(LokiAPIDatabase.getCreateClosedGroupPublicKeysTable());
+    db.execSQL(LokiAPIDatabase.getCreateConfigurationSyncDigestTableCommand());
     db.execSQL(LokiMessageDatabase.getCreateMessageIDTableCommand());
     db.execSQL(LokiMessageDatabase.getCreateMessageToThreadMappingTableCommand());
     db.execSQL(LokiMessageDatabase.getCreateErrorMessageTableCommand());
@@ -127,9 +134,14 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
     db.execSQL(LokiUserDatabase.getCreateDisplayNameTableCommand());
     db.execSQL(LokiBackupFilesDatabase.getCreateTableCommand());
     db.execSQL(SessionJobDatabase.getCreateSessionJobTableCommand());
+    executeStatements(db, SessionJobDatabase.getAddMetadataColumnsCommands());
+    executeStatements(db, SessionJobDatabase.getCreateMetadataIndexCommands());
+    db.execSQL(SessionJobDatabase.getAddNextRunTimestampCommand());
     db.execSQL(LokiMessageDatabase.getUpdateMessageIDTableForType());
     db.execSQL(LokiMessageDatabase.getUpdateMessageMappingTable());
     db.execSQL(SessionContactDatabase.getCreateSessionContactTableCommand());
+    db.execSQL(ReceiveJournalDatabase.getCreateReceiveJournalTableCommand());
+    db.execSQL(ReceiveJournalDatabase.getCreateBatchIDIndexCommand());
 
     executeStatements(db, SmsDatabase.CREATE_INDEXS);
     executeStatements(db, MmsDatabase.CREATE_INDEXS);
@@ -296,6 +308,29 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
         db.execSQL(SessionContactDatabase.getCreateSessionContactTableCommand());
       }
 
+      if (oldVersion < lokiV27) {
+        db.execSQL(ReceiveJournalDatabase.getCreateReceiveJournalTableCommand());
+        db.execSQL(ReceiveJournalDatabase.getCreateBatchIDIndexCommand());
+      }
+
+      if (oldVersion < lokiV28) {
+        executeStatements(db, SmsDatabase.CREATE_INDEXS);
+        executeStatements(db, MmsDatabase.CREATE_INDEXS);
+      }
+
+      if (oldVersion < lokiV29) {
+        db.execSQL(LokiAPIDatabase.getCreateConfigurationSyncDigestTableCommand());
+      }
+
+      if (oldVersion < lokiV30) {
+        executeStatements(db, SessionJobDatabase.getAddMetadataColumnsCommands());
+        executeStatements(db, SessionJobDatabase.getCreateMetadataIndexCommands());
+      }
+
+      if (oldVersion < lokiV31) {
+        db.execSQL(SessionJobDatabase.getAddNextRunTimestampCommand());
+      }
+
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
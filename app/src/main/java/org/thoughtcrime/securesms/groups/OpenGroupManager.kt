@@ -9,13 +9,13 @@ import org.session.libsession.messaging.open_groups.OpenGroupAPIV2
 import org.session.libsession.messaging.open_groups.OpenGroupV2
 import org.session.libsession.messaging.sending_receiving.pollers.OpenGroupPollerV2
 import org.session.libsession.utilities.Util
+import org.session.libsignal.utilities.ExecutorRegistry
 import org.session.libsignal.utilities.ThreadUtils
 import org.thoughtcrime.securesms.database.DatabaseFactory
 import org.thoughtcrime.securesms.util.BitmapUtil
-import java.util.concurrent.Executors
 
 object OpenGroupManager {
-    private val executorService = Executors.newScheduledThreadPool(4)
+    private val executorService = ExecutorRegistry.scheduled
     private var pollers = mutableMapOf<String, OpenGroupPollerV2>() // One for each server
     private var isPolling = false
 
@@ -36,6 +36,7 @@ object OpenGroupManager {
             return true
         }
 
+    @Synchronized
     fun startPolling() {
         if (isPolling) { return }
         isPolling = true
@@ -49,6 +50,7 @@ object OpenGroupManager {
         }
     }
 
+    @Synchronized
     fun stopPolling() {
         pollers.forEach { it.value.stop() }
         pollers.clear()
@@ -87,11 +89,13 @@ object OpenGroupManager {
         }
         val openGroup = OpenGroupV2(server, room, info.name, publicKey)
         threadDB.setOpenGroupChat(openGroup, threadID)
-        // Start the poller if needed
-        pollers[server]?.startIfNeeded() ?: run {
-            val poller = OpenGroupPollerV2(server, executorService)
-            Util.runOnMain { poller.startIfNeeded() }
-            pollers[server] = poller
+        // Start the poller if needed. Open groups can be added concurrently when restoring from a configuration message.
+        synchronized(this) {
+            pollers[server]?.startIfNeeded() ?: run {
+                val poller = OpenGroupPollerV2(server, executorService)
+                Util.runOnMain { poller.startIfNeeded() }
+                pollers[server] = poller
+            }
         }
     }
 
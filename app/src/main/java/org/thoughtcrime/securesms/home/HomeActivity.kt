@@ -65,6 +65,10 @@ class HomeActivity : PassphraseRequiredActionBarActivity(), ConversationClickLis
     // region Lifecycle
     override fun onCreate(savedInstanceState: Bundle?, isReady: Boolean) {
         super.onCreate(savedInstanceState, isReady)
+        // Resume the jobs left over from the last launch before the pollers start adding new ones
+        if (TextSecurePreferences.getLocalNumber(this) != null) {
+            JobQueue.shared.resumePendingJobs()
+        }
         // Double check that the long poller is up
         (applicationContext as ApplicationContext).startPollingIfNeeded()
         // Set content view
@@ -135,7 +139,6 @@ class HomeActivity : PassphraseRequiredActionBarActivity(), ConversationClickLis
         val userPublicKey = TextSecurePreferences.getLocalNumber(this)
         if (userPublicKey != null) {
             OpenGroupManager.startPolling()
-            JobQueue.shared.resumePendingJobs()
         }
         IP2Country.configureIfNeeded(this)
         application.registerForFCMIfNeeded(false)
@@ -0,0 +1,83 @@
+package org.thoughtcrime.securesms.jobmanager;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups the pending jobs that are waiting on unmet constraints by their set of constraints, so
+ * that a constraint change only needs to look at the groups that include it, and each group's
+ * constraints only need to be checked once rather than once per job.
+ *
+ * Not thread safe; {@link JobController} only touches it while holding its lock.
+ */
+final class ConstraintIndex {
+
+  private Map<String, Group> blockedGroups = new HashMap<>();
+
+  /**
+   * @return A key that is the same for every job with the given constraints, in any order.
+   */
+  static @NonNull String getConstraintSetKey(@NonNull List<String> constraintKeys) {
+    if (constraintKeys.size() <= 1) {
+      return constraintKeys.isEmpty() ? "" : constraintKeys.get(0);
+    }
+
+    List<String> sorted = new ArrayList<>(constraintKeys);
+    Collections.sort(sorted);
+
+    StringBuilder key = new StringBuilder();
+    for (String constraintKey : sorted) {
+      key.append(constraintKey).append(',');
+    }
+    return key.toString();
+  }
+
+  /**
+   * Replaces the blocked groups with those found by a pass over every pending job.
+   */
+  void replace(@NonNull Map<String, Group> blockedGroups) {
+    this.blockedGroups = blockedGroups;
+  }
+
+  /**
+   * @return The blocked groups with at least one of the given constraints.
+   */
+  @NonNull List<Group> getGroupsWaitingOn(@NonNull Collection<String> constraintKeys) {
+    List<Group> groups = new ArrayList<>();
+
+    for (Group group : blockedGroups.values()) {
+      if (!Collections.disjoint(group.constraintKeys, constraintKeys)) {
+        groups.add(group);
+      }
+    }
+
+    return groups;
+  }
+
+  int getBlockedJobCount() {
+    int count = 0;
+
+    for (Group group : blockedGroups.values()) {
+      count += group.jobCount;
+    }
+
+    return count;
+  }
+
+  static final class Group {
+
+    final List<String> constraintKeys;
+
+    int jobCount;
+
+    Group(@NonNull List<String> constraintKeys) {
+      this.constraintKeys = constraintKeys;
+    }
+  }
+}
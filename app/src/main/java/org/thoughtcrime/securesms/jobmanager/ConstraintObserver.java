@@ -2,11 +2,16 @@ package org.thoughtcrime.securesms.jobmanager;
 
 import androidx.annotation.NonNull;
 
+import java.util.List;
+
 public interface ConstraintObserver {
 
   void register(@NonNull Notifier notifier);
 
   interface Notifier {
-    void onConstraintMet(@NonNull String reason);
+    /**
+     * @param constraintKeys The factory keys of the constraints that may now be met.
+     */
+    void onConstraintMet(@NonNull String reason, @NonNull List<String> constraintKeys);
   }
 }
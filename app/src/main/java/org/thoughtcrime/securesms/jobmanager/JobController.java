@@ -18,9 +18,11 @@ import org.session.libsession.utilities.Debouncer;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
@@ -42,6 +44,10 @@ class JobController {
   private final Debouncer              debouncer;
   private final Callback               callback;
   private final Set<String>            runningJobs;
+  private final ConstraintIndex        constraintIndex;
+
+  private int  waitingRunners;
+  private long runnerWakeups;
 
   JobController(@NonNull Application application,
                 @NonNull JobStorage jobStorage,
@@ -63,6 +69,7 @@ class JobController {
     this.debouncer              = debouncer;
     this.callback               = callback;
     this.runningJobs            = new HashSet<>();
+    this.constraintIndex        = new ConstraintIndex();
   }
 
   @WorkerThread
@@ -76,6 +83,32 @@ class JobController {
     notifyAll();
   }
 
+  /**
+   * Wakes one runner for each pending job that was waiting on one of the given constraints and
+   * whose constraints are now all met, up to the number of runners waiting. Runners waiting on
+   * anything else are left alone.
+   *
+   * @return The number of runners woken.
+   */
+  @WorkerThread
+  synchronized int onConstraintMet(@NonNull List<String> constraintKeys) {
+    int runnableJobs = 0;
+
+    for (ConstraintIndex.Group group : constraintIndex.getGroupsWaitingOn(constraintKeys)) {
+      if (areConstraintsMet(group.constraintKeys)) {
+        runnableJobs += group.jobCount;
+      }
+    }
+
+    int runnersToWake = Math.min(runnableJobs, waitingRunners);
+
+    for (int i = 0; i < runnersToWake; i++) {
+      notify();
+    }
+
+    return runnersToWake;
+  }
+
   @WorkerThread
   synchronized void submitNewJobChain(@NonNull List<List<Job>> chain) {
     chain = Stream.of(chain).filterNot(List::isEmpty).toList();
@@ -170,7 +203,13 @@ class JobController {
           debouncer.publish(callback::onEmpty);
         }
 
-        wait();
+        waitingRunners++;
+        try {
+          wait();
+        } finally {
+          waitingRunners--;
+        }
+        runnerWakeups++;
       }
 
       jobStorage.updateJobRunningState(job.getId(), true);
@@ -215,6 +254,11 @@ class JobController {
       info.append("None\n");
     }
 
+    info.append("\n-- Runners\n");
+    info.append("Waiting: ").append(waitingRunners).append('\n');
+    info.append("Woken: ").append(runnerWakeups).append('\n');
+    info.append("Jobs waiting on constraints: ").append(constraintIndex.getBlockedJobCount()).append('\n');
+
     return info.toString();
   }
 
@@ -300,25 +344,60 @@ class JobController {
     }
   }
 
+  /**
+   * The number of times a waiting runner has been woken up, whether or not it then found a job.
+   */
+  synchronized long getRunnerWakeupCount() {
+    return runnerWakeups;
+  }
+
+  synchronized int getWaitingRunnerCount() {
+    return waitingRunners;
+  }
+
+  /**
+   * Each distinct set of constraints is only checked once per pass. When no job is eligible, the
+   * jobs that were held back by their constraints are recorded in the {@link ConstraintIndex} so
+   * that {@link #onConstraintMet(List)} knows who is waiting on what.
+   */
   @WorkerThread
   private @Nullable Job getNextEligibleJobForExecution() {
-    List<JobSpec> jobSpecs = jobStorage.getPendingJobsWithNoDependenciesInCreatedOrder(System.currentTimeMillis());
+    List<JobSpec>                      jobSpecs       = jobStorage.getPendingJobsWithNoDependenciesInCreatedOrder(System.currentTimeMillis());
+    Map<String, Boolean>               metConstraints = new HashMap<>();
+    Map<String, ConstraintIndex.Group> blockedGroups  = new HashMap<>();
 
     for (JobSpec jobSpec : jobSpecs) {
       List<ConstraintSpec> constraintSpecs = jobStorage.getConstraintSpecs(jobSpec.getId());
-      List<Constraint>     constraints     = Stream.of(constraintSpecs)
-                                                   .map(ConstraintSpec::getFactoryKey)
-                                                   .map(constraintInstantiator::instantiate)
-                                                   .toList();
+      List<String>         constraintKeys  = Stream.of(constraintSpecs).map(ConstraintSpec::getFactoryKey).toList();
+      String               constraintSet   = ConstraintIndex.getConstraintSetKey(constraintKeys);
+      Boolean              met             = metConstraints.get(constraintSet);
 
-      if (Stream.of(constraints).allMatch(Constraint::isMet)) {
+      if (met == null) {
+        met = areConstraintsMet(constraintKeys);
+        metConstraints.put(constraintSet, met);
+      }
+
+      if (met) {
         return createJob(jobSpec, constraintSpecs);
       }
+
+      ConstraintIndex.Group group = blockedGroups.get(constraintSet);
+      if (group == null) {
+        group = new ConstraintIndex.Group(constraintKeys);
+        blockedGroups.put(constraintSet, group);
+      }
+      group.jobCount++;
     }
 
+    constraintIndex.replace(blockedGroups);
+
     return null;
   }
 
+  private boolean areConstraintsMet(@NonNull List<String> constraintKeys) {
+    return Stream.of(constraintKeys).map(constraintInstantiator::instantiate).allMatch(Constraint::isMet);
+  }
+
   private @NonNull Job createJob(@NonNull JobSpec jobSpec, @NonNull List<ConstraintSpec> constraintSpecs) {
     Job.Parameters parameters = buildJobParameters(jobSpec, constraintSpecs);
     Data           data       = dataSerializer.deserialize(jobSpec.getSerializedData());
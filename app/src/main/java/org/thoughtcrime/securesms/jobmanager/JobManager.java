@@ -3,11 +3,17 @@ package org.thoughtcrime.securesms.jobmanager;
 import android.app.Application;
 import android.content.Intent;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import androidx.annotation.NonNull;
 
+import com.annimon.stream.Stream;
+
+import org.session.libsession.messaging.jobs.JobTelemetry;
 import org.session.libsession.messaging.utilities.Data;
 import org.thoughtcrime.securesms.jobmanager.impl.DefaultExecutorFactory;
 import org.thoughtcrime.securesms.jobmanager.impl.JsonDataSerializer;
+import org.thoughtcrime.securesms.jobmanager.persistence.JobSpec;
 import org.thoughtcrime.securesms.jobmanager.persistence.JobStorage;
 import org.session.libsignal.utilities.Log;
 import org.session.libsession.utilities.Debouncer;
@@ -23,6 +29,7 @@ import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Allows the scheduling of durable jobs that will be run as early as possible.
@@ -31,9 +38,12 @@ public class JobManager implements ConstraintObserver.Notifier {
 
   private static final String TAG = JobManager.class.getSimpleName();
 
-  private final ExecutorService executor;
-  private final JobController   jobController;
-  private final JobRunner[]     jobRunners;
+  private static final long CONSTRAINT_DEBOUNCE_MS = TimeUnit.SECONDS.toMillis(1);
+
+  private final ExecutorService        executor;
+  private final JobController          jobController;
+  private final JobRunner[]            jobRunners;
+  private final Map<String, Debouncer> constraintDebouncers = new HashMap<>();
 
   private final Set<EmptyQueueListener> emptyQueueListeners = new CopyOnWriteArraySet<>();
 
@@ -51,6 +61,9 @@ public class JobManager implements ConstraintObserver.Notifier {
                                            new Debouncer(500),
                                            this::onEmptyQueue);
 
+    JobStorage jobStorage = configuration.getJobStorage();
+    JobTelemetry.INSTANCE.registerQueue("JobManager", () -> (int) Stream.of(jobStorage.getAllJobSpecs()).filterNot(JobSpec::isRunning).count());
+
     executor.execute(() -> {
       jobController.init();
 
@@ -125,10 +138,31 @@ public class JobManager implements ConstraintObserver.Notifier {
     });
   }
 
+  /**
+   * Signals like connectivity changes tend to flap, so each one is only acted on once it has
+   * settled, and then only wakes runners for the jobs that were waiting on the constraints it
+   * affects.
+   */
   @Override
-  public void onConstraintMet(@NonNull String reason) {
+  public void onConstraintMet(@NonNull String reason, @NonNull List<String> constraintKeys) {
     Log.i(TAG, "onConstraintMet(" + reason + ")");
-    wakeUp();
+    getConstraintDebouncer(reason).publish(() -> executor.execute(() -> {
+      int woken = jobController.onConstraintMet(constraintKeys);
+      Log.i(TAG, "Woke " + woken + " job runner(s) after " + reason + " settled.");
+    }));
+  }
+
+  private @NonNull Debouncer getConstraintDebouncer(@NonNull String reason) {
+    synchronized (constraintDebouncers) {
+      Debouncer debouncer = constraintDebouncers.get(reason);
+
+      if (debouncer == null) {
+        debouncer = new Debouncer(new Handler(Looper.getMainLooper()), CONSTRAINT_DEBOUNCE_MS);
+        constraintDebouncers.put(reason, debouncer);
+      }
+
+      return debouncer;
+    }
   }
 
   /**
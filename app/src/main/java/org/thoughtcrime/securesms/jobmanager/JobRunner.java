@@ -6,6 +6,7 @@ import androidx.annotation.NonNull;
 
 import com.annimon.stream.Stream;
 
+import org.session.libsession.messaging.jobs.JobTelemetry;
 import org.session.libsignal.utilities.Log;
 import org.thoughtcrime.securesms.util.WakeLockUtil;
 
@@ -33,20 +34,29 @@ class JobRunner extends Thread {
   @Override
   public synchronized void run() {
     while (true) {
-      Job        job    = jobController.pullNextEligibleJobForExecution();
+      Job        job       = jobController.pullNextEligibleJobForExecution();
+      long       startTime = System.nanoTime();
+      long       readyTime = Math.max(job.getParameters().getCreateTime(), job.getNextRunAttemptTime());
+
+      JobTelemetry.INSTANCE.recordQueueWait(job.getFactoryKey(), TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - readyTime));
+
       Job.Result result = run(job);
 
+      JobTelemetry.INSTANCE.recordExecution(job.getFactoryKey(), System.nanoTime() - startTime);
       jobController.onJobFinished(job);
 
       switch (result) {
         case SUCCESS:
+          JobTelemetry.INSTANCE.recordSuccess(job.getFactoryKey());
           jobController.onSuccess(job);
           break;
         case RETRY:
+          JobTelemetry.INSTANCE.recordRetry(job.getFactoryKey());
           jobController.onRetry(job);
           job.onRetry();
           break;
         case FAILURE:
+          JobTelemetry.INSTANCE.recordFailure(job.getFactoryKey());
           List<Job> dependents = jobController.onFailure(job);
           job.onCanceled();
           Stream.of(dependents).forEach(Job::onCanceled);
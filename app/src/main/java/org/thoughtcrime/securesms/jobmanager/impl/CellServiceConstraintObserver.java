@@ -9,9 +9,13 @@ import android.telephony.TelephonyManager;
 
 import org.thoughtcrime.securesms.jobmanager.ConstraintObserver;
 
+import java.util.Arrays;
+import java.util.List;
+
 public class CellServiceConstraintObserver implements ConstraintObserver {
 
-  private static final String REASON = CellServiceConstraintObserver.class.getSimpleName();
+  private static final String       REASON          = CellServiceConstraintObserver.class.getSimpleName();
+  private static final List<String> CONSTRAINT_KEYS = Arrays.asList(CellServiceConstraint.KEY, NetworkOrCellServiceConstraint.KEY);
 
   private Notifier notifier;
 
@@ -31,7 +35,7 @@ public class CellServiceConstraintObserver implements ConstraintObserver {
     @Override
     public void onServiceStateChanged(ServiceState serviceState) {
       if (serviceState.getState() == ServiceState.STATE_IN_SERVICE && notifier != null) {
-        notifier.onConstraintMet(REASON);
+        notifier.onConstraintMet(REASON, CONSTRAINT_KEYS);
       }
     }
   }
@@ -10,9 +10,13 @@ import androidx.annotation.NonNull;
 
 import org.thoughtcrime.securesms.jobmanager.ConstraintObserver;
 
+import java.util.Arrays;
+import java.util.List;
+
 public class NetworkConstraintObserver implements ConstraintObserver {
 
-  private static final String REASON = NetworkConstraintObserver.class.getSimpleName();
+  private static final String       REASON          = NetworkConstraintObserver.class.getSimpleName();
+  private static final List<String> CONSTRAINT_KEYS = Arrays.asList(NetworkConstraint.KEY, NetworkOrCellServiceConstraint.KEY);
 
   private final Application application;
 
@@ -28,7 +32,7 @@ public class NetworkConstraintObserver implements ConstraintObserver {
         NetworkConstraint constraint = new NetworkConstraint.Factory(application).create();
 
         if (constraint.isMet()) {
-          notifier.onConstraintMet(REASON);
+          notifier.onConstraintMet(REASON, CONSTRAINT_KEYS);
         }
       }
     }, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
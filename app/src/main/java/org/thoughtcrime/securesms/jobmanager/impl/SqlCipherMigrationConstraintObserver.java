@@ -7,9 +7,13 @@ import org.greenrobot.eventbus.Subscribe;
 import org.greenrobot.eventbus.ThreadMode;
 import org.thoughtcrime.securesms.jobmanager.ConstraintObserver;
 
+import java.util.Collections;
+import java.util.List;
+
 public class SqlCipherMigrationConstraintObserver implements ConstraintObserver {
 
-  private static final String REASON = SqlCipherMigrationConstraintObserver.class.getSimpleName();
+  private static final String       REASON          = SqlCipherMigrationConstraintObserver.class.getSimpleName();
+  private static final List<String> CONSTRAINT_KEYS = Collections.singletonList(SqlCipherMigrationConstraint.KEY);
 
   private Notifier notifier;
 
@@ -24,7 +28,7 @@ public class SqlCipherMigrationConstraintObserver implements ConstraintObserver
 
   @Subscribe(threadMode = ThreadMode.MAIN)
   public void onEvent(SqlCipherNeedsMigrationEvent event) {
-    if (notifier != null) notifier.onConstraintMet(REASON);
+    if (notifier != null) notifier.onConstraintMet(REASON, CONSTRAINT_KEYS);
   }
 
   public static class SqlCipherNeedsMigrationEvent {
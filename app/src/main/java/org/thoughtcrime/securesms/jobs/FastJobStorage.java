@@ -12,32 +12,61 @@ import org.thoughtcrime.securesms.jobmanager.persistence.FullSpec;
 import org.thoughtcrime.securesms.jobmanager.persistence.JobSpec;
 import org.thoughtcrime.securesms.jobmanager.persistence.JobStorage;
 
-import org.session.libsession.utilities.Util;
-
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
-import java.util.Set;
-
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * An in-memory copy of the job database, indexed for the lookups {@link org.thoughtcrime.securesms.jobmanager.JobController}
+ * makes on every job state change: jobs by ID, constraints and dependencies by job, dependents by
+ * the job they depend on, and the jobs that could run next ordered by their next run time.
+ *
+ * Writes are serialized and go to the database first. Reads don't take a lock: every index is a
+ * concurrent collection of immutable values that writes replace rather than change, so a reader
+ * sees each job as it was either before or after a write. Reads across many jobs are only weakly
+ * consistent with a write made at the same time, which is fine for JobController as it never
+ * reads and writes at the same time.
+ */
 public class FastJobStorage implements JobStorage {
 
+  private static final Comparator<Node> CREATED_ORDER = (n1, n2) -> {
+    int result = Long.compare(n1.jobSpec.getCreateTime(), n2.jobSpec.getCreateTime());
+    return result != 0 ? result : Long.compare(n1.sequence, n2.sequence);
+  };
+
+  private static final Comparator<Node> RUN_ORDER = (n1, n2) -> {
+    int result = Long.compare(n1.jobSpec.getNextRunAttemptTime(), n2.jobSpec.getNextRunAttemptTime());
+    return result != 0 ? result : CREATED_ORDER.compare(n1, n2);
+  };
+
   private final JobDatabase jobDatabase;
 
-  private final List<JobSpec>                     jobs;
+  private final Map<String, Node>                 jobsById;
   private final Map<String, List<ConstraintSpec>> constraintsByJobId;
   private final Map<String, List<DependencySpec>> dependenciesByJobId;
+  private final Map<String, List<DependencySpec>> dependentsByJobId;
+  private final Map<String, Integer>              instanceCountsByFactoryKey;
+  private final Map<String, NavigableSet<Node>>   jobsByQueueKey;
+  private final NavigableSet<Node>                runnableJobs;
+
+  private long nextSequence;
 
   public FastJobStorage(@NonNull JobDatabase jobDatabase) {
-    this.jobDatabase         = jobDatabase;
-    this.jobs                = new ArrayList<>();
-    this.constraintsByJobId  = new HashMap<>();
-    this.dependenciesByJobId = new HashMap<>();
+    this.jobDatabase                = jobDatabase;
+    this.jobsById                   = new ConcurrentHashMap<>();
+    this.constraintsByJobId         = new ConcurrentHashMap<>();
+    this.dependenciesByJobId        = new ConcurrentHashMap<>();
+    this.dependentsByJobId          = new ConcurrentHashMap<>();
+    this.instanceCountsByFactoryKey = new ConcurrentHashMap<>();
+    this.jobsByQueueKey             = new HashMap<>();
+    this.runnableJobs               = new ConcurrentSkipListSet<>(RUN_ORDER);
   }
 
   @Override
@@ -46,18 +75,20 @@ public class FastJobStorage implements JobStorage {
     List<ConstraintSpec> constraintSpecs = jobDatabase.getAllConstraintSpecs();
     List<DependencySpec> dependencySpecs = jobDatabase.getAllDependencySpecs();
 
-    jobs.addAll(jobSpecs);
+    for (JobSpec jobSpec : jobSpecs) {
+      addJob(jobSpec);
+    }
 
-    for (ConstraintSpec constraintSpec: constraintSpecs) {
-      List<ConstraintSpec> jobConstraints = Util.getOrDefault(constraintsByJobId, constraintSpec.getJobSpecId(), new LinkedList<>());
-      jobConstraints.add(constraintSpec);
-      constraintsByJobId.put(constraintSpec.getJobSpecId(), jobConstraints);
+    for (ConstraintSpec constraintSpec : constraintSpecs) {
+      constraintsByJobId.put(constraintSpec.getJobSpecId(), plus(constraintsByJobId.get(constraintSpec.getJobSpecId()), constraintSpec));
     }
 
     for (DependencySpec dependencySpec : dependencySpecs) {
-      List<DependencySpec> jobDependencies = Util.getOrDefault(dependenciesByJobId, dependencySpec.getJobId(), new LinkedList<>());
-      jobDependencies.add(dependencySpec);
-      dependenciesByJobId.put(dependencySpec.getJobId(), jobDependencies);
+      addDependency(dependencySpec);
+    }
+
+    for (String id : jobsById.keySet()) {
+      updateRunnable(id);
     }
   }
 
@@ -66,82 +97,83 @@ public class FastJobStorage implements JobStorage {
     jobDatabase.insertJobs(fullSpecs);
 
     for (FullSpec fullSpec : fullSpecs) {
-      jobs.add(fullSpec.getJobSpec());
-      constraintsByJobId.put(fullSpec.getJobSpec().getId(), fullSpec.getConstraintSpecs());
-      dependenciesByJobId.put(fullSpec.getJobSpec().getId(), fullSpec.getDependencySpecs());
-    }
-  }
+      JobSpec jobSpec       = fullSpec.getJobSpec();
+      Node    previousFirst = getFirstInQueue(jobSpec.getQueueKey());
 
-  @Override
-  public synchronized @Nullable JobSpec getJobSpec(@NonNull String id) {
-    for (JobSpec jobSpec : jobs) {
-      if (jobSpec.getId().equals(id)) {
-        return jobSpec;
+      addJob(jobSpec);
+      constraintsByJobId.put(jobSpec.getId(), Collections.unmodifiableList(new ArrayList<>(fullSpec.getConstraintSpecs())));
+
+      for (DependencySpec dependencySpec : fullSpec.getDependencySpecs()) {
+        addDependency(dependencySpec);
+      }
+
+      updateRunnable(jobSpec.getId());
+
+      if (previousFirst != null) {
+        updateRunnable(previousFirst.jobSpec.getId());
       }
     }
-    return null;
   }
 
   @Override
-  public synchronized @NonNull List<JobSpec> getAllJobSpecs() {
-    return new ArrayList<>(jobs);
+  public @Nullable JobSpec getJobSpec(@NonNull String id) {
+    Node node = jobsById.get(id);
+    return node != null ? node.jobSpec : null;
   }
 
   @Override
-  public synchronized @NonNull List<JobSpec> getPendingJobsWithNoDependenciesInCreatedOrder(long currentTime) {
-    return Stream.of(jobs)
-                 .filter(j -> JobManagerFactories.hasFactoryForKey(j.getFactoryKey()))
-                 .filterNot(JobSpec::isRunning)
-                 .filter(this::firstInQueue)
-                 .filter(j -> !dependenciesByJobId.containsKey(j.getId()) || dependenciesByJobId.get(j.getId()).isEmpty())
-                 .filter(j -> j.getNextRunAttemptTime() <= currentTime)
-                 .sorted((j1, j2) -> Long.compare(j1.getCreateTime(), j2.getCreateTime()))
+  public @NonNull List<JobSpec> getAllJobSpecs() {
+    return Stream.of(jobsById.values())
+                 .sorted((n1, n2) -> Long.compare(n1.sequence, n2.sequence))
+                 .map(n -> n.jobSpec)
                  .toList();
   }
 
-  private boolean firstInQueue(@NonNull JobSpec job) {
-    if (job.getQueueKey() == null) {
-      return true;
+  @Override
+  public @NonNull List<JobSpec> getPendingJobsWithNoDependenciesInCreatedOrder(long currentTime) {
+    List<Node> pending = new ArrayList<>();
+
+    for (Node node : runnableJobs) {
+      if (node.jobSpec.getNextRunAttemptTime() > currentTime) {
+        break;
+      }
+
+      if (JobManagerFactories.hasFactoryForKey(node.jobSpec.getFactoryKey())) {
+        pending.add(node);
+      }
     }
 
-    return Stream.of(jobs)
-                 .filter(j -> Util.equals(j.getQueueKey(), job.getQueueKey()))
-                 .sorted((j1, j2) -> Long.compare(j1.getCreateTime(), j2.getCreateTime()))
-                 .toList()
-                 .get(0)
-                 .equals(job);
+    Collections.sort(pending, CREATED_ORDER);
+
+    return Stream.of(pending).map(n -> n.jobSpec).toList();
   }
 
   @Override
-  public synchronized int getJobInstanceCount(@NonNull String factoryKey) {
-    return (int) Stream.of(jobs)
-                       .filter(j -> j.getFactoryKey().equals(factoryKey))
-                       .count();
+  public int getJobInstanceCount(@NonNull String factoryKey) {
+    Integer count = instanceCountsByFactoryKey.get(factoryKey);
+    return count != null ? count : 0;
   }
 
   @Override
   public synchronized void updateJobRunningState(@NonNull String id, boolean isRunning) {
     jobDatabase.updateJobRunningState(id, isRunning);
 
-    ListIterator<JobSpec> iter = jobs.listIterator();
-
-    while (iter.hasNext()) {
-      JobSpec existing = iter.next();
-      if (existing.getId().equals(id)) {
-        JobSpec updated = new JobSpec(existing.getId(),
-                                      existing.getFactoryKey(),
-                                      existing.getQueueKey(),
-                                      existing.getCreateTime(),
-                                      existing.getNextRunAttemptTime(),
-                                      existing.getRunAttempt(),
-                                      existing.getMaxAttempts(),
-                                      existing.getMaxBackoff(),
-                                      existing.getLifespan(),
-                                      existing.getMaxInstances(),
-                                      existing.getSerializedData(),
-                                      isRunning);
-        iter.set(updated);
-      }
+    Node existing = jobsById.get(id);
+
+    if (existing != null) {
+      JobSpec spec = existing.jobSpec;
+      replaceJob(existing, new JobSpec(spec.getId(),
+                                       spec.getFactoryKey(),
+                                       spec.getQueueKey(),
+                                       spec.getCreateTime(),
+                                       spec.getNextRunAttemptTime(),
+                                       spec.getRunAttempt(),
+                                       spec.getMaxAttempts(),
+                                       spec.getMaxBackoff(),
+                                       spec.getLifespan(),
+                                       spec.getMaxInstances(),
+                                       spec.getSerializedData(),
+                                       isRunning));
     }
   }
 
@@ -149,25 +181,22 @@ public class FastJobStorage implements JobStorage {
   public synchronized void updateJobAfterRetry(@NonNull String id, boolean isRunning, int runAttempt, long nextRunAttemptTime) {
     jobDatabase.updateJobAfterRetry(id, isRunning, runAttempt, nextRunAttemptTime);
 
-    ListIterator<JobSpec> iter = jobs.listIterator();
-
-    while (iter.hasNext()) {
-      JobSpec existing = iter.next();
-      if (existing.getId().equals(id)) {
-        JobSpec updated = new JobSpec(existing.getId(),
-                                      existing.getFactoryKey(),
-                                      existing.getQueueKey(),
-                                      existing.getCreateTime(),
-                                      nextRunAttemptTime,
-                                      runAttempt,
-                                      existing.getMaxAttempts(),
-                                      existing.getMaxBackoff(),
-                                      existing.getLifespan(),
-                                      existing.getMaxInstances(),
-                                      existing.getSerializedData(),
-                                      isRunning);
-        iter.set(updated);
-      }
+    Node existing = jobsById.get(id);
+
+    if (existing != null) {
+      JobSpec spec = existing.jobSpec;
+      replaceJob(existing, new JobSpec(spec.getId(),
+                                       spec.getFactoryKey(),
+                                       spec.getQueueKey(),
+                                       spec.getCreateTime(),
+                                       nextRunAttemptTime,
+                                       runAttempt,
+                                       spec.getMaxAttempts(),
+                                       spec.getMaxBackoff(),
+                                       spec.getLifespan(),
+                                       spec.getMaxInstances(),
+                                       spec.getSerializedData(),
+                                       isRunning));
     }
   }
 
@@ -175,23 +204,23 @@ public class FastJobStorage implements JobStorage {
   public synchronized void updateAllJobsToBePending() {
     jobDatabase.updateAllJobsToBePending();
 
-    ListIterator<JobSpec> iter = jobs.listIterator();
-
-    while (iter.hasNext()) {
-      JobSpec existing = iter.next();
-      JobSpec updated  = new JobSpec(existing.getId(),
-                                     existing.getFactoryKey(),
-                                     existing.getQueueKey(),
-                                     existing.getCreateTime(),
-                                     existing.getNextRunAttemptTime(),
-                                     existing.getRunAttempt(),
-                                     existing.getMaxAttempts(),
-                                     existing.getMaxBackoff(),
-                                     existing.getLifespan(),
-                                     existing.getMaxInstances(),
-                                     existing.getSerializedData(),
-                                     false);
-      iter.set(updated);
+    for (Node existing : new ArrayList<>(jobsById.values())) {
+      JobSpec spec = existing.jobSpec;
+
+      if (spec.isRunning()) {
+        replaceJob(existing, new JobSpec(spec.getId(),
+                                         spec.getFactoryKey(),
+                                         spec.getQueueKey(),
+                                         spec.getCreateTime(),
+                                         spec.getNextRunAttemptTime(),
+                                         spec.getRunAttempt(),
+                                         spec.getMaxAttempts(),
+                                         spec.getMaxBackoff(),
+                                         spec.getLifespan(),
+                                         spec.getMaxInstances(),
+                                         spec.getSerializedData(),
+                                         false));
+      }
     }
   }
 
@@ -204,38 +233,53 @@ public class FastJobStorage implements JobStorage {
   public synchronized void deleteJobs(@NonNull List<String> jobIds) {
     jobDatabase.deleteJobs(jobIds);
 
-    Set<String> deleteIds = new HashSet<>(jobIds);
+    for (String jobId : jobIds) {
+      Node node = jobsById.get(jobId);
+
+      if (node != null) {
+        runnableJobs.remove(node);
+        removeFromQueue(node);
+        jobsById.remove(jobId);
+
+        String  factoryKey = node.jobSpec.getFactoryKey();
+        Integer count      = instanceCountsByFactoryKey.get(factoryKey);
 
-    Iterator<JobSpec> jobIter = jobs.iterator();
-    while (jobIter.hasNext()) {
-      if (deleteIds.contains(jobIter.next().getId())) {
-        jobIter.remove();
+        if (count == null || count <= 1) {
+          instanceCountsByFactoryKey.remove(factoryKey);
+        } else {
+          instanceCountsByFactoryKey.put(factoryKey, count - 1);
+        }
       }
-    }
 
-    for (String jobId : jobIds) {
       constraintsByJobId.remove(jobId);
-      dependenciesByJobId.remove(jobId);
 
-      for (Map.Entry<String, List<DependencySpec>> entry : dependenciesByJobId.entrySet()) {
-        Iterator<DependencySpec> depedencyIter = entry.getValue().iterator();
+      List<DependencySpec> dependencies = dependenciesByJobId.remove(jobId);
 
-        while (depedencyIter.hasNext()) {
-          if (depedencyIter.next().getDependsOnJobId().equals(jobId)) {
-            depedencyIter.remove();
-          }
+      if (dependencies != null) {
+        for (DependencySpec dependency : dependencies) {
+          putOrRemove(dependentsByJobId, dependency.getDependsOnJobId(), minus(dependentsByJobId.get(dependency.getDependsOnJobId()), dependency));
+        }
+      }
+
+      List<DependencySpec> dependents = dependentsByJobId.remove(jobId);
+
+      if (dependents != null) {
+        for (DependencySpec dependent : dependents) {
+          putOrRemove(dependenciesByJobId, dependent.getJobId(), minus(dependenciesByJobId.get(dependent.getJobId()), dependent));
+          updateRunnable(dependent.getJobId());
         }
       }
     }
   }
 
   @Override
-  public synchronized @NonNull List<ConstraintSpec> getConstraintSpecs(@NonNull String jobId) {
-    return Util.getOrDefault(constraintsByJobId, jobId, new LinkedList<>());
+  public @NonNull List<ConstraintSpec> getConstraintSpecs(@NonNull String jobId) {
+    List<ConstraintSpec> constraints = constraintsByJobId.get(jobId);
+    return constraints != null ? constraints : Collections.emptyList();
   }
 
   @Override
-  public synchronized @NonNull List<ConstraintSpec> getAllConstraintSpecs() {
+  public @NonNull List<ConstraintSpec> getAllConstraintSpecs() {
     return Stream.of(constraintsByJobId)
                  .map(Map.Entry::getValue)
                  .flatMap(Stream::of)
@@ -243,12 +287,9 @@ public class FastJobStorage implements JobStorage {
   }
 
   @Override
-  public synchronized @NonNull List<DependencySpec> getDependencySpecsThatDependOnJob(@NonNull String jobSpecId) {
-    return Stream.of(dependenciesByJobId.entrySet())
-                 .map(Map.Entry::getValue)
-                 .flatMap(Stream::of)
-                 .filter(j -> j.getDependsOnJobId().equals(jobSpecId))
-                 .toList();
+  public @NonNull List<DependencySpec> getDependencySpecsThatDependOnJob(@NonNull String jobSpecId) {
+    List<DependencySpec> dependents = dependentsByJobId.get(jobSpecId);
+    return dependents != null ? dependents : Collections.emptyList();
   }
 
   @Override
@@ -258,4 +299,135 @@ public class FastJobStorage implements JobStorage {
                  .flatMap(Stream::of)
                  .toList();
   }
+
+  private void addJob(@NonNull JobSpec jobSpec) {
+    Node node = new Node(jobSpec, nextSequence++);
+
+    jobsById.put(jobSpec.getId(), node);
+
+    Integer count = instanceCountsByFactoryKey.get(jobSpec.getFactoryKey());
+    instanceCountsByFactoryKey.put(jobSpec.getFactoryKey(), count != null ? count + 1 : 1);
+
+    if (jobSpec.getQueueKey() != null) {
+      NavigableSet<Node> queue = jobsByQueueKey.get(jobSpec.getQueueKey());
+
+      if (queue == null) {
+        queue = new TreeSet<>(CREATED_ORDER);
+        jobsByQueueKey.put(jobSpec.getQueueKey(), queue);
+      }
+
+      queue.add(node);
+    }
+  }
+
+  private void addDependency(@NonNull DependencySpec dependencySpec) {
+    dependenciesByJobId.put(dependencySpec.getJobId(), plus(dependenciesByJobId.get(dependencySpec.getJobId()), dependencySpec));
+    dependentsByJobId.put(dependencySpec.getDependsOnJobId(), plus(dependentsByJobId.get(dependencySpec.getDependsOnJobId()), dependencySpec));
+  }
+
+  /**
+   * Swaps in a new version of a job. Its create time and queue don't change, so its place in its
+   * queue doesn't either.
+   */
+  private void replaceJob(@NonNull Node existing, @NonNull JobSpec updated) {
+    Node node = new Node(updated, existing.sequence);
+
+    runnableJobs.remove(existing);
+    jobsById.put(updated.getId(), node);
+
+    if (updated.getQueueKey() != null) {
+      NavigableSet<Node> queue = jobsByQueueKey.get(updated.getQueueKey());
+      queue.remove(existing);
+      queue.add(node);
+    }
+
+    updateRunnable(updated.getId());
+  }
+
+  private void removeFromQueue(@NonNull Node node) {
+    String queueKey = node.jobSpec.getQueueKey();
+
+    if (queueKey == null) {
+      return;
+    }
+
+    NavigableSet<Node> queue    = jobsByQueueKey.get(queueKey);
+    boolean            wasFirst = queue.first().sequence == node.sequence;
+
+    queue.remove(node);
+
+    if (queue.isEmpty()) {
+      jobsByQueueKey.remove(queueKey);
+    } else if (wasFirst) {
+      updateRunnable(queue.first().jobSpec.getId());
+    }
+  }
+
+  /**
+   * Adds the job to or removes it from {@link #runnableJobs}: jobs that aren't running, don't wait
+   * on other jobs and are first in their queue. Must be called whenever one of those could have
+   * changed.
+   */
+  private void updateRunnable(@NonNull String id) {
+    Node node = jobsById.get(id);
+
+    if (node == null) {
+      return;
+    }
+
+    List<DependencySpec> dependencies = dependenciesByJobId.get(id);
+    Node                 first        = getFirstInQueue(node.jobSpec.getQueueKey());
+    boolean              isRunnable   = !node.jobSpec.isRunning()                         &&
+                                        (dependencies == null || dependencies.isEmpty()) &&
+                                        (first == null || first.sequence == node.sequence);
+
+    if (isRunnable) {
+      runnableJobs.add(node);
+    } else {
+      runnableJobs.remove(node);
+    }
+  }
+
+  private @Nullable Node getFirstInQueue(@Nullable String queueKey) {
+    if (queueKey == null) {
+      return null;
+    }
+
+    NavigableSet<Node> queue = jobsByQueueKey.get(queueKey);
+    return queue != null ? queue.first() : null;
+  }
+
+  private static @NonNull <E> List<E> plus(@Nullable List<E> list, @NonNull E element) {
+    List<E> result = list != null ? new ArrayList<>(list) : new ArrayList<>(1);
+    result.add(element);
+    return Collections.unmodifiableList(result);
+  }
+
+  private static @NonNull <E> List<E> minus(@Nullable List<E> list, @NonNull E element) {
+    List<E> result = list != null ? new ArrayList<>(list) : new ArrayList<>();
+    result.remove(element);
+    return Collections.unmodifiableList(result);
+  }
+
+  private static <K, E> void putOrRemove(@NonNull Map<K, List<E>> map, @NonNull K key, @NonNull List<E> list) {
+    if (list.isEmpty()) {
+      map.remove(key);
+    } else {
+      map.put(key, list);
+    }
+  }
+
+  /**
+   * A job as indexed. The sequence number keeps the order in which jobs were added, which breaks
+   * ties between jobs with the same create time.
+   */
+  private static final class Node {
+    private final JobSpec jobSpec;
+    private final long    sequence;
+
+    private Node(@NonNull JobSpec jobSpec, long sequence) {
+      this.jobSpec  = jobSpec;
+      this.sequence = sequence;
+    }
+  }
 }
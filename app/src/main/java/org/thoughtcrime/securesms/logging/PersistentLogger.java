@@ -4,6 +4,7 @@ import android.content.Context;
 import androidx.annotation.AnyThread;
 import androidx.annotation.WorkerThread;
 
+import org.session.libsignal.utilities.ExecutorRegistry;
 import org.session.libsignal.utilities.NoExternalStorageException;
 
 import org.session.libsignal.utilities.ListenableFuture;
@@ -21,7 +22,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 
 public class PersistentLogger extends Log.Logger {
 
@@ -49,11 +50,11 @@ public class PersistentLogger extends Log.Logger {
   public PersistentLogger(Context context) {
     this.context  = context.getApplicationContext();
     this.secret   = LogSecretProvider.getOrCreateAttachmentSecret(context);
-    this.executor = Executors.newSingleThreadExecutor(r -> {
-      Thread thread = new Thread(r, "PersistentLogger");
-      thread.setPriority(Thread.MIN_PRIORITY);
-      return thread;
-    });
+    // Log lines have to be written in order, so a full queue holds up the caller rather than handing it the write
+    this.executor = ExecutorRegistry.newSerialExecutor("PersistentLogger",
+                                                       ExecutorRegistry.BackpressurePolicy.BLOCK,
+                                                       new LinkedBlockingQueue<>(4096),
+                                                       Thread.MIN_PRIORITY);
 
     executor.execute(this::initializeWriter);
   }
@@ -3,6 +3,8 @@ package org.thoughtcrime.securesms.notifications
 import android.content.Context
 import nl.komponents.kovenant.functional.map
 import okhttp3.*
+import org.session.libsession.messaging.jobs.ClosedGroupPNOperationJob
+import org.session.libsession.messaging.jobs.JobQueue
 import org.session.libsession.messaging.sending_receiving.notifications.PushNotificationAPI
 import org.session.libsession.snode.OnionRequestAPI
 import org.thoughtcrime.securesms.database.DatabaseFactory
@@ -93,19 +95,7 @@ object LokiPushNotificationManager {
     @JvmStatic
     fun performOperation(context: Context, operation: ClosedGroupOperation, closedGroupPublicKey: String, publicKey: String) {
         if (!TextSecurePreferences.isUsingFCM(context)) { return }
-        val parameters = mapOf( "closedGroupPublicKey" to closedGroupPublicKey, "pubKey" to publicKey )
-        val url = "$server/${operation.rawValue}"
-        val body = RequestBody.create(MediaType.get("application/json"), JsonUtil.toJson(parameters))
-        val request = Request.Builder().url(url).post(body)
-        retryIfNeeded(maxRetryCount) {
-            OnionRequestAPI.sendOnionRequest(request.build(), server, pnServerPublicKey, "/loki/v2/lsrpc").map { json ->
-                val code = json["code"] as? Int
-                if (code == null || code == 0) {
-                    Log.d("Loki", "Couldn't subscribe/unsubscribe closed group: $closedGroupPublicKey due to error: ${json["message"] as? String ?: "null"}.")
-                }
-            }.fail { exception ->
-                Log.d("Loki", "Couldn't subscribe/unsubscribe closed group: $closedGroupPublicKey due to error: ${exception}.")
-            }
-        }
+        val closedGroupOperation = PushNotificationAPI.ClosedGroupOperation.valueOf(operation.name)
+        JobQueue.shared.add(ClosedGroupPNOperationJob(closedGroupOperation, closedGroupPublicKey, publicKey))
     }
 }
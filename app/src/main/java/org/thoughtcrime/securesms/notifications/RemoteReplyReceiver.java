@@ -80,7 +80,8 @@ public class RemoteReplyReceiver extends BroadcastReceiver {
             case GroupMessage: {
               OutgoingMediaMessage reply = OutgoingMediaMessage.from(message, recipient, Collections.emptyList(), null, null);
               try {
-                DatabaseFactory.getMmsDatabase(context).insertMessageOutbox(reply, threadId, false, null);
+                message.setId(DatabaseFactory.getMmsDatabase(context).insertMessageOutbox(reply, threadId, false, null));
+                message.setMms(true);
                 MessageSender.send(message, address);
               } catch (MmsException e) {
                 Log.w(TAG, e);
@@ -89,7 +90,8 @@ public class RemoteReplyReceiver extends BroadcastReceiver {
             }
             case SecureMessage: {
               OutgoingTextMessage reply = OutgoingTextMessage.from(message, recipient);
-              DatabaseFactory.getSmsDatabase(context).insertMessageOutbox(threadId, reply, false, System.currentTimeMillis(), null);
+              message.setId(DatabaseFactory.getSmsDatabase(context).insertMessageOutbox(threadId, reply, false, System.currentTimeMillis(), null));
+              message.setMms(false);
               MessageSender.send(message, address);
               break;
             }
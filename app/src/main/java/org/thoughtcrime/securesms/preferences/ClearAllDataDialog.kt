@@ -20,7 +20,7 @@ class ClearAllDataDialog : BaseDialog() {
 
     private fun clearAllData() {
         if (KeyPairUtilities.hasV2KeyPair(requireContext())) {
-            ConfigurationMessageUtilities.forceSyncConfigurationNowIfNeeded(requireContext())
+            ConfigurationMessageUtilities.forceSyncConfigurationNowIfNeeded(requireContext(), true)
             ApplicationContext.getInstance(context).clearAllData(false)
         } else {
             val dialog = AlertDialog.Builder(requireContext())
@@ -17,6 +17,7 @@ import android.view.MenuItem
 import android.view.View
 import android.view.inputmethod.InputMethodManager
 import android.widget.Toast
+import androidx.appcompat.app.AlertDialog
 import androidx.core.view.isVisible
 import kotlinx.android.synthetic.main.activity_settings.*
 import network.loki.messenger.BuildConfig
@@ -26,11 +27,13 @@ import nl.komponents.kovenant.all
 import nl.komponents.kovenant.ui.alwaysUi
 import nl.komponents.kovenant.ui.successUi
 import org.session.libsession.avatars.AvatarHelper
+import org.session.libsession.messaging.jobs.JobTelemetry
 import org.session.libsession.utilities.Address
 import org.session.libsession.utilities.ProfileKeyUtil
 import org.session.libsession.utilities.ProfilePictureUtilities
 import org.session.libsession.utilities.SSKEnvironment.ProfileManagerProtocol
 import org.session.libsession.utilities.TextSecurePreferences
+import org.session.libsignal.utilities.ThreadUtils
 import org.thoughtcrime.securesms.PassphraseRequiredActionBarActivity
 import org.thoughtcrime.securesms.avatar.AvatarSelection
 import org.thoughtcrime.securesms.util.ConfigurationMessageUtilities
@@ -90,6 +93,7 @@ class SettingsActivity : PassphraseRequiredActionBarActivity() {
         val isLightMode = UiModeUtilities.isDayUiMode(this)
         oxenLogoImageView.setImageResource(if (isLightMode) R.drawable.oxen_light_mode else R.drawable.oxen_dark_mode)
         versionTextView.text = String.format(getString(R.string.version_s), "${BuildConfig.VERSION_NAME} (${BuildConfig.VERSION_CODE})")
+        versionTextView.setOnLongClickListener { showJobTelemetry(); true }
     }
 
     override fun onCreateOptionsMenu(menu: Menu): Boolean {
@@ -303,6 +307,28 @@ class SettingsActivity : PassphraseRequiredActionBarActivity() {
     private fun clearAllData() {
         ClearAllDataDialog().show(supportFragmentManager, "Clear All Data Dialog")
     }
+
+    private fun showJobTelemetry() {
+        AlertDialog.Builder(this)
+            .setTitle(R.string.activity_settings_job_telemetry_title)
+            .setMessage(JobTelemetry.getReport())
+            .setPositiveButton(android.R.string.ok, null)
+            .setNeutralButton(R.string.activity_settings_job_telemetry_export_button_title) { _, _ -> exportJobTelemetry() }
+            .show()
+    }
+
+    private fun exportJobTelemetry() {
+        val file = File(getExternalFilesDir(null) ?: filesDir, "job_telemetry.txt")
+        ThreadUtils.queue {
+            val message = try {
+                JobTelemetry.exportTo(file)
+                getString(R.string.activity_settings_job_telemetry_exported_to_s, file.absolutePath)
+            } catch (e: Exception) {
+                getString(R.string.activity_settings_job_telemetry_export_failed)
+            }
+            runOnUiThread { Toast.makeText(this, message, Toast.LENGTH_LONG).show() }
+        }
+    }
     // endregion
 
     private inner class DisplayNameEditActionModeCallback: ActionMode.Callback {
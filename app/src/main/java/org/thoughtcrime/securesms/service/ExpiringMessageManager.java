@@ -98,7 +98,7 @@ public class ExpiringMessageManager implements SSKEnvironment.MessageExpirationM
     Recipient recipient = Recipient.from(context, address, false);
 
     // if the sender is blocked, we don't display the update, except if it's in a closed group
-    if (recipient.isBlocked() && groupId == null) return;
+    if (groupId == null && DatabaseFactory.getRecipientDatabase(context).isBlocked(address)) return;
 
     try {
       if (groupId != null) {
@@ -177,6 +177,20 @@ public class ExpiringMessageManager implements SSKEnvironment.MessageExpirationM
     }
   }
 
+  @Override
+  public void startAnyExpiration(long messageId, boolean mms) {
+    long threadId = mms ? mmsDatabase.getThreadIdForMessage(messageId) : smsDatabase.getThreadIdForMessage(messageId);
+    if (threadId < 0) return;
+    Recipient recipient = DatabaseFactory.getThreadDatabase(context).getRecipientForThreadId(threadId);
+    if (recipient == null || recipient.getExpireMessages() <= 0) return;
+    if (mms) {
+      mmsDatabase.markExpireStarted(messageId);
+    } else {
+      smsDatabase.markExpireStarted(messageId);
+    }
+    scheduleDeletion(messageId, mms, recipient.getExpireMessages() * 1000);
+  }
+
   private class LoadTask implements Runnable {
 
     public void run() {
@@ -16,6 +16,7 @@ import org.session.libsession.utilities.SSKEnvironment;
 import org.session.libsession.utilities.TextSecurePreferences;
 import org.session.libsession.utilities.Util;
 import org.session.libsignal.utilities.Log;
+import org.thoughtcrime.securesms.database.DatabaseFactory;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -51,7 +52,7 @@ public class TypingStatusRepository implements SSKEnvironment.TypingIndicatorsPr
       return;
     }
 
-    if (Recipient.from(context, author, false).isBlocked()) {
+    if (DatabaseFactory.getRecipientDatabase(context).isBlocked(author)) {
       return;
     }
 
@@ -80,7 +81,7 @@ public class TypingStatusRepository implements SSKEnvironment.TypingIndicatorsPr
       return;
     }
 
-    if (Recipient.from(context, author, false).isBlocked()) {
+    if (DatabaseFactory.getRecipientDatabase(context).isBlocked(author)) {
       return;
     }
 
@@ -3,9 +3,11 @@ package org.thoughtcrime.securesms.util
 import android.content.Context
 import org.session.libsession.messaging.messages.Destination
 import org.session.libsession.messaging.messages.control.ConfigurationMessage
+import org.session.libsession.messaging.messages.control.ConfigurationMessageDelta
 import org.session.libsession.messaging.sending_receiving.MessageSender
 import org.session.libsession.utilities.Address
 import org.session.libsession.utilities.TextSecurePreferences
+import org.thoughtcrime.securesms.database.DatabaseFactory
 
 object ConfigurationMessageUtilities {
 
@@ -14,18 +16,25 @@ object ConfigurationMessageUtilities {
         val userPublicKey = TextSecurePreferences.getLocalNumber(context) ?: return
         val lastSyncTime = TextSecurePreferences.getLastConfigurationSyncTime(context)
         val now = System.currentTimeMillis()
-        if (now - lastSyncTime < 7 * 24 * 60 * 60 * 1000) return
+        if (now - lastSyncTime < ConfigurationMessageDelta.fullSnapshotInterval) return
         val contacts = ContactUtilities.getAllContacts(context).filter { recipient ->
             !recipient.isBlocked && !recipient.name.isNullOrEmpty() && !recipient.isLocalNumber && recipient.address.serialize().isNotEmpty()
         }.map { recipient ->
             ConfigurationMessage.Contact(recipient.address.serialize(), recipient.name!!, recipient.profileAvatar, recipient.profileKey)
         }
         val configurationMessage = ConfigurationMessage.getCurrent(contacts) ?: return
-        MessageSender.send(configurationMessage, Address.fromSerialized(userPublicKey))
-        TextSecurePreferences.setLastConfigurationSyncTime(context, now)
+        // The snapshot only counts as synced once it's been sent; until then the next call tries again
+        MessageSender.sendNonDurably(configurationMessage, Address.fromSerialized(userPublicKey)).success {
+            DatabaseFactory.getLokiAPIDatabase(context).setConfigurationSyncDigests(ConfigurationMessageDelta.getDigests(configurationMessage))
+            TextSecurePreferences.setLastConfigurationSyncTime(context, now)
+        }
     }
 
-    fun forceSyncConfigurationNowIfNeeded(context: Context) {
+    /**
+     * Sends only what changed since the last configuration message, unless a full snapshot is due or `isFullSnapshot`
+     * is set (e.g. right before clearing all data, when the other devices must end up with everything).
+     */
+    fun forceSyncConfigurationNowIfNeeded(context: Context, isFullSnapshot: Boolean = false) {
         val userPublicKey = TextSecurePreferences.getLocalNumber(context) ?: return
         val contacts = ContactUtilities.getAllContacts(context).filter { recipient ->
             !recipient.isGroupRecipient && !recipient.isBlocked && !recipient.name.isNullOrEmpty() && !recipient.isLocalNumber && recipient.address.serialize().isNotEmpty()
@@ -33,8 +42,25 @@ object ConfigurationMessageUtilities {
             ConfigurationMessage.Contact(recipient.address.serialize(), recipient.name!!, recipient.profileAvatar, recipient.profileKey)
         }
         val configurationMessage = ConfigurationMessage.getCurrent(contacts) ?: return
-        MessageSender.send(configurationMessage, Destination.from(Address.fromSerialized(userPublicKey)))
-        TextSecurePreferences.setLastConfigurationSyncTime(context, System.currentTimeMillis())
+        val apiDB = DatabaseFactory.getLokiAPIDatabase(context)
+        val digests = ConfigurationMessageDelta.getDigests(configurationMessage)
+        val now = System.currentTimeMillis()
+        val isSnapshotDue = isFullSnapshot || now - TextSecurePreferences.getLastConfigurationSyncTime(context) >= ConfigurationMessageDelta.fullSnapshotInterval
+        if (isSnapshotDue) {
+            MessageSender.send(configurationMessage, Destination.from(Address.fromSerialized(userPublicKey))).success {
+                apiDB.setConfigurationSyncDigests(digests)
+                TextSecurePreferences.setLastConfigurationSyncTime(context, now)
+            }
+        } else {
+            val lastSentDigests = apiDB.getConfigurationSyncDigests()
+            val delta = ConfigurationMessageDelta.getDelta(configurationMessage, digests, lastSentDigests) ?: return
+            // Only the entries in the delta count as synced, and only once it's been sent; a failed delta leaves the
+            // previous digests, so its entries go out again with the next sync
+            val sentDigests = ConfigurationMessageDelta.getChangedDigests(digests, lastSentDigests)
+            MessageSender.send(delta, Destination.from(Address.fromSerialized(userPublicKey))).success {
+                apiDB.mergeConfigurationSyncDigests(sentDigests)
+            }
+        }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,9 @@
+package org.thoughtcrime.securesms;
+
+/**
+ * JUnit category for tests that time themselves. They're left out of the unit test run and only
+ * run by hand, with {@code ./gradlew :app:testPlayDebugUnitTest -Pbenchmarks}; results are printed
+ * to the test output.
+ */
+public interface Benchmark {
+}
@@ -0,0 +1,289 @@
+package org.thoughtcrime.securesms.jobmanager;
+
+import android.app.Application;
+import android.app.job.JobInfo;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.session.libsession.messaging.utilities.Data;
+import org.session.libsession.utilities.Debouncer;
+import org.thoughtcrime.securesms.Benchmark;
+import org.thoughtcrime.securesms.database.JobDatabase;
+import org.thoughtcrime.securesms.jobmanager.impl.JsonDataSerializer;
+import org.thoughtcrime.securesms.jobmanager.impl.NetworkConstraint;
+import org.thoughtcrime.securesms.jobmanager.impl.NetworkOrCellServiceConstraint;
+import org.thoughtcrime.securesms.jobmanager.impl.SqlCipherMigrationConstraint;
+import org.thoughtcrime.securesms.jobmanager.persistence.JobSpec;
+import org.thoughtcrime.securesms.jobmanager.persistence.JobStorage;
+import org.thoughtcrime.securesms.jobs.AvatarDownloadJob;
+import org.thoughtcrime.securesms.jobs.FastJobStorage;
+import org.thoughtcrime.securesms.jobs.JobManagerFactories;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class JobControllerTest {
+
+  // Pending jobs are only returned for keys with a factory, so borrow one that has
+  private static final String JOB_KEY        = AvatarDownloadJob.KEY;
+  private static final int    RUNNER_COUNT   = 4;
+  private static final int    NETWORK_JOBS   = 100;
+  private static final int    MIGRATION_JOBS = 10;
+  private static final int    FLAP_COUNT     = 20;
+
+  private static final List<String> NETWORK_KEYS = Arrays.asList(NetworkConstraint.KEY, NetworkOrCellServiceConstraint.KEY);
+
+  private final AtomicBoolean networkAvailable = new AtomicBoolean(false);
+  private final AtomicBoolean migrated         = new AtomicBoolean(false);
+  private final AtomicInteger requeues         = new AtomicInteger();
+
+  @Before
+  public void setUp() {
+    JobManagerFactories.getJobFactories(mock(Application.class));
+  }
+
+  @Test
+  public void getConstraintSetKey_ignoresOrder() {
+    assertEquals(ConstraintIndex.getConstraintSetKey(Arrays.asList("a", "b")), ConstraintIndex.getConstraintSetKey(Arrays.asList("b", "a")));
+    assertEquals("a", ConstraintIndex.getConstraintSetKey(Collections.singletonList("a")));
+    assertEquals("", ConstraintIndex.getConstraintSetKey(Collections.emptyList()));
+  }
+
+  @Test
+  public void onConstraintMet_onlyWakesRunnersForMetGroups() throws InterruptedException {
+    JobStorage    storage    = new FastJobStorage(noopDatabase());
+    JobController controller = createController(storage);
+
+    controller.init();
+    startRunners(controller);
+    controller.submitNewJobChain(Collections.singletonList(createJobs()));
+    awaitIdle(controller);
+
+    networkAvailable.set(true);
+    assertEquals(0, controller.onConstraintMet(Collections.singletonList(SqlCipherMigrationConstraint.KEY)));
+
+    networkAvailable.set(false);
+    assertEquals(0, controller.onConstraintMet(NETWORK_KEYS));
+  }
+
+  /**
+   * Flaps the network while network bound jobs are waiting. The job manager only acts once the
+   * signal has settled, and then only for the jobs waiting on the network.
+   */
+  @Test
+  public void networkFlap_noWakeupsOrRequeues() throws InterruptedException {
+    int[] indexed = simulateNetworkFlap(true);
+
+    assertEquals(0, indexed[0]);
+    assertEquals(0, indexed[1]);
+  }
+
+  /**
+   * Reports the wakeups and requeues for a network flap both the way the job manager used to
+   * handle it (waking every runner on every reconnect) and the way it does now.
+   */
+  @Test
+  @Category(Benchmark.class)
+  public void networkFlap_wakeupsAndRequeuesBenchmark() throws InterruptedException {
+    int[] legacy  = simulateNetworkFlap(false);
+    int[] indexed = simulateNetworkFlap(true);
+
+    System.out.println("Network flap, waking every runner: " + legacy[0] + " wakeups during the flap, " + legacy[1] + " requeues.");
+    System.out.println("Network flap, debounced and indexed: " + indexed[0] + " wakeups during the flap, " + indexed[1] + " requeues.");
+  }
+
+  /**
+   * @return The runner wakeups during the flap and the number of jobs requeued.
+   */
+  private int[] simulateNetworkFlap(boolean indexed) throws InterruptedException {
+    networkAvailable.set(false);
+    migrated.set(false);
+    requeues.set(0);
+
+    JobStorage    storage    = new FastJobStorage(noopDatabase());
+    JobController controller = createController(storage);
+
+    controller.init();
+    startRunners(controller);
+    controller.submitNewJobChain(Collections.singletonList(createJobs()));
+    awaitIdle(controller);
+
+    long wakeupsBefore = controller.getRunnerWakeupCount();
+
+    for (int i = 0; i < FLAP_COUNT; i++) {
+      networkAvailable.set(true);
+      if (!indexed) {
+        controller.wakeUp();
+      }
+      Thread.sleep(1);
+      networkAvailable.set(false);
+      Thread.sleep(1);
+    }
+
+    int flapWakeups = (int) (controller.getRunnerWakeupCount() - wakeupsBefore);
+
+    networkAvailable.set(true);
+    if (indexed) {
+      assertEquals(RUNNER_COUNT, controller.onConstraintMet(NETWORK_KEYS));
+    } else {
+      controller.wakeUp();
+    }
+    awaitIdle(controller);
+
+    if (indexed) {
+      List<JobSpec> remaining = storage.getAllJobSpecs();
+      assertEquals(MIGRATION_JOBS, remaining.size());
+      assertTrue(controller.getDebugInfo().contains("Jobs waiting on constraints: " + MIGRATION_JOBS));
+    }
+
+    return new int[] { flapWakeups, requeues.get() };
+  }
+
+  private @NonNull JobController createController(@NonNull JobStorage storage) {
+    Map<String, Job.Factory>        jobFactories        = new HashMap<>();
+    Map<String, Constraint.Factory> constraintFactories = new HashMap<>();
+
+    jobFactories.put(JOB_KEY, (parameters, data) -> new TestJob(parameters));
+    constraintFactories.put(NetworkConstraint.KEY, () -> new TestConstraint(NetworkConstraint.KEY, networkAvailable));
+    constraintFactories.put(SqlCipherMigrationConstraint.KEY, () -> new TestConstraint(SqlCipherMigrationConstraint.KEY, migrated));
+
+    return new JobController(mock(Application.class),
+                             storage,
+                             new JobInstantiator(jobFactories),
+                             new ConstraintInstantiator(constraintFactories),
+                             new JsonDataSerializer(),
+                             object -> {},
+                             (delay, constraints) -> {},
+                             mock(Debouncer.class),
+                             () -> {});
+  }
+
+  private @NonNull List<Job> createJobs() {
+    List<Job> jobs = new ArrayList<>(NETWORK_JOBS + MIGRATION_JOBS);
+
+    for (int i = 0; i < NETWORK_JOBS; i++) {
+      jobs.add(new TestJob(new Job.Parameters.Builder().addConstraint(NetworkConstraint.KEY).build()));
+    }
+    for (int i = 0; i < MIGRATION_JOBS; i++) {
+      jobs.add(new TestJob(new Job.Parameters.Builder().addConstraint(SqlCipherMigrationConstraint.KEY).build()));
+    }
+
+    return jobs;
+  }
+
+  /**
+   * Runs jobs the way {@link JobRunner} does, minus the wake locks.
+   */
+  private void startRunners(@NonNull JobController controller) {
+    for (int i = 0; i < RUNNER_COUNT; i++) {
+      Thread runner = new Thread(() -> {
+        while (true) {
+          Job        job    = controller.pullNextEligibleJobForExecution();
+          Job.Result result = job.run();
+
+          controller.onJobFinished(job);
+
+          if (result == Job.Result.SUCCESS) {
+            controller.onSuccess(job);
+          } else {
+            requeues.incrementAndGet();
+            controller.onRetry(job);
+          }
+        }
+      });
+      runner.setDaemon(true);
+      runner.start();
+    }
+  }
+
+  private void awaitIdle(@NonNull JobController controller) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10_000;
+    long wakeups  = -1;
+
+    while (System.currentTimeMillis() < deadline) {
+      if (controller.getWaitingRunnerCount() == RUNNER_COUNT && controller.getRunnerWakeupCount() == wakeups) {
+        return;
+      }
+      wakeups = controller.getRunnerWakeupCount();
+      Thread.sleep(50);
+    }
+
+    throw new AssertionError("Runners never went idle.");
+  }
+
+  private JobDatabase noopDatabase() {
+    JobDatabase database = mock(JobDatabase.class);
+
+    when(database.getAllJobSpecs()).thenReturn(Collections.emptyList());
+    when(database.getAllConstraintSpecs()).thenReturn(Collections.emptyList());
+    when(database.getAllDependencySpecs()).thenReturn(Collections.emptyList());
+
+    return database;
+  }
+
+  private class TestJob extends Job {
+
+    TestJob(@NonNull Parameters parameters) {
+      super(parameters);
+    }
+
+    @Override
+    public @NonNull Data serialize() {
+      return Data.EMPTY;
+    }
+
+    @Override
+    public @NonNull String getFactoryKey() {
+      return JOB_KEY;
+    }
+
+    @Override
+    public @NonNull Result run() {
+      // A job that was started while the network was up fails if it has gone down again
+      return networkAvailable.get() ? Result.SUCCESS : Result.RETRY;
+    }
+
+    @Override
+    public void onCanceled() {
+    }
+  }
+
+  private static class TestConstraint implements Constraint {
+
+    private final String        key;
+    private final AtomicBoolean met;
+
+    TestConstraint(@NonNull String key, @NonNull AtomicBoolean met) {
+      this.key = key;
+      this.met = met;
+    }
+
+    @Override
+    public boolean isMet() {
+      return met.get();
+    }
+
+    @Override
+    public @NonNull String getFactoryKey() {
+      return key;
+    }
+
+    @Override
+    public void applyToJobInfo(@NonNull JobInfo.Builder jobInfoBuilder) {
+    }
+  }
+}
@@ -1,10 +1,14 @@
 package org.thoughtcrime.securesms.jobs;
 
+import android.app.Application;
+
 import androidx.annotation.NonNull;
 
 import com.annimon.stream.Stream;
 
 import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.thoughtcrime.securesms.Benchmark;
 import org.thoughtcrime.securesms.database.JobDatabase;
 import org.thoughtcrime.securesms.jobmanager.Data;
 import org.thoughtcrime.securesms.jobmanager.impl.JsonDataSerializer;
@@ -13,9 +17,15 @@ import org.thoughtcrime.securesms.jobmanager.persistence.DependencySpec;
 import org.thoughtcrime.securesms.jobmanager.persistence.FullSpec;
 import org.thoughtcrime.securesms.jobmanager.persistence.JobSpec;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -30,6 +40,9 @@ public class FastJobStorageTest {
   private static final JsonDataSerializer serializer = new JsonDataSerializer();
   private static final String             EMPTY_DATA = serializer.serialize(Data.EMPTY);
 
+  private static final int TEN_THOUSAND_JOBS = 10_000;
+  private static final int SCHEDULING_STEPS  = 2_000;
+
   @Test
   public void init_allStoredDataAvailable() {
     FastJobStorage subject = new FastJobStorage(fixedDataDatabase(DataSet1.FULL_SPECS));
@@ -301,6 +314,109 @@ public class FastJobStorageTest {
     assertEquals(0, dependencies.size());
   }
 
+  @Test
+  public void getPendingJobsWithNoDependenciesInCreatedOrder_tenThousandJobs() {
+    FastJobStorage subject = tenThousandJobStorage();
+
+    for (int i = 0; i < SCHEDULING_STEPS; i++) {
+      long currentTime = i * 5;
+
+      if (i % 100 == 0) {
+        assertEquals(scanForPendingJobs(subject, currentTime), subject.getPendingJobsWithNoDependenciesInCreatedOrder(currentTime));
+      }
+
+      runNextJob(subject, currentTime);
+    }
+  }
+
+  @Test
+  @Category(Benchmark.class)
+  public void getPendingJobsWithNoDependenciesInCreatedOrder_tenThousandJobsBenchmark() {
+    FastJobStorage subject      = tenThousandJobStorage();
+    long           indexedNanos = 0;
+    long           scanNanos    = 0;
+    int            scanCount    = 0;
+
+    for (int i = 0; i < SCHEDULING_STEPS; i++) {
+      long currentTime = i * 5;
+
+      if (i % 100 == 0) {
+        long scanStart = System.nanoTime();
+        scanForPendingJobs(subject, currentTime);
+        scanNanos += System.nanoTime() - scanStart;
+        scanCount++;
+      }
+
+      long start = System.nanoTime();
+      runNextJob(subject, currentTime);
+      indexedNanos += System.nanoTime() - start;
+    }
+
+    System.out.println(String.format("With %d jobs: %.3f ms per scheduling step indexed, %.3f ms to find pending jobs with a single scan.",
+                                     TEN_THOUSAND_JOBS, indexedNanos / 1e6 / SCHEDULING_STEPS, scanNanos / 1e6 / scanCount));
+  }
+
+  private FastJobStorage tenThousandJobStorage() {
+    // Only jobs that have a factory are returned
+    JobManagerFactories.getJobFactories(mock(Application.class));
+
+    Random         random    = new Random(42);
+    List<FullSpec> fullSpecs = new ArrayList<>(TEN_THOUSAND_JOBS);
+
+    for (int i = 0; i < TEN_THOUSAND_JOBS; i++) {
+      String               id           = String.valueOf(i);
+      String               queueKey     = i % 4 == 0 ? null : "q" + (i % 500);
+      List<DependencySpec> dependencies = i % 10 == 9 ? Collections.singletonList(new DependencySpec(id, String.valueOf(i - 1)))
+                                                      : Collections.emptyList();
+
+      fullSpecs.add(new FullSpec(new JobSpec(id, TrimThreadJob.KEY, queueKey, i, random.nextInt(TEN_THOUSAND_JOBS), 0, 3, 30000, -1, -1, EMPTY_DATA, false),
+                                 Collections.singletonList(new ConstraintSpec(id, "NetworkConstraint")),
+                                 dependencies));
+    }
+
+    FastJobStorage subject = new FastJobStorage(fixedDataDatabase(fullSpecs));
+    subject.init();
+    return subject;
+  }
+
+  // What JobController does for each job it runs: find the next eligible job and its
+  // constraints, mark it as running and delete it once it succeeds
+  private static void runNextJob(@NonNull FastJobStorage storage, long currentTime) {
+    List<JobSpec> pending = storage.getPendingJobsWithNoDependenciesInCreatedOrder(currentTime);
+
+    if (!pending.isEmpty()) {
+      JobSpec next = pending.get(0);
+      storage.getConstraintSpecs(next.getId());
+      storage.updateJobRunningState(next.getId(), true);
+      storage.deleteJob(next.getId());
+    }
+  }
+
+  // The filters the unindexed storage applied, in a single pass over every job
+  private static List<JobSpec> scanForPendingJobs(@NonNull FastJobStorage storage, long currentTime) {
+    List<JobSpec>        jobs            = storage.getAllJobSpecs();
+    Map<String, JobSpec> firstInQueue    = new HashMap<>();
+    Set<String>          hasDependencies = new HashSet<>();
+
+    for (JobSpec job : jobs) {
+      JobSpec first = firstInQueue.get(job.getQueueKey());
+      if (job.getQueueKey() != null && (first == null || job.getCreateTime() < first.getCreateTime())) {
+        firstInQueue.put(job.getQueueKey(), job);
+      }
+    }
+
+    for (DependencySpec dependency : storage.getAllDependencySpecs()) {
+      hasDependencies.add(dependency.getJobId());
+    }
+
+    return Stream.of(jobs)
+                 .filterNot(JobSpec::isRunning)
+                 .filter(j -> j.getQueueKey() == null || firstInQueue.get(j.getQueueKey()) == j)
+                 .filterNot(j -> hasDependencies.contains(j.getId()))
+                 .filter(j -> j.getNextRunAttemptTime() <= currentTime)
+                 .sorted((j1, j2) -> Long.compare(j1.getCreateTime(), j2.getCreateTime()))
+                 .toList();
+  }
 
   private JobDatabase noopDatabase() {
     JobDatabase database = mock(JobDatabase.class);
@@ -34,11 +34,18 @@ interface StorageProtocol {
     fun getUserProfileKey(): ByteArray?
     fun getUserProfilePictureURL(): String?
     fun setUserProfilePictureURL(newProfilePicture: String)
+    /**
+     * Runs `block` in a single database transaction, which is much faster than letting each write commit on its own.
+     */
+    fun <T> runInTransaction(block: () -> T): T
     // Signal
     fun getOrGenerateRegistrationID(): Int
 
     // Jobs
     fun persistJob(job: Job)
+    fun persistJob(job: Job, nextRunTimestamp: Long)
+    fun persistJobNow(job: Job, nextRunTimestamp: Long): Boolean
+    fun getJobNextRunTimestamps(): Map<String, Long>
     fun markJobAsSucceeded(jobId: String)
     fun markJobAsFailedPermanently(jobId: String)
     fun getAllPendingJobs(type: String): Map<String,Job?>
@@ -47,6 +54,9 @@ interface StorageProtocol {
     fun getMessageReceiveJob(messageReceiveJobID: String): MessageReceiveJob?
     fun resumeMessageSendJobIfNeeded(messageSendJobID: String)
     fun isJobCanceled(job: Job): Boolean
+    fun appendToReceiveJournal(batchID: Long, jobs: List<MessageReceiveJob>)
+    fun truncateReceiveJournal(batchID: Long)
+    fun getReceiveJournal(): List<Pair<Long, MessageReceiveJob>>
 
     // Authorization
     fun getAuthToken(room: String, server: String): String?
@@ -93,6 +103,10 @@ interface StorageProtocol {
     fun markAsSent(timestamp: Long, author: String)
     fun markUnidentified(timestamp: Long, author: String)
     fun setErrorMessage(timestamp: Long, author: String, error: Exception)
+    fun markAsSending(messageID: Long, isMms: Boolean)
+    fun markAsSent(messageID: Long, isMms: Boolean)
+    fun markUnidentified(messageID: Long, isMms: Boolean)
+    fun setErrorMessage(messageID: Long, isMms: Boolean, error: Exception)
 
     // Closed Groups
     fun getGroup(groupID: String): GroupRecord?
@@ -124,6 +138,7 @@ interface StorageProtocol {
 
     // Settings
     fun setProfileSharing(address: Address, value: Boolean)
+    fun isBlocked(publicKey: String): Boolean
 
     // Thread
     fun getOrCreateThreadIdFor(address: Address): Long
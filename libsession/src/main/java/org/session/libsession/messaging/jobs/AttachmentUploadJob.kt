@@ -1,8 +1,5 @@
 package org.session.libsession.messaging.jobs
 
-import com.esotericsoftware.kryo.Kryo
-import com.esotericsoftware.kryo.io.Input
-import com.esotericsoftware.kryo.io.Output
 import nl.komponents.kovenant.Promise
 import okio.Buffer
 import org.session.libsession.messaging.MessagingModuleConfiguration
@@ -11,6 +8,7 @@ import org.session.libsession.messaging.messages.Message
 import org.session.libsession.messaging.open_groups.OpenGroupAPIV2
 import org.session.libsession.messaging.sending_receiving.MessageSender
 import org.session.libsession.messaging.utilities.Data
+import org.session.libsession.messaging.utilities.KryoPool
 import org.session.libsession.utilities.DecodedAudio
 import org.session.libsession.utilities.InputStreamMediaDataSource
 import org.session.libsession.utilities.UploadResult
@@ -150,16 +148,11 @@ class AttachmentUploadJob(val attachmentID: Long, val threadID: String, val mess
     }
 
     override fun serialize(): Data {
-        val kryo = Kryo()
-        kryo.isRegistrationRequired = false
-        val serializedMessage = ByteArray(4096)
-        val output = Output(serializedMessage, Job.MAX_BUFFER_SIZE)
-        kryo.writeClassAndObject(output, message)
-        output.close()
+        val serializedMessage = KryoPool.writeClassAndObject(message)
         return Data.Builder()
             .putLong(ATTACHMENT_ID_KEY, attachmentID)
             .putString(THREAD_ID_KEY, threadID)
-            .putByteArray(MESSAGE_KEY, output.toBytes())
+            .putByteArray(MESSAGE_KEY, serializedMessage)
             .putString(MESSAGE_SEND_JOB_ID_KEY, messageSendJobID)
             .build()
     }
@@ -172,17 +165,13 @@ class AttachmentUploadJob(val attachmentID: Long, val threadID: String, val mess
 
         override fun create(data: Data): AttachmentUploadJob? {
             val serializedMessage = data.getByteArray(MESSAGE_KEY)
-            val kryo = Kryo()
-            kryo.isRegistrationRequired = false
-            val input = Input(serializedMessage)
             val message: Message
             try {
-                message = kryo.readClassAndObject(input) as Message
+                message = KryoPool.readClassAndObject(serializedMessage) as Message
             } catch (e: Exception) {
                 Log.e("Loki","Couldn't serialize the AttachmentUploadJob", e)
                 return null
             }
-            input.close()
             return AttachmentUploadJob(
                     data.getLong(ATTACHMENT_ID_KEY),
                     data.getString(THREAD_ID_KEY)!!,
@@ -0,0 +1,72 @@
+package org.session.libsession.messaging.jobs
+
+import org.session.libsession.messaging.utilities.Data
+import org.session.libsignal.utilities.Log
+
+/**
+ * Receives the envelopes from one poll response in a single job, so the dispatch to the receive queue and the job
+ * bookkeeping are paid once per batch instead of once per envelope. Each envelope is received as a single job would
+ * be: it's parsed outside the receive lock and only holds the lock while it's handled, so decrypting a large batch
+ * doesn't keep other receive jobs waiting.
+ *
+ * Envelopes are still tracked individually: each one reports its own success or failure to the job queue after the
+ * batch is done, so only the envelopes that failed are retried, as regular `MessageReceiveJob`s, and the receive
+ * journal commits each one as it does for a single job. The batch itself isn't persisted; the journal is what makes
+ * the envelopes durable.
+ */
+class BatchMessageReceiveJob internal constructor(
+    val messages: List<MessageReceiveJob>,
+    private val receive: (MessageReceiveJob) -> Unit
+) : Job {
+    override var delegate: JobDelegate? = null
+    override var id: String? = null
+    override var failureCount: Int = 0
+
+    override val maxFailureCount: Int = 1
+
+    constructor(messages: List<MessageReceiveJob>) : this(messages, { it.receive() })
+
+    companion object {
+        val TAG = BatchMessageReceiveJob::class.simpleName
+        const val KEY: String = "BatchMessageReceiveJob"
+
+        /**
+         * The most envelopes a single batch holds; larger poll responses are split up.
+         */
+        const val maxBatchSize = 256
+    }
+
+    override fun execute() {
+        val failures = mutableMapOf<MessageReceiveJob, Exception>()
+        // Envelopes are received one after the other, each parsed only after the previous one was handled, because
+        // earlier ones (e.g. closed group key updates) can affect how later ones are decrypted
+        for (message in messages) {
+            try {
+                receive(message)
+            } catch (e: Exception) {
+                failures[message] = e
+            }
+        }
+        for (message in messages) {
+            message.delegate = delegate
+            val error = failures[message]
+            if (error == null) {
+                message.handleSuccess()
+            } else {
+                message.handleError(error)
+            }
+        }
+        if (failures.isNotEmpty()) {
+            Log.d(TAG, "Received ${messages.size - failures.size} of ${messages.size} messages in batch.")
+        }
+        delegate?.handleJobSucceeded(this)
+    }
+
+    override fun serialize(): Data {
+        return Data.EMPTY
+    }
+
+    override fun getFactoryKey(): String {
+        return KEY
+    }
+}
@@ -0,0 +1,55 @@
+package org.session.libsession.messaging.jobs
+
+import org.session.libsession.messaging.sending_receiving.notifications.PushNotificationAPI
+import org.session.libsession.messaging.sending_receiving.notifications.PushNotificationBatcher
+import org.session.libsession.messaging.utilities.Data
+
+class ClosedGroupPNOperationJob(
+    val operation: PushNotificationAPI.ClosedGroupOperation,
+    val closedGroupPublicKey: String,
+    val publicKey: String
+) : Job {
+    override var delegate: JobDelegate? = null
+    override var id: String? = null
+    override var failureCount: Int = 0
+
+    override val maxFailureCount: Int = 20
+
+    companion object {
+        val KEY: String = "ClosedGroupPNOperationJob"
+
+        // Keys used for database storage
+        private val OPERATION_KEY = "operation"
+        private val CLOSED_GROUP_PUBLIC_KEY_KEY = "closed_group_public_key"
+        private val PUBLIC_KEY_KEY = "public_key"
+    }
+
+    override fun execute() {
+        val operation = PushNotificationBatcher.Operation.ClosedGroup(operation, closedGroupPublicKey, publicKey)
+        PushNotificationBatcher.enqueue(operation).success {
+            delegate?.handleJobSucceeded(this)
+        }.fail {
+            delegate?.handleJobFailed(this, it)
+        }
+    }
+
+    override fun serialize(): Data {
+        return Data.Builder()
+            .putString(OPERATION_KEY, operation.name)
+            .putString(CLOSED_GROUP_PUBLIC_KEY_KEY, closedGroupPublicKey)
+            .putString(PUBLIC_KEY_KEY, publicKey)
+            .build()
+    }
+
+    override fun getFactoryKey(): String {
+        return KEY
+    }
+
+    class Factory : Job.Factory<ClosedGroupPNOperationJob> {
+
+        override fun create(data: Data): ClosedGroupPNOperationJob {
+            val operation = PushNotificationAPI.ClosedGroupOperation.valueOf(data.getString(OPERATION_KEY))
+            return ClosedGroupPNOperationJob(operation, data.getString(CLOSED_GROUP_PUBLIC_KEY_KEY), data.getString(PUBLIC_KEY_KEY))
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package org.session.libsession.messaging.jobs
+
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Generates unique, increasing job IDs in constant memory. An ID is the creation time in milliseconds followed by a
+ * three digit sequence number, so IDs sort in the order jobs were added, as they did when the sequence number was kept
+ * per millisecond in a map. Past 1,000 IDs in a millisecond the sequence carries into the next one, and if the clock
+ * goes backwards the IDs keep counting up from the last one.
+ */
+class JobIDGenerator(private val clock: () -> Long = { System.currentTimeMillis() }) {
+    private val lastID = AtomicLong(0)
+
+    companion object {
+        private const val sequencesPerMillisecond = 1000L
+    }
+
+    fun next(): Long {
+        val earliest = clock() * sequencesPerMillisecond
+        while (true) {
+            val last = lastID.get()
+            val next = Math.max(earliest, last + 1)
+            if (lastID.compareAndSet(last, next)) { return next }
+        }
+    }
+}
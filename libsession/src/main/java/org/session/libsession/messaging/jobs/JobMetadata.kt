@@ -0,0 +1,42 @@
+package org.session.libsession.messaging.jobs
+
+import org.session.libsession.messaging.messages.Destination
+
+/**
+ * The fields of a job that the job database stores in columns of their own, so that jobs can be looked up by them
+ * without deserializing every job of a type.
+ */
+class JobMetadata(
+    val attachmentID: Long? = null,
+    val threadID: Long? = null,
+    val messageID: Long? = null,
+    val destination: String? = null
+) {
+
+    companion object {
+        /**
+         * Stored alongside the metadata. Bump it when `from` starts filling in something new, so that rows written
+         * before that are rewritten when they're next resumed.
+         */
+        const val version = 1
+
+        fun from(job: Job): JobMetadata {
+            return when (job) {
+                is MessageSendJob -> JobMetadata(null, job.message.threadID, job.message.id, getDestination(job.destination))
+                is AttachmentUploadJob -> JobMetadata(job.attachmentID, job.threadID.toLongOrNull(), job.message.id, null)
+                is AttachmentDownloadJob -> JobMetadata(job.attachmentID, null, job.databaseMessageID, null)
+                is NotifyPNServerJob -> JobMetadata(destination = job.message.recipient)
+                is ClosedGroupPNOperationJob -> JobMetadata(destination = job.closedGroupPublicKey)
+                else -> JobMetadata()
+            }
+        }
+
+        private fun getDestination(destination: Destination): String {
+            return when (destination) {
+                is Destination.Contact -> destination.publicKey
+                is Destination.ClosedGroup -> destination.groupPublicKey
+                is Destination.OpenGroupV2 -> "${destination.server}.${destination.room}"
+            }
+        }
+    }
+}
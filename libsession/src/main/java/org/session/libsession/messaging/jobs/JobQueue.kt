@@ -4,34 +4,42 @@ import kotlinx.coroutines.*
 import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.channels.Channel.Factory.UNLIMITED
 import org.session.libsession.messaging.MessagingModuleConfiguration
+import org.session.libsignal.utilities.ExecutorRegistry
+import org.session.libsignal.utilities.ExecutorRegistry.BackpressurePolicy
 import org.session.libsignal.utilities.Log
 import java.lang.IllegalStateException
 import java.util.*
 import java.util.concurrent.ConcurrentHashMap
-import java.util.concurrent.Executors
 import java.util.concurrent.atomic.AtomicInteger
-import kotlin.concurrent.schedule
 import kotlin.math.min
 import kotlin.math.pow
 import kotlin.math.roundToLong
 
 class JobQueue : JobDelegate {
     private var hasResumedPendingJobs = false // Just for debugging
-    private val jobTimestampMap = ConcurrentHashMap<Long, AtomicInteger>()
-    private val rxDispatcher = Executors.newSingleThreadExecutor().asCoroutineDispatcher()
-    private val txDispatcher = Executors.newSingleThreadExecutor().asCoroutineDispatcher()
-    private val attachmentDispatcher = Executors.newFixedThreadPool(2).asCoroutineDispatcher()
+    private val jobIDGenerator = JobIDGenerator()
+    // Coroutine dispatches must never run on the caller, so these block instead; with one consumer each they never fill up
+    private val rxDispatcher = ExecutorRegistry.newSerialExecutor("job-queue-rx", BackpressurePolicy.BLOCK).asCoroutineDispatcher()
+    private val attachmentDispatcher = ExecutorRegistry.newFixedExecutor("job-queue-attachments", 2, BackpressurePolicy.BLOCK).asCoroutineDispatcher()
     private val scope = GlobalScope + SupervisorJob()
     private val queue = Channel<Job>(UNLIMITED)
     private val pendingJobIds = mutableSetOf<String>()
+    private val receiveJournal = ReceiveJournal()
+    // For `JobTelemetry`: when each job was queued and started, and how many jobs wait on each dispatcher
+    private val queuedAt = ConcurrentHashMap<Job, Long>()
+    private val startedAt = ConcurrentHashMap<Job, Long>()
+    private val rxQueueDepth = AtomicInteger()
+    private val attachmentQueueDepth = AtomicInteger()
+    val transmitScheduler = TransmitScheduler.create { job -> execute(job) }
 
-    val timer = Timer()
+    // Holds jobs that are waiting to be retried, and jobs resumed on launch so that they don't all start at once
+    private val retryWheel = RetryWheel<Job> { job -> enqueue(job) }
 
-    private fun CoroutineScope.processWithDispatcher(channel: Channel<Job>, dispatcher: CoroutineDispatcher) = launch(dispatcher) {
+    private fun CoroutineScope.processWithDispatcher(channel: Channel<Job>, dispatcher: CoroutineDispatcher, depth: AtomicInteger) = launch(dispatcher) {
         for (job in channel) {
+            depth.decrementAndGet()
             if (!isActive) break
-            job.delegate = this@JobQueue
-            job.execute()
+            execute(job)
         }
     }
 
@@ -39,19 +47,23 @@ class JobQueue : JobDelegate {
         // Process jobs
         scope.launch {
             val rxQueue = Channel<Job>(capacity = 4096)
-            val txQueue = Channel<Job>(capacity = 4096)
             val attachmentQueue = Channel<Job>(capacity = 4096)
 
-            val receiveJob = processWithDispatcher(rxQueue, rxDispatcher)
-            val txJob = processWithDispatcher(txQueue, txDispatcher)
-            val attachmentJob = processWithDispatcher(attachmentQueue, attachmentDispatcher)
+            val receiveJob = processWithDispatcher(rxQueue, rxDispatcher, rxQueueDepth)
+            val attachmentJob = processWithDispatcher(attachmentQueue, attachmentDispatcher, attachmentQueueDepth)
 
             while (isActive) {
                 for (job in queue) {
                     when (job) {
-                        is NotifyPNServerJob, is AttachmentUploadJob, is MessageSendJob -> txQueue.send(job)
-                        is AttachmentDownloadJob -> attachmentQueue.send(job)
-                        is MessageReceiveJob, is TrimThreadJob -> rxQueue.send(job)
+                        is NotifyPNServerJob, is ClosedGroupPNOperationJob, is AttachmentUploadJob, is MessageSendJob -> transmitScheduler.submit(job)
+                        is AttachmentDownloadJob -> {
+                            attachmentQueueDepth.incrementAndGet()
+                            attachmentQueue.send(job)
+                        }
+                        is MessageReceiveJob, is BatchMessageReceiveJob, is TrimThreadJob -> {
+                            rxQueueDepth.incrementAndGet()
+                            rxQueue.send(job)
+                        }
                         else -> throw IllegalStateException("Unexpected job type.")
                     }
                 }
@@ -59,10 +71,15 @@ class JobQueue : JobDelegate {
 
             // The job has been cancelled
             receiveJob.cancel()
-            txJob.cancel()
             attachmentJob.cancel()
 
         }
+        TransmitScheduler.Lane.values().forEach { lane ->
+            JobTelemetry.registerQueue("JobQueue.transmit.${lane.name.toLowerCase(Locale.US)}") { transmitScheduler.getQueuedCount(lane) }
+        }
+        JobTelemetry.registerQueue("JobQueue.receive") { rxQueueDepth.get() }
+        JobTelemetry.registerQueue("JobQueue.attachment") { attachmentQueueDepth.get() }
+        JobTelemetry.registerQueue("JobQueue.retry") { retryWheel.size }
     }
 
     companion object {
@@ -72,21 +89,61 @@ class JobQueue : JobDelegate {
     }
 
     fun add(job: Job) {
+        if (job is MessageReceiveJob) { return addAll(listOf(job)) }
         addWithoutExecuting(job)
-        queue.offer(job) // offer always called on unlimited capacity
+        enqueue(job)
+    }
+
+    /**
+     * Adds `jobs` in the given order. Any `MessageReceiveJob`s among them are recorded in the receive journal as a
+     * single batch instead of being persisted one by one, and are executed together by `BatchMessageReceiveJob`s after
+     * the other jobs, so pollers should add everything from a poll response at once.
+     */
+    fun addAll(jobs: List<Job>) {
+        jobs.forEach { it.id = generateJobID() }
+        val receiveJobs = jobs.filterIsInstance<MessageReceiveJob>()
+        receiveJournal.append(receiveJobs)
+        jobs.forEach { job ->
+            if (job !is MessageReceiveJob) {
+                MessagingModuleConfiguration.shared.storage.persistJob(job)
+                enqueue(job)
+            }
+        }
+        batch(receiveJobs).forEach { enqueue(it) }
+    }
+
+    private fun batch(receiveJobs: List<MessageReceiveJob>): List<Job> {
+        return receiveJobs.chunked(BatchMessageReceiveJob.maxBatchSize).map { if (it.size == 1) it[0] else BatchMessageReceiveJob(it) }
+    }
+
+    private fun enqueue(job: Job) {
+        queuedAt[job] = System.nanoTime()
+        queue.offer(job) // Offer always called on unlimited capacity
+    }
+
+    private fun execute(job: Job) {
+        val now = System.nanoTime()
+        queuedAt.remove(job)?.let { JobTelemetry.recordQueueWait(job.getFactoryKey(), now - it) }
+        startedAt[job] = now
+        job.delegate = this
+        job.execute()
+    }
+
+    // Must be called once for every job that `execute` started, when it succeeds or fails
+    private fun recordExecution(job: Job) {
+        startedAt.remove(job)?.let { JobTelemetry.recordExecution(job.getFactoryKey(), System.nanoTime() - it) }
     }
 
     private fun addWithoutExecuting(job: Job) {
-        // When adding multiple jobs in rapid succession, timestamps might not be good enough as a unique ID. To
-        // deal with this we keep track of the number of jobs with a given timestamp and add that to the end of the
-        // timestamp to make it a unique ID. We can't use a random number because we do still want to keep track
-        // of the order in which the jobs were added.
-        val currentTime = System.currentTimeMillis()
-        jobTimestampMap.putIfAbsent(currentTime, AtomicInteger())
-        job.id = currentTime.toString() + jobTimestampMap[currentTime]!!.getAndIncrement().toString()
+        job.id = generateJobID()
         MessagingModuleConfiguration.shared.storage.persistJob(job)
     }
 
+    private fun generateJobID(): String {
+        // We can't use a random number because we do still want to keep track of the order in which the jobs were added
+        return jobIDGenerator.next().toString()
+    }
+
     fun resumePendingSendMessage(job: Job) {
         val id = job.id ?: run {
             Log.e("Loki", "tried to resume pending send job with no ID")
@@ -96,7 +153,7 @@ class JobQueue : JobDelegate {
             Log.e("Loki","tried to re-queue pending/in-progress job")
             return
         }
-        queue.offer(job)
+        enqueue(job)
         Log.d("Loki", "resumed pending send message $id")
     }
 
@@ -111,10 +168,13 @@ class JobQueue : JobDelegate {
             AttachmentDownloadJob.KEY,
             MessageReceiveJob.KEY,
             MessageSendJob.KEY,
-            NotifyPNServerJob.KEY
+            NotifyPNServerJob.KEY,
+            ClosedGroupPNOperationJob.KEY
         )
+        val storage = MessagingModuleConfiguration.shared.storage
+        val nextRunTimestamps = storage.getJobNextRunTimestamps()
         allJobTypes.forEach { type ->
-            val allPendingJobs = MessagingModuleConfiguration.shared.storage.getAllPendingJobs(type)
+            val allPendingJobs = storage.getAllPendingJobs(type)
             val pendingJobs = mutableListOf<Job>()
             for ((id, job) in allPendingJobs) {
                 if (job == null) {
@@ -126,21 +186,34 @@ class JobQueue : JobDelegate {
             }
             pendingJobs.sortedBy { it.id }.forEach { job ->
                 Log.i("Loki", "Resuming pending job of type: ${job::class.simpleName}.")
-                queue.offer(job) // Offer always called on unlimited capacity
+                // Jobs that are due are released in order, a batch at a time; retries that aren't due yet keep waiting
+                retryWheel.schedule(job, nextRunTimestamps[job.id] ?: 0)
+            }
+            if (type == MessageReceiveJob.KEY) {
+                // Envelopes left in the journal are executed in the batches they were received in
+                val replayedJobs = receiveJournal.replay().groupBy { it.journalBatchID }.values.flatMap { batch(it) }
+                replayedJobs.forEach { job ->
+                    Log.i("Loki", "Resuming pending job of type: ${job::class.simpleName}.")
+                    retryWheel.schedule(job, 0)
+                }
             }
         }
     }
 
     override fun handleJobSucceeded(job: Job) {
+        recordExecution(job)
+        JobTelemetry.recordSuccess(job.getFactoryKey())
         val jobId = job.id ?: return
-        MessagingModuleConfiguration.shared.storage.markJobAsSucceeded(jobId)
+        if (job.hasJobRow()) { MessagingModuleConfiguration.shared.storage.markJobAsSucceeded(jobId) }
+        if (job is MessageReceiveJob) { receiveJournal.commit(job) }
         pendingJobIds.remove(jobId)
     }
 
     override fun handleJobFailed(job: Job, error: Exception) {
+        recordExecution(job)
         // Canceled
         val storage = MessagingModuleConfiguration.shared.storage
-        if (storage.isJobCanceled(job)) {
+        if (!job.isJournaled() && storage.isJobCanceled(job)) {
             return Log.i("Loki", "${job::class.simpleName} canceled.")
         }
         // Message send jobs waiting for the attachment to upload
@@ -153,19 +226,25 @@ class JobQueue : JobDelegate {
         if (job.failureCount >= job.maxFailureCount) {
             handleJobFailedPermanently(job, error)
         } else {
-            storage.persistJob(job)
-            val retryInterval = getRetryInterval(job)
-            Log.i("Loki", "${job::class.simpleName} failed; scheduling retry (failure count is ${job.failureCount}).")
-            timer.schedule(delay = retryInterval) {
-                Log.i("Loki", "Retrying ${job::class.simpleName}.")
-                queue.offer(job)
+            val nextRunTimestamp = System.currentTimeMillis() + getRetryInterval(job)
+            if (job.isJournaled()) {
+                // The journal keeps the envelope until the job's row is on disk
+                receiveJournal.handOver(job as MessageReceiveJob) { storage.persistJobNow(job, nextRunTimestamp) }
+            } else {
+                storage.persistJob(job, nextRunTimestamp)
             }
+            Log.i("Loki", "${job::class.simpleName} failed; scheduling retry (failure count is ${job.failureCount}).")
+            JobTelemetry.recordRetry(job.getFactoryKey())
+            retryWheel.schedule(job, nextRunTimestamp)
         }
     }
 
     override fun handleJobFailedPermanently(job: Job, error: Exception) {
+        recordExecution(job)
+        JobTelemetry.recordFailure(job.getFactoryKey())
         val jobId = job.id ?: return
-        handleJobFailedPermanently(jobId)
+        if (job.hasJobRow()) { handleJobFailedPermanently(jobId) }
+        if (job is MessageReceiveJob) { receiveJournal.commit(job) }
     }
 
     private fun handleJobFailedPermanently(jobId: String) {
@@ -185,6 +264,9 @@ class JobQueue : JobDelegate {
         return (1000 * 0.25 * min(maxBackoff, (2.0).pow(job.failureCount))).roundToLong()
     }
 
-    private fun Job.isSend() = this is MessageSendJob || this is AttachmentUploadJob
+    private fun Job.isJournaled() = this is MessageReceiveJob && journalBatchID != null
+
+    // Journaled jobs only get a row once they've failed; a job whose row couldn't be written is still journaled too
+    private fun Job.hasJobRow() = !isJournaled() || failureCount > 0
 
 }
\ No newline at end of file
@@ -0,0 +1,118 @@
+package org.session.libsession.messaging.jobs
+
+import org.session.libsession.messaging.utilities.ProfileStateCache
+import org.session.libsession.utilities.LatencyHistogram
+import org.session.libsignal.utilities.ExecutorRegistry
+import java.io.File
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.Locale
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Timings and outcomes per job type for both job systems (`JobQueue` and the app's `JobManager`), and the live depth of
+ * each of their queues; the report also includes the state of the shared executors. Recording is a map lookup and a
+ * few atomic increments, so it stays on in production builds.
+ *
+ * Job types are factory keys. Queue wait is the time from when a job could first run (when it was added, or when its
+ * retry was due) to when it started; execution is the time from when it started to when it succeeded, failed or asked
+ * to be retried.
+ */
+object JobTelemetry {
+
+    class JobTypeStats internal constructor(val jobType: String) {
+        val queueWaitTimes = LatencyHistogram()
+        val executionTimes = LatencyHistogram()
+        val successCount = AtomicLong()
+        val retryCount = AtomicLong()
+        val failureCount = AtomicLong()
+
+        override fun toString(): String {
+            return "$jobType: ${successCount.get()} succeeded, ${retryCount.get()} retried, ${failureCount.get()} failed\n" +
+                "  queue wait: $queueWaitTimes\n" +
+                "  execution: $executionTimes"
+        }
+    }
+
+    private val statsByJobType = ConcurrentHashMap<String, JobTypeStats>()
+    private val queueDepths = ConcurrentHashMap<String, () -> Int>()
+
+    fun getStats(jobType: String): JobTypeStats {
+        return statsByJobType[jobType] ?: statsByJobType.putIfAbsent(jobType, JobTypeStats(jobType)) ?: statsByJobType[jobType]!!
+    }
+
+    fun getAllStats(): List<JobTypeStats> {
+        return statsByJobType.values.sortedBy { it.jobType }
+    }
+
+    fun recordQueueWait(jobType: String, durationNanos: Long) {
+        getStats(jobType).queueWaitTimes.record(durationNanos)
+    }
+
+    fun recordExecution(jobType: String, durationNanos: Long) {
+        getStats(jobType).executionTimes.record(durationNanos)
+    }
+
+    fun recordSuccess(jobType: String) {
+        getStats(jobType).successCount.incrementAndGet()
+    }
+
+    fun recordRetry(jobType: String) {
+        getStats(jobType).retryCount.incrementAndGet()
+    }
+
+    fun recordFailure(jobType: String) {
+        getStats(jobType).failureCount.incrementAndGet()
+    }
+
+    /**
+     * Registers a queue whose depth `getDepth` reports when asked. Registering the same name again replaces it.
+     */
+    fun registerQueue(name: String, getDepth: () -> Int) {
+        queueDepths[name] = getDepth
+    }
+
+    fun getQueueDepths(): Map<String, Int> {
+        return queueDepths.entries.sortedBy { it.key }.associate { it.key to it.value() }
+    }
+
+    fun getReport(): String {
+        val report = StringBuilder()
+        report.append("-- Queue depths\n")
+        getQueueDepths().forEach { (name, depth) -> report.append("$name: $depth\n") }
+        report.append("\n-- Executors\n")
+        report.append(ExecutorRegistry.getReport()).append('\n')
+        report.append("\n-- Job types\n")
+        getAllStats().forEach { report.append(it).append('\n') }
+        report.append("\n-- Profiles\n")
+        report.append("Unchanged profile writes skipped: ${ProfileStateCache.suppressedWriteCount.get()}\n")
+        return report.toString()
+    }
+
+    /**
+     * Writes the report, with the histogram buckets in full, to `file`.
+     */
+    fun exportTo(file: File) {
+        val report = StringBuilder()
+        report.append("Job telemetry at ${SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS zzz", Locale.US).format(Date())}\n\n")
+        report.append(getReport())
+        report.append("\n-- Buckets (upper bound in ms: count)\n")
+        for (stats in getAllStats()) {
+            report.append("${stats.jobType} queue wait: ${getBuckets(stats.queueWaitTimes)}\n")
+            report.append("${stats.jobType} execution: ${getBuckets(stats.executionTimes)}\n")
+        }
+        file.writeText(report.toString())
+    }
+
+    fun reset() {
+        statsByJobType.clear()
+    }
+
+    private fun getBuckets(histogram: LatencyHistogram): String {
+        return histogram.getCounts().withIndex().filter { it.value > 0 }.joinToString(", ") { (index, count) ->
+            val upperBound = LatencyHistogram.getUpperBoundMillis(index)
+            "${if (upperBound == Long.MAX_VALUE) "inf" else upperBound.toString()}: $count"
+        }
+    }
+}
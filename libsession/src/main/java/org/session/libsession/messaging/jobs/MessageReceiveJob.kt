@@ -11,13 +11,17 @@ class MessageReceiveJob(val data: ByteArray, val openGroupMessageServerID: Long?
     override var delegate: JobDelegate? = null
     override var id: String? = null
     override var failureCount: Int = 0
+    /**
+     * The `ReceiveJournal` batch this job was recorded in, if it's still awaiting processing there. Not serialized.
+     */
+    var journalBatchID: Long? = null
 
     override val maxFailureCount: Int = 10
     companion object {
         val TAG = MessageReceiveJob::class.simpleName
         val KEY: String = "MessageReceiveJob"
 
-        private val RECEIVE_LOCK = Object()
+        internal val RECEIVE_LOCK = Object()
 
         // Keys used for database storage
         private val DATA_KEY = "data"
@@ -34,31 +38,43 @@ class MessageReceiveJob(val data: ByteArray, val openGroupMessageServerID: Long?
     fun executeAsync(): Promise<Unit, Exception> {
         val deferred = deferred<Unit, Exception>()
         try {
-            val isRetry: Boolean = failureCount != 0
-            val (message, proto) = MessageReceiver.parse(this.data, this.openGroupMessageServerID, isRetry)
-            synchronized(RECEIVE_LOCK) { // FIXME: Do we need this?
-                MessageReceiver.handle(message, proto, this.openGroupID)
-            }
+            receive()
             this.handleSuccess()
             deferred.resolve(Unit)
         } catch (e: Exception) {
-            Log.e(TAG, "Couldn't receive message.", e)
-            if (e is MessageReceiver.Error && !e.isRetryable) {
-                Log.e("Loki", "Message receive job permanently failed.", e)
-                this.handlePermanentFailure(e)
-            } else {
-                Log.e("Loki", "Couldn't receive message.", e)
-                this.handleFailure(e)
-            }
+            this.handleError(e)
             deferred.resolve(Unit) // The promise is just used to keep track of when we're done
         }
         return deferred.promise
     }
 
-    private fun handleSuccess() {
+    /**
+     * Parses and handles the message, without reporting the outcome to the delegate. Only handling holds the receive
+     * lock; parsing (which includes decryption) can run alongside other jobs.
+     */
+    internal fun receive() {
+        val isRetry: Boolean = failureCount != 0
+        val (message, proto) = MessageReceiver.parse(this.data, this.openGroupMessageServerID, isRetry)
+        synchronized(RECEIVE_LOCK) { // FIXME: Do we need this?
+            MessageReceiver.handle(message, proto, this.openGroupID)
+        }
+    }
+
+    internal fun handleSuccess() {
         delegate?.handleJobSucceeded(this)
     }
 
+    internal fun handleError(e: Exception) {
+        Log.e(TAG, "Couldn't receive message.", e)
+        if (e is MessageReceiver.Error && !e.isRetryable) {
+            Log.e("Loki", "Message receive job permanently failed.", e)
+            this.handlePermanentFailure(e)
+        } else {
+            Log.e("Loki", "Couldn't receive message.", e)
+            this.handleFailure(e)
+        }
+    }
+
     private fun handlePermanentFailure(e: Exception) {
         delegate?.handleJobFailedPermanently(this, e)
     }
@@ -1,17 +1,14 @@
 package org.session.libsession.messaging.jobs
 
-import com.esotericsoftware.kryo.Kryo
-import com.esotericsoftware.kryo.io.Input
-import com.esotericsoftware.kryo.io.Output
 import nl.komponents.kovenant.FailedException
 import nl.komponents.kovenant.Promise
 import org.session.libsession.messaging.MessagingModuleConfiguration
-import org.session.libsession.messaging.jobs.Job.Companion.MAX_BUFFER_SIZE
 import org.session.libsession.messaging.messages.Destination
 import org.session.libsession.messaging.messages.Message
 import org.session.libsession.messaging.messages.visible.VisibleMessage
 import org.session.libsession.messaging.sending_receiving.MessageSender
 import org.session.libsession.messaging.utilities.Data
+import org.session.libsession.messaging.utilities.KryoPool
 import org.session.libsignal.utilities.Log
 
 class MessageSendJob(val message: Message, val destination: Destination) : Job {
@@ -31,6 +28,7 @@ class MessageSendJob(val message: Message, val destination: Destination) : Job {
         // Keys used for database storage
         private val MESSAGE_KEY = "message"
         private val DESTINATION_KEY = "destination"
+        private val IS_MMS_KEY = "is_mms"
     }
 
     override fun execute() {
@@ -38,14 +36,18 @@ class MessageSendJob(val message: Message, val destination: Destination) : Job {
         val message = message as? VisibleMessage
         val storage = MessagingModuleConfiguration.shared.storage
 
+        val messageID = this.message.id
+        val isMms = this.message.isMms
         val sentTimestamp = this.message.sentTimestamp
         val sender = storage.getUserPublicKey()
-        if (sentTimestamp != null && sender != null) {
+        if (messageID != null && isMms != null) {
+            storage.markAsSending(messageID, isMms)
+        } else if (sentTimestamp != null && sender != null) {
             storage.markAsSending(sentTimestamp, sender)
         }
 
         if (message != null) {
-            if (!messageDataProvider.isOutgoingMessage(message.sentTimestamp!!)) return // The message has been deleted
+            if (!isOutgoingMessage(message)) return // The message has been deleted
             val attachmentIDs = mutableListOf<Long>()
             attachmentIDs.addAll(message.attachmentIDs)
             message.quote?.let { it.attachmentID?.let { attachmentID -> attachmentIDs.add(attachmentID) } }
@@ -93,31 +95,35 @@ class MessageSendJob(val message: Message, val destination: Destination) : Job {
         Log.w(TAG, "Failed to send $message::class.simpleName.")
         val message = message as? VisibleMessage
         if (message != null) {
-            if (!MessagingModuleConfiguration.shared.messageDataProvider.isOutgoingMessage(message.sentTimestamp!!)) {
+            if (!isOutgoingMessage(message)) {
                 return // The message has been deleted
             }
         }
         delegate?.handleJobFailed(this, error)
     }
 
+    private fun isOutgoingMessage(message: VisibleMessage): Boolean {
+        val messageDataProvider = MessagingModuleConfiguration.shared.messageDataProvider
+        val messageID = message.id
+        val isMms = message.isMms
+        return if (messageID != null && isMms != null) {
+            messageDataProvider.isOutgoingMessage(messageID, isMms)
+        } else {
+            messageDataProvider.isOutgoingMessage(message.sentTimestamp!!)
+        }
+    }
+
     override fun serialize(): Data {
-        val kryo = Kryo()
-        kryo.isRegistrationRequired = false
         // Message
-        val messageOutput = Output(ByteArray(4096), MAX_BUFFER_SIZE)
-        kryo.writeClassAndObject(messageOutput, message)
-        messageOutput.close()
-        val serializedMessage = messageOutput.toBytes()
+        val serializedMessage = KryoPool.writeClassAndObject(message)
         // Destination
-        val destinationOutput = Output(ByteArray(4096), MAX_BUFFER_SIZE)
-        kryo.writeClassAndObject(destinationOutput, destination)
-        destinationOutput.close()
-        val serializedDestination = destinationOutput.toBytes()
+        val serializedDestination = KryoPool.writeClassAndObject(destination)
         // Serialize
-        return Data.Builder()
+        val builder = Data.Builder()
             .putByteArray(MESSAGE_KEY, serializedMessage)
             .putByteArray(DESTINATION_KEY, serializedDestination)
-            .build()
+        message.isMms?.let { builder.putBoolean(IS_MMS_KEY, it) }
+        return builder.build()
     }
 
     override fun getFactoryKey(): String {
@@ -129,28 +135,23 @@ class MessageSendJob(val message: Message, val destination: Destination) : Job {
         override fun create(data: Data): MessageSendJob? {
             val serializedMessage = data.getByteArray(MESSAGE_KEY)
             val serializedDestination = data.getByteArray(DESTINATION_KEY)
-            val kryo = Kryo()
-            kryo.isRegistrationRequired = false
             // Message
-            val messageInput = Input(serializedMessage)
             val message: Message
             try {
-                message = kryo.readClassAndObject(messageInput) as Message
+                message = KryoPool.readClassAndObject(serializedMessage) as Message
             } catch (e: Exception) {
                 Log.e("Loki", "Couldn't deserialize message send job.", e)
                 return null
             }
-            messageInput.close()
+            if (data.hasBoolean(IS_MMS_KEY)) { message.isMms = data.getBoolean(IS_MMS_KEY) }
             // Destination
-            val destinationInput = Input(serializedDestination)
             val destination: Destination
             try {
-                destination = kryo.readClassAndObject(destinationInput) as Destination
+                destination = KryoPool.readClassAndObject(serializedDestination) as Destination
             } catch (e: Exception) {
                 Log.e("Loki", "Couldn't deserialize message send job.", e)
                 return null
             }
-            destinationInput.close()
             // Return
             return MessageSendJob(message, destination)
         }
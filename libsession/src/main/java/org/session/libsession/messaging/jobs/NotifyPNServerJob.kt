@@ -1,22 +1,10 @@
 package org.session.libsession.messaging.jobs
 
-import com.esotericsoftware.kryo.Kryo
-import com.esotericsoftware.kryo.io.Input
-import com.esotericsoftware.kryo.io.Output
-import nl.komponents.kovenant.functional.map
-import okhttp3.MediaType
-import okhttp3.Request
-import okhttp3.RequestBody
-import org.session.libsession.messaging.jobs.Job.Companion.MAX_BUFFER_SIZE
-
-import org.session.libsession.messaging.sending_receiving.notifications.PushNotificationAPI
+import org.session.libsession.messaging.sending_receiving.notifications.PushNotificationBatcher
 import org.session.libsession.messaging.utilities.Data
+import org.session.libsession.messaging.utilities.KryoPool
 import org.session.libsession.snode.SnodeMessage
-import org.session.libsession.snode.OnionRequestAPI
 
-import org.session.libsignal.utilities.Log
-import org.session.libsignal.utilities.JsonUtil
-import org.session.libsignal.utilities.retryIfNeeded
 
 class NotifyPNServerJob(val message: SnodeMessage) : Job {
     override var delegate: JobDelegate? = null
@@ -32,23 +20,9 @@ class NotifyPNServerJob(val message: SnodeMessage) : Job {
     }
 
     override fun execute() {
-        val server = PushNotificationAPI.server
-        val parameters = mapOf( "data" to message.data, "send_to" to message.recipient )
-        val url = "${server}/notify"
-        val body = RequestBody.create(MediaType.get("application/json"), JsonUtil.toJson(parameters))
-        val request = Request.Builder().url(url).post(body)
-        retryIfNeeded(4) {
-            OnionRequestAPI.sendOnionRequest(request.build(), server, PushNotificationAPI.serverPublicKey, "/loki/v2/lsrpc").map { json ->
-                val code = json["code"] as? Int
-                if (code == null || code == 0) {
-                    Log.d("Loki", "Couldn't notify PN server due to error: ${json["message"] as? String ?: "null"}.")
-                }
-            }.fail { exception ->
-                Log.d("Loki", "Couldn't notify PN server due to error: $exception.")
-            }
-        }.success {
+        PushNotificationBatcher.enqueue(PushNotificationBatcher.Operation.Notify(message)).success {
             handleSuccess()
-        }. fail {
+        }.fail {
             handleFailure(it)
         }
     }
@@ -62,12 +36,7 @@ class NotifyPNServerJob(val message: SnodeMessage) : Job {
     }
 
     override fun serialize(): Data {
-        val kryo = Kryo()
-        kryo.isRegistrationRequired = false
-        val serializedMessage = ByteArray(4096)
-        val output = Output(serializedMessage, MAX_BUFFER_SIZE)
-        kryo.writeObject(output, message)
-        output.close()
+        val serializedMessage = KryoPool.writeObject(message)
         return Data.Builder()
             .putByteArray(MESSAGE_KEY, serializedMessage)
             .build();
@@ -81,11 +50,7 @@ class NotifyPNServerJob(val message: SnodeMessage) : Job {
 
         override fun create(data: Data): NotifyPNServerJob {
             val serializedMessage = data.getByteArray(MESSAGE_KEY)
-            val kryo = Kryo()
-            kryo.isRegistrationRequired = false
-            val input = Input(serializedMessage)
-            val message = kryo.readObject(input, SnodeMessage::class.java)
-            input.close()
+            val message = KryoPool.readObject(serializedMessage, SnodeMessage::class.java)
             return NotifyPNServerJob(message)
         }
     }
@@ -0,0 +1,81 @@
+package org.session.libsession.messaging.jobs
+
+import org.session.libsession.messaging.MessagingModuleConfiguration
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Keeps `MessageReceiveJob`s durable without giving each of them a row in the job database. The envelopes from a poll are
+ * appended to the journal in one write, and the batch is truncated in one write once every job in it has either succeeded,
+ * failed permanently, or been handed over to the job database for a retry. That's two writes per batch rather than two
+ * writes per envelope.
+ *
+ * If the app dies before a batch is truncated, the batch is replayed in full on the next launch. Envelopes that had already
+ * been processed are caught by the duplicate checks when their messages are inserted.
+ *
+ * Batch IDs start at `firstBatchID`, the launch time by default. A process appends far fewer than one batch per
+ * millisecond, so every batch left over from an earlier launch has a lower ID than any batch appended by this one.
+ */
+class ReceiveJournal(
+    private val store: Store = StorageStore,
+    private val firstBatchID: Long = System.currentTimeMillis()
+) {
+    private val nextBatchID = AtomicLong(firstBatchID)
+    private val remainingJobCounts = ConcurrentHashMap<Long, AtomicInteger>()
+
+    interface Store {
+        fun append(batchID: Long, jobs: List<MessageReceiveJob>)
+        fun truncate(batchID: Long)
+        fun getAll(): List<Pair<Long, MessageReceiveJob>>
+    }
+
+    private object StorageStore : Store {
+        override fun append(batchID: Long, jobs: List<MessageReceiveJob>) = MessagingModuleConfiguration.shared.storage.appendToReceiveJournal(batchID, jobs)
+        override fun truncate(batchID: Long) = MessagingModuleConfiguration.shared.storage.truncateReceiveJournal(batchID)
+        override fun getAll() = MessagingModuleConfiguration.shared.storage.getReceiveJournal()
+    }
+
+    fun append(jobs: List<MessageReceiveJob>) {
+        if (jobs.isEmpty()) { return }
+        val batchID = nextBatchID.getAndIncrement()
+        remainingJobCounts[batchID] = AtomicInteger(jobs.size)
+        jobs.forEach { it.journalBatchID = batchID }
+        store.append(batchID, jobs)
+    }
+
+    /**
+     * Marks `job` as no longer needing the journal, truncating its batch if it was the last one outstanding.
+     */
+    fun commit(job: MessageReceiveJob) {
+        val batchID = job.journalBatchID ?: return
+        job.journalBatchID = null
+        val remainingJobCount = remainingJobCounts[batchID] ?: return
+        if (remainingJobCount.decrementAndGet() > 0) { return }
+        remainingJobCounts.remove(batchID)
+        store.truncate(batchID)
+    }
+
+    /**
+     * Hands `job` over to the job database for a retry. `persist` writes the job's row and returns whether it's on disk;
+     * only then is the job committed, so there's no point at which neither the journal nor the job database holds the
+     * envelope. If the row couldn't be written the job stays in the journal, and is committed once it's done.
+     */
+    fun handOver(job: MessageReceiveJob, persist: () -> Boolean) {
+        if (persist()) { commit(job) }
+    }
+
+    /**
+     * Returns the jobs left over from previous launches so that they can be executed again. Batches appended by this
+     * process are still being executed and are left out, so pollers that started first don't get their envelopes
+     * executed twice.
+     */
+    fun replay(): List<MessageReceiveJob> {
+        val entries = store.getAll().filter { it.first < firstBatchID }
+        entries.groupBy({ it.first }, { it.second }).forEach { (batchID, jobs) ->
+            remainingJobCounts[batchID] = AtomicInteger(jobs.size)
+            jobs.forEach { it.journalBatchID = batchID }
+        }
+        return entries.map { it.second }
+    }
+}
@@ -0,0 +1,163 @@
+package org.session.libsession.messaging.jobs
+
+import org.session.libsignal.utilities.Log
+import java.util.ArrayDeque
+
+/**
+ * A hierarchical timing wheel for job retries, driven by a single thread that only wakes up when something is due (or
+ * when a coarser level has to be moved down a level).
+ *
+ * There are three levels of 64 slots each. Level 0 slots are one tick wide, level 1 slots are 64 ticks wide and level 2
+ * slots are 4,096 ticks wide, so with the default 100 ms tick the wheel covers a little over 7 hours without any
+ * bookkeeping beyond the item itself. Anything further out is parked in the last level 2 slot and re-filed when that
+ * slot comes up. Scheduling and expiring are constant time.
+ *
+ * Items that are due are released at most `maxReleasesPerTick` at a time, so that a backlog (e.g. all jobs resumed on
+ * launch, or retries that fell due while the process was dead) is worked through gradually rather than all at once.
+ *
+ * Without `isThreaded` there's no thread, and the wheel only moves when `advance` is called; that's for testing.
+ */
+class RetryWheel<T>(
+    private val tickMillis: Long = defaultTickMillis,
+    private val maxReleasesPerTick: Int = defaultMaxReleasesPerTick,
+    private val clock: () -> Long = { System.currentTimeMillis() },
+    private val isThreaded: Boolean = true,
+    private val release: (T) -> Unit
+) {
+    private class Entry<T>(val item: T, val deadlineTick: Long)
+
+    private val lock = Object()
+    private val levels = Array(levelCount) { Array(slotCount) { ArrayDeque<Entry<T>>() } }
+    private val ready = ArrayDeque<T>()
+    private var currentTick = clock() / tickMillis
+    private var scheduledCount = 0
+    private var thread: Thread? = null
+
+    companion object {
+        const val defaultTickMillis = 100L
+        const val defaultMaxReleasesPerTick = 50
+        private const val levelCount = 3
+        private const val slotBits = 6
+        private const val slotCount = 1 shl slotBits
+        private const val slotMask = slotCount - 1L
+    }
+
+    /** The number of items waiting in the wheel or waiting to be released. */
+    val size: Int get() = synchronized(lock) { scheduledCount + ready.size }
+
+    /**
+     * Releases `item` once `runTimestamp` has passed. A timestamp in the past releases it with the next batch.
+     */
+    fun schedule(item: T, runTimestamp: Long) {
+        synchronized(lock) {
+            file(Entry(item, (runTimestamp + tickMillis - 1) / tickMillis))
+            startIfNeeded()
+            lock.notifyAll()
+        }
+    }
+
+    /**
+     * Moves the wheel forward to `now` and returns the items to release, at most `maxReleasesPerTick` of them. Called by
+     * the wheel's thread; exposed for testing.
+     */
+    internal fun advance(now: Long): List<T> {
+        synchronized(lock) {
+            val nowTick = now / tickMillis
+            if (scheduledCount == 0) {
+                currentTick = Math.max(currentTick, nowTick)
+            }
+            while (currentTick < nowTick) {
+                currentTick += 1
+                // Move coarser slots down before expiring the level 0 slot, so that items due this tick are in it
+                if (currentTick and slotMask == 0L) {
+                    if ((currentTick shr slotBits) and slotMask == 0L) { cascade(2) }
+                    cascade(1)
+                }
+                val slot = levels[0][(currentTick and slotMask).toInt()]
+                while (slot.isNotEmpty()) {
+                    ready.addLast(slot.removeFirst().item)
+                    scheduledCount -= 1
+                }
+            }
+            val result = ArrayList<T>(Math.min(ready.size, maxReleasesPerTick))
+            while (ready.isNotEmpty() && result.size < maxReleasesPerTick) { result.add(ready.removeFirst()) }
+            return result
+        }
+    }
+
+    // Must be called with `lock` held
+    private fun file(entry: Entry<T>) {
+        if (entry.deadlineTick <= currentTick) {
+            ready.addLast(entry.item)
+            return
+        }
+        scheduledCount += 1
+        for (level in 0 until levelCount) {
+            val shift = slotBits * level
+            if ((entry.deadlineTick shr shift) - (currentTick shr shift) < slotCount) {
+                levels[level][((entry.deadlineTick shr shift) and slotMask).toInt()].addLast(entry)
+                return
+            }
+        }
+        // Beyond the wheel's range; park it in the furthest level 2 slot and re-file it from there
+        val shift = slotBits * (levelCount - 1)
+        levels[levelCount - 1][(((currentTick shr shift) + slotMask) and slotMask).toInt()].addLast(entry)
+    }
+
+    // Must be called with `lock` held
+    private fun cascade(level: Int) {
+        val slot = levels[level][((currentTick shr (slotBits * level)) and slotMask).toInt()]
+        val entries = ArrayList(slot)
+        slot.clear()
+        scheduledCount -= entries.size
+        entries.forEach { file(it) }
+    }
+
+    // Must be called with `lock` held. Returns how long the thread can sleep before there may be something to do.
+    private fun getSleepMillis(): Long {
+        if (ready.isNotEmpty()) { return tickMillis }
+        if (scheduledCount == 0) { return 0 }
+        // Find the next non-empty level 0 slot, or else the next level 1 boundary, when a cascade may fill level 0
+        val ticksToBoundary = slotCount - (currentTick and slotMask)
+        for (offset in 1..ticksToBoundary) {
+            if (levels[0][((currentTick + offset) and slotMask).toInt()].isNotEmpty()) {
+                return offset * tickMillis - clock() % tickMillis
+            }
+        }
+        return ticksToBoundary * tickMillis - clock() % tickMillis
+    }
+
+    // Must be called with `lock` held
+    private fun startIfNeeded() {
+        if (!isThreaded || thread != null) { return }
+        val thread = Thread({ run() }, "job-retry-wheel")
+        thread.isDaemon = true
+        thread.start()
+        this.thread = thread
+    }
+
+    private fun run() {
+        while (true) {
+            try {
+                synchronized(lock) {
+                    var sleepMillis = getSleepMillis()
+                    while (sleepMillis != 0L && currentTick >= clock() / tickMillis) {
+                        // Woken up early by a new item, which may be due sooner
+                        lock.wait(Math.max(1L, sleepMillis))
+                        sleepMillis = getSleepMillis()
+                    }
+                    if (sleepMillis == 0L && ready.isEmpty()) { lock.wait() }
+                }
+            } catch (e: InterruptedException) {
+                return
+            }
+            advance(clock()).forEach { item ->
+                try {
+                    release(item)
+                } catch (e: Exception) {
+                    Log.e("Loki", "Couldn't release job retry.", e)
+                }
+            }
+        }
+    }
+}
@@ -8,6 +8,7 @@ class SessionJobManagerFactories {
             return mapOf(
                 AttachmentDownloadJob.KEY to AttachmentDownloadJob.Factory(),
                 AttachmentUploadJob.KEY to AttachmentUploadJob.Factory(),
+                ClosedGroupPNOperationJob.KEY to ClosedGroupPNOperationJob.Factory(),
                 MessageReceiveJob.KEY to MessageReceiveJob.Factory(),
                 MessageSendJob.KEY to MessageSendJob.Factory(),
                 NotifyPNServerJob.KEY to NotifyPNServerJob.Factory(),
@@ -0,0 +1,175 @@
+package org.session.libsession.messaging.jobs
+
+import org.session.libsession.messaging.messages.Destination
+import org.session.libsession.messaging.messages.visible.VisibleMessage
+import org.session.libsession.utilities.LatencyHistogram
+import org.session.libsignal.utilities.ExecutorRegistry
+import org.session.libsignal.utilities.Log
+import java.util.ArrayDeque
+import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit
+
+/**
+ * Schedules the transmit side of the job queue. Jobs are sorted into lanes, and whenever a worker is free the next lane
+ * is chosen by stride scheduling over the lane weights, so a busy lane gets its share without locking the others out.
+ * A lane whose oldest runnable job has waited longer than the lane's `maxWaitMillis` jumps the queue, and no lane ever
+ * runs more jobs at once than its `maxConcurrency`.
+ *
+ * Jobs with the same ordering key (the conversation a message is sent to) run one at a time and in the order they were
+ * submitted, even across lanes, while jobs for different conversations run concurrently.
+ */
+class TransmitScheduler internal constructor(
+    private val workerCount: Int,
+    private val executor: Executor,
+    private val laneFor: (Job) -> Lane,
+    private val run: (Job) -> Unit,
+    private val clock: () -> Long = System::nanoTime,
+    private val orderingKeyFor: (Job) -> String? = { null }
+) {
+
+    enum class Lane(val weight: Int, val maxConcurrency: Int, val maxWaitMillis: Long) {
+        /** Visible messages the user is waiting on. */
+        INTERACTIVE(8, 4, 2_000),
+        /** Control messages like closed group updates, read receipts and configuration messages. */
+        CONTROL(4, 2, 5_000),
+        /** Attachment uploads, which can take a long time. */
+        UPLOAD(2, 2, 15_000),
+        /** Push notification server calls. */
+        BACKGROUND(1, 1, 30_000)
+    }
+
+    companion object {
+        private const val stride = 1L shl 20
+        /** The maximum number of transmit jobs (and so onion requests to different conversations) in flight at once. */
+        private const val defaultWorkerCount = 6
+
+        fun getDefaultLane(job: Job): Lane {
+            return when (job) {
+                is MessageSendJob -> if (job.message is VisibleMessage) Lane.INTERACTIVE else Lane.CONTROL
+                is AttachmentUploadJob -> Lane.UPLOAD
+                else -> Lane.BACKGROUND
+            }
+        }
+
+        fun getDefaultOrderingKey(job: Job): String? {
+            if (job !is MessageSendJob) { return null }
+            return when (val destination = job.destination) {
+                is Destination.Contact -> destination.publicKey
+                is Destination.ClosedGroup -> destination.groupPublicKey
+                is Destination.OpenGroupV2 -> "${destination.server}.${destination.room}"
+            }
+        }
+
+        fun create(run: (Job) -> Unit): TransmitScheduler {
+            // The scheduler never runs more than `workerCount` jobs at once, so it doesn't need a pool of its own
+            return TransmitScheduler(defaultWorkerCount, ExecutorRegistry.io, ::getDefaultLane, run, orderingKeyFor = ::getDefaultOrderingKey)
+        }
+    }
+
+    private class Entry(val job: Job, val orderingKey: String?, val enqueuedAt: Long)
+
+    private class LaneState(val lane: Lane) {
+        val queue = ArrayDeque<Entry>()
+        var running = 0
+        /** The lane's position in stride scheduling; the runnable lane with the lowest pass goes next. */
+        var pass = 0L
+        val waitTimes = LatencyHistogram()
+    }
+
+    private val lock = Any()
+    private val laneStates = Lane.values().map { LaneState(it) }
+    /** Queued jobs per ordering key in submission order. Only the head of each queue may run. */
+    private val orderingQueues = HashMap<String, ArrayDeque<Entry>>()
+    private val runningKeys = HashSet<String>()
+    private var idleWorkerCount = workerCount
+    /** The pass of the most recently scheduled lane. Lanes that were idle restart from here so they can't bank credit. */
+    private var globalPass = 0L
+
+    fun submit(job: Job) {
+        val state = laneStates[laneFor(job).ordinal]
+        val entry = Entry(job, orderingKeyFor(job), clock())
+        synchronized(lock) {
+            if (state.queue.isEmpty() && state.running == 0) { state.pass = Math.max(state.pass, globalPass) }
+            state.queue.addLast(entry)
+            if (entry.orderingKey != null) {
+                orderingQueues.getOrPut(entry.orderingKey) { ArrayDeque() }.addLast(entry)
+            }
+        }
+        dispatch()
+    }
+
+    /**
+     * The time jobs in `lane` spent queued before a worker picked them up.
+     */
+    fun getWaitTimeHistogram(lane: Lane): LatencyHistogram {
+        return laneStates[lane.ordinal].waitTimes
+    }
+
+    fun getQueuedCount(lane: Lane): Int {
+        return synchronized(lock) { laneStates[lane.ordinal].queue.size }
+    }
+
+    private fun dispatch() {
+        while (true) {
+            val state: LaneState
+            val entry: Entry
+            synchronized(lock) {
+                if (idleWorkerCount == 0) { return }
+                val selected = select() ?: return
+                state = selected.first
+                entry = selected.second
+                state.queue.remove(entry)
+                state.running += 1
+                idleWorkerCount -= 1
+                if (entry.orderingKey != null) {
+                    val orderingQueue = orderingQueues.getValue(entry.orderingKey)
+                    orderingQueue.removeFirst()
+                    if (orderingQueue.isEmpty()) { orderingQueues.remove(entry.orderingKey) }
+                    runningKeys.add(entry.orderingKey)
+                }
+            }
+            state.waitTimes.record(clock() - entry.enqueuedAt)
+            executor.execute {
+                try {
+                    run(entry.job)
+                } catch (e: Exception) {
+                    Log.e("Loki", "Unhandled exception in ${entry.job::class.simpleName}.", e)
+                } finally {
+                    synchronized(lock) {
+                        state.running -= 1
+                        idleWorkerCount += 1
+                        if (entry.orderingKey != null) { runningKeys.remove(entry.orderingKey) }
+                    }
+                    dispatch()
+                }
+            }
+        }
+    }
+
+    // Must be called with the lock held
+    private fun isRunnable(entry: Entry): Boolean {
+        val key = entry.orderingKey ?: return true
+        return key !in runningKeys && orderingQueues[key]?.peekFirst() === entry
+    }
+
+    // Must be called with the lock held
+    private fun select(): Pair<LaneState, Entry>? {
+        val now = clock()
+        var starved: Pair<LaneState, Entry>? = null
+        var next: Pair<LaneState, Entry>? = null
+        for (state in laneStates) {
+            if (state.running >= state.lane.maxConcurrency) { continue }
+            val entry = state.queue.firstOrNull { isRunnable(it) } ?: continue
+            val waited = TimeUnit.NANOSECONDS.toMillis(now - entry.enqueuedAt)
+            if (waited >= state.lane.maxWaitMillis && (starved == null || entry.enqueuedAt < starved.second.enqueuedAt)) {
+                starved = Pair(state, entry)
+            }
+            if (next == null || state.pass < next.first.pass) { next = Pair(state, entry) }
+        }
+        val selected = starved ?: next ?: return null
+        val state = selected.first
+        globalPass = state.pass
+        state.pass += stride / state.lane.weight
+        return selected
+    }
+}
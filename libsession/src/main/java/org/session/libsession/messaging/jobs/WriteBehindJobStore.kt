@@ -0,0 +1,179 @@
+package org.session.libsession.messaging.jobs
+
+import org.session.libsession.messaging.utilities.Data
+import org.session.libsignal.utilities.ExecutorRegistry
+import org.session.libsignal.utilities.Log
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Write-behind persistence for jobs. Inserts, updates and deletes are recorded in an in-memory log keyed by job ID, so
+ * that later changes to a job replace earlier ones, and the log is written out in a single transaction on the shared IO
+ * pool shortly afterwards. `flush` serializes the writes itself, so they don't need a thread of their own. A job that finishes before its insert was written never touches the database at
+ * all, which is the common case for short-lived jobs.
+ *
+ * Durability: a change is on disk once `flush` has returned after it was recorded, or at most `flushDelayMillis` after
+ * it was recorded if the writer isn't behind. If the process dies within that window, the most recent changes are lost
+ * as a whole (each flush is one transaction, so the database never holds half a flush): a job added in that window is
+ * never resumed, a retry count may be one lower than it was, and a job that had already finished may run again on the
+ * next launch. Jobs that must never run twice already guard against that, as they did when a job finished but the app
+ * died before its row was deleted. Reads go through `flush` first, so they always see every change recorded before them.
+ *
+ * Once the log holds `maxPendingCount` entries it's written out right away rather than after the flush delay. That's
+ * done on the IO pool too, because the caller may be inside a database transaction that the write would wait for.
+ */
+class WriteBehindJobStore(
+    private val writer: Writer,
+    private val flushDelayMillis: Long = defaultFlushDelayMillis,
+    private val maxPendingCount: Int = defaultMaxPendingCount,
+    /** Times the flush delay; the flush itself is handed off to the IO pool. */
+    private val executor: ScheduledExecutorService = ExecutorRegistry.scheduled
+) {
+    private val lock = Object()
+    private val flushLock = Object()
+    private val pending = LinkedHashMap<String, PendingWrite>()
+    // The IDs of jobs known to have a row, either because this store wrote one or because it was read from the database
+    private val persistedIDs = HashSet<String>()
+    private val inFlightIDs = HashSet<String>()
+    private var isFlushScheduled = false
+    private var isFullFlushRequested = false
+
+    val flushCount = AtomicLong(0)
+    val writtenCount = AtomicLong(0)
+    val skippedInsertCount = AtomicLong(0)
+
+    companion object {
+        const val defaultFlushDelayMillis = 100L
+        const val defaultMaxPendingCount = 512
+    }
+
+    /**
+     * A snapshot of a job as it should be stored, taken when the change was recorded so that the job can keep changing
+     * while it waits to be written.
+     */
+    class Entry(
+        val id: String,
+        val factoryKey: String,
+        val failureCount: Int,
+        val data: Data,
+        val metadata: JobMetadata = JobMetadata(),
+        // When the job should next run, if it's waiting to be retried; null leaves what's stored as it is
+        val nextRunTimestamp: Long? = null
+    )
+
+    interface Writer {
+
+        /**
+         * Inserts or replaces every entry in `upserts` and deletes every job in `deletedJobIDs`, in a single transaction.
+         */
+        fun write(upserts: List<Entry>, deletedJobIDs: List<String>)
+    }
+
+    // `entry` is null for a delete; `isInsert` means no row for the job exists yet
+    private class PendingWrite(val entry: Entry?, val isInsert: Boolean)
+
+    fun persist(job: Job, nextRunTimestamp: Long? = null) {
+        var entry = Entry(job.id!!, job.getFactoryKey(), job.failureCount, job.serialize(), JobMetadata.from(job), nextRunTimestamp)
+        synchronized(lock) {
+            val previous = pending[entry.id]
+            // Don't drop a retry time that hasn't been written yet
+            val previousNextRunTimestamp = previous?.entry?.nextRunTimestamp
+            if (nextRunTimestamp == null && previousNextRunTimestamp != null) {
+                entry = Entry(entry.id, entry.factoryKey, entry.failureCount, entry.data, entry.metadata, previousNextRunTimestamp)
+            }
+            val isInsert = previous?.isInsert ?: (entry.id !in persistedIDs && entry.id !in inFlightIDs)
+            pending[entry.id] = PendingWrite(entry, isInsert)
+            onChanged()
+        }
+    }
+
+    fun delete(jobID: String) {
+        synchronized(lock) {
+            if (pending[jobID]?.isInsert == true) {
+                // The job was never written, so there's nothing to delete
+                pending.remove(jobID)
+                skippedInsertCount.incrementAndGet()
+                return
+            }
+            pending[jobID] = PendingWrite(null, false)
+            onChanged()
+        }
+    }
+
+    /**
+     * Records that a row for `jobID` exists, e.g. because the job was just read from the database.
+     */
+    fun markPersisted(jobID: String) {
+        synchronized(lock) { persistedIDs.add(jobID) }
+    }
+
+    /**
+     * Writes out the log on the IO pool without waiting for the flush delay, e.g. when the app goes to the background.
+     */
+    fun requestFlush() {
+        ExecutorRegistry.io.execute { flush() }
+    }
+
+    /**
+     * Writes out everything recorded before the call, and returns once it's on disk. If the write fails, the changes are
+     * kept and retried later. Returns whether everything recorded before the call is on disk.
+     */
+    fun flush(): Boolean {
+        synchronized(flushLock) {
+            val batch = synchronized(lock) {
+                if (pending.isEmpty()) { return true }
+                val batch = LinkedHashMap(pending)
+                pending.clear()
+                inFlightIDs.addAll(batch.keys)
+                batch
+            }
+            val upserts = batch.values.mapNotNull { it.entry }
+            val deletedJobIDs = batch.filterValues { it.entry == null }.keys.toList()
+            try {
+                writer.write(upserts, deletedJobIDs)
+                flushCount.incrementAndGet()
+                writtenCount.addAndGet(batch.size.toLong())
+                synchronized(lock) {
+                    upserts.forEach { persistedIDs.add(it.id) }
+                    persistedIDs.removeAll(deletedJobIDs)
+                    inFlightIDs.clear()
+                }
+                return true
+            } catch (e: Exception) {
+                Log.e("Loki", "Couldn't write ${batch.size} job changes; retrying later.", e)
+                synchronized(lock) {
+                    inFlightIDs.clear()
+                    // Changes recorded during the write are newer, so they win
+                    for ((id, write) in batch) {
+                        if (!pending.containsKey(id)) { pending[id] = write }
+                    }
+                    onChanged()
+                }
+                return false
+            }
+        }
+    }
+
+    val pendingCount: Int get() = synchronized(lock) { pending.size }
+
+    // Must be called with `lock` held
+    private fun onChanged() {
+        if (pending.size >= maxPendingCount && !isFullFlushRequested) {
+            isFullFlushRequested = true
+            ExecutorRegistry.io.execute {
+                synchronized(lock) { isFullFlushRequested = false }
+                flush()
+            }
+        }
+        if (!isFlushScheduled) {
+            isFlushScheduled = true
+            executor.schedule(Runnable {
+                ExecutorRegistry.io.execute {
+                    synchronized(lock) { isFlushScheduled = false }
+                    flush()
+                }
+            }, flushDelayMillis, TimeUnit.MILLISECONDS)
+        }
+    }
+}
@@ -6,6 +6,12 @@ import org.session.libsignal.protos.SignalServiceProtos
 
 abstract class Message {
     var id: Long? = null
+    /**
+     * Whether [id] is a row in the MMS table rather than the SMS table. Only known for messages that were stored locally
+     * before being sent. Kept out of the Kryo serialized form (`MessageSendJob` stores it separately) so that jobs
+     * persisted before it existed still deserialize.
+     */
+    @Transient var isMms: Boolean? = null
     var threadID: Long? = null
     var sentTimestamp: Long? = null
     var receivedTimestamp: Long? = null
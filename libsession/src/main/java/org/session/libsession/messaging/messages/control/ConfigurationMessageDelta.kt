@@ -0,0 +1,84 @@
+package org.session.libsession.messaging.messages.control
+
+import org.session.libsignal.utilities.toHexString
+import java.security.MessageDigest
+
+/**
+ * Works out which parts of a configuration message changed since the last one was sent, so that syncs between full
+ * snapshots only have to carry those. Every entry (each contact, closed group and open group, and the user's own
+ * profile) is reduced to a digest of its encoded form; the digests of the last sent configuration are stored locally
+ * and act as its version.
+ *
+ * A delta is an ordinary `ConfigurationMessage` holding only the changed entries, so receivers (including older
+ * clients) merge it the same way they merge a full snapshot: contacts are upserted and groups that already exist are
+ * skipped. Removals can't be expressed and are left to the next full snapshot, as before.
+ */
+object ConfigurationMessageDelta {
+
+    /** How often a full snapshot is sent regardless of what changed. Shorter than the 14 day message TTL. */
+    const val fullSnapshotInterval = 7 * 24 * 60 * 60 * 1000L
+
+    private const val profileKey = "profile"
+
+    private fun contactKey(publicKey: String) = "contact:$publicKey"
+    private fun closedGroupKey(publicKey: String) = "closed_group:$publicKey"
+    private fun openGroupKey(url: String) = "open_group:$url"
+
+    private fun digest(vararg parts: ByteArray): String {
+        val digest = MessageDigest.getInstance("SHA-256")
+        for (part in parts) {
+            digest.update(part)
+            digest.update(0.toByte())
+        }
+        return digest.digest().copyOf(16).toHexString()
+    }
+
+    /**
+     * Returns a digest for every entry in `message`, keyed by entry.
+     */
+    fun getDigests(message: ConfigurationMessage): Map<String, String> {
+        val result = HashMap<String, String>(message.contacts.size + message.closedGroups.size + message.openGroups.size + 1)
+        result[profileKey] = digest(message.displayName.toByteArray(), (message.profilePicture ?: "").toByteArray(), message.profileKey)
+        for (closedGroup in message.closedGroups) {
+            val proto = closedGroup.toProto() ?: continue
+            result[closedGroupKey(closedGroup.publicKey)] = digest(proto.toByteArray())
+        }
+        for (openGroup in message.openGroups) {
+            result[openGroupKey(openGroup)] = ""
+        }
+        for (contact in message.contacts) {
+            val proto = contact.toProto() ?: continue
+            result[contactKey(contact.publicKey)] = digest(proto.toByteArray())
+        }
+        return result
+    }
+
+    /**
+     * Returns the entries of `currentDigests` whose digest differs from `lastSentDigests`; the ones `getDelta` sends.
+     */
+    fun getChangedDigests(currentDigests: Map<String, String>, lastSentDigests: Map<String, String>): Map<String, String> {
+        return currentDigests.filter { (key, digest) -> lastSentDigests[key] != digest }
+    }
+
+    /**
+     * Returns a configuration message holding only the entries of `current` whose digest differs from
+     * `lastSentDigests`, or null if nothing changed. The profile fields are left empty if the profile didn't change,
+     * which receivers take to mean "leave it as is".
+     */
+    fun getDelta(current: ConfigurationMessage, currentDigests: Map<String, String>, lastSentDigests: Map<String, String>): ConfigurationMessage? {
+        fun isChanged(key: String): Boolean {
+            val digest = currentDigests[key] ?: return false
+            return lastSentDigests[key] != digest
+        }
+        val closedGroups = current.closedGroups.filter { isChanged(closedGroupKey(it.publicKey)) }
+        val openGroups = current.openGroups.filter { isChanged(openGroupKey(it)) }
+        val contacts = current.contacts.filter { isChanged(contactKey(it.publicKey)) }
+        val isProfileChanged = isChanged(profileKey)
+        if (closedGroups.isEmpty() && openGroups.isEmpty() && contacts.isEmpty() && !isProfileChanged) { return null }
+        return if (isProfileChanged) {
+            ConfigurationMessage(closedGroups, openGroups, contacts, current.displayName, current.profilePicture, current.profileKey)
+        } else {
+            ConfigurationMessage(closedGroups, openGroups, contacts, "", null, byteArrayOf())
+        }
+    }
+}
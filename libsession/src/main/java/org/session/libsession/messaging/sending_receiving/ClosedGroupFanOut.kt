@@ -0,0 +1,81 @@
+package org.session.libsession.messaging.sending_receiving
+
+import nl.komponents.kovenant.Promise
+import nl.komponents.kovenant.deferred
+import org.session.libsignal.utilities.Log
+import java.util.ArrayDeque
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Sends a message to each member of a closed group individually (e.g. the `New` message when a group is created),
+ * keeping a bounded number of sends in flight instead of waiting for each member in turn. Members whose send failed
+ * with a retryable error are retried on their own, up to `maxAttempts` times in total; members that succeeded are
+ * never sent to twice.
+ */
+internal object ClosedGroupFanOut {
+    const val maxConcurrentSends = 8
+    const val maxAttempts = 3
+
+    class Result(val succeeded: List<String>, val failed: Map<String, Exception>) {
+        val isSuccess: Boolean get() = failed.isEmpty()
+    }
+
+    /**
+     * Calls `send` for every member and resolves once each member either succeeded or ran out of attempts. The
+     * returned promise never fails; failures are reported per member in the result.
+     */
+    fun send(members: Collection<String>, maxConcurrent: Int = maxConcurrentSends, maxAttempts: Int = this.maxAttempts,
+        send: (String) -> Promise<Unit, Exception>): Promise<Result, Exception> {
+        val deferred = deferred<Result, Exception>()
+        val succeeded = mutableListOf<String>()
+        fun sendAttempt(pending: List<String>, attempt: Int) {
+            sendRound(pending, maxConcurrent, send).success { failures ->
+                succeeded.addAll(pending.filter { !failures.containsKey(it) })
+                val retryable = pending.filter { failures[it]?.isRetryable == true }
+                if (retryable.isNotEmpty() && attempt < maxAttempts) {
+                    Log.d("Loki", "Retrying closed group send to ${retryable.size} of ${pending.size} members (attempt ${attempt + 1}).")
+                    sendAttempt(retryable, attempt + 1)
+                } else {
+                    val failed = pending.filter { failures.containsKey(it) }.associateWith { failures[it]!! }
+                    Log.d("Loki", "Sent closed group message to ${succeeded.size} of ${members.size} members.")
+                    if (failed.isNotEmpty()) { Log.w("Loki", "Couldn't send closed group message to: ${failed.keys}.") }
+                    deferred.resolve(Result(succeeded.toList(), failed))
+                }
+            }
+        }
+        sendAttempt(members.distinct(), 1)
+        return deferred.promise
+    }
+
+    private val Exception.isRetryable: Boolean get() = (this as? MessageSender.Error)?.isRetryable ?: true
+
+    /**
+     * Sends to every member in `members` with at most `maxConcurrent` sends in flight, and resolves with the failures.
+     */
+    private fun sendRound(members: List<String>, maxConcurrent: Int, send: (String) -> Promise<Unit, Exception>): Promise<Map<String, Exception>, Exception> {
+        val deferred = deferred<Map<String, Exception>, Exception>()
+        if (members.isEmpty()) {
+            deferred.resolve(mapOf())
+            return deferred.promise
+        }
+        val queue = ArrayDeque(members)
+        val failures = ConcurrentHashMap<String, Exception>()
+        val remaining = AtomicInteger(members.size)
+        fun sendNext() {
+            val member = synchronized(queue) { queue.pollFirst() } ?: return
+            fun finish(error: Exception?) {
+                if (error != null) { failures[member] = error }
+                if (remaining.decrementAndGet() == 0) { deferred.resolve(failures) } else { sendNext() }
+            }
+            val promise = try {
+                send(member)
+            } catch (e: Exception) {
+                return finish(e)
+            }
+            promise.success { finish(null) }.fail { finish(it) }
+        }
+        repeat(Math.min(maxConcurrent, members.size)) { sendNext() }
+        return deferred.promise
+    }
+}
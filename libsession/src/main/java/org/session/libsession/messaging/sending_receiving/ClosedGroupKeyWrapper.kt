@@ -0,0 +1,58 @@
+package org.session.libsession.messaging.sending_receiving
+
+import com.google.protobuf.ByteString
+import org.session.libsession.messaging.messages.control.ClosedGroupControlMessage
+import org.session.libsignal.utilities.ExecutorRegistry
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Future
+
+/**
+ * Encrypts a closed group encryption key pair for each member of the group. Each wrapper is a sealed box plus an
+ * ed25519 signature, so for larger groups the members are split into contiguous chunks that are encrypted on the
+ * shared CPU pool. The returned wrappers are always in the same order as `members`.
+ */
+internal object ClosedGroupKeyWrapper {
+    private val threadCount = Math.max(2, Math.min(Runtime.getRuntime().availableProcessors(), 4))
+
+    /**
+     * Groups smaller than this are wrapped on the calling thread; handing off a few wrappers costs more than it saves.
+     */
+    private const val parallelThreshold = 8
+
+    fun wrap(plaintext: ByteArray, members: Collection<String>): List<ClosedGroupControlMessage.KeyPairWrapper> {
+        return wrap(plaintext, members, MessageEncrypter::encrypt)
+    }
+
+    fun wrap(plaintext: ByteArray, members: Collection<String>, encrypt: (ByteArray, String) -> ByteArray): List<ClosedGroupControlMessage.KeyPairWrapper> {
+        val members = members.toList()
+        if (members.size < parallelThreshold) { return wrapChunk(plaintext, members, encrypt) }
+        val chunkSize = (members.size + threadCount - 1) / threadCount
+        val chunks = members.chunked(chunkSize)
+        // Run the first chunk on the calling thread rather than leaving it idle
+        val futures: List<Future<List<ClosedGroupControlMessage.KeyPairWrapper>>> = chunks.drop(1).map { chunk ->
+            ExecutorRegistry.cpu.submit<List<ClosedGroupControlMessage.KeyPairWrapper>> { wrapChunk(plaintext, chunk, encrypt) }
+        }
+        val result = ArrayList<ClosedGroupControlMessage.KeyPairWrapper>(members.size)
+        try {
+            result.addAll(wrapChunk(plaintext, chunks.first(), encrypt))
+            for (future in futures) {
+                try {
+                    result.addAll(future.get())
+                } catch (e: ExecutionException) {
+                    throw e.cause ?: e
+                }
+            }
+        } catch (e: Throwable) {
+            futures.forEach { it.cancel(true) }
+            throw e
+        }
+        return result
+    }
+
+    private fun wrapChunk(plaintext: ByteArray, members: List<String>, encrypt: (ByteArray, String) -> ByteArray): List<ClosedGroupControlMessage.KeyPairWrapper> {
+        return members.map { publicKey ->
+            val ciphertext = encrypt(plaintext, publicKey)
+            ClosedGroupControlMessage.KeyPairWrapper(publicKey, ByteString.copyFrom(ciphertext))
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.session.libsession.messaging.sending_receiving
+
+import org.session.libsignal.utilities.Broadcaster
+import org.session.libsignal.utilities.ExecutorRegistry
+import org.session.libsignal.utilities.Log
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Helpers for restoring the state in a configuration message on a newly linked device. Local state (closed groups and
+ * contacts) is applied in bulk transactions by the caller; open groups each need a few blocking network calls (auth
+ * token, room info and avatar), so those are joined concurrently with a bounded number in flight.
+ */
+internal object ConfigurationRestore {
+    const val maxConcurrentOpenGroupJoins = 4
+    private val executor: ExecutorService by lazy {
+        ExecutorRegistry.newFixedExecutor("configuration-restore", maxConcurrentOpenGroupJoins, ExecutorRegistry.BackpressurePolicy.BLOCK)
+    }
+
+    /**
+     * Counts restored entries and broadcasts `restoringConfiguration` with the percentage done.
+     */
+    class Progress(private val total: Int, private val broadcaster: Broadcaster?) {
+        private val completed = AtomicInteger(0)
+        private val start = System.nanoTime()
+
+        val completedCount: Int get() = completed.get()
+
+        fun increment(count: Int = 1) {
+            if (count == 0 || total == 0) { return }
+            val done = completed.addAndGet(count)
+            broadcaster?.broadcast("restoringConfiguration", done * 100L / total)
+        }
+
+        fun logPhase(phase: String, phaseStart: Long) {
+            val millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - phaseStart)
+            Log.i("Loki", "Configuration restore: $phase took $millis ms ($completedCount of $total entries done).")
+        }
+
+        fun logFinished() {
+            Log.i("Loki", "Configuration restore: finished $total entries in ${TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)} ms.")
+        }
+    }
+
+    /**
+     * Joins each of `urls` by calling `join` on a bounded pool, and blocks until all of them have finished. A failure
+     * to join one open group doesn't affect the others. Returns the URLs that failed.
+     */
+    fun joinOpenGroups(urls: List<String>, progress: Progress?, join: (String) -> Unit): List<String> {
+        return joinOpenGroups(urls, progress, executor, join)
+    }
+
+    fun joinOpenGroups(urls: List<String>, progress: Progress?, executor: ExecutorService, join: (String) -> Unit): List<String> {
+        val futures: List<Pair<String, Future<*>>> = urls.map { url ->
+            Pair(url, executor.submit(Runnable {
+                try {
+                    join(url)
+                } finally {
+                    progress?.increment()
+                }
+            }))
+        }
+        val failed = mutableListOf<String>()
+        for ((url, future) in futures) {
+            try {
+                future.get()
+            } catch (e: Exception) {
+                Log.w("Loki", "Couldn't restore open group: $url.", e)
+                failed.add(url)
+            }
+        }
+        return failed
+    }
+}
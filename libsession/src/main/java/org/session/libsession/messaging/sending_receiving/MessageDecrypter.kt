@@ -1,6 +1,7 @@
 package org.session.libsession.messaging.sending_receiving
 
 import android.util.Log
+import com.google.protobuf.ByteString
 import com.goterl.lazysodium.LazySodiumAndroid
 import com.goterl.lazysodium.SodiumAndroid
 import com.goterl.lazysodium.interfaces.Box
@@ -15,6 +16,40 @@ object MessageDecrypter {
 
     private val sodium by lazy { LazySodiumAndroid(SodiumAndroid()) }
 
+    /**
+     * Per-thread scratch space for decryption. The ciphertext, plaintext, signature and keys of every message decrypted on a
+     * thread share these arrays, so only the sender's public key string is allocated per message.
+     */
+    class DecryptionBuffer {
+        internal var ciphertext = ByteArray(0)
+        /**
+         * The padded plaintext of the last decrypted message occupies the first [plaintextSize] bytes. The contents are only
+         * valid until the next decryption on the same thread.
+         */
+        var plaintext = ByteArray(0)
+            private set
+        var plaintextSize = 0
+            internal set
+        var sender: String? = null
+            internal set
+        internal val signature = ByteArray(Sign.BYTES)
+        internal val senderED25519PublicKey = ByteArray(Sign.PUBLICKEYBYTES)
+        internal val senderX25519PublicKey = ByteArray(Sign.CURVE25519_PUBLICKEYBYTES)
+
+        internal fun ensureCapacity(ciphertextSize: Int) {
+            if (ciphertext.size >= ciphertextSize) { return }
+            ciphertext = ByteArray(ciphertextSize)
+            plaintext = ByteArray(ciphertextSize)
+        }
+    }
+
+    private val buffers = object : ThreadLocal<DecryptionBuffer>() {
+
+        override fun initialValue(): DecryptionBuffer {
+            return DecryptionBuffer()
+        }
+    }
+
     /**
      * Decrypts `ciphertext` using the Session protocol and `x25519KeyPair`.
      *
@@ -24,37 +59,60 @@ object MessageDecrypter {
      * @return the padded plaintext.
      */
     public fun decrypt(ciphertext: ByteArray, x25519KeyPair: ECKeyPair): Pair<ByteArray, String> {
+        val buffer = buffers.get()!!
+        buffer.ensureCapacity(ciphertext.size)
+        System.arraycopy(ciphertext, 0, buffer.ciphertext, 0, ciphertext.size)
+        decrypt(buffer, ciphertext.size, x25519KeyPair)
+        return Pair(buffer.plaintext.copyOf(buffer.plaintextSize), buffer.sender!!)
+    }
+
+    /**
+     * Decrypts `ciphertext` into the calling thread's [DecryptionBuffer] without any intermediate copies.
+     *
+     * @return the buffer holding the padded plaintext and the sender's public key.
+     */
+    public fun decrypt(ciphertext: ByteString, x25519KeyPair: ECKeyPair): DecryptionBuffer {
+        val buffer = buffers.get()!!
+        buffer.ensureCapacity(ciphertext.size())
+        ciphertext.copyTo(buffer.ciphertext, 0)
+        decrypt(buffer, ciphertext.size(), x25519KeyPair)
+        return buffer
+    }
+
+    private fun decrypt(buffer: DecryptionBuffer, ciphertextSize: Int, x25519KeyPair: ECKeyPair) {
         val recipientX25519PrivateKey = x25519KeyPair.privateKey.serialize()
         val recipientX25519PublicKey = Hex.fromStringCondensed(x25519KeyPair.hexEncodedPublicKey.removing05PrefixIfNeeded())
         val signatureSize = Sign.BYTES
         val ed25519PublicKeySize = Sign.PUBLICKEYBYTES
+        val plaintextWithMetadataSize = ciphertextSize - Box.SEALBYTES
 
         // 1. ) Decrypt the message
-        val plaintextWithMetadata = ByteArray(ciphertext.size - Box.SEALBYTES)
+        if (plaintextWithMetadataSize <= (signatureSize + ed25519PublicKeySize)) { throw MessageReceiver.Error.DecryptionFailed }
         try {
-            sodium.cryptoBoxSealOpen(plaintextWithMetadata, ciphertext, ciphertext.size.toLong(), recipientX25519PublicKey, recipientX25519PrivateKey)
+            sodium.cryptoBoxSealOpen(buffer.plaintext, buffer.ciphertext, ciphertextSize.toLong(), recipientX25519PublicKey, recipientX25519PrivateKey)
         } catch (exception: Exception) {
             Log.d("Loki", "Couldn't decrypt message due to error: $exception.")
             throw MessageReceiver.Error.DecryptionFailed
         }
-        if (plaintextWithMetadata.size <= (signatureSize + ed25519PublicKeySize)) { throw MessageReceiver.Error.DecryptionFailed }
         // 2. ) Get the message parts
-        val signature = plaintextWithMetadata.sliceArray(plaintextWithMetadata.size - signatureSize until plaintextWithMetadata.size)
-        val senderED25519PublicKey = plaintextWithMetadata.sliceArray(plaintextWithMetadata.size - (signatureSize + ed25519PublicKeySize) until plaintextWithMetadata.size - signatureSize)
-        val plaintext = plaintextWithMetadata.sliceArray(0 until plaintextWithMetadata.size - (signatureSize + ed25519PublicKeySize))
-        // 3. ) Verify the signature
-        val verificationData = (plaintext + senderED25519PublicKey + recipientX25519PublicKey)
+        val plaintextSize = plaintextWithMetadataSize - (signatureSize + ed25519PublicKeySize)
+        System.arraycopy(buffer.plaintext, plaintextWithMetadataSize - signatureSize, buffer.signature, 0, signatureSize)
+        System.arraycopy(buffer.plaintext, plaintextSize, buffer.senderED25519PublicKey, 0, ed25519PublicKeySize)
+        // 3. ) Verify the signature. The verification data is plaintext + sender ED25519 public key + recipient X25519 public
+        // key, so it's built in place by writing the recipient key over the signature (which was copied out above).
+        System.arraycopy(recipientX25519PublicKey, 0, buffer.plaintext, plaintextSize + ed25519PublicKeySize, recipientX25519PublicKey.size)
+        val verificationDataSize = plaintextSize + ed25519PublicKeySize + recipientX25519PublicKey.size
         try {
-            val isValid = sodium.cryptoSignVerifyDetached(signature, verificationData, verificationData.size, senderED25519PublicKey)
+            val isValid = sodium.cryptoSignVerifyDetached(buffer.signature, buffer.plaintext, verificationDataSize, buffer.senderED25519PublicKey)
             if (!isValid) { throw MessageReceiver.Error.InvalidSignature }
         } catch (exception: Exception) {
             Log.d("Loki", "Couldn't verify message signature due to error: $exception.")
             throw MessageReceiver.Error.InvalidSignature
         }
         // 4. ) Get the sender's X25519 public key
-        val senderX25519PublicKey = ByteArray(Sign.CURVE25519_PUBLICKEYBYTES)
-        sodium.convertPublicKeyEd25519ToCurve25519(senderX25519PublicKey, senderED25519PublicKey)
+        sodium.convertPublicKeyEd25519ToCurve25519(buffer.senderX25519PublicKey, buffer.senderED25519PublicKey)
 
-        return Pair(plaintext, "05" + senderX25519PublicKey.toHexString())
+        buffer.plaintextSize = plaintextSize
+        buffer.sender = "05" + buffer.senderX25519PublicKey.toHexString()
     }
-}
\ No newline at end of file
+}
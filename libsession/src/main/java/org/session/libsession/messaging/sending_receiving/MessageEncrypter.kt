@@ -1,11 +1,14 @@
 package org.session.libsession.messaging.sending_receiving
 
+import com.google.protobuf.CodedOutputStream
+import com.google.protobuf.MessageLite
 import com.goterl.lazysodium.LazySodiumAndroid
 import com.goterl.lazysodium.SodiumAndroid
 import com.goterl.lazysodium.interfaces.Box
 import com.goterl.lazysodium.interfaces.Sign
 import org.session.libsession.messaging.MessagingModuleConfiguration
 import org.session.libsession.messaging.sending_receiving.MessageSender.Error
+import org.session.libsignal.crypto.PushTransportDetails
 import org.session.libsignal.utilities.Hex
 import org.session.libsignal.utilities.Log
 import org.session.libsignal.utilities.removing05PrefixIfNeeded
@@ -14,6 +17,36 @@ object MessageEncrypter {
 
     private val sodium by lazy { LazySodiumAndroid(SodiumAndroid()) }
 
+    /**
+     * Per-thread scratch space for encryption. The padded plaintext, its metadata and the sealed box of every message
+     * encrypted on a thread share these arrays.
+     */
+    class EncryptionBuffer {
+        internal var plaintext = ByteArray(0)
+        /**
+         * The sealed box of the last encrypted message occupies the first [ciphertextSize] bytes. The contents are only
+         * valid until the next encryption on the same thread.
+         */
+        var ciphertext = ByteArray(0)
+            private set
+        var ciphertextSize = 0
+            internal set
+        internal val signature = ByteArray(Sign.BYTES)
+
+        internal fun ensureCapacity(plaintextWithMetadataSize: Int) {
+            if (plaintext.size >= plaintextWithMetadataSize) { return }
+            plaintext = ByteArray(plaintextWithMetadataSize)
+            ciphertext = ByteArray(plaintextWithMetadataSize + Box.SEALBYTES)
+        }
+    }
+
+    private val buffers = object : ThreadLocal<EncryptionBuffer>() {
+
+        override fun initialValue(): EncryptionBuffer {
+            return EncryptionBuffer()
+        }
+    }
+
     /**
      * Encrypts `plaintext` using the Session protocol for `hexEncodedX25519PublicKey`.
      *
@@ -47,4 +80,49 @@ object MessageEncrypter {
         return ciphertext
     }
 
+    /**
+     * Serializes, pads and encrypts `proto` using the Session protocol for `recipientHexEncodedX25519PublicKey`. Padding,
+     * signature and sealed box are all written into the calling thread's [EncryptionBuffer] rather than concatenated.
+     *
+     * @return the buffer holding the encrypted message.
+     */
+    internal fun encrypt(proto: MessageLite, recipientHexEncodedX25519PublicKey: String): EncryptionBuffer {
+        val userED25519KeyPair = MessagingModuleConfiguration.shared.keyPairProvider() ?: throw Error.NoUserED25519KeyPair
+        val userED25519PublicKey = userED25519KeyPair.publicKey.asBytes
+        val recipientX25519PublicKey = Hex.fromStringCondensed(recipientHexEncodedX25519PublicKey.removing05PrefixIfNeeded())
+        val buffer = buffers.get()!!
+
+        // 1. ) Serialize and pad the protobuf
+        val protoSize = proto.serializedSize
+        val plaintextSize = PushTransportDetails.getPaddedMessageBodySize(protoSize)
+        val plaintextWithMetadataSize = plaintextSize + userED25519PublicKey.size + Sign.BYTES
+        buffer.ensureCapacity(plaintextWithMetadataSize)
+        val plaintext = buffer.plaintext
+        proto.writeTo(CodedOutputStream.newInstance(plaintext, 0, protoSize))
+        plaintext[protoSize] = 0x80.toByte()
+        plaintext.fill(0, protoSize + 1, plaintextSize)
+        // 2. ) Sign plaintext + user ED25519 public key + recipient X25519 public key, which is built in place where the
+        // signature will go (the signature is longer than the recipient key)
+        System.arraycopy(userED25519PublicKey, 0, plaintext, plaintextSize, userED25519PublicKey.size)
+        System.arraycopy(recipientX25519PublicKey, 0, plaintext, plaintextSize + userED25519PublicKey.size, recipientX25519PublicKey.size)
+        val verificationDataSize = plaintextSize + userED25519PublicKey.size + recipientX25519PublicKey.size
+        try {
+            sodium.cryptoSignDetached(buffer.signature, plaintext, verificationDataSize.toLong(), userED25519KeyPair.secretKey.asBytes)
+        } catch (exception: Exception) {
+            Log.d("Loki", "Couldn't sign message due to error: $exception.")
+            throw Error.SigningFailed
+        }
+        // 3. ) Seal plaintext + user ED25519 public key + signature
+        System.arraycopy(buffer.signature, 0, plaintext, plaintextSize + userED25519PublicKey.size, Sign.BYTES)
+        try {
+            sodium.cryptoBoxSeal(buffer.ciphertext, plaintext, plaintextWithMetadataSize.toLong(), recipientX25519PublicKey)
+        } catch (exception: Exception) {
+            Log.d("Loki", "Couldn't encrypt message due to error: $exception.")
+            throw Error.EncryptionFailed
+        }
+        buffer.ciphertextSize = plaintextWithMetadataSize + Box.SEALBYTES
+
+        return buffer
+    }
+
 }
\ No newline at end of file
@@ -41,18 +41,21 @@ object MessageReceiver {
         // Decrypt the contents
         val ciphertext = envelope.content ?: throw Error.NoData
         var plaintext: ByteArray? = null
+        var plaintextSize = 0
         var sender: String? = null
         var groupPublicKey: String? = null
         if (isOpenGroupMessage) {
             plaintext = envelope.content.toByteArray()
+            plaintextSize = plaintext.size
             sender = envelope.source
         } else {
             when (envelope.type) {
                 SignalServiceProtos.Envelope.Type.SESSION_MESSAGE -> {
                     val userX25519KeyPair = MessagingModuleConfiguration.shared.storage.getUserX25519KeyPair()
-                    val decryptionResult = MessageDecrypter.decrypt(ciphertext.toByteArray(), userX25519KeyPair)
-                    plaintext = decryptionResult.first
-                    sender = decryptionResult.second
+                    val decryptionResult = MessageDecrypter.decrypt(ciphertext, userX25519KeyPair)
+                    plaintext = decryptionResult.plaintext
+                    plaintextSize = decryptionResult.plaintextSize
+                    sender = decryptionResult.sender
                 }
                 SignalServiceProtos.Envelope.Type.CLOSED_GROUP_MESSAGE -> {
                     val hexEncodedGroupPublicKey = envelope.source
@@ -66,9 +69,10 @@ object MessageReceiver {
                     var encryptionKeyPair = encryptionKeyPairs.removeLast()
                     fun decrypt() {
                         try {
-                            val decryptionResult = MessageDecrypter.decrypt(ciphertext.toByteArray(), encryptionKeyPair)
-                            plaintext = decryptionResult.first
-                            sender = decryptionResult.second
+                            val decryptionResult = MessageDecrypter.decrypt(ciphertext, encryptionKeyPair)
+                            plaintext = decryptionResult.plaintext
+                            plaintextSize = decryptionResult.plaintextSize
+                            sender = decryptionResult.sender
                         } catch (e: Exception) {
                             if (encryptionKeyPairs.isNotEmpty()) {
                                 encryptionKeyPair = encryptionKeyPairs.removeLast()
@@ -86,8 +90,9 @@ object MessageReceiver {
         }
         // Don't process the envelope any further if the sender is blocked
         if (isBlocked(sender!!)) throw Error.SenderBlocked
-        // Parse the proto
-        val proto = SignalServiceProtos.Content.parseFrom(PushTransportDetails.getStrippedPaddingMessageBody(plaintext))
+        // Parse the proto straight from the decryption buffer (parsing copies out everything the proto needs)
+        val strippedPlaintextSize = PushTransportDetails.getStrippedPaddingMessageBodySize(plaintext, plaintextSize)
+        val proto = SignalServiceProtos.Content.PARSER.parseFrom(plaintext, 0, strippedPlaintextSize)
         // Parse the message
         val message: Message = ReadReceipt.fromProto(proto) ?:
             TypingIndicator.fromProto(proto) ?:
@@ -113,15 +113,13 @@ object MessageSender {
             }
             // Convert it to protobuf
             val proto = message.toProto() ?: throw Error.ProtoConversionFailed
-            // Serialize the protobuf
-            val plaintext = PushTransportDetails.getPaddedMessageBody(proto.toByteArray())
-            // Encrypt the serialized protobuf
-            val ciphertext: ByteArray
+            // Serialize, pad and encrypt the protobuf
+            val encryptionBuffer: MessageEncrypter.EncryptionBuffer
             when (destination) {
-                is Destination.Contact -> ciphertext = MessageEncrypter.encrypt(plaintext, destination.publicKey)
+                is Destination.Contact -> encryptionBuffer = MessageEncrypter.encrypt(proto, destination.publicKey)
                 is Destination.ClosedGroup -> {
                     val encryptionKeyPair = MessagingModuleConfiguration.shared.storage.getLatestClosedGroupEncryptionKeyPair(destination.groupPublicKey)!!
-                    ciphertext = MessageEncrypter.encrypt(plaintext, encryptionKeyPair.hexEncodedPublicKey)
+                    encryptionBuffer = MessageEncrypter.encrypt(proto, encryptionKeyPair.hexEncodedPublicKey)
                 }
                 is Destination.OpenGroupV2 -> throw IllegalStateException("Destination should not be open group.")
             }
@@ -139,12 +137,11 @@ object MessageSender {
                 }
                 is Destination.OpenGroupV2 -> throw IllegalStateException("Destination should not be open group.")
             }
-            val wrappedMessage = MessageWrapper.wrap(kind, message.sentTimestamp!!, senderPublicKey, ciphertext)
-            // Send the result
             if (destination is Destination.Contact && message is VisibleMessage && !isSelfSend) {
                 SnodeModule.shared.broadcaster.broadcast("calculatingPoW", message.sentTimestamp!!)
             }
-            val base64EncodedData = Base64.encodeBytes(wrappedMessage)
+            val base64EncodedData = MessageWrapper.wrapAndEncode(kind, message.sentTimestamp!!, senderPublicKey,
+                encryptionBuffer.ciphertext, encryptionBuffer.ciphertextSize)
             // Send the result
             val snodeMessage = SnodeMessage(message.recipient!!, base64EncodedData, message.ttl, message.sentTimestamp!!)
             if (destination is Destination.Contact && message is VisibleMessage && !isSelfSend) {
@@ -251,7 +248,11 @@ object MessageSender {
     fun handleSuccessfulMessageSend(message: Message, destination: Destination, isSyncMessage: Boolean = false) {
         val storage = MessagingModuleConfiguration.shared.storage
         val userPublicKey = storage.getUserPublicKey()!!
-        val messageID = storage.getMessageIdInDatabase(message.sentTimestamp!!, message.sender?:userPublicKey) ?: return
+        // Messages stored before sending carry their local ID, so they can be updated by primary key
+        val localMessageID = message.id
+        val isMms = message.isMms
+        val hasLocalMessageID = localMessageID != null && isMms != null
+        val messageID = if (hasLocalMessageID) localMessageID!! else storage.getMessageIdInDatabase(message.sentTimestamp!!, message.sender?:userPublicKey) ?: return
         // Ignore future self-sends
         storage.addReceivedMessageTimestamp(message.sentTimestamp!!)
         // Track the open group server message ID
@@ -259,15 +260,25 @@ object MessageSender {
             val encoded = GroupUtil.getEncodedOpenGroupID("${destination.server}.${destination.room}".toByteArray())
             val threadID = storage.getThreadId(Address.fromSerialized(encoded))
             if (threadID != null && threadID >= 0) {
-                storage.setOpenGroupServerMessageID(messageID, message.openGroupServerMessageID!!, threadID, !(message as VisibleMessage).isMediaMessage())
+                val isSms = if (hasLocalMessageID) !isMms!! else !(message as VisibleMessage).isMediaMessage()
+                storage.setOpenGroupServerMessageID(messageID, message.openGroupServerMessageID!!, threadID, isSms)
             }
         }
         // Mark the message as sent
-        storage.markAsSent(message.sentTimestamp!!, message.sender?:userPublicKey)
-        storage.markUnidentified(message.sentTimestamp!!, message.sender?:userPublicKey)
+        if (hasLocalMessageID) {
+            storage.markAsSent(messageID, isMms!!)
+            storage.markUnidentified(messageID, isMms)
+        } else {
+            storage.markAsSent(message.sentTimestamp!!, message.sender?:userPublicKey)
+            storage.markUnidentified(message.sentTimestamp!!, message.sender?:userPublicKey)
+        }
         // Start the disappearing messages timer if needed
         if (message is VisibleMessage && !isSyncMessage) {
-            SSKEnvironment.shared.messageExpirationManager.startAnyExpiration(message.sentTimestamp!!, message.sender?:userPublicKey)
+            if (hasLocalMessageID) {
+                SSKEnvironment.shared.messageExpirationManager.startAnyExpiration(messageID, isMms!!)
+            } else {
+                SSKEnvironment.shared.messageExpirationManager.startAnyExpiration(message.sentTimestamp!!, message.sender?:userPublicKey)
+            }
         }
         // Sync the message if:
         // • it's a visible message
@@ -283,7 +294,13 @@ object MessageSender {
     fun handleFailedMessageSend(message: Message, error: Exception) {
         val storage = MessagingModuleConfiguration.shared.storage
         val userPublicKey = storage.getUserPublicKey()!!
-        storage.setErrorMessage(message.sentTimestamp!!, message.sender?:userPublicKey, error)
+        val messageID = message.id
+        val isMms = message.isMms
+        if (messageID != null && isMms != null) {
+            storage.setErrorMessage(messageID, isMms, error)
+        } else {
+            storage.setErrorMessage(message.sentTimestamp!!, message.sender?:userPublicKey, error)
+        }
     }
 
     // Convenience
@@ -17,7 +17,6 @@ import org.session.libsession.utilities.TextSecurePreferences
 import org.session.libsession.utilities.recipients.Recipient
 import org.session.libsignal.crypto.ecc.Curve
 import org.session.libsignal.crypto.ecc.ECKeyPair
-import org.session.libsignal.utilities.guava.Optional
 import org.session.libsignal.messages.SignalServiceGroup
 import org.session.libsignal.protos.SignalServiceProtos
 import org.session.libsignal.utilities.hexEncodedPublicKey
@@ -26,12 +25,9 @@ import org.session.libsignal.utilities.Hex
 import org.session.libsignal.utilities.ThreadUtils
 import org.session.libsignal.utilities.Log
 import java.util.*
-import java.util.concurrent.ConcurrentHashMap
 
 const val groupSizeLimit = 100
 
-val pendingKeyPairs = ConcurrentHashMap<String, Optional<ECKeyPair>>()
-
 fun MessageSender.create(name: String, members: Collection<String>): Promise<String, Exception> {
     val deferred = deferred<String, Exception>()
     ThreadUtils.queue {
@@ -54,15 +50,14 @@ fun MessageSender.create(name: String, members: Collection<String>): Promise<Str
         // Send a closed group update message to all members individually
         val closedGroupUpdateKind = ClosedGroupControlMessage.Kind.New(ByteString.copyFrom(Hex.fromStringCondensed(groupPublicKey)), name, encryptionKeyPair, membersAsData, adminsAsData, 0)
         val sentTime = System.currentTimeMillis()
-        for (member in members) {
+        val result = ClosedGroupFanOut.send(members) { member ->
             val closedGroupControlMessage = ClosedGroupControlMessage(closedGroupUpdateKind)
             closedGroupControlMessage.sentTimestamp = sentTime
-            try {
-                sendNonDurably(closedGroupControlMessage, Address.fromSerialized(member)).get()
-            } catch (e: Exception) {
-                deferred.reject(e)
-                return@queue
-            }
+            sendNonDurably(closedGroupControlMessage, Address.fromSerialized(member))
+        }.get()
+        if (!result.isSuccess) {
+            deferred.reject(result.failed.values.first())
+            return@queue
         }
 
         // Add the group to the user's set of public keys to poll for
@@ -274,16 +269,20 @@ fun MessageSender.generateAndSendNewEncryptionKeyPair(groupPublicKey: String, ta
     }
     // Generate the new encryption key pair
     val newKeyPair = Curve.generateKeyPair()
-    // Replace call will not succeed if no value already set
-    pendingKeyPairs.putIfAbsent(groupPublicKey,Optional.absent())
-    do {
-        // Make sure we set the pending key pair or wait until it is not null
-    } while (!pendingKeyPairs.replace(groupPublicKey,Optional.absent(),Optional.fromNullable(newKeyPair)))
+    // Publish it as pending, waiting for any rotation that's already in flight to settle first
+    val rotation = PendingKeyPairCoordinator.begin(groupPublicKey, newKeyPair)
     // Distribute it
-    sendEncryptionKeyPair(groupPublicKey, newKeyPair, targetMembers)?.success {
+    val promise = try {
+        sendEncryptionKeyPair(groupPublicKey, newKeyPair, targetMembers)
+    } catch (e: Exception) {
+        PendingKeyPairCoordinator.settle(groupPublicKey, rotation)
+        throw e
+    }
+    promise?.success {
         // Store it * after * having sent out the message to the group
         storage.addClosedGroupEncryptionKeyPair(newKeyPair, groupPublicKey)
-        pendingKeyPairs[groupPublicKey] = Optional.absent()
+    }?.always {
+        PendingKeyPairCoordinator.settle(groupPublicKey, rotation)
     }
 }
 
@@ -293,10 +292,7 @@ fun MessageSender.sendEncryptionKeyPair(groupPublicKey: String, newKeyPair: ECKe
     proto.publicKey = ByteString.copyFrom(newKeyPair.publicKey.serialize().removing05PrefixIfNeeded())
     proto.privateKey = ByteString.copyFrom(newKeyPair.privateKey.serialize())
     val plaintext = proto.build().toByteArray()
-    val wrappers = targetMembers.map { publicKey ->
-        val ciphertext = MessageEncrypter.encrypt(plaintext, publicKey)
-        ClosedGroupControlMessage.KeyPairWrapper(publicKey, ByteString.copyFrom(ciphertext))
-    }
+    val wrappers = ClosedGroupKeyWrapper.wrap(plaintext, targetMembers)
     val kind = ClosedGroupControlMessage.Kind.EncryptionKeyPair(ByteString.copyFrom(Hex.fromStringCondensed(groupPublicKey)), wrappers)
     val sentTime = System.currentTimeMillis()
     val closedGroupControlMessage = ClosedGroupControlMessage(kind)
@@ -322,7 +318,7 @@ fun MessageSender.sendLatestEncryptionKeyPair(publicKey: String, groupPublicKey:
         return
     }
     // Get the latest encryption key pair
-    val encryptionKeyPair = pendingKeyPairs[groupPublicKey]?.orNull()
+    val encryptionKeyPair = PendingKeyPairCoordinator.getPendingKeyPair(groupPublicKey)
         ?: storage.getLatestClosedGroupEncryptionKeyPair(groupPublicKey) ?: return
     // Send it
     val proto = SignalServiceProtos.KeyPair.newBuilder()
@@ -0,0 +1,90 @@
+package org.session.libsession.messaging.sending_receiving
+
+import nl.komponents.kovenant.Deferred
+import nl.komponents.kovenant.Promise
+import nl.komponents.kovenant.deferred
+import org.session.libsignal.crypto.ecc.ECKeyPair
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * Coordinates closed group encryption key pair rotations. A new key pair is pending from the moment it's generated
+ * until it has been distributed to the group and stored; while it's pending it should be used for anything sent to
+ * newly added members. Only one rotation per group can be in flight at a time. A second rotation waits for the first
+ * to settle by blocking on a promise rather than by polling.
+ *
+ * Each group's state is an immutable [State] swapped with compare-and-set, so readers never lock and writers only
+ * retry when another writer actually changed the state in between.
+ */
+object PendingKeyPairCoordinator {
+
+    class State internal constructor(
+        /** Incremented on every transition, so a stale [settle] can't clear a newer rotation. */
+        val version: Long,
+        val pendingKeyPair: ECKeyPair?,
+        internal val settled: Deferred<Unit, Exception>?
+    ) {
+        val isRotating: Boolean get() = pendingKeyPair != null
+    }
+
+    private val idle = State(0, null, null)
+    private val states = ConcurrentHashMap<String, AtomicReference<State>>()
+
+    /** The number of failed compare-and-set attempts, for diagnostics and tests. */
+    internal val contentionCount = AtomicLong(0)
+
+    private fun stateReference(groupPublicKey: String): AtomicReference<State> {
+        return states[groupPublicKey] ?: states.putIfAbsent(groupPublicKey, AtomicReference(idle)) ?: states[groupPublicKey]!!
+    }
+
+    fun getState(groupPublicKey: String): State {
+        return stateReference(groupPublicKey).get()
+    }
+
+    fun getPendingKeyPair(groupPublicKey: String): ECKeyPair? {
+        return getState(groupPublicKey).pendingKeyPair
+    }
+
+    /**
+     * Returns a promise that resolves once the rotation that's currently in flight for the group (if any) has settled.
+     */
+    fun awaitSettled(groupPublicKey: String): Promise<Unit, Exception> {
+        return getState(groupPublicKey).settled?.promise ?: Promise.of(Unit)
+    }
+
+    /**
+     * Publishes `keyPair` as the group's pending key pair. If another rotation is in flight this blocks until it has
+     * settled. Returns the version to pass to [settle] once the key pair has been distributed (or failed to be).
+     */
+    fun begin(groupPublicKey: String, keyPair: ECKeyPair): Long {
+        val reference = stateReference(groupPublicKey)
+        while (true) {
+            val current = reference.get()
+            if (current.isRotating) {
+                current.settled!!.promise.get()
+                continue
+            }
+            val next = State(current.version + 1, keyPair, deferred())
+            if (reference.compareAndSet(current, next)) { return next.version }
+            contentionCount.incrementAndGet()
+        }
+    }
+
+    /**
+     * Clears the pending key pair published by the [begin] call that returned `version`, and wakes up anyone waiting
+     * on it. Does nothing if that rotation has already settled.
+     */
+    fun settle(groupPublicKey: String, version: Long) {
+        val reference = stateReference(groupPublicKey)
+        while (true) {
+            val current = reference.get()
+            if (current.version != version || !current.isRotating) { return }
+            if (reference.compareAndSet(current, State(version + 1, null, null))) {
+                current.settled!!.resolve(Unit)
+                return
+            }
+            contentionCount.incrementAndGet()
+        }
+    }
+}
@@ -14,6 +14,8 @@ import org.session.libsession.messaging.sending_receiving.link_preview.LinkPrevi
 import org.session.libsession.messaging.sending_receiving.notifications.PushNotificationAPI
 import org.session.libsession.messaging.sending_receiving.pollers.ClosedGroupPollerV2
 import org.session.libsession.messaging.sending_receiving.quotes.QuoteModel
+import org.session.libsession.messaging.utilities.ProfileStateCache
+import org.session.libsession.snode.SnodeModule
 import org.session.libsession.utilities.Address
 import org.session.libsession.utilities.GroupRecord
 import org.session.libsession.utilities.recipients.Recipient
@@ -36,9 +38,7 @@ import java.util.*
 import kotlin.collections.ArrayList
 
 internal fun MessageReceiver.isBlocked(publicKey: String): Boolean {
-    val context = MessagingModuleConfiguration.shared.context
-    val recipient = Recipient.from(context, Address.fromSerialized(publicKey), false)
-    return recipient.isBlocked
+    return MessagingModuleConfiguration.shared.storage.isBlocked(publicKey)
 }
 
 fun MessageReceiver.handle(message: Message, proto: SignalServiceProtos.Content, openGroupID: String?) {
@@ -111,39 +111,60 @@ private fun MessageReceiver.handleDataExtractionNotification(message: DataExtrac
 private fun handleConfigurationMessage(message: ConfigurationMessage) {
     val context = MessagingModuleConfiguration.shared.context
     val storage = MessagingModuleConfiguration.shared.storage
-    if (TextSecurePreferences.getConfigurationMessageSynced(context)
-        && !TextSecurePreferences.shouldUpdateProfile(context, message.sentTimestamp!!)) return
     val userPublicKey = storage.getUserPublicKey()
     if (userPublicKey == null || message.sender != storage.getUserPublicKey()) return
+    // Deltas can arrive out of order, so only the profile is subject to the timestamp check; contacts and groups are
+    // merged from every message
+    val hasProfile = message.displayName.isNotEmpty() || message.profileKey.isNotEmpty()
+    val shouldUpdateProfile = hasProfile && (!TextSecurePreferences.getConfigurationMessageSynced(context)
+        || TextSecurePreferences.shouldUpdateProfile(context, message.sentTimestamp!!))
     TextSecurePreferences.setConfigurationMessageSynced(context, true)
-    TextSecurePreferences.setLastProfileUpdateTime(context, message.sentTimestamp!!)
-    val allClosedGroupPublicKeys = storage.getAllClosedGroupPublicKeys()
-    for (closedGroup in message.closedGroups) {
-        if (allClosedGroupPublicKeys.contains(closedGroup.publicKey)) continue
-        handleNewClosedGroup(message.sender!!, message.sentTimestamp!!, closedGroup.publicKey, closedGroup.name,
-            closedGroup.encryptionKeyPair!!, closedGroup.members, closedGroup.admins, message.sentTimestamp!!, closedGroup.expirationTimer)
+    if (shouldUpdateProfile) {
+        TextSecurePreferences.setLastProfileUpdateTime(context, message.sentTimestamp!!)
     }
+    val allClosedGroupPublicKeys = storage.getAllClosedGroupPublicKeys()
+    val newClosedGroups = message.closedGroups.filter { !allClosedGroupPublicKeys.contains(it.publicKey) }
     val allV2OpenGroups = storage.getAllV2OpenGroups().map { it.value.joinURL }
-    for (openGroup in message.openGroups) {
-        if (allV2OpenGroups.contains(openGroup)) continue
-        storage.addOpenGroup(openGroup)
-    }
-    val profileManager = SSKEnvironment.shared.profileManager
-    val recipient = Recipient.from(context, Address.fromSerialized(userPublicKey), false)
-    if (message.displayName.isNotEmpty()) {
-        TextSecurePreferences.setProfileName(context, message.displayName)
-        profileManager.setName(context, recipient, message.displayName)
-    }
-    if (message.profileKey.isNotEmpty() && !message.profilePicture.isNullOrEmpty()
-        && TextSecurePreferences.getProfilePictureURL(context) != message.profilePicture) {
-        val profileKey = Base64.encodeBytes(message.profileKey)
-        ProfileKeyUtil.setEncodedProfileKey(context, profileKey)
-        profileManager.setProfileKey(context, recipient, message.profileKey)
-        if (!message.profilePicture.isNullOrEmpty() && TextSecurePreferences.getProfilePictureURL(context) != message.profilePicture) {
-            storage.setUserProfilePictureURL(message.profilePicture!!)
+    val newOpenGroups = message.openGroups.filter { !allV2OpenGroups.contains(it) }.distinct()
+    val progress = ConfigurationRestore.Progress(newClosedGroups.size + message.contacts.size + newOpenGroups.size, SnodeModule.shared.broadcaster)
+    // Apply the local state in bulk, and only start polling once it's committed
+    var phaseStart = System.nanoTime()
+    storage.runInTransaction {
+        for (closedGroup in newClosedGroups) {
+            handleNewClosedGroup(message.sender!!, message.sentTimestamp!!, closedGroup.publicKey, closedGroup.name,
+                closedGroup.encryptionKeyPair!!, closedGroup.members, closedGroup.admins, message.sentTimestamp!!, closedGroup.expirationTimer, false)
+            progress.increment()
+        }
+    }
+    newClosedGroups.forEach { ClosedGroupPollerV2.shared.startPolling(it.publicKey) }
+    progress.logPhase("closed groups", phaseStart)
+    if (shouldUpdateProfile) {
+        val profileManager = SSKEnvironment.shared.profileManager
+        val recipient = Recipient.from(context, Address.fromSerialized(userPublicKey), false)
+        if (message.displayName.isNotEmpty()) {
+            TextSecurePreferences.setProfileName(context, message.displayName)
+            profileManager.setName(context, recipient, message.displayName)
+        }
+        if (message.profileKey.isNotEmpty() && !message.profilePicture.isNullOrEmpty()
+            && TextSecurePreferences.getProfilePictureURL(context) != message.profilePicture) {
+            val profileKey = Base64.encodeBytes(message.profileKey)
+            ProfileKeyUtil.setEncodedProfileKey(context, profileKey)
+            profileManager.setProfileKey(context, recipient, message.profileKey)
+            if (!message.profilePicture.isNullOrEmpty() && TextSecurePreferences.getProfilePictureURL(context) != message.profilePicture) {
+                storage.setUserProfilePictureURL(message.profilePicture!!)
+            }
         }
     }
+    phaseStart = System.nanoTime()
     storage.addContacts(message.contacts)
+    progress.increment(message.contacts.size)
+    progress.logPhase("contacts", phaseStart)
+    ProfileStateCache.clear()
+    // Each open group needs a few network calls, so join them concurrently
+    phaseStart = System.nanoTime()
+    ConfigurationRestore.joinOpenGroups(newOpenGroups, progress) { storage.addOpenGroup(it) }
+    progress.logPhase("open groups", phaseStart)
+    progress.logFinished()
 }
 //endregion
 
@@ -163,7 +184,7 @@ fun MessageReceiver.handleVisibleMessage(message: VisibleMessage, proto: SignalS
     }
     // Update profile if needed
     val profile = message.profile
-    if (profile != null && userPublicKey != message.sender) {
+    if (profile != null && userPublicKey != message.sender && ProfileStateCache.hasChanged(message.sender!!, profile)) {
         val profileManager = SSKEnvironment.shared.profileManager
         val recipient = Recipient.from(context, Address.fromSerialized(message.sender!!), false)
         val name = profile.displayName!!
@@ -176,6 +197,7 @@ fun MessageReceiver.handleVisibleMessage(message: VisibleMessage, proto: SignalS
             profileManager.setUnidentifiedAccessMode(context, recipient, Recipient.UnidentifiedAccessMode.UNKNOWN)
             profileManager.setProfilePictureURL(context, recipient, profile.profilePictureURL!!)
         }
+        ProfileStateCache.update(message.sender!!, profile)
     }
     // Parse quote if needed
     var quoteModel: QuoteModel? = null
@@ -260,7 +282,7 @@ private fun MessageReceiver.handleNewClosedGroup(message: ClosedGroupControlMess
     handleNewClosedGroup(message.sender!!, message.sentTimestamp!!, groupPublicKey, kind.name, kind.encryptionKeyPair!!, members, admins, message.sentTimestamp!!, expireTimer)
 }
 
-private fun handleNewClosedGroup(sender: String, sentTimestamp: Long, groupPublicKey: String, name: String, encryptionKeyPair: ECKeyPair, members: List<String>, admins: List<String>, formationTimestamp: Long, expireTimer: Int) {
+private fun handleNewClosedGroup(sender: String, sentTimestamp: Long, groupPublicKey: String, name: String, encryptionKeyPair: ECKeyPair, members: List<String>, admins: List<String>, formationTimestamp: Long, expireTimer: Int, shouldStartPolling: Boolean = true) {
     val context = MessagingModuleConfiguration.shared.context
     val storage = MessagingModuleConfiguration.shared.storage
     val userPublicKey = TextSecurePreferences.getLocalNumber(context)
@@ -297,7 +319,7 @@ private fun handleNewClosedGroup(sender: String, sentTimestamp: Long, groupPubli
         storage.insertIncomingInfoMessage(context, sender, groupID, SignalServiceGroup.Type.CREATION, name, members, admins, sentTimestamp)
     }
     // Start polling
-    ClosedGroupPollerV2.shared.startPolling(groupPublicKey)
+    if (shouldStartPolling) { ClosedGroupPollerV2.shared.startPolling(groupPublicKey) }
 }
 
 private fun MessageReceiver.handleClosedGroupEncryptionKeyPair(message: ClosedGroupControlMessage) {
@@ -426,7 +448,7 @@ private fun MessageReceiver.handleClosedGroupMembersAdded(message: ClosedGroupCo
         //
         // Without the code below, the added member(s) would never get the key pair that was generated by the admin when they saw
         // the member removed message.
-        val encryptionKeyPair = pendingKeyPairs[groupPublicKey]?.orNull()
+        val encryptionKeyPair = PendingKeyPairCoordinator.getPendingKeyPair(groupPublicKey)
             ?: storage.getLatestClosedGroupEncryptionKeyPair(groupPublicKey)
         if (encryptionKeyPair == null) {
             Log.d("Loki", "Couldn't get encryption key pair for closed group.")
@@ -6,6 +6,8 @@ import okhttp3.MediaType
 import okhttp3.Request
 import okhttp3.RequestBody
 import org.session.libsession.messaging.MessagingModuleConfiguration
+import org.session.libsession.messaging.jobs.ClosedGroupPNOperationJob
+import org.session.libsession.messaging.jobs.JobQueue
 import org.session.libsession.snode.OnionRequestAPI
 import org.session.libsession.utilities.TextSecurePreferences
 import org.session.libsignal.utilities.retryIfNeeded
@@ -88,19 +90,6 @@ object PushNotificationAPI {
 
     fun performOperation(operation: ClosedGroupOperation, closedGroupPublicKey: String, publicKey: String) {
         if (!TextSecurePreferences.isUsingFCM(context)) { return }
-        val parameters = mapOf( "closedGroupPublicKey" to closedGroupPublicKey, "pubKey" to publicKey )
-        val url = "$server/${operation.rawValue}"
-        val body = RequestBody.create(MediaType.get("application/json"), JsonUtil.toJson(parameters))
-        val request = Request.Builder().url(url).post(body)
-        retryIfNeeded(maxRetryCount) {
-            OnionRequestAPI.sendOnionRequest(request.build(), server, serverPublicKey, "/loki/v2/lsrpc").map { json ->
-                val code = json["code"] as? Int
-                if (code == null || code == 0) {
-                    Log.d("Loki", "Couldn't subscribe/unsubscribe closed group: $closedGroupPublicKey due to error: ${json["message"] as? String ?: "null"}.")
-                }
-            }.fail { exception ->
-                Log.d("Loki", "Couldn't subscribe/unsubscribe closed group: $closedGroupPublicKey due to error: ${exception}.")
-            }
-        }
+        JobQueue.shared.add(ClosedGroupPNOperationJob(operation, closedGroupPublicKey, publicKey))
     }
 }
@@ -0,0 +1,135 @@
+package org.session.libsession.messaging.sending_receiving.notifications
+
+import nl.komponents.kovenant.Deferred
+import nl.komponents.kovenant.Promise
+import nl.komponents.kovenant.deferred
+import nl.komponents.kovenant.functional.map
+import okhttp3.MediaType
+import okhttp3.Request
+import okhttp3.RequestBody
+import org.session.libsession.snode.OnionRequestAPI
+import org.session.libsession.snode.SnodeMessage
+import org.session.libsignal.utilities.ExecutorRegistry
+import org.session.libsignal.utilities.JsonUtil
+import org.session.libsignal.utilities.Log
+import org.session.libsignal.utilities.retryIfNeeded
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Sends calls to the PN server. Notifications go out right away, one onion request each, as the server only takes
+ * one message per notify request and holding them back would only delay them. Closed group subscribe and unsubscribe
+ * calls are collected over a short window, in which a later call replaces any earlier one for the same group and
+ * public key, so e.g. re-subscribing to every group on a forced token upload only hits the server once per group.
+ *
+ * The batcher itself keeps nothing on disk. Callers enqueue from a persisted job (`NotifyPNServerJob` or
+ * `ClosedGroupPNOperationJob`) and only mark it as succeeded once the returned promise resolves, so anything still
+ * pending when the app dies is picked up again when pending jobs are resumed.
+ */
+object PushNotificationBatcher {
+
+    sealed class Operation {
+
+        class Notify(val message: SnodeMessage) : Operation()
+
+        class ClosedGroup(
+            val operation: PushNotificationAPI.ClosedGroupOperation,
+            val closedGroupPublicKey: String,
+            val publicKey: String
+        ) : Operation() {
+            // Subscribe and unsubscribe share a key so the later one wins
+            internal val key get() = "$closedGroupPublicKey:$publicKey"
+        }
+    }
+
+    private class Pending(val operation: Operation.ClosedGroup, val deferred: Deferred<Unit, Exception>)
+
+    /** How long closed group operations are collected before they're sent. Raised in tests so they can flush by hand. */
+    internal var windowMillis = 250L
+    private const val maxRetryCount = 4
+
+    private val lock = Any()
+    private var pending = LinkedHashMap<String, Pending>()
+
+    /** Sends a single operation to the PN server. Replaced in tests. */
+    internal var send: (Operation) -> Promise<Unit, Exception> = ::sendOnionRequest
+
+    /** The number of operations handed to the batcher. */
+    internal val enqueuedCount = AtomicLong(0)
+    /** The number of onion requests (not counting retries) actually sent to the PN server. */
+    internal val onionRequestCount = AtomicLong(0)
+
+    fun enqueue(operation: Operation): Promise<Unit, Exception> {
+        enqueuedCount.incrementAndGet()
+        return when (operation) {
+            is Operation.Notify -> {
+                onionRequestCount.incrementAndGet()
+                try { send(operation) } catch (exception: Exception) { Promise.ofFail(exception) }
+            }
+            is Operation.ClosedGroup -> enqueue(operation)
+        }
+    }
+
+    private fun enqueue(operation: Operation.ClosedGroup): Promise<Unit, Exception> {
+        val deferred = deferred<Unit, Exception>()
+        var superseded: Pending? = null
+        var shouldScheduleFlush = false
+        synchronized(lock) {
+            shouldScheduleFlush = pending.isEmpty()
+            superseded = pending.remove(operation.key)
+            pending[operation.key] = Pending(operation, deferred)
+        }
+        // The replaced operation is only done once the one that replaced it has been sent
+        val supersededDeferred = superseded?.deferred
+        if (supersededDeferred != null) {
+            deferred.promise.success { supersededDeferred.resolve(Unit) }.fail { supersededDeferred.reject(it) }
+        }
+        if (shouldScheduleFlush) {
+            // Flushing only starts the onion requests, so it can run on the scheduled pool
+            ExecutorRegistry.scheduled.schedule({ flush() }, windowMillis, TimeUnit.MILLISECONDS)
+        }
+        return deferred.promise
+    }
+
+    /**
+     * Sends the pending closed group operations right away. Called automatically at the end of each window.
+     */
+    fun flush() {
+        val batch = synchronized(lock) {
+            val batch = pending.values.toList()
+            pending = LinkedHashMap()
+            batch
+        }
+        for (entry in batch) {
+            onionRequestCount.incrementAndGet()
+            val promise = try {
+                send(entry.operation)
+            } catch (exception: Exception) {
+                entry.deferred.reject(exception)
+                continue
+            }
+            promise.success { entry.deferred.resolve(Unit) }.fail { entry.deferred.reject(it) }
+        }
+    }
+
+    private fun sendOnionRequest(operation: Operation): Promise<Unit, Exception> {
+        val server = PushNotificationAPI.server
+        val (url, parameters) = when (operation) {
+            is Operation.Notify -> Pair("$server/notify", mapOf( "data" to operation.message.data, "send_to" to operation.message.recipient ))
+            is Operation.ClosedGroup -> Pair("$server/${operation.operation.rawValue}",
+                mapOf( "closedGroupPublicKey" to operation.closedGroupPublicKey, "pubKey" to operation.publicKey ))
+        }
+        val body = RequestBody.create(MediaType.get("application/json"), JsonUtil.toJson(parameters))
+        val request = Request.Builder().url(url).post(body)
+        return retryIfNeeded(maxRetryCount) {
+            OnionRequestAPI.sendOnionRequest(request.build(), server, PushNotificationAPI.serverPublicKey, "/loki/v2/lsrpc").map { json ->
+                val code = json["code"] as? Int
+                if (code == null || code == 0) {
+                    Log.d("Loki", "Couldn't send ${operation::class.simpleName} to PN server due to error: ${json["message"] as? String ?: "null"}.")
+                }
+            }.fail { exception ->
+                Log.d("Loki", "Couldn't send ${operation::class.simpleName} to PN server due to error: $exception.")
+            }
+        }
+    }
+}
@@ -9,16 +9,16 @@ import org.session.libsession.messaging.jobs.MessageReceiveJob
 import org.session.libsession.snode.SnodeAPI
 import org.session.libsession.utilities.GroupUtil
 import org.session.libsignal.crypto.getRandomElementOrNull
+import org.session.libsignal.utilities.ExecutorRegistry
 import org.session.libsignal.utilities.Log
 import org.session.libsignal.utilities.successBackground
 import java.util.*
-import java.util.concurrent.Executors
 import java.util.concurrent.ScheduledFuture
 import java.util.concurrent.TimeUnit
 import kotlin.math.min
 
 class ClosedGroupPollerV2 {
-    private val executorService = Executors.newScheduledThreadPool(4)
+    private val executorService = ExecutorRegistry.scheduled
     private var isPolling = mutableMapOf<String, Boolean>()
     private var futures = mutableMapOf<String, ScheduledFuture<*>>()
 
@@ -102,10 +102,8 @@ class ClosedGroupPollerV2 {
         }
         promise.success { envelopes ->
             if (!isPolling(groupPublicKey)) { return@success }
-            envelopes.forEach { envelope ->
-                val job = MessageReceiveJob(envelope.toByteArray())
-                JobQueue.shared.add(job)
-            }
+            val jobs = envelopes.map { envelope -> MessageReceiveJob(envelope.toByteArray()) }
+            JobQueue.shared.addAll(jobs)
         }
         promise.fail {
             Log.d("Loki", "Polling failed for closed group with public key: $groupPublicKey due to error: $it.")
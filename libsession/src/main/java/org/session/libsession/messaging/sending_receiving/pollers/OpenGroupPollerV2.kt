@@ -65,6 +65,7 @@ class OpenGroupPollerV2(private val server: String, private val executorService:
         val threadExists = threadId >= 0
         if (!hasStarted || !threadExists) { return }
         var latestJob: MessageReceiveJob? = null
+        val jobs = mutableListOf<MessageReceiveJob>()
         messages.sortedBy { it.serverID!! }.forEach { message ->
             try {
                 val senderPublicKey = message.sender!!
@@ -79,7 +80,7 @@ class OpenGroupPollerV2(private val server: String, private val executorService:
                 if (isBackgroundPoll) {
                     job.executeAsync()
                 } else {
-                    JobQueue.shared.add(job)
+                    jobs.add(job)
                     if (!isCaughtUp) {
                         secondToLastJob = latestJob
                     }
@@ -89,6 +90,7 @@ class OpenGroupPollerV2(private val server: String, private val executorService:
                 Log.e("Loki", "Exception parsing message", e)
             }
         }
+        JobQueue.shared.addAll(jobs)
         val currentLastMessageServerID = storage.getLastMessageServerID(room, server) ?: 0
         val actualMax = max(messages.mapNotNull { it.serverID }.maxOrNull() ?: 0, currentLastMessageServerID)
         if (actualMax > 0) {
@@ -91,10 +91,8 @@ class Poller {
                 task { Unit } // The long polling connection has been canceled; don't recurse
             } else {
                 val messages = SnodeAPI.parseRawMessagesResponse(rawResponse, snode, userPublicKey)
-                messages.forEach { envelope ->
-                    val job = MessageReceiveJob(envelope.toByteArray())
-                    JobQueue.shared.add(job)
-                }
+                val jobs = messages.map { envelope -> MessageReceiveJob(envelope.toByteArray()) }
+                JobQueue.shared.addAll(jobs)
                 poll(snode, deferred)
             }
         }
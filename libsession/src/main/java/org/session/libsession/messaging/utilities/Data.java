@@ -5,6 +5,9 @@ import android.os.Parcelable;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import org.session.libsession.utilities.ParcelableUtil;
@@ -359,4 +362,119 @@ public class Data {
         @NonNull String serialize(@NonNull Data data);
         @NonNull Data deserialize(@NonNull String serialized);
     }
+
+    /**
+     * A compact binary form of {@link Data}, used through {@link KryoPool}. Each map is written as a count followed by
+     * its entries, in declaration order. The leading version byte must be bumped whenever the layout changes.
+     */
+    static final class BinarySerializer extends com.esotericsoftware.kryo.Serializer<Data> {
+        private static final int VERSION = 1;
+
+        private interface ValueWriter<T> { void write(Output output, T value); }
+        private interface ValueReader<T> { T read(Input input); }
+
+        @Override
+        public void write(Kryo kryo, Output output, Data data) {
+            output.writeByte(VERSION);
+            writeMap(output, data.strings, Output::writeString);
+            writeMap(output, data.stringArrays, (o, values) -> {
+                o.writeVarInt(values.length, true);
+                for (String value : values) { o.writeString(value); }
+            });
+            writeMap(output, data.integers, (o, value) -> o.writeVarInt(value, false));
+            writeMap(output, data.integerArrays, (o, values) -> {
+                o.writeVarInt(values.length, true);
+                for (int value : values) { o.writeVarInt(value, false); }
+            });
+            writeMap(output, data.longs, (o, value) -> o.writeVarLong(value, false));
+            writeMap(output, data.longArrays, (o, values) -> {
+                o.writeVarInt(values.length, true);
+                for (long value : values) { o.writeVarLong(value, false); }
+            });
+            writeMap(output, data.floats, Output::writeFloat);
+            writeMap(output, data.floatArrays, (o, values) -> {
+                o.writeVarInt(values.length, true);
+                for (float value : values) { o.writeFloat(value); }
+            });
+            writeMap(output, data.doubles, Output::writeDouble);
+            writeMap(output, data.doubleArrays, (o, values) -> {
+                o.writeVarInt(values.length, true);
+                for (double value : values) { o.writeDouble(value); }
+            });
+            writeMap(output, data.booleans, Output::writeBoolean);
+            writeMap(output, data.booleanArrays, (o, values) -> {
+                o.writeVarInt(values.length, true);
+                for (boolean value : values) { o.writeBoolean(value); }
+            });
+            writeMap(output, data.byteArrays, (o, value) -> {
+                o.writeVarInt(value.length, true);
+                o.writeBytes(value);
+            });
+        }
+
+        @Override
+        public Data read(Kryo kryo, Input input, Class<? extends Data> type) {
+            int version = input.readByte();
+            if (version != VERSION) {
+                throw new IllegalStateException("Unknown job data version: " + version + ".");
+            }
+            return new Data(
+                readMap(input, Input::readString),
+                readMap(input, i -> {
+                    String[] values = new String[i.readVarInt(true)];
+                    for (int index = 0; index < values.length; index++) { values[index] = i.readString(); }
+                    return values;
+                }),
+                readMap(input, i -> i.readVarInt(false)),
+                readMap(input, i -> {
+                    int[] values = new int[i.readVarInt(true)];
+                    for (int index = 0; index < values.length; index++) { values[index] = i.readVarInt(false); }
+                    return values;
+                }),
+                readMap(input, i -> i.readVarLong(false)),
+                readMap(input, i -> {
+                    long[] values = new long[i.readVarInt(true)];
+                    for (int index = 0; index < values.length; index++) { values[index] = i.readVarLong(false); }
+                    return values;
+                }),
+                readMap(input, Input::readFloat),
+                readMap(input, i -> {
+                    float[] values = new float[i.readVarInt(true)];
+                    for (int index = 0; index < values.length; index++) { values[index] = i.readFloat(); }
+                    return values;
+                }),
+                readMap(input, Input::readDouble),
+                readMap(input, i -> {
+                    double[] values = new double[i.readVarInt(true)];
+                    for (int index = 0; index < values.length; index++) { values[index] = i.readDouble(); }
+                    return values;
+                }),
+                readMap(input, Input::readBoolean),
+                readMap(input, i -> {
+                    boolean[] values = new boolean[i.readVarInt(true)];
+                    for (int index = 0; index < values.length; index++) { values[index] = i.readBoolean(); }
+                    return values;
+                }),
+                readMap(input, i -> i.readBytes(i.readVarInt(true)))
+            );
+        }
+
+        private static <T> void writeMap(Output output, Map<String, T> map, ValueWriter<T> writer) {
+            output.writeVarInt(map.size(), true);
+            for (Map.Entry<String, T> entry : map.entrySet()) {
+                output.writeString(entry.getKey());
+                writer.write(output, entry.getValue());
+            }
+        }
+
+        private static <T> Map<String, T> readMap(Input input, ValueReader<T> reader) {
+            int count = input.readVarInt(true);
+            Map<String, T> map = new HashMap<>(count * 2);
+            for (int index = 0; index < count; index++) {
+                String key = input.readString();
+                map.put(key, reader.read(input));
+            }
+            return map;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,100 @@
+package org.session.libsession.messaging.utilities
+
+import com.esotericsoftware.kryo.Kryo
+import com.esotericsoftware.kryo.io.Input
+import com.esotericsoftware.kryo.io.Output
+import org.session.libsession.messaging.jobs.Job
+import org.session.libsession.messaging.messages.Destination
+import org.session.libsession.messaging.messages.control.*
+import org.session.libsession.messaging.messages.visible.*
+import org.session.libsession.snode.SnodeMessage
+
+/**
+ * Per-thread Kryo instances for serializing jobs, so that they aren't set up again for every job. Each thread also keeps
+ * its output buffer between calls.
+ *
+ * The classes that show up in almost every job are registered up front, which lets Kryo write a small ID instead of the
+ * class name. Those IDs are part of the stored format: never reuse or reorder them, only append. Data written before
+ * they were registered (with class names) can still be read.
+ */
+object KryoPool {
+    private const val initialBufferSize = 4096
+    // A buffer that had to grow past this is dropped after use rather than kept around by the thread
+    private const val maxRetainedBufferSize = 64 * 1024
+    private val emptyBuffer = ByteArray(0)
+
+    private class Instance {
+        val kryo = newKryo()
+        var output = Output(initialBufferSize, Job.MAX_BUFFER_SIZE)
+        val input = Input()
+    }
+
+    private val instances = object : ThreadLocal<Instance>() {
+        override fun initialValue() = Instance()
+    }
+
+    private fun newKryo(): Kryo {
+        val kryo = Kryo()
+        kryo.isRegistrationRequired = false
+        kryo.register(Data::class.java, Data.BinarySerializer(), 100)
+        kryo.register(ArrayList::class.java, 101)
+        kryo.register(VisibleMessage::class.java, 102)
+        kryo.register(Profile::class.java, 103)
+        kryo.register(Quote::class.java, 104)
+        kryo.register(LinkPreview::class.java, 105)
+        kryo.register(OpenGroupInvitation::class.java, 106)
+        kryo.register(ClosedGroupControlMessage::class.java, 107)
+        kryo.register(ExpirationTimerUpdate::class.java, 108)
+        kryo.register(ReadReceipt::class.java, 109)
+        kryo.register(TypingIndicator::class.java, 110)
+        kryo.register(DataExtractionNotification::class.java, 111)
+        kryo.register(ConfigurationMessage::class.java, 112)
+        kryo.register(Destination.Contact::class.java, 113)
+        kryo.register(Destination.ClosedGroup::class.java, 114)
+        kryo.register(Destination.OpenGroupV2::class.java, 115)
+        kryo.register(SnodeMessage::class.java, 116)
+        return kryo
+    }
+
+    private inline fun write(block: (Kryo, Output) -> Unit): ByteArray {
+        val instance = instances.get()!!
+        val output = instance.output
+        output.reset()
+        try {
+            block(instance.kryo, output)
+            return output.toBytes()
+        } finally {
+            if (output.buffer.size > maxRetainedBufferSize) { instance.output = Output(initialBufferSize, Job.MAX_BUFFER_SIZE) }
+        }
+    }
+
+    private inline fun <T> read(bytes: ByteArray, block: (Kryo, Input) -> T): T {
+        val instance = instances.get()!!
+        val input = instance.input
+        input.buffer = bytes
+        try {
+            return block(instance.kryo, input)
+        } finally {
+            // Don't hold on to the job's bytes
+            input.buffer = emptyBuffer
+        }
+    }
+
+    /**
+     * Serializes `value` along with its class, to be read back with `readClassAndObject`.
+     */
+    fun writeClassAndObject(value: Any): ByteArray = write { kryo, output -> kryo.writeClassAndObject(output, value) }
+
+    fun readClassAndObject(bytes: ByteArray): Any? = read(bytes) { kryo, input -> kryo.readClassAndObject(input) }
+
+    /**
+     * Serializes `value` without its class, to be read back with `readObject` given the same class.
+     */
+    fun writeObject(value: Any): ByteArray = write { kryo, output -> kryo.writeObject(output, value) }
+
+    fun <T> readObject(bytes: ByteArray, type: Class<T>): T = read(bytes) { kryo, input -> kryo.readObject(input, type) }
+
+    fun serializeData(data: Data): ByteArray = writeObject(data)
+
+    fun deserializeData(bytes: ByteArray): Data = readObject(bytes, Data::class.java)
+}
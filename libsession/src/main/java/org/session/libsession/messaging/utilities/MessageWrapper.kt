@@ -1,6 +1,10 @@
 package org.session.libsession.messaging.utilities
 
 import com.google.protobuf.ByteString
+import com.google.protobuf.CodedInputStream
+import com.google.protobuf.CodedOutputStream
+import com.google.protobuf.WireFormat
+import org.session.libsignal.utilities.Base64
 import org.session.libsignal.utilities.Log
 import org.session.libsignal.protos.SignalServiceProtos.Envelope
 import org.session.libsignal.protos.WebSocketProtos.WebSocketMessage
@@ -19,6 +23,31 @@ object MessageWrapper {
     // endregion
 
     // region Wrapping
+    private val secureRandom by lazy { SecureRandom.getInstance("SHA1PRNG") }
+    private const val webSocketRequestVerb = "PUT"
+    private const val webSocketRequestPath = "/api/v1/message"
+
+    /**
+     * Per-thread output space for [wrapAndEncode].
+     */
+    private class WrappingBuffer {
+        var data = ByteArray(0)
+        var encoded = CharArray(0)
+
+        fun ensureCapacity(size: Int) {
+            if (data.size >= size) { return }
+            data = ByteArray(size)
+            encoded = CharArray(4 * ((size + 2) / 3))
+        }
+    }
+
+    private val buffers = object : ThreadLocal<WrappingBuffer>() {
+
+        override fun initialValue(): WrappingBuffer {
+            return WrappingBuffer()
+        }
+    }
+
     /**
      * Wraps `message` in a `SignalServiceProtos.Envelope` and then a `WebSocketProtos.WebSocketMessage` to match the desktop application.
      */
@@ -50,9 +79,9 @@ object MessageWrapper {
     private fun createWebSocketMessage(envelope: Envelope): WebSocketMessage {
         try {
             val requestBuilder = WebSocketRequestMessage.newBuilder()
-            requestBuilder.verb = "PUT"
-            requestBuilder.path = "/api/v1/message"
-            requestBuilder.id = SecureRandom.getInstance("SHA1PRNG").nextLong()
+            requestBuilder.verb = webSocketRequestVerb
+            requestBuilder.path = webSocketRequestPath
+            requestBuilder.id = secureRandom.nextLong()
             requestBuilder.body = envelope.toByteString()
             val messageBuilder = WebSocketMessage.newBuilder()
             messageBuilder.request = requestBuilder.build()
@@ -63,17 +92,86 @@ object MessageWrapper {
             throw Error.FailedToWrapEnvelopeInWebSocketMessage
         }
     }
+
+    /**
+     * Wraps the first `contentSize` bytes of `content` the same way [wrap] does and returns the result base 64 encoded.
+     *
+     * The envelope and web socket message are written field by field straight into a reused buffer, which is then base 64
+     * encoded from a reused char array, so the returned string is the only sizeable allocation.
+     */
+    fun wrapAndEncode(type: Envelope.Type, timestamp: Long, senderPublicKey: String, content: ByteArray, contentSize: Int): String {
+        try {
+            val requestID = secureRandom.nextLong()
+            val envelopeSize = CodedOutputStream.computeEnumSize(Envelope.TYPE_FIELD_NUMBER, type.number) +
+                CodedOutputStream.computeStringSize(Envelope.SOURCE_FIELD_NUMBER, senderPublicKey) +
+                CodedOutputStream.computeUInt64Size(Envelope.TIMESTAMP_FIELD_NUMBER, timestamp) +
+                CodedOutputStream.computeUInt32Size(Envelope.SOURCEDEVICE_FIELD_NUMBER, 1) +
+                CodedOutputStream.computeTagSize(Envelope.CONTENT_FIELD_NUMBER) +
+                CodedOutputStream.computeRawVarint32Size(contentSize) + contentSize
+            val requestSize = CodedOutputStream.computeStringSize(WebSocketRequestMessage.VERB_FIELD_NUMBER, webSocketRequestVerb) +
+                CodedOutputStream.computeStringSize(WebSocketRequestMessage.PATH_FIELD_NUMBER, webSocketRequestPath) +
+                CodedOutputStream.computeTagSize(WebSocketRequestMessage.BODY_FIELD_NUMBER) +
+                CodedOutputStream.computeRawVarint32Size(envelopeSize) + envelopeSize +
+                CodedOutputStream.computeUInt64Size(WebSocketRequestMessage.ID_FIELD_NUMBER, requestID)
+            val messageSize = CodedOutputStream.computeEnumSize(WebSocketMessage.TYPE_FIELD_NUMBER, WebSocketMessage.Type.REQUEST.number) +
+                CodedOutputStream.computeTagSize(WebSocketMessage.REQUEST_FIELD_NUMBER) +
+                CodedOutputStream.computeRawVarint32Size(requestSize) + requestSize
+            val buffer = buffers.get()!!
+            buffer.ensureCapacity(messageSize)
+            // Fields are written in field number order, matching the generated code
+            val output = CodedOutputStream.newInstance(buffer.data, 0, messageSize)
+            output.writeEnum(WebSocketMessage.TYPE_FIELD_NUMBER, WebSocketMessage.Type.REQUEST.number)
+            output.writeTag(WebSocketMessage.REQUEST_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED)
+            output.writeRawVarint32(requestSize)
+            output.writeString(WebSocketRequestMessage.VERB_FIELD_NUMBER, webSocketRequestVerb)
+            output.writeString(WebSocketRequestMessage.PATH_FIELD_NUMBER, webSocketRequestPath)
+            output.writeTag(WebSocketRequestMessage.BODY_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED)
+            output.writeRawVarint32(envelopeSize)
+            output.writeEnum(Envelope.TYPE_FIELD_NUMBER, type.number)
+            output.writeString(Envelope.SOURCE_FIELD_NUMBER, senderPublicKey)
+            output.writeUInt64(Envelope.TIMESTAMP_FIELD_NUMBER, timestamp)
+            output.writeUInt32(Envelope.SOURCEDEVICE_FIELD_NUMBER, 1)
+            output.writeTag(Envelope.CONTENT_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED)
+            output.writeRawVarint32(contentSize)
+            output.writeRawBytes(content, 0, contentSize)
+            output.writeUInt64(WebSocketRequestMessage.ID_FIELD_NUMBER, requestID)
+            output.checkNoSpaceLeft()
+            return Base64.encodeBytes(buffer.data, 0, messageSize, buffer.encoded)
+        } catch (e: Exception) {
+            Log.d("Loki", "Failed to wrap data: ${e.message}.")
+            throw Error.FailedToWrapData
+        }
+    }
     // endregion
 
     // region Unwrapping
+    private val webSocketMessageRequestTag = (WebSocketMessage.REQUEST_FIELD_NUMBER shl 3) or WireFormat.WIRETYPE_LENGTH_DELIMITED
+    private val webSocketRequestMessageBodyTag = (WebSocketRequestMessage.BODY_FIELD_NUMBER shl 3) or WireFormat.WIRETYPE_LENGTH_DELIMITED
+
     /**
-     * `data` shouldn't be base 64 encoded.
+     * `data` shouldn't be base 64 encoded. Only the first `size` bytes of `data` are read, so a reused buffer can be passed in.
+     *
+     * The `WebSocketMessage` and `WebSocketRequestMessage` wrappers are walked in place rather than parsed, and the envelope is
+     * parsed straight from its position in `data`. This avoids materializing both wrappers and copying the request body.
      */
-    fun unwrap(data: ByteArray): Envelope {
+    fun unwrap(data: ByteArray, size: Int = data.size): Envelope {
         try {
-            val webSocketMessage = WebSocketMessage.parseFrom(data)
-            val envelopeAsData = webSocketMessage.request.body
-            return Envelope.parseFrom(envelopeAsData);
+            val input = CodedInputStream.newInstance(data, 0, size)
+            var tag = input.readTag()
+            while (tag != 0 && tag != webSocketMessageRequestTag) {
+                input.skipField(tag)
+                tag = input.readTag()
+            }
+            if (tag == 0) { throw Error.FailedToUnwrapData }
+            input.pushLimit(input.readRawVarint32())
+            tag = input.readTag()
+            while (tag != 0 && tag != webSocketRequestMessageBodyTag) {
+                input.skipField(tag)
+                tag = input.readTag()
+            }
+            if (tag == 0) { throw Error.FailedToUnwrapData }
+            val envelopeSize = input.readRawVarint32()
+            return Envelope.PARSER.parseFrom(data, input.totalBytesRead, envelopeSize)
         } catch (e: Exception) {
             Log.d("Loki", "Failed to unwrap data: ${e.message}.")
             throw Error.FailedToUnwrapData
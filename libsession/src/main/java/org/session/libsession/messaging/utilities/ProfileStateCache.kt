@@ -0,0 +1,57 @@
+package org.session.libsession.messaging.utilities
+
+import org.session.libsession.messaging.messages.visible.Profile
+import java.util.Arrays
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Remembers the last profile applied for each sender, so that receiving a message only updates the sender's name,
+ * profile key and profile picture when one of them actually changed. In a busy open group nearly every message
+ * carries an unchanged profile.
+ */
+object ProfileStateCache {
+    private const val maxSize = 2048
+
+    private class ProfileState(val displayName: String?, val profileKey: ByteArray?, val profilePictureURL: String?) {
+
+        fun matches(profile: Profile): Boolean {
+            return displayName == profile.displayName && profilePictureURL == profile.profilePictureURL
+                && Arrays.equals(profileKey, profile.profileKey)
+        }
+    }
+
+    /**
+     * The number of profile writes skipped because the profile was unchanged, since the app started.
+     */
+    val suppressedWriteCount = AtomicLong()
+
+    private val profileStates = object : LinkedHashMap<String, ProfileState>(16, 0.75f, true) {
+
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, ProfileState>?): Boolean {
+            return size > maxSize
+        }
+    }
+
+    /**
+     * Returns `true` if `profile` differs from the last profile applied for `publicKey`.
+     */
+    @Synchronized
+    fun hasChanged(publicKey: String, profile: Profile): Boolean {
+        val isUnchanged = profileStates[publicKey]?.matches(profile) == true
+        if (isUnchanged) { suppressedWriteCount.incrementAndGet() }
+        return !isUnchanged
+    }
+
+    /**
+     * Records `profile` as applied for `publicKey`. Call only after the profile has been written.
+     */
+    @Synchronized
+    fun update(publicKey: String, profile: Profile) {
+        profileStates[publicKey] = ProfileState(profile.displayName, profile.profileKey?.copyOf(), profile.profilePictureURL)
+    }
+
+    @Synchronized
+    fun clear() {
+        profileStates.clear()
+    }
+}
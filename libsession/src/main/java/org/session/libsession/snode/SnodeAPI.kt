@@ -361,13 +361,24 @@ object SnodeAPI {
     }
 
     private fun parseEnvelopes(rawMessages: List<*>): List<SignalServiceProtos.Envelope> {
+        // Every message is decoded into the same buffer; unwrapping copies out whatever the envelope needs
+        var buffer = ByteArray(0)
         return rawMessages.mapNotNull { rawMessage ->
             val rawMessageAsJSON = rawMessage as? Map<*, *>
             val base64EncodedData = rawMessageAsJSON?.get("data") as? String
-            val data = base64EncodedData?.let { Base64.decode(it) }
-            if (data != null) {
+            val size = base64EncodedData?.let {
+                val maxSize = it.length * 3 / 4
+                if (buffer.size < maxSize) { buffer = ByteArray(maxSize) }
                 try {
-                    MessageWrapper.unwrap(data)
+                    Base64.decode(it, buffer)
+                } catch (e: Exception) {
+                    Log.w("Loki", "Failed to decode base64 data for message: ${rawMessage.prettifiedDescription()}.", e)
+                    null
+                }
+            }
+            if (size != null) {
+                try {
+                    MessageWrapper.unwrap(buffer, size)
                 } catch (e: Exception) {
                     Log.d("Loki", "Failed to unwrap data for message: ${rawMessage.prettifiedDescription()}.")
                     null
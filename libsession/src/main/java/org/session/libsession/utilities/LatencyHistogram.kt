@@ -0,0 +1,57 @@
+package org.session.libsession.utilities
+
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * A lock-free histogram of durations with power-of-two millisecond buckets: bucket 0 counts durations under 1 ms, bucket
+ * `i` counts durations in [2^(i-1), 2^i) ms, and the last bucket counts everything from about 65 seconds up.
+ */
+class LatencyHistogram {
+
+    companion object {
+        const val bucketCount = 18
+
+        /** The exclusive upper bound of bucket `index` in milliseconds, or `Long.MAX_VALUE` for the last bucket. */
+        fun getUpperBoundMillis(index: Int): Long {
+            return if (index == bucketCount - 1) Long.MAX_VALUE else 1L shl index
+        }
+    }
+
+    private val counts = AtomicLongArray(bucketCount)
+
+    fun record(durationNanos: Long) {
+        val millis = TimeUnit.NANOSECONDS.toMillis(durationNanos.coerceAtLeast(0))
+        val index = if (millis == 0L) 0 else (64 - java.lang.Long.numberOfLeadingZeros(millis))
+        counts.incrementAndGet(index.coerceAtMost(bucketCount - 1))
+    }
+
+    fun getCounts(): LongArray {
+        return LongArray(bucketCount) { counts.get(it) }
+    }
+
+    fun getTotalCount(): Long {
+        return getCounts().sum()
+    }
+
+    /**
+     * Returns the upper bound in milliseconds of the bucket holding the given percentile (between 0 and 1), or 0 if
+     * nothing has been recorded.
+     */
+    fun getPercentileUpperBoundMillis(percentile: Double): Long {
+        val counts = getCounts()
+        val total = counts.sum()
+        if (total == 0L) { return 0 }
+        val target = Math.ceil(total * percentile).toLong().coerceAtLeast(1)
+        var cumulative = 0L
+        for (index in counts.indices) {
+            cumulative += counts[index]
+            if (cumulative >= target) { return getUpperBoundMillis(index) }
+        }
+        return getUpperBoundMillis(bucketCount - 1)
+    }
+
+    override fun toString(): String {
+        return "count: ${getTotalCount()}, p50 < ${getPercentileUpperBoundMillis(0.5)} ms, p99 < ${getPercentileUpperBoundMillis(0.99)} ms"
+    }
+}
@@ -3,6 +3,15 @@ package org.session.libsession.utilities;
 import java.util.concurrent.LinkedBlockingDeque;
 
 public class LinkedBlockingLifoQueue<E> extends LinkedBlockingDeque<E> {
+
+  public LinkedBlockingLifoQueue() {
+    super();
+  }
+
+  public LinkedBlockingLifoQueue(int capacity) {
+    super(capacity);
+  }
+
   @Override
   public void put(E runnable) throws InterruptedException {
     super.putFirst(runnable);
@@ -16,7 +25,6 @@ public class LinkedBlockingLifoQueue<E> extends LinkedBlockingDeque<E> {
 
   @Override
   public boolean offer(E runnable) {
-    super.addFirst(runnable);
-    return true;
+    return super.offerFirst(runnable);
   }
 }
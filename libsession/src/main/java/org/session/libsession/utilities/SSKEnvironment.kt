@@ -40,6 +40,7 @@ class SSKEnvironment(
         fun setExpirationTimer(message: ExpirationTimerUpdate)
         fun disableExpirationTimer(message: ExpirationTimerUpdate)
         fun startAnyExpiration(timestamp: Long, author: String)
+        fun startAnyExpiration(messageID: Long, isMms: Boolean)
     }
 
     companion object {
@@ -2,6 +2,8 @@ package org.session.libsession.utilities.concurrent;
 
 import androidx.annotation.NonNull;
 
+import org.session.libsignal.utilities.ExecutorRegistry;
+
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -12,8 +14,9 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 public class SignalExecutors {
 
-  public static final ExecutorService UNBOUNDED = Executors.newCachedThreadPool(new NumberedThreadFactory("signal-unbounded"));
-  public static final ExecutorService BOUNDED   = Executors.newFixedThreadPool(Math.max(2, Math.min(Runtime.getRuntime().availableProcessors() - 1, 4)), new NumberedThreadFactory("signal-bounded"));
+  // Both are the shared pools now; UNBOUNDED keeps its name for its callers but is bounded like everything else
+  public static final ExecutorService UNBOUNDED = ExecutorRegistry.getIo();
+  public static final ExecutorService BOUNDED   = ExecutorRegistry.getCpu();
   public static final ExecutorService SERIAL    = Executors.newSingleThreadExecutor(new NumberedThreadFactory("signal-serial"));
 
   public static ExecutorService newCachedSingleThreadExecutor(final String name) {
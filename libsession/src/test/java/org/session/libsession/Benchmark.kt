@@ -0,0 +1,7 @@
+package org.session.libsession
+
+/**
+ * JUnit category for tests that time themselves. They're left out of the unit test run and only run by hand, with
+ * `./gradlew :libsession:testDebugUnitTest -Pbenchmarks`; results are printed to the test output.
+ */
+interface Benchmark
@@ -0,0 +1,86 @@
+package org.session.libsession.messaging.jobs
+
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.experimental.categories.Category
+import org.session.libsession.Benchmark
+import java.util.concurrent.Executors
+
+class BatchMessageReceiveJobTest {
+
+    private class RecordingDelegate : JobDelegate {
+        val succeeded = mutableListOf<Job>()
+        val failed = mutableListOf<Job>()
+        val failedPermanently = mutableListOf<Job>()
+
+        override fun handleJobSucceeded(job: Job) { succeeded.add(job) }
+        override fun handleJobFailed(job: Job, error: Exception) { failed.add(job) }
+        override fun handleJobFailedPermanently(job: Job, error: Exception) { failedPermanently.add(job) }
+    }
+
+    private fun createMessages(count: Int): List<MessageReceiveJob> {
+        return (0 until count).map { MessageReceiveJob(byteArrayOf(it.toByte())) }
+    }
+
+    @Test
+    fun receivesEnvelopesInOrderTest() {
+        val messages = createMessages(50)
+        val received = mutableListOf<MessageReceiveJob>()
+        val delegate = RecordingDelegate()
+        val job = BatchMessageReceiveJob(messages) { received.add(it) }
+        job.delegate = delegate
+        job.execute()
+        assertEquals(messages, received)
+        assertEquals(messages + job, delegate.succeeded)
+        assertTrue(delegate.failed.isEmpty())
+    }
+
+    @Test
+    fun failedEnvelopesAreReportedIndividuallyTest() {
+        val messages = createMessages(10)
+        val delegate = RecordingDelegate()
+        val job = BatchMessageReceiveJob(messages) { message ->
+            if (message === messages[3]) throw IllegalStateException()
+        }
+        job.delegate = delegate
+        job.execute()
+        assertEquals(listOf(messages[3]), delegate.failed)
+        assertEquals(messages.filter { it !== messages[3] } + job, delegate.succeeded)
+        assertTrue(delegate.failedPermanently.isEmpty())
+    }
+
+    /**
+     * Runs the same number of envelopes through a single threaded executor at batch sizes of 1, 50 and 256, with no
+     * work per envelope, so what's measured is the job overhead: the dispatch and the delegate callbacks. A batch of 1 costs the same as a single `MessageReceiveJob`.
+     */
+    @Test
+    @Category(Benchmark::class)
+    fun overheadPerMessageBenchmark() {
+        val messageCount = 256 * 400
+        val overheads = listOf(1, 50, 256).associateWith { batchSize ->
+            measureOverheadPerMessage(messageCount, batchSize) // Warm up
+            measureOverheadPerMessage(messageCount, batchSize)
+        }
+        overheads.forEach { (batchSize, nanos) ->
+            println("Job overhead at a batch size of $batchSize: about $nanos ns per message.")
+        }
+    }
+
+    private fun measureOverheadPerMessage(messageCount: Int, batchSize: Int): Long {
+        val executor = Executors.newSingleThreadExecutor()
+        val delegate = RecordingDelegate()
+        val jobs = createMessages(messageCount).chunked(batchSize).map { BatchMessageReceiveJob(it) { } }
+        val start = System.nanoTime()
+        val futures = jobs.map { job ->
+            executor.submit {
+                job.delegate = delegate
+                job.execute()
+            }
+        }
+        futures.forEach { it.get() }
+        val nanos = System.nanoTime() - start
+        executor.shutdown()
+        assertEquals(messageCount + jobs.size, delegate.succeeded.size)
+        return nanos / messageCount
+    }
+}
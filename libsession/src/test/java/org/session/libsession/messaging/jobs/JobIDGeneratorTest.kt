@@ -0,0 +1,66 @@
+package org.session.libsession.messaging.jobs
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+
+class JobIDGeneratorTest {
+
+    @Test
+    fun idsStartWithTheTimestampTest() {
+        val generator = JobIDGenerator { 1_600_000_000_000L }
+        assertEquals("1600000000000000", generator.next().toString())
+        assertEquals("1600000000000001", generator.next().toString())
+    }
+
+    @Test
+    fun idsKeepIncreasingWhenTheClockGoesBackTest() {
+        var now = 1_600_000_000_000L
+        val generator = JobIDGenerator { now }
+        val first = generator.next()
+        now -= 60_000
+        assertEquals(first + 1, generator.next())
+        now += 120_000
+        assertEquals(now * 1000, generator.next())
+    }
+
+    @Test
+    fun sequenceCarriesIntoTheNextMillisecondTest() {
+        val generator = JobIDGenerator { 1_600_000_000_000L }
+        val ids = (0 until 2500).map { generator.next() }
+        assertEquals(2500, ids.toSet().size)
+        assertEquals(1_600_000_000_002_499L, ids.last())
+    }
+
+    /**
+     * Creates millions of IDs from many threads at once and checks that none repeat and that each thread sees them
+     * increase.
+     */
+    @Test
+    fun concurrentIDsAreUniqueTest() {
+        val threadCount = 16
+        val idsPerThread = 250_000
+        val generator = JobIDGenerator()
+        val executor = Executors.newFixedThreadPool(threadCount)
+        val start = CountDownLatch(1)
+        val futures = (0 until threadCount).map {
+            executor.submit<LongArray> {
+                start.await()
+                val ids = LongArray(idsPerThread)
+                for (i in 0 until idsPerThread) { ids[i] = generator.next() }
+                ids
+            }
+        }
+        start.countDown()
+        val results = futures.map { it.get() }
+        executor.shutdown()
+        for (ids in results) {
+            for (i in 1 until ids.size) { assertTrue(ids[i] > ids[i - 1]) }
+        }
+        val all = LongArray(threadCount * idsPerThread)
+        results.forEachIndexed { index, ids -> System.arraycopy(ids, 0, all, index * idsPerThread, idsPerThread) }
+        all.sort()
+        for (i in 1 until all.size) { assertNotEquals(all[i - 1], all[i]) }
+    }
+}
@@ -0,0 +1,100 @@
+package org.session.libsession.messaging.jobs
+
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import org.junit.experimental.categories.Category
+import org.session.libsession.Benchmark
+import org.session.libsession.messaging.utilities.ProfileStateCache
+import java.io.File
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class JobTelemetryTest {
+
+    @Before
+    fun setUp() {
+        JobTelemetry.reset()
+    }
+
+    @Test
+    fun recordsPerJobTypeTest() {
+        JobTelemetry.recordQueueWait("MessageSendJob", TimeUnit.MILLISECONDS.toNanos(3))
+        JobTelemetry.recordExecution("MessageSendJob", TimeUnit.MILLISECONDS.toNanos(300))
+        JobTelemetry.recordRetry("MessageSendJob")
+        JobTelemetry.recordSuccess("MessageSendJob")
+        JobTelemetry.recordFailure("AttachmentUploadJob")
+        val stats = JobTelemetry.getStats("MessageSendJob")
+        assertEquals(1, stats.queueWaitTimes.getTotalCount())
+        assertEquals(4, stats.queueWaitTimes.getPercentileUpperBoundMillis(0.5))
+        assertEquals(512, stats.executionTimes.getPercentileUpperBoundMillis(0.5))
+        assertEquals(1, stats.retryCount.get())
+        assertEquals(1, stats.successCount.get())
+        assertEquals(1, JobTelemetry.getStats("AttachmentUploadJob").failureCount.get())
+        assertEquals(listOf("AttachmentUploadJob", "MessageSendJob"), JobTelemetry.getAllStats().map { it.jobType })
+    }
+
+    @Test
+    fun reportAndExportTest() {
+        val depth = AtomicInteger(3)
+        JobTelemetry.registerQueue("test.queue") { depth.get() }
+        JobTelemetry.recordExecution("TrimThreadJob", TimeUnit.MILLISECONDS.toNanos(20))
+        assertEquals(3, JobTelemetry.getQueueDepths()["test.queue"])
+        depth.set(5)
+        val report = JobTelemetry.getReport()
+        assertTrue(report.contains("test.queue: 5"))
+        assertTrue(report.contains("Unchanged profile writes skipped: ${ProfileStateCache.suppressedWriteCount.get()}"))
+        val file = File.createTempFile("job_telemetry", ".txt")
+        try {
+            JobTelemetry.exportTo(file)
+            val exported = file.readText()
+            assertTrue(exported.contains("TrimThreadJob: 0 succeeded, 0 retried, 0 failed"))
+            assertTrue(exported.contains("TrimThreadJob execution: 32: 1"))
+        } finally {
+            file.delete()
+        }
+    }
+
+    @Test
+    fun concurrentRecordingTest() {
+        recordConcurrently(4, 10_000)
+        assertEquals(4 * 10_000L, JobTelemetry.getAllStats().sumOf { it.successCount.get() })
+        assertEquals(4 * 10_000L, JobTelemetry.getAllStats().sumOf { it.executionTimes.getCounts().sum() })
+    }
+
+    /**
+     * Each job records a queue wait, an execution time and an outcome; that should cost well under a microsecond even
+     * with several threads recording at once.
+     */
+    @Test
+    @Category(Benchmark::class)
+    fun recordingOverheadBenchmark() {
+        val threadCount = 4
+        val jobsPerThread = 250_000
+        val start = System.nanoTime()
+        recordConcurrently(threadCount, jobsPerThread)
+        val nanosPerJob = (System.nanoTime() - start) / (threadCount * jobsPerThread)
+        println("Recording telemetry costs about $nanosPerJob ns per job.")
+    }
+
+    private fun recordConcurrently(threadCount: Int, jobsPerThread: Int) {
+        val jobTypes = arrayOf("MessageSendJob", "MessageReceiveJob", "AttachmentDownloadJob", "NotifyPNServerJob")
+        val executor = Executors.newFixedThreadPool(threadCount)
+        try {
+            val futures = (0 until threadCount).map { thread ->
+                executor.submit {
+                    for (i in 0 until jobsPerThread) {
+                        val jobType = jobTypes[(i + thread) % jobTypes.size]
+                        JobTelemetry.recordQueueWait(jobType, i.toLong())
+                        JobTelemetry.recordExecution(jobType, i * 1000L)
+                        JobTelemetry.recordSuccess(jobType)
+                    }
+                }
+            }
+            futures.forEach { it.get() }
+        } finally {
+            executor.shutdown()
+        }
+    }
+}
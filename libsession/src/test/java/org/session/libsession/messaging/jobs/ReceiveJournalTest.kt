@@ -0,0 +1,125 @@
+package org.session.libsession.messaging.jobs
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class ReceiveJournalTest {
+
+    /** Stands in for the receive journal table. */
+    private class FakeStore : ReceiveJournal.Store {
+        val rows = mutableListOf<Pair<Long, MessageReceiveJob>>()
+        val truncatedBatchIDs = mutableListOf<Long>()
+        var onTruncate: (Long) -> Unit = { }
+
+        override fun append(batchID: Long, jobs: List<MessageReceiveJob>) {
+            jobs.forEach { rows.add(batchID to MessageReceiveJob(it.data)) }
+        }
+
+        override fun truncate(batchID: Long) {
+            onTruncate(batchID)
+            truncatedBatchIDs.add(batchID)
+            rows.removeAll { it.first == batchID }
+        }
+
+        override fun getAll(): List<Pair<Long, MessageReceiveJob>> {
+            return rows.map { (batchID, job) -> batchID to MessageReceiveJob(job.data) }
+        }
+    }
+
+    /** Stands in for the job table. While `isDown` every write fails, as it would if the process died mid-flush. */
+    private class FakeJobTable : WriteBehindJobStore.Writer {
+        val rows = mutableSetOf<String>()
+        var isDown = false
+
+        override fun write(upserts: List<WriteBehindJobStore.Entry>, deletedJobIDs: List<String>) {
+            if (isDown) { throw IllegalStateException("Process died") }
+            upserts.forEach { rows.add(it.id) }
+            rows.removeAll(deletedJobIDs)
+        }
+    }
+
+    private fun createJobs(vararg bytes: Byte): List<MessageReceiveJob> {
+        return bytes.map { MessageReceiveJob(byteArrayOf(it)).apply { id = "$it" } }
+    }
+
+    private fun createJobStore(table: FakeJobTable): WriteBehindJobStore {
+        return WriteBehindJobStore(table, TimeUnit.HOURS.toMillis(1), executor = Executors.newSingleThreadScheduledExecutor())
+    }
+
+    /**
+     * Pollers can append before the pending jobs are resumed; only the batches from the previous launch should be
+     * replayed, and each batch should only be truncated once all of its own envelopes are done.
+     */
+    @Test
+    fun appendThenReplayThenCommitTest() {
+        val store = FakeStore()
+        ReceiveJournal(store, firstBatchID = 100).append(createJobs(1, 2))
+        val journal = ReceiveJournal(store, firstBatchID = 1000)
+        val appended = createJobs(3, 4)
+        journal.append(appended)
+        val replayed = journal.replay()
+        assertEquals(listOf(1.toByte(), 2.toByte()), replayed.map { it.data[0] })
+        assertTrue(replayed.all { it.journalBatchID == 100L })
+        journal.commit(appended[0])
+        journal.commit(replayed[0])
+        assertTrue(store.truncatedBatchIDs.isEmpty())
+        journal.commit(appended[1])
+        assertEquals(listOf(1000L), store.truncatedBatchIDs)
+        journal.commit(replayed[1])
+        assertEquals(listOf(1000L, 100L), store.truncatedBatchIDs)
+        assertTrue(store.rows.isEmpty())
+    }
+
+    @Test
+    fun unfinishedBatchesAreReplayedOnTheNextLaunchTest() {
+        val store = FakeStore()
+        val firstLaunch = ReceiveJournal(store, firstBatchID = 100)
+        val jobs = createJobs(1, 2, 3)
+        firstLaunch.append(jobs)
+        firstLaunch.commit(jobs[0])
+        val replayed = ReceiveJournal(store, firstBatchID = 1000).replay()
+        assertEquals(3, replayed.size)
+    }
+
+    @Test
+    fun retryIsOnDiskBeforeTheJournalIsCommittedTest() {
+        val store = FakeStore()
+        val table = FakeJobTable()
+        val jobStore = createJobStore(table)
+        val journal = ReceiveJournal(store, firstBatchID = 100)
+        val job = createJobs(1).first()
+        journal.append(listOf(job))
+        store.onTruncate = { assertEquals(setOf(job.id), table.rows) }
+        journal.handOver(job) {
+            jobStore.persist(job, 1000)
+            jobStore.flush()
+        }
+        assertEquals(listOf(100L), store.truncatedBatchIDs)
+    }
+
+    /**
+     * The process dies after the retry was recorded but before the job store wrote it out; the envelope must still be
+     * in the journal on the next launch.
+     */
+    @Test
+    fun envelopeIsKeptIfTheJobStoreDiesBeforeWritingTheRetryTest() {
+        val store = FakeStore()
+        val table = FakeJobTable()
+        val jobStore = createJobStore(table)
+        val journal = ReceiveJournal(store, firstBatchID = 100)
+        val job = createJobs(1).first()
+        journal.append(listOf(job))
+        table.isDown = true
+        journal.handOver(job) {
+            jobStore.persist(job, 1000)
+            jobStore.flush()
+        }
+        assertTrue(table.rows.isEmpty())
+        assertTrue(store.truncatedBatchIDs.isEmpty())
+        assertEquals(100L, job.journalBatchID)
+        val replayed = ReceiveJournal(store, firstBatchID = 1000).replay()
+        assertEquals(listOf(1.toByte()), replayed.map { it.data[0] })
+    }
+}
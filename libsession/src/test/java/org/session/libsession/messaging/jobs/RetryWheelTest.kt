@@ -0,0 +1,117 @@
+package org.session.libsession.messaging.jobs
+
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.experimental.categories.Category
+import org.session.libsession.Benchmark
+import java.util.Collections
+import java.util.Random
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class RetryWheelTest {
+
+    @Test
+    fun dueItemsAreReleasedGraduallyInOrderTest() {
+        var now = 1_600_000_000_000L
+        val wheel = RetryWheel<Int>(100, 50, { now }, false) { }
+        // As on launch: a backlog of jobs that are due, and a retry that isn't
+        (0 until 500).forEach { wheel.schedule(it, 0) }
+        wheel.schedule(-1, now + TimeUnit.HOURS.toMillis(1))
+        val released = mutableListOf<Int>()
+        repeat(10) {
+            val batch = wheel.advance(now)
+            assertEquals(50, batch.size)
+            released.addAll(batch)
+            now += 100
+        }
+        assertEquals((0 until 500).toList(), released)
+        assertEquals(1, wheel.size)
+        now += TimeUnit.HOURS.toMillis(1)
+        assertEquals(listOf(-1), wheel.advance(now))
+        assertEquals(0, wheel.size)
+    }
+
+    @Test
+    fun fiftyThousandRetriesAccuracyTest() {
+        val count = 50_000
+        val start = 1_600_000_000_000L
+        var now = start
+        val wheel = RetryWheel<Int>(100, Int.MAX_VALUE, { now }, false) { }
+        val deadlines = getDeadlines(count, start)
+        for (i in 0 until count) { wheel.schedule(i, deadlines[i]) }
+        assertEquals(count, wheel.size)
+        var releasedCount = 0
+        while (releasedCount < count) {
+            now += 100
+            for (item in wheel.advance(now)) {
+                // Never early, and never more than a tick late
+                assertTrue(now >= deadlines[item])
+                assertTrue(now - deadlines[item] <= 100)
+                releasedCount += 1
+            }
+        }
+        assertEquals(0, wheel.size)
+    }
+
+    @Test
+    @Category(Benchmark::class)
+    fun fiftyThousandRetriesMemoryBenchmark() {
+        val count = 50_000
+        val start = 1_600_000_000_000L
+        val wheel = RetryWheel<Int>(100, Int.MAX_VALUE, { start }, false) { }
+        val deadlines = getDeadlines(count, start)
+        val items = Array(count) { it }
+        val runtime = Runtime.getRuntime()
+        System.gc()
+        val usedBefore = runtime.totalMemory() - runtime.freeMemory()
+        for (i in 0 until count) { wheel.schedule(items[i], deadlines[i]) }
+        System.gc()
+        val usedAfter = runtime.totalMemory() - runtime.freeMemory()
+        println("${wheel.size} scheduled retries use about ${(usedAfter - usedBefore) / count} bytes each.")
+    }
+
+    @Test
+    fun singleThreadWakeupTest() {
+        val (lateness, threadNames) = runWakeups(5_000, 10)
+        assertEquals(setOf("job-retry-wheel"), threadNames)
+        // Never early
+        assertTrue(lateness.all { it >= 0 })
+    }
+
+    @Test
+    @Category(Benchmark::class)
+    fun singleThreadWakeupAccuracyBenchmark() {
+        val count = 50_000
+        val tickMillis = 10L
+        val sorted = runWakeups(count, tickMillis).first.sorted()
+        println("Wakeup lateness with a ${tickMillis} ms tick: median ${sorted[count / 2]} ms, p99 ${sorted[count * 99 / 100]} ms, max ${sorted.last()} ms.")
+    }
+
+    // Spread over longer than the wheel covers, like the longest backoffs after a long time offline
+    private fun getDeadlines(count: Int, start: Long): LongArray {
+        val random = Random(42)
+        return LongArray(count) { start + (random.nextDouble() * TimeUnit.HOURS.toMillis(10)).toLong() }
+    }
+
+    /**
+     * Schedules `count` items on a real wheel over the next few seconds and returns how late each one was released,
+     * along with the names of the threads that released them.
+     */
+    private fun runWakeups(count: Int, tickMillis: Long): Pair<LongArray, Set<String>> {
+        val start = System.currentTimeMillis()
+        val random = Random(42)
+        val deadlines = LongArray(count) { start + 200 + random.nextInt(3000) }
+        val lateness = LongArray(count)
+        val threadNames = Collections.synchronizedSet(HashSet<String>())
+        val latch = CountDownLatch(count)
+        val wheel = RetryWheel<Int>(tickMillis, Int.MAX_VALUE) { item ->
+            lateness[item] = System.currentTimeMillis() - deadlines[item]
+            threadNames.add(Thread.currentThread().name)
+            latch.countDown()
+        }
+        for (i in 0 until count) { wheel.schedule(i, deadlines[i]) }
+        assertTrue(latch.await(30, TimeUnit.SECONDS))
+        return Pair(lateness, threadNames)
+    }
+}
@@ -0,0 +1,181 @@
+package org.session.libsession.messaging.jobs
+
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.experimental.categories.Category
+import org.session.libsession.Benchmark
+import org.session.libsession.messaging.jobs.TransmitScheduler.Lane
+import org.session.libsession.messaging.utilities.Data
+import java.net.HttpURLConnection
+import java.net.InetAddress
+import java.net.ServerSocket
+import java.net.URL
+import java.util.ArrayDeque
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class TransmitSchedulerTest {
+
+    private class TestJob(val lane: Lane, val name: String, val conversation: String? = null) : Job {
+        override var delegate: JobDelegate? = null
+        override var id: String? = name
+        override var failureCount: Int = 0
+        override val maxFailureCount: Int = 1
+        override fun execute() { }
+        override fun serialize(): Data = throw UnsupportedOperationException()
+        override fun getFactoryKey(): String = "TestJob"
+    }
+
+    /** Holds submitted work until the test runs it, so scheduling decisions can be observed one at a time. */
+    private class ManualExecutor : Executor {
+        val pending = ArrayDeque<Runnable>()
+        override fun execute(command: Runnable) { pending.addLast(command) }
+        fun runNext() { pending.removeFirst().run() }
+    }
+
+    private var now = 0L
+    private val executed = mutableListOf<TestJob>()
+
+    private fun scheduler(workerCount: Int, executor: Executor, run: (Job) -> Unit = { executed.add(it as TestJob) }): TransmitScheduler {
+        return TransmitScheduler(workerCount, executor, { (it as TestJob).lane }, run, { now }, { (it as TestJob).conversation })
+    }
+
+    @Test
+    fun interactiveSendDoesNotWaitBehindUploadsTest() {
+        val executor = ManualExecutor()
+        val scheduler = scheduler(1, executor)
+        (0 until 5).forEach { scheduler.submit(TestJob(Lane.UPLOAD, "upload $it")) }
+        scheduler.submit(TestJob(Lane.BACKGROUND, "notify"))
+        scheduler.submit(TestJob(Lane.INTERACTIVE, "text"))
+        while (executor.pending.isNotEmpty()) { executor.runNext() }
+        // The first upload already had the worker; the text goes right after it
+        assertEquals(listOf("upload 0", "text"), executed.take(2).map { it.name })
+        assertEquals(7, executed.size)
+    }
+
+    @Test
+    fun lanesShareWorkersByWeightTest() {
+        val executor = ManualExecutor()
+        val scheduler = scheduler(1, executor)
+        val lanes = listOf(Lane.INTERACTIVE, Lane.CONTROL, Lane.UPLOAD, Lane.BACKGROUND)
+        lanes.forEach { lane -> (0 until 200).forEach { scheduler.submit(TestJob(lane, "$lane $it")) } }
+        repeat(151) { executor.runNext() }
+        // Skip the job that took the worker before anything else was queued
+        val counts = executed.drop(1).groupingBy { it.lane }.eachCount()
+        val totalWeight = lanes.sumBy { it.weight }
+        for (lane in lanes) {
+            val expected = 150.0 * lane.weight / totalWeight
+            assertEquals("$lane", expected, counts.getOrDefault(lane, 0).toDouble(), 2.0)
+        }
+    }
+
+    @Test
+    fun starvedLaneJumpsTheQueueTest() {
+        val executor = ManualExecutor()
+        val scheduler = scheduler(1, executor)
+        scheduler.submit(TestJob(Lane.INTERACTIVE, "first"))
+        scheduler.submit(TestJob(Lane.BACKGROUND, "notify"))
+        now += TimeUnit.MILLISECONDS.toNanos(1)
+        (0 until 20).forEach { scheduler.submit(TestJob(Lane.INTERACTIVE, "text $it")) }
+        now += TimeUnit.MILLISECONDS.toNanos(Lane.BACKGROUND.maxWaitMillis)
+        executor.runNext()
+        executor.runNext()
+        assertEquals(listOf("first", "notify"), executed.map { it.name })
+        assertTrue(scheduler.getWaitTimeHistogram(Lane.BACKGROUND).getPercentileUpperBoundMillis(1.0) > Lane.BACKGROUND.maxWaitMillis)
+    }
+
+    @Test
+    fun laneConcurrencyIsLimitedTest() {
+        val executor = ManualExecutor()
+        val scheduler = scheduler(4, executor)
+        (0 until 5).forEach { scheduler.submit(TestJob(Lane.UPLOAD, "upload $it")) }
+        assertEquals(Lane.UPLOAD.maxConcurrency, executor.pending.size)
+        assertEquals(5 - Lane.UPLOAD.maxConcurrency, scheduler.getQueuedCount(Lane.UPLOAD))
+        // Other lanes can still use the remaining workers
+        scheduler.submit(TestJob(Lane.INTERACTIVE, "text"))
+        assertEquals(Lane.UPLOAD.maxConcurrency + 1, executor.pending.size)
+        while (executor.pending.isNotEmpty()) { executor.runNext() }
+        assertEquals(6, executed.size)
+        assertEquals(5L, scheduler.getWaitTimeHistogram(Lane.UPLOAD).getTotalCount())
+        assertEquals(1L, scheduler.getWaitTimeHistogram(Lane.INTERACTIVE).getTotalCount())
+    }
+
+    @Test
+    fun conversationsRunOneJobAtATimeInOrderTest() {
+        val executor = ManualExecutor()
+        val scheduler = scheduler(4, executor)
+        scheduler.submit(TestJob(Lane.INTERACTIVE, "a1", "a"))
+        scheduler.submit(TestJob(Lane.CONTROL, "a2", "a"))
+        scheduler.submit(TestJob(Lane.INTERACTIVE, "a3", "a"))
+        scheduler.submit(TestJob(Lane.INTERACTIVE, "b1", "b"))
+        scheduler.submit(TestJob(Lane.INTERACTIVE, "b2", "b"))
+        // One job per conversation is in flight
+        assertEquals(2, executor.pending.size)
+        while (executor.pending.isNotEmpty()) { executor.runNext() }
+        assertEquals(listOf("a1", "a2", "a3"), executed.filter { it.conversation == "a" }.map { it.name })
+        assertEquals(listOf("b1", "b2"), executed.filter { it.conversation == "b" }.map { it.name })
+    }
+
+    /**
+     * Sends 5 messages to each of 10 conversations through a local mock snode that answers every store request after a
+     * fixed delay, and compares throughput with one worker (the old single-threaded transmit dispatcher) against the
+     * default concurrency.
+     */
+    @Test
+    @Category(Benchmark::class)
+    fun mockSnodeThroughputBenchmark() {
+        val latencyMillis = 50L
+        val received = Collections.synchronizedList(mutableListOf<String>())
+        val server = ServerSocket(0, 64, InetAddress.getByName("127.0.0.1"))
+        val serverExecutor = Executors.newCachedThreadPool()
+        serverExecutor.execute {
+            while (!server.isClosed) {
+                val socket = try { server.accept() } catch (e: Exception) { break }
+                serverExecutor.execute {
+                    socket.use {
+                        val requestLine = it.getInputStream().bufferedReader().readLine() // GET /store?message HTTP/1.1
+                        val message = requestLine.substringAfter('?').substringBefore(' ')
+                        Thread.sleep(latencyMillis)
+                        received.add(message)
+                        it.getOutputStream().write("HTTP/1.1 200 OK\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".toByteArray())
+                        it.getOutputStream().flush()
+                    }
+                }
+            }
+        }
+        try {
+            fun store(job: TestJob) {
+                val connection = URL("http://127.0.0.1:${server.localPort}/store?${job.conversation}-${job.name}").openConnection() as HttpURLConnection
+                check(connection.responseCode == 200)
+                connection.disconnect()
+            }
+            fun messagesPerSecond(workerCount: Int): Double {
+                received.clear()
+                val jobs = (0 until 5).flatMap { index -> (0 until 10).map { conversation -> TestJob(Lane.INTERACTIVE, "$index", "c$conversation") } }
+                val done = CountDownLatch(jobs.size)
+                val executor = Executors.newFixedThreadPool(workerCount)
+                val scheduler = TransmitScheduler(workerCount, executor, { Lane.INTERACTIVE }, { store(it as TestJob); done.countDown() },
+                    orderingKeyFor = { (it as TestJob).conversation })
+                val start = System.nanoTime()
+                jobs.forEach { scheduler.submit(it) }
+                assertTrue(done.await(60, TimeUnit.SECONDS))
+                val elapsed = System.nanoTime() - start
+                executor.shutdown()
+                // The mock snode must have seen every conversation's messages in order
+                for (conversation in 0 until 10) {
+                    assertEquals((0 until 5).map { "c$conversation-$it" }, received.filter { it.startsWith("c$conversation-") })
+                }
+                return jobs.size * 1e9 / elapsed
+            }
+            val sequential = messagesPerSecond(1)
+            val concurrent = messagesPerSecond(Lane.INTERACTIVE.maxConcurrency)
+            println("Mock snode with $latencyMillis ms latency: ${"%.1f".format(sequential)} messages/s sequential, ${"%.1f".format(concurrent)} messages/s concurrent.")
+        } finally {
+            server.close()
+            serverExecutor.shutdownNow()
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package org.session.libsession.messaging.jobs
+
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.experimental.categories.Category
+import org.session.libsession.Benchmark
+import org.session.libsession.messaging.utilities.Data
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class WriteBehindJobStoreTest {
+
+    private class TestJob(override var id: String?, override var failureCount: Int = 0) : Job {
+        override var delegate: JobDelegate? = null
+        override val maxFailureCount: Int = 10
+        override fun execute() { }
+        override fun serialize(): Data = Data.Builder().putInt("failure_count", failureCount).build()
+        override fun getFactoryKey(): String = "TestJob"
+    }
+
+    /** Stands in for the job table. Each write is applied atomically, like a transaction. */
+    private class FakeJobTable(private val transactionCostMillis: Long = 0) : WriteBehindJobStore.Writer {
+        val rows = HashMap<String, Int>()
+        var transactionCount = 0
+        var shouldFailNextWrite = false
+
+        @Synchronized
+        override fun write(upserts: List<WriteBehindJobStore.Entry>, deletedJobIDs: List<String>) {
+            if (transactionCostMillis > 0) { Thread.sleep(transactionCostMillis) }
+            if (shouldFailNextWrite) {
+                shouldFailNextWrite = false
+                throw IllegalStateException("Disk I/O error")
+            }
+            upserts.forEach { rows[it.id] = it.failureCount }
+            deletedJobIDs.forEach { rows.remove(it) }
+            transactionCount += 1
+        }
+    }
+
+    private fun store(table: FakeJobTable, flushDelayMillis: Long = TimeUnit.HOURS.toMillis(1)): WriteBehindJobStore {
+        return WriteBehindJobStore(table, flushDelayMillis, executor = Executors.newSingleThreadScheduledExecutor())
+    }
+
+    @Test
+    fun shortLivedJobsAreNeverWrittenTest() {
+        val table = FakeJobTable()
+        val store = store(table)
+        (0 until 100).forEach { store.persist(TestJob("$it")) }
+        (0 until 100).forEach { store.delete("$it") }
+        store.flush()
+        assertEquals(0, table.transactionCount)
+        assertEquals(100L, store.skippedInsertCount.get())
+    }
+
+    @Test
+    fun changesAreCoalescedTest() {
+        val table = FakeJobTable()
+        val store = store(table)
+        val job = TestJob("1")
+        store.persist(job)
+        repeat(3) {
+            job.failureCount += 1
+            store.persist(job)
+        }
+        store.persist(TestJob("2"))
+        store.flush()
+        assertEquals(1, table.transactionCount)
+        assertEquals(mapOf("1" to 3, "2" to 0), table.rows)
+    }
+
+    @Test
+    fun deletingAJobReadFromTheDatabaseIsWrittenTest() {
+        val table = FakeJobTable()
+        table.rows["resumed"] = 2
+        val store = store(table)
+        store.markPersisted("resumed")
+        store.persist(TestJob("resumed", 3))
+        store.delete("resumed")
+        store.flush()
+        assertTrue(table.rows.isEmpty())
+    }
+
+    @Test
+    fun pendingChangesAreFlushedAfterTheDelayTest() {
+        val table = FakeJobTable()
+        val store = store(table, flushDelayMillis = 10)
+        store.persist(TestJob("1"))
+        val deadline = System.currentTimeMillis() + 5000
+        while (synchronized(table) { table.transactionCount } == 0 && System.currentTimeMillis() < deadline) { Thread.sleep(5) }
+        assertEquals(mapOf("1" to 0), synchronized(table) { table.rows.toMap() })
+        assertEquals(0, store.pendingCount)
+    }
+
+    /**
+     * Simulates the process dying at various points by abandoning a store and opening a new one on the same table. The
+     * table must hold exactly what had been flushed before the crash: never part of a flush, and never anything lost
+     * from an earlier flush.
+     */
+    @Test
+    fun crashRecoveryTest() {
+        val table = FakeJobTable()
+        val first = store(table)
+        listOf("a", "b", "c").forEach { first.persist(TestJob(it)) }
+        first.flush()
+        // After the flush, a finishes, b fails once and d is added, but the app dies before the next flush
+        first.delete("a")
+        first.persist(TestJob("b", 1))
+        first.persist(TestJob("d"))
+        assertEquals(mapOf("a" to 0, "b" to 0, "c" to 0), table.rows)
+        // On the next launch a runs again, b is retried with its old failure count and d is gone
+        val second = store(table)
+        table.rows.keys.forEach { second.markPersisted(it) }
+        second.delete("a")
+        second.persist(TestJob("b", 1))
+        // A failed write leaves the table untouched and keeps the changes for the next flush
+        table.shouldFailNextWrite = true
+        second.flush()
+        assertEquals(mapOf("a" to 0, "b" to 0, "c" to 0), table.rows)
+        assertEquals(2, second.pendingCount)
+        second.persist(TestJob("b", 2))
+        second.flush()
+        assertEquals(mapOf("b" to 2, "c" to 0), table.rows)
+        // The app dies right after that flush; nothing is lost
+        val third = store(table)
+        table.rows.keys.forEach { third.markPersisted(it) }
+        third.delete("b")
+        third.delete("c")
+        third.flush()
+        assertTrue(table.rows.isEmpty())
+    }
+
+    @Test
+    fun burstOfShortLivedJobsTakesOneTransactionTest() {
+        val table = FakeJobTable()
+        val store = store(table)
+        runShortLivedJobs(store, 500)
+        assertTrue(store.flush())
+        assertEquals(50, table.rows.size)
+        assertEquals(1, table.transactionCount)
+        assertEquals(450, store.skippedInsertCount.get())
+    }
+
+    /**
+     * Runs short-lived jobs (added, executed and finished right away) against a table where every transaction costs 2 ms,
+     * roughly what a small SQLCipher commit costs on a phone, writing through as `JobQueue` used to and writing behind.
+     */
+    @Test
+    @Category(Benchmark::class)
+    fun jobsPerSecondBenchmark() {
+        val jobCount = 500
+        val writeThroughTable = FakeJobTable(2)
+        val writeThroughStart = System.nanoTime()
+        for (index in 0 until jobCount) {
+            val job = TestJob("$index")
+            writeThroughTable.write(listOf(WriteBehindJobStore.Entry(job.id!!, job.getFactoryKey(), job.failureCount, job.serialize())), listOf())
+            job.execute()
+            writeThroughTable.write(listOf(), listOf(job.id!!))
+        }
+        val writeThroughJobsPerSecond = jobCount * 1e9 / (System.nanoTime() - writeThroughStart)
+        val writeBehindTable = FakeJobTable(2)
+        val store = WriteBehindJobStore(writeBehindTable, 10)
+        val writeBehindStart = System.nanoTime()
+        runShortLivedJobs(store, jobCount)
+        store.flush()
+        val writeBehindJobsPerSecond = jobCount * 1e9 / (System.nanoTime() - writeBehindStart)
+        println("Short-lived jobs: ${"%.0f".format(writeThroughJobsPerSecond)} jobs/s writing through " +
+            "(${writeThroughTable.transactionCount} transactions), ${"%.0f".format(writeBehindJobsPerSecond)} jobs/s writing behind " +
+            "(${writeBehindTable.transactionCount} transactions, ${store.skippedInsertCount.get()} inserts skipped).")
+    }
+
+    private fun runShortLivedJobs(store: WriteBehindJobStore, jobCount: Int) {
+        for (index in 0 until jobCount) {
+            val job = TestJob("$index")
+            store.persist(job)
+            job.execute()
+            // Every tenth job outlives a flush, e.g. because it's waiting for a retry
+            if (index % 10 != 0) { store.delete(job.id!!) }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package org.session.libsession.messaging.messages.control
+
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.experimental.categories.Category
+import org.session.libsession.Benchmark
+import org.session.libsignal.crypto.ecc.DjbECPrivateKey
+import org.session.libsignal.crypto.ecc.DjbECPublicKey
+import org.session.libsignal.crypto.ecc.ECKeyPair
+import kotlin.random.Random
+
+class ConfigurationMessageDeltaTest {
+
+    private val random = Random(42)
+
+    private fun publicKey(index: Int) = "05" + String.format("%064x", index)
+
+    private fun contact(index: Int, name: String = "Contact $index"): ConfigurationMessage.Contact {
+        return ConfigurationMessage.Contact(publicKey(index), name, "https://file.getsession.org/files/${100_000 + index}", random.nextBytes(32))
+    }
+
+    private fun closedGroup(index: Int): ConfigurationMessage.ClosedGroup {
+        val keyPair = ECKeyPair(DjbECPublicKey(random.nextBytes(32)), DjbECPrivateKey(random.nextBytes(32)))
+        val members = (0 until 10).map { publicKey(index * 10 + it) }
+        return ConfigurationMessage.ClosedGroup(publicKey(1_000_000 + index), "Group $index", keyPair, members, members.take(1), 0)
+    }
+
+    private fun configuration(contacts: List<ConfigurationMessage.Contact>, displayName: String = "Me"): ConfigurationMessage {
+        val closedGroups = (0 until 20).map { closedGroup(it) }
+        val openGroups = (0 until 5).map { "https://sog.example.org/room$it?public_key=${"ab".repeat(32)}" }
+        return ConfigurationMessage(closedGroups, openGroups, contacts, displayName, "https://file.getsession.org/files/1", ByteArray(32))
+    }
+
+    @Test
+    fun unchangedConfigurationHasNoDeltaTest() {
+        val message = configuration((0 until 10).map { contact(it) })
+        val digests = ConfigurationMessageDelta.getDigests(message)
+        assertNull(ConfigurationMessageDelta.getDelta(message, digests, digests))
+    }
+
+    @Test
+    fun deltaOnlyHoldsChangedEntriesTest() {
+        val contacts = (0 until 10).map { contact(it) }
+        val old = configuration(contacts)
+        val oldDigests = ConfigurationMessageDelta.getDigests(old)
+        val new = ConfigurationMessage(old.closedGroups, old.openGroups + "https://sog.example.org/new",
+            contacts.take(9) + contact(9, "Renamed") + contact(10), old.displayName, old.profilePicture, old.profileKey)
+        val delta = ConfigurationMessageDelta.getDelta(new, ConfigurationMessageDelta.getDigests(new), oldDigests)!!
+        assertEquals(listOf(publicKey(9), publicKey(10)), delta.contacts.map { it.publicKey })
+        assertEquals(listOf("https://sog.example.org/new"), delta.openGroups)
+        assertTrue(delta.closedGroups.isEmpty())
+        // The profile didn't change, so receivers should leave it alone
+        assertEquals("", delta.displayName)
+        assertTrue(delta.profileKey.isEmpty())
+        // The delta still round trips through the regular configuration message format
+        val decoded = ConfigurationMessage.fromProto(delta.toProto()!!)!!
+        assertEquals(listOf(publicKey(9), publicKey(10)), decoded.contacts.map { it.publicKey })
+    }
+
+    @Test
+    fun profileChangeIsIncludedTest() {
+        val old = configuration(listOf())
+        val new = ConfigurationMessage(old.closedGroups, old.openGroups, old.contacts, "New name", old.profilePicture, old.profileKey)
+        val delta = ConfigurationMessageDelta.getDelta(new, ConfigurationMessageDelta.getDigests(new), ConfigurationMessageDelta.getDigests(old))!!
+        assertEquals("New name", delta.displayName)
+        assertTrue(delta.contacts.isEmpty() && delta.closedGroups.isEmpty() && delta.openGroups.isEmpty())
+    }
+
+    @Test
+    fun deltaIsMuchSmallerThanSnapshotTest() {
+        val (old, new) = getRenamedContactsConfiguration()
+        val delta = ConfigurationMessageDelta.getDelta(new, ConfigurationMessageDelta.getDigests(new), ConfigurationMessageDelta.getDigests(old))!!
+        assertEquals(5, delta.contacts.size)
+        assertTrue(delta.toProto()!!.toByteArray().size * 50 < new.toProto()!!.toByteArray().size)
+    }
+
+    /**
+     * Compares a full snapshot with a delta after a handful of contacts changed, for a user with 1,000 contacts.
+     */
+    @Test
+    @Category(Benchmark::class)
+    fun payloadSizeAndEncodeTimeBenchmark() {
+        val (old, new) = getRenamedContactsConfiguration()
+        val oldDigests = ConfigurationMessageDelta.getDigests(old)
+        val iterations = 20
+        var fullSize = 0
+        var deltaSize = 0
+        // Warm up
+        repeat(5) {
+            new.toProto()!!.toByteArray()
+            ConfigurationMessageDelta.getDelta(new, ConfigurationMessageDelta.getDigests(new), oldDigests)!!.toProto()!!.toByteArray()
+        }
+        val fullStart = System.nanoTime()
+        repeat(iterations) { fullSize = new.toProto()!!.toByteArray().size }
+        val fullNanos = (System.nanoTime() - fullStart) / iterations
+        val deltaStart = System.nanoTime()
+        repeat(iterations) {
+            // Includes computing the digests, which the full snapshot doesn't need
+            val delta = ConfigurationMessageDelta.getDelta(new, ConfigurationMessageDelta.getDigests(new), oldDigests)!!
+            deltaSize = delta.toProto()!!.toByteArray().size
+        }
+        val deltaNanos = (System.nanoTime() - deltaStart) / iterations
+        println("Configuration with 1,000 contacts: full snapshot $fullSize bytes in ${"%.2f".format(fullNanos / 1e6)} ms, " +
+            "delta with 5 changed contacts $deltaSize bytes in ${"%.2f".format(deltaNanos / 1e6)} ms.")
+    }
+
+    /**
+     * Returns the configuration of a user with 1,000 contacts, before and after 5 of them were renamed.
+     */
+    private fun getRenamedContactsConfiguration(): Pair<ConfigurationMessage, ConfigurationMessage> {
+        val contacts = (0 until 1000).map { contact(it) }
+        val old = configuration(contacts)
+        val changed = contacts.toMutableList()
+        for (index in listOf(3, 250, 500, 750, 999)) { changed[index] = contact(index, "Renamed $index") }
+        val new = ConfigurationMessage(old.closedGroups, old.openGroups, changed, old.displayName, old.profilePicture, old.profileKey)
+        return Pair(old, new)
+    }
+}
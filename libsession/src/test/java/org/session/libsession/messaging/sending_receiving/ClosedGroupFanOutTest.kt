@@ -0,0 +1,151 @@
+package org.session.libsession.messaging.sending_receiving
+
+import nl.komponents.kovenant.Deferred
+import nl.komponents.kovenant.Promise
+import nl.komponents.kovenant.deferred
+import nl.komponents.kovenant.task
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.experimental.categories.Category
+import org.session.libsession.Benchmark
+import java.net.HttpURLConnection
+import java.net.InetAddress
+import java.net.ServerSocket
+import java.net.URL
+import java.util.Collections
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.atomic.AtomicInteger
+
+class ClosedGroupFanOutTest {
+
+    private val members = (0 until 100).map { "05" + String.format("%064x", it) }
+
+    @Test
+    fun sendsAreBoundedTest() {
+        val inFlight = AtomicInteger(0)
+        val maxInFlight = AtomicInteger(0)
+        val result = ClosedGroupFanOut.send(members.take(30), maxConcurrent = 4) {
+            task {
+                val current = inFlight.incrementAndGet()
+                maxInFlight.accumulateAndGet(current) { a, b -> Math.max(a, b) }
+                Thread.sleep(10)
+                inFlight.decrementAndGet()
+                Unit
+            }
+        }.get()
+        assertTrue(result.isSuccess)
+        assertEquals(30, result.succeeded.size)
+        assertTrue(maxInFlight.get() <= 4)
+    }
+
+    @Test
+    fun onlyFailedMembersAreRetriedTest() {
+        val attempts = ConcurrentHashMap<String, AtomicInteger>()
+        val flaky = members.take(10).toSet()
+        val result = ClosedGroupFanOut.send(members.take(20)) { member ->
+            val attempt = attempts.getOrPut(member) { AtomicInteger(0) }.incrementAndGet()
+            if (member in flaky && attempt == 1) Promise.ofFail(Exception("Timeout")) else Promise.of(Unit)
+        }.get()
+        assertTrue(result.isSuccess)
+        assertEquals(20, result.succeeded.size)
+        for (member in members.take(20)) {
+            assertEquals(if (member in flaky) 2 else 1, attempts[member]!!.get())
+        }
+    }
+
+    @Test
+    fun permanentFailuresAreReportedTest() {
+        val attempts = AtomicInteger(0)
+        val unreachable = members[3]
+        val invalid = members[7]
+        val result = ClosedGroupFanOut.send(members.take(10)) { member ->
+            when (member) {
+                unreachable -> { attempts.incrementAndGet(); Promise.ofFail(Exception("Unreachable")) }
+                invalid -> Promise.ofFail(MessageSender.Error.InvalidMessage)
+                else -> Promise.of(Unit)
+            }
+        }.get()
+        assertFalse(result.isSuccess)
+        assertEquals(setOf(unreachable, invalid), result.failed.keys)
+        assertEquals(8, result.succeeded.size)
+        // Retryable errors are retried up to the limit, others aren't retried at all
+        assertEquals(ClosedGroupFanOut.maxAttempts, attempts.get())
+    }
+
+    @Test
+    fun sendsDoNotWaitForEachOtherTest() {
+        val started = LinkedBlockingQueue<Deferred<Unit, Exception>>()
+        val result = ClosedGroupFanOut.send(members) { deferred<Unit, Exception>().also { started.add(it) }.promise }
+        // The first sends all start right away, before any of them finishes
+        assertEquals(ClosedGroupFanOut.maxConcurrentSends, started.size)
+        repeat(members.size) { started.take().resolve(Unit) }
+        val sent = result.get()
+        assertTrue(sent.isSuccess)
+        assertEquals(members.size, sent.succeeded.size)
+        assertTrue(started.isEmpty())
+    }
+
+    /**
+     * Sends the `New` message for a 100 member group through a local mock snode that answers every store request after
+     * a fixed delay, one member at a time (as group creation used to) and with the fan-out.
+     */
+    @Test
+    @Category(Benchmark::class)
+    fun mockSnodeCreationLatencyBenchmark() {
+        val latencyMillis = 20L
+        val received = Collections.synchronizedSet(mutableSetOf<String>())
+        val server = ServerSocket(0, 128, InetAddress.getByName("127.0.0.1"))
+        val serverExecutor = Executors.newCachedThreadPool()
+        serverExecutor.execute {
+            while (!server.isClosed) {
+                val socket = try { server.accept() } catch (e: Exception) { break }
+                serverExecutor.execute {
+                    socket.use {
+                        val requestLine = it.getInputStream().bufferedReader().readLine() // GET /store?recipient HTTP/1.1
+                        Thread.sleep(latencyMillis)
+                        received.add(requestLine.substringAfter('?').substringBefore(' '))
+                        it.getOutputStream().write("HTTP/1.1 200 OK\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".toByteArray())
+                        it.getOutputStream().flush()
+                    }
+                }
+            }
+        }
+        try {
+            // Stands in for the onion request threads, so the test isn't bounded by Kovenant's worker count
+            val networkExecutor = Executors.newCachedThreadPool()
+            fun store(member: String): Promise<Unit, Exception> {
+                val deferred = deferred<Unit, Exception>()
+                networkExecutor.execute {
+                    try {
+                        val connection = URL("http://127.0.0.1:${server.localPort}/store?$member").openConnection() as HttpURLConnection
+                        check(connection.responseCode == 200)
+                        connection.disconnect()
+                        deferred.resolve(Unit)
+                    } catch (e: Exception) {
+                        deferred.reject(e)
+                    }
+                }
+                return deferred.promise
+            }
+            received.clear()
+            val sequentialStart = System.nanoTime()
+            for (member in members) { store(member).get() }
+            val sequentialMillis = (System.nanoTime() - sequentialStart) / 1_000_000
+            assertEquals(members.size, received.size)
+            received.clear()
+            val fanOutStart = System.nanoTime()
+            val result = ClosedGroupFanOut.send(members) { store(it) }.get()
+            val fanOutMillis = (System.nanoTime() - fanOutStart) / 1_000_000
+            assertTrue(result.isSuccess)
+            assertEquals(members.size, received.size)
+            println("Creating a ${members.size} member group through a mock snode with $latencyMillis ms latency: " +
+                "$sequentialMillis ms sequential, $fanOutMillis ms with ${ClosedGroupFanOut.maxConcurrentSends} in flight.")
+            networkExecutor.shutdown()
+        } finally {
+            server.close()
+            serverExecutor.shutdownNow()
+        }
+    }
+}
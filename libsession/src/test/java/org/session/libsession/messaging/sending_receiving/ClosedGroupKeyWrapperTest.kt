@@ -0,0 +1,71 @@
+package org.session.libsession.messaging.sending_receiving
+
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.experimental.categories.Category
+import org.session.libsession.Benchmark
+import java.security.MessageDigest
+import kotlin.random.Random
+
+class ClosedGroupKeyWrapperTest {
+
+    private val plaintext = Random(42).nextBytes(64)
+
+    private fun members(count: Int): List<String> = (0 until count).map { "05" + String.format("%064x", it) }
+
+    /**
+     * Stands in for `MessageEncrypter.encrypt` (which needs the native sodium library) with a comparable amount of
+     * hashing per member.
+     */
+    private fun simulatedEncrypt(plaintext: ByteArray, publicKey: String): ByteArray {
+        val digest = MessageDigest.getInstance("SHA-512")
+        var result = plaintext + publicKey.toByteArray()
+        repeat(2000) { result = digest.digest(result) }
+        return result + publicKey.toByteArray()
+    }
+
+    @Test
+    fun wrappersKeepMemberOrderTest() {
+        for (count in listOf(1, 7, 8, 9, 33, 100)) {
+            val members = members(count)
+            val wrappers = ClosedGroupKeyWrapper.wrap(plaintext, members) { _, publicKey -> publicKey.toByteArray() }
+            assertEquals(members, wrappers.map { it.publicKey })
+            assertEquals(members, wrappers.map { it.encryptedKeyPair!!.toStringUtf8() })
+        }
+    }
+
+    @Test(expected = MessageSender.Error.EncryptionFailed::class)
+    fun encryptionFailurePropagatesTest() {
+        val members = members(50)
+        ClosedGroupKeyWrapper.wrap(plaintext, members) { _, publicKey ->
+            if (publicKey == members[37]) throw MessageSender.Error.EncryptionFailed
+            publicKey.toByteArray()
+        }
+    }
+
+    @Test
+    fun wrappersMatchSequentialEncryptionTest() {
+        val members = members(50)
+        val expected = members.map { simulatedEncrypt(plaintext, it) }
+        val wrappers = ClosedGroupKeyWrapper.wrap(plaintext, members, ::simulatedEncrypt)
+        expected.zip(wrappers).forEach { (ciphertext, wrapper) -> assertArrayEquals(ciphertext, wrapper.encryptedKeyPair!!.toByteArray()) }
+    }
+
+    @Test
+    @Category(Benchmark::class)
+    fun wrapBenchmark() {
+        // Warm up the pool and the JIT
+        ClosedGroupKeyWrapper.wrap(plaintext, members(100), ::simulatedEncrypt)
+        for (count in listOf(10, 50, 100)) {
+            val members = members(count)
+            val sequentialStart = System.nanoTime()
+            val expected = members.map { simulatedEncrypt(plaintext, it) }
+            val sequentialMillis = (System.nanoTime() - sequentialStart) / 1_000_000.0
+            val parallelStart = System.nanoTime()
+            val wrappers = ClosedGroupKeyWrapper.wrap(plaintext, members, ::simulatedEncrypt)
+            val parallelMillis = (System.nanoTime() - parallelStart) / 1_000_000.0
+            assertEquals(count, wrappers.size)
+            println("$count members: sequential ${"%.1f".format(sequentialMillis)} ms, parallel ${"%.1f".format(parallelMillis)} ms")
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.session.libsession.messaging.sending_receiving
+
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.experimental.categories.Category
+import org.session.libsession.Benchmark
+import org.session.libsignal.utilities.Broadcaster
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class ConfigurationRestoreTest {
+
+    private class RecordingBroadcaster : Broadcaster {
+        val percentages = Collections.synchronizedList(mutableListOf<Long>())
+        override fun broadcast(event: String) { }
+        override fun broadcast(event: String, long: Long) { if (event == "restoringConfiguration") percentages.add(long) }
+    }
+
+    private val urls = (0 until 12).map { "https://sog$it.example.org/room?public_key=${"ab".repeat(32)}" }
+
+    @Test
+    fun openGroupJoinsAreBoundedTest() {
+        val inFlight = AtomicInteger(0)
+        val maxInFlight = AtomicInteger(0)
+        val executor = Executors.newFixedThreadPool(ConfigurationRestore.maxConcurrentOpenGroupJoins)
+        val broadcaster = RecordingBroadcaster()
+        val progress = ConfigurationRestore.Progress(urls.size, broadcaster)
+        // The first joins only finish once as many are in flight as are allowed, so this hangs if they run one by one
+        val allInFlight = CountDownLatch(ConfigurationRestore.maxConcurrentOpenGroupJoins)
+        val failed = ConfigurationRestore.joinOpenGroups(urls, progress, executor) {
+            val current = inFlight.incrementAndGet()
+            maxInFlight.accumulateAndGet(current) { a, b -> Math.max(a, b) }
+            allInFlight.countDown()
+            check(allInFlight.await(10, TimeUnit.SECONDS))
+            inFlight.decrementAndGet()
+        }
+        executor.shutdown()
+        assertTrue(failed.isEmpty())
+        assertEquals(ConfigurationRestore.maxConcurrentOpenGroupJoins, maxInFlight.get())
+        assertEquals(urls.size, progress.completedCount)
+        assertEquals(100L, broadcaster.percentages.maxOrNull())
+    }
+
+    @Test
+    fun failedJoinDoesNotStopTheOthersTest() {
+        val executor = Executors.newFixedThreadPool(ConfigurationRestore.maxConcurrentOpenGroupJoins)
+        val joined = Collections.synchronizedSet(mutableSetOf<String>())
+        val failed = ConfigurationRestore.joinOpenGroups(urls, null, executor) { url ->
+            if (url == urls[3]) throw IllegalStateException("Room not found")
+            joined.add(url)
+        }
+        executor.shutdown()
+        assertEquals(listOf(urls[3]), failed)
+        assertEquals(urls.size - 1, joined.size)
+    }
+
+    /**
+     * Each join stands in for the auth token, room info and avatar requests, about 150 ms in total.
+     */
+    @Test
+    @Category(Benchmark::class)
+    fun restoreTimeBenchmark() {
+        fun restoreMillis(threadCount: Int): Long {
+            val executor = Executors.newFixedThreadPool(threadCount)
+            val start = System.nanoTime()
+            ConfigurationRestore.joinOpenGroups(urls, null, executor) { Thread.sleep(150) }
+            val elapsed = (System.nanoTime() - start) / 1_000_000
+            executor.shutdown()
+            return elapsed
+        }
+        val sequential = restoreMillis(1)
+        val concurrent = restoreMillis(ConfigurationRestore.maxConcurrentOpenGroupJoins)
+        println("Restoring ${urls.size} open groups: $sequential ms sequential, $concurrent ms with ${ConfigurationRestore.maxConcurrentOpenGroupJoins} in flight.")
+    }
+}
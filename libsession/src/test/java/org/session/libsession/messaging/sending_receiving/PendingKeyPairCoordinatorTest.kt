@@ -0,0 +1,109 @@
+package org.session.libsession.messaging.sending_receiving
+
+import org.junit.Assert.*
+import org.junit.Test
+import org.session.libsignal.crypto.ecc.DjbECPrivateKey
+import org.session.libsignal.crypto.ecc.DjbECPublicKey
+import org.session.libsignal.crypto.ecc.ECKeyPair
+import java.lang.management.ManagementFactory
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.CyclicBarrier
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.concurrent.thread
+import kotlin.random.Random
+
+class PendingKeyPairCoordinatorTest {
+
+    private fun keyPair(seed: Int): ECKeyPair {
+        val random = Random(seed)
+        return ECKeyPair(DjbECPublicKey(random.nextBytes(32)), DjbECPrivateKey(random.nextBytes(32)))
+    }
+
+    @Test
+    fun rotationsWaitWithoutSpinningTest() {
+        val groupPublicKey = "05" + "01".repeat(32)
+        val firstRotation = PendingKeyPairCoordinator.begin(groupPublicKey, keyPair(0))
+        val overwritten = AtomicInteger(0)
+        val waiters = (1..8).map { i ->
+            thread {
+                val keyPair = keyPair(i)
+                val rotation = PendingKeyPairCoordinator.begin(groupPublicKey, keyPair)
+                if (PendingKeyPairCoordinator.getPendingKeyPair(groupPublicKey) !== keyPair) { overwritten.incrementAndGet() }
+                Thread.sleep(5)
+                if (PendingKeyPairCoordinator.getPendingKeyPair(groupPublicKey) !== keyPair) { overwritten.incrementAndGet() }
+                PendingKeyPairCoordinator.settle(groupPublicKey, rotation)
+            }
+        }
+        // Every waiter should end up parked while the first rotation is in flight
+        val deadline = System.currentTimeMillis() + 5000
+        while (waiters.any { it.state != Thread.State.WAITING } && System.currentTimeMillis() < deadline) { Thread.sleep(10) }
+        assertTrue(waiters.all { it.state == Thread.State.WAITING })
+        val threadMXBean = ManagementFactory.getThreadMXBean()
+        val cpuTimeBefore = waiters.sumOf { threadMXBean.getThreadCpuTime(it.id) }
+        Thread.sleep(200)
+        val cpuTimeAfter = waiters.sumOf { threadMXBean.getThreadCpuTime(it.id) }
+        assertTrue("Waiters used ${(cpuTimeAfter - cpuTimeBefore) / 1_000_000} ms of CPU while parked",
+            cpuTimeAfter - cpuTimeBefore < TimeUnit.MILLISECONDS.toNanos(20))
+        PendingKeyPairCoordinator.settle(groupPublicKey, firstRotation)
+        waiters.forEach { it.join(5000) }
+        assertEquals(0, overwritten.get())
+        assertNull(PendingKeyPairCoordinator.getPendingKeyPair(groupPublicKey))
+        assertTrue(PendingKeyPairCoordinator.awaitSettled(groupPublicKey).isDone())
+    }
+
+    @Test
+    fun staleSettleIsIgnoredTest() {
+        val groupPublicKey = "05" + "02".repeat(32)
+        val first = PendingKeyPairCoordinator.begin(groupPublicKey, keyPair(0))
+        PendingKeyPairCoordinator.settle(groupPublicKey, first)
+        val second = PendingKeyPairCoordinator.begin(groupPublicKey, keyPair(1))
+        PendingKeyPairCoordinator.settle(groupPublicKey, first)
+        assertTrue(PendingKeyPairCoordinator.getState(groupPublicKey).isRotating)
+        PendingKeyPairCoordinator.settle(groupPublicKey, second)
+        assertFalse(PendingKeyPairCoordinator.getState(groupPublicKey).isRotating)
+    }
+
+    @Test
+    fun concurrentAddsRemovesAndSendsTest() {
+        val groups = (0 until 4).map { "05" + String.format("%064x", it + 16) }
+        val inFlight = groups.associateWith { AtomicInteger(0) }
+        val violations = AtomicInteger(0)
+        val transitions = AtomicLong(0)
+        val contentionBefore = PendingKeyPairCoordinator.contentionCount.get()
+        val threadCount = 12
+        val barrier = CyclicBarrier(threadCount)
+        val done = CountDownLatch(threadCount)
+        repeat(threadCount) { i ->
+            thread {
+                barrier.await()
+                val random = Random(i)
+                repeat(500) { iteration ->
+                    val groupPublicKey = groups[random.nextInt(groups.size)]
+                    when (i % 3) {
+                        // Member removal: rotate the key pair
+                        0 -> {
+                            val rotation = PendingKeyPairCoordinator.begin(groupPublicKey, keyPair(i * 1000 + iteration))
+                            if (inFlight.getValue(groupPublicKey).incrementAndGet() != 1) { violations.incrementAndGet() }
+                            inFlight.getValue(groupPublicKey).decrementAndGet()
+                            PendingKeyPairCoordinator.settle(groupPublicKey, rotation)
+                            transitions.addAndGet(2)
+                        }
+                        // Member addition: send the pending key pair if there is one
+                        1 -> PendingKeyPairCoordinator.getPendingKeyPair(groupPublicKey)
+                        // Regular send: wait for the rotation to land
+                        else -> PendingKeyPairCoordinator.awaitSettled(groupPublicKey).get()
+                    }
+                }
+                done.countDown()
+            }
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS))
+        assertEquals(0, violations.get())
+        // Compare-and-set only fails when another writer actually got in first, so there can't be more retries than
+        // there were transitions
+        assertTrue(PendingKeyPairCoordinator.contentionCount.get() - contentionBefore <= transitions.get())
+        groups.forEach { assertFalse(PendingKeyPairCoordinator.getState(it).isRotating) }
+    }
+}
@@ -0,0 +1,113 @@
+package org.session.libsession.messaging.sending_receiving.notifications
+
+import nl.komponents.kovenant.Promise
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import org.session.libsession.messaging.sending_receiving.notifications.PushNotificationAPI.ClosedGroupOperation
+import org.session.libsession.messaging.sending_receiving.notifications.PushNotificationBatcher.Operation
+import org.session.libsession.snode.SnodeMessage
+import java.util.Collections
+
+class PushNotificationBatcherTest {
+
+    private val sent = Collections.synchronizedList(mutableListOf<Operation>())
+    private val originalSend = PushNotificationBatcher.send
+    private val originalWindowMillis = PushNotificationBatcher.windowMillis
+
+    @Before
+    fun setUp() {
+        // Keep the automatic flush out of the way so the tests decide when a window ends
+        PushNotificationBatcher.windowMillis = 60_000
+        PushNotificationBatcher.send = { operation -> sent.add(operation); Promise.of(Unit) }
+        PushNotificationBatcher.flush()
+        sent.clear()
+    }
+
+    @After
+    fun tearDown() {
+        PushNotificationBatcher.send = originalSend
+        PushNotificationBatcher.windowMillis = originalWindowMillis
+    }
+
+    private fun notify(recipient: Int, message: Int): Operation {
+        return Operation.Notify(SnodeMessage("05" + String.format("%064x", recipient), "message $message", 1000, 0))
+    }
+
+    private fun subscription(operation: ClosedGroupOperation, group: Int): Operation {
+        return Operation.ClosedGroup(operation, "05" + String.format("%064x", group + 1000), "05" + "ab".repeat(32))
+    }
+
+    @Test
+    fun notificationsAreSentImmediatelyTest() {
+        val first = PushNotificationBatcher.enqueue(notify(1, 1))
+        val second = PushNotificationBatcher.enqueue(notify(1, 2))
+        assertEquals(2, sent.size)
+        first.get()
+        second.get()
+    }
+
+    @Test
+    fun laterSubscriptionChangeWinsTest() {
+        val subscribe = PushNotificationBatcher.enqueue(subscription(ClosedGroupOperation.Subscribe, 1))
+        val unsubscribe = PushNotificationBatcher.enqueue(subscription(ClosedGroupOperation.Unsubscribe, 1))
+        // The superseded call is only done once the call that replaced it has been sent
+        assertFalse(subscribe.isDone())
+        assertFalse(unsubscribe.isDone())
+        PushNotificationBatcher.flush()
+        assertEquals(ClosedGroupOperation.Unsubscribe, (sent.single() as Operation.ClosedGroup).operation)
+        unsubscribe.get()
+        subscribe.get()
+    }
+
+    @Test
+    fun supersededCallFailsWithItsReplacementTest() {
+        PushNotificationBatcher.send = { operation -> sent.add(operation); Promise.ofFail(IllegalStateException()) }
+        val subscribe = PushNotificationBatcher.enqueue(subscription(ClosedGroupOperation.Subscribe, 1))
+        val resubscribe = PushNotificationBatcher.enqueue(subscription(ClosedGroupOperation.Subscribe, 1))
+        PushNotificationBatcher.flush()
+        assertTrue(runCatching { resubscribe.get() }.isFailure)
+        assertTrue(runCatching { subscribe.get() }.isFailure)
+        assertEquals(1, sent.size)
+    }
+
+    @Test
+    fun failuresOnlyAffectTheirOwnOperationTest() {
+        val failing = notify(1, 1)
+        PushNotificationBatcher.send = { operation ->
+            sent.add(operation)
+            if (operation === failing) Promise.ofFail(IllegalStateException()) else Promise.of(Unit)
+        }
+        val failed = PushNotificationBatcher.enqueue(failing)
+        val succeeded = PushNotificationBatcher.enqueue(notify(2, 1))
+        val subscribed = PushNotificationBatcher.enqueue(subscription(ClosedGroupOperation.Subscribe, 1))
+        PushNotificationBatcher.flush()
+        // Results are delivered on Kovenant's callback threads
+        assertTrue(runCatching { failed.get() }.isFailure)
+        succeeded.get()
+        subscribed.get()
+    }
+
+    /**
+     * Replays a burst of activity: 20 sent messages that each notify the PN server, a forced token upload at startup
+     * followed by a token refresh that both re-subscribe to 10 closed groups, and a group that's joined and left right
+     * away. Before, every call was its own onion request; now only the closed group calls are coalesced.
+     */
+    @Test
+    fun onionRequestsPerSentMessageTest() {
+        val operations = mutableListOf<Operation>()
+        (0 until 20).forEach { operations.add(notify(it % 5, it)) }
+        repeat(2) { (0 until 10).forEach { operations.add(subscription(ClosedGroupOperation.Subscribe, it)) } }
+        operations.add(subscription(ClosedGroupOperation.Subscribe, 10))
+        operations.add(subscription(ClosedGroupOperation.Unsubscribe, 10))
+        val requestsBefore = PushNotificationBatcher.onionRequestCount.get()
+        val promises = operations.map { PushNotificationBatcher.enqueue(it) }
+        PushNotificationBatcher.flush()
+        promises.forEach { it.get() }
+        // 42 calls, i.e. 2.10 onion requests per sent message before, down to 31 or 1.55 per sent message
+        assertEquals(20 + 2 * 10 + 2, operations.size)
+        assertEquals(20 + 10 + 1L, PushNotificationBatcher.onionRequestCount.get() - requestsBefore)
+        assertEquals(20 + 10 + 1, sent.size)
+    }
+}
@@ -0,0 +1,151 @@
+package org.session.libsession.messaging.utilities
+
+import com.esotericsoftware.kryo.Kryo
+import com.esotericsoftware.kryo.io.Input
+import com.esotericsoftware.kryo.io.Output
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.experimental.categories.Category
+import org.session.libsession.Benchmark
+import org.session.libsession.messaging.messages.Destination
+import org.session.libsession.messaging.messages.Message
+import org.session.libsession.messaging.messages.visible.Profile
+import org.session.libsession.messaging.messages.visible.VisibleMessage
+import org.session.libsignal.utilities.JsonUtil
+
+class KryoPoolTest {
+
+    private fun message(index: Int): VisibleMessage {
+        val message = VisibleMessage()
+        message.text = "Message number $index, which is about as long as a typical chat message."
+        message.sentTimestamp = 1_600_000_000_000L + index
+        message.threadID = 42
+        message.recipient = "05" + "ab".repeat(32)
+        message.attachmentIDs.add(index.toLong())
+        val profile = Profile()
+        profile.displayName = "Alice"
+        profile.profilePictureURL = "https://file.getsession.org/files/12345"
+        profile.profileKey = ByteArray(32) { it.toByte() }
+        message.profile = profile
+        return message
+    }
+
+    // What `MessageSendJob.serialize` and its factory used to do
+    private fun legacyWriteClassAndObject(value: Any): ByteArray {
+        val kryo = Kryo()
+        kryo.isRegistrationRequired = false
+        val output = Output(ByteArray(4096), 1_000_000)
+        kryo.writeClassAndObject(output, value)
+        output.close()
+        return output.toBytes()
+    }
+
+    private fun legacyReadClassAndObject(bytes: ByteArray): Any {
+        val kryo = Kryo()
+        kryo.isRegistrationRequired = false
+        val input = Input(bytes)
+        val result = kryo.readClassAndObject(input)
+        input.close()
+        return result
+    }
+
+    private fun jobData(message: Message, destination: Destination, serialize: (Any) -> ByteArray): Data {
+        return Data.Builder()
+            .putByteArray("message", serialize(message))
+            .putByteArray("destination", serialize(destination))
+            .putBoolean("is_mms", false)
+            .build()
+    }
+
+    @Test
+    fun dataRoundTripTest() {
+        val data = Data.Builder()
+            .putString("string", "value")
+            .putString("null_string", null)
+            .putStringArray("string_array", arrayOf("a", "b"))
+            .putInt("int", -7)
+            .putIntArray("int_array", intArrayOf(1, 2, 3))
+            .putLong("long", Long.MAX_VALUE)
+            .putLongArray("long_array", longArrayOf(-1, 0, 1))
+            .putFloat("float", 1.5f)
+            .putDouble("double", -2.25)
+            .putBoolean("boolean", true)
+            .putBooleanArray("boolean_array", booleanArrayOf(true, false))
+            .putByteArray("bytes", byteArrayOf(1, 2, 3))
+            .build()
+        val decoded = KryoPool.deserializeData(KryoPool.serializeData(data))
+        assertEquals("value", decoded.getString("string"))
+        assertTrue(decoded.hasString("null_string"))
+        assertNull(decoded.getString("null_string"))
+        assertArrayEquals(arrayOf("a", "b"), decoded.getStringArray("string_array"))
+        assertEquals(-7, decoded.getInt("int"))
+        assertArrayEquals(intArrayOf(1, 2, 3), decoded.getIntegerArray("int_array"))
+        assertEquals(Long.MAX_VALUE, decoded.getLong("long"))
+        assertArrayEquals(longArrayOf(-1, 0, 1), decoded.getLongArray("long_array"))
+        assertEquals(1.5f, decoded.getFloat("float"), 0f)
+        assertEquals(-2.25, decoded.getDouble("double"), 0.0)
+        assertTrue(decoded.getBoolean("boolean"))
+        assertArrayEquals(booleanArrayOf(true, false), decoded.getBooleanArray("boolean_array"))
+        assertArrayEquals(byteArrayOf(1, 2, 3), decoded.getByteArray("bytes"))
+    }
+
+    @Test
+    fun legacyMessagesCanStillBeReadTest() {
+        val bytes = legacyWriteClassAndObject(message(1))
+        val message = KryoPool.readClassAndObject(bytes) as VisibleMessage
+        assertEquals(message(1).text, message.text)
+        assertEquals("Alice", message.profile!!.displayName)
+        assertEquals(listOf(1L), message.attachmentIDs)
+        val destination = KryoPool.readClassAndObject(legacyWriteClassAndObject(Destination.Contact("05" + "cd".repeat(32)))) as Destination.Contact
+        assertEquals("05" + "cd".repeat(32), destination.publicKey)
+    }
+
+    @Test
+    fun binaryJobDataIsSmallerTest() {
+        val destination = Destination.Contact("05" + "cd".repeat(32))
+        val legacySize = JsonUtil.toJsonThrows(jobData(message(0), destination) { legacyWriteClassAndObject(it) }).toByteArray().size
+        val pooledSize = KryoPool.serializeData(jobData(message(0), destination) { KryoPool.writeClassAndObject(it) }).size
+        assertTrue(pooledSize * 2 < legacySize)
+    }
+
+    /**
+     * Compares the old way of storing a message send job (a fresh `Kryo` per call, and the job data as JSON with base64
+     * encoded blobs) with pooled instances and the binary job data format.
+     */
+    @Test
+    @Category(Benchmark::class)
+    fun throughputAndSizeBenchmark() {
+        val count = 5000
+        val messages = (0 until count).map { message(it) }
+        val destination = Destination.Contact("05" + "cd".repeat(32))
+        fun measure(name: String, serialize: (Message) -> ByteArray, deserialize: (ByteArray) -> Message) {
+            // Warm up
+            messages.take(500).forEach { deserialize(serialize(it)) }
+            val serializeStart = System.nanoTime()
+            val serialized = messages.map { serialize(it) }
+            val serializeNanos = System.nanoTime() - serializeStart
+            val deserializeStart = System.nanoTime()
+            val deserialized = serialized.map { deserialize(it) }
+            val deserializeNanos = System.nanoTime() - deserializeStart
+            assertEquals(messages.last().sentTimestamp, deserialized.last().sentTimestamp)
+            val serializePerSecond = count * 1e9 / serializeNanos
+            val deserializePerSecond = count * 1e9 / deserializeNanos
+            println("$name: ${"%.0f".format(serializePerSecond)} jobs/s serialized, ${"%.0f".format(deserializePerSecond)} jobs/s " +
+                "deserialized, ${serialized.sumBy { it.size } / count} bytes stored per job.")
+        }
+        measure("JSON with a new Kryo per call", { message ->
+            JsonUtil.toJsonThrows(jobData(message, destination) { legacyWriteClassAndObject(it) }).toByteArray()
+        }, { bytes ->
+            val data = JsonUtil.fromJson(String(bytes), Data::class.java)
+            legacyReadClassAndObject(data.getByteArray("destination"))
+            legacyReadClassAndObject(data.getByteArray("message")) as Message
+        })
+        measure("Binary with pooled Kryo", { message ->
+            KryoPool.serializeData(jobData(message, destination) { KryoPool.writeClassAndObject(it) })
+        }, { bytes ->
+            val data = KryoPool.deserializeData(bytes)
+            KryoPool.readClassAndObject(data.getByteArray("destination"))
+            KryoPool.readClassAndObject(data.getByteArray("message")) as Message
+        })
+    }
+}
@@ -0,0 +1,154 @@
+package org.session.libsession.messaging.utilities
+
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.experimental.categories.Category
+import org.session.libsession.Benchmark
+import org.session.libsignal.crypto.PushTransportDetails
+import org.session.libsignal.protos.SignalServiceProtos.Content
+import org.session.libsignal.protos.SignalServiceProtos.DataMessage
+import org.session.libsignal.protos.SignalServiceProtos.Envelope
+import org.session.libsignal.protos.WebSocketProtos.WebSocketMessage
+import org.session.libsignal.utilities.Base64
+import java.lang.management.ManagementFactory
+import kotlin.random.Random
+
+class MessageWrapperTest {
+
+    private val senderPublicKey = "05" + "ab".repeat(32)
+    private val content = Random(42).nextBytes(1024)
+
+    private fun wrappedMessage(): String {
+        val data = MessageWrapper.wrap(Envelope.Type.SESSION_MESSAGE, 1234L, senderPublicKey, content)
+        return Base64.encodeBytes(data)
+    }
+
+    @Test
+    fun unwrapFromReusedBufferTest() {
+        val base64EncodedData = wrappedMessage()
+        val buffer = ByteArray(base64EncodedData.length * 3 / 4 + 64)
+        buffer.fill(0x7f)
+        val size = Base64.decode(base64EncodedData, buffer)
+        val envelope = MessageWrapper.unwrap(buffer, size)
+        val expected = Envelope.parseFrom(WebSocketMessage.parseFrom(Base64.decode(base64EncodedData)).request.body)
+        assertEquals(expected.type, envelope.type)
+        assertEquals(expected.timestamp, envelope.timestamp)
+        assertEquals(expected.source, envelope.source)
+        assertEquals(expected.sourceDevice, envelope.sourceDevice)
+        assertArrayEquals(content, envelope.content.toByteArray())
+    }
+
+    @Test(expected = MessageWrapper.Error.FailedToUnwrapData::class)
+    fun unwrapWithoutRequestTest() {
+        val data = WebSocketMessage.newBuilder().setType(WebSocketMessage.Type.REQUEST).build().toByteArray()
+        MessageWrapper.unwrap(data)
+    }
+
+    @Test
+    @Category(Benchmark::class)
+    fun unwrapAllocationBenchmark() {
+        val threadMXBean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean ?: return
+        if (!threadMXBean.isThreadAllocatedMemorySupported) { return }
+        threadMXBean.isThreadAllocatedMemoryEnabled = true
+        val base64EncodedData = wrappedMessage()
+        val iterations = 1000
+        fun measure(block: () -> Unit): Long {
+            repeat(iterations) { block() } // Warm up
+            val threadID = Thread.currentThread().id
+            val start = threadMXBean.getThreadAllocatedBytes(threadID)
+            repeat(iterations) { block() }
+            return (threadMXBean.getThreadAllocatedBytes(threadID) - start) / iterations
+        }
+        val before = measure {
+            val data = Base64.decode(base64EncodedData)
+            Envelope.parseFrom(WebSocketMessage.parseFrom(data).request.body)
+        }
+        val buffer = ByteArray(base64EncodedData.length * 3 / 4)
+        val after = measure {
+            val size = Base64.decode(base64EncodedData, buffer)
+            MessageWrapper.unwrap(buffer, size)
+        }
+        println("Allocated bytes per message: $before before, $after after.")
+    }
+
+    @Test
+    fun encodeIntoScratchMatchesEncodeBytesTest() {
+        val data = Random(7).nextBytes(64)
+        val scratch = CharArray(128)
+        for (size in 0..data.size - 3) {
+            assertEquals(Base64.encodeBytes(data, 0, size), Base64.encodeBytes(data, 0, size, scratch))
+            assertEquals(Base64.encodeBytes(data, 3, size), Base64.encodeBytes(data, 3, size, scratch))
+        }
+    }
+
+    @Test
+    fun wrapAndEncodeMatchesWrapTest() {
+        for (senderPublicKey in listOf("", this.senderPublicKey)) {
+            val buffer = content.copyOf(content.size + 100)
+            val encoded = MessageWrapper.wrapAndEncode(Envelope.Type.CLOSED_GROUP_MESSAGE, 1234L, senderPublicKey, buffer, content.size)
+            val expected = WebSocketMessage.parseFrom(MessageWrapper.wrap(Envelope.Type.CLOSED_GROUP_MESSAGE, 1234L, senderPublicKey, content))
+            val actual = WebSocketMessage.parseFrom(Base64.decode(encoded))
+            assertEquals(expected.type, actual.type)
+            assertEquals(expected.request.verb, actual.request.verb)
+            assertEquals(expected.request.path, actual.request.path)
+            assertTrue(actual.request.hasId())
+            assertEquals(expected.request.body, actual.request.body)
+        }
+    }
+
+    private val sendProto = Content.newBuilder().setDataMessage(DataMessage.newBuilder().setBody("x".repeat(280)).setTimestamp(1234L)).build()
+    private val sendMetadataSize = 32 + 64
+    private val sendScratch = ByteArray(1024)
+
+    private fun legacySendEncoding(): String {
+        val plaintext = PushTransportDetails.getPaddedMessageBody(sendProto.toByteArray())
+        val plaintextWithMetadata = plaintext + ByteArray(sendMetadataSize)
+        return Base64.encodeBytes(MessageWrapper.wrap(Envelope.Type.SESSION_MESSAGE, 1234L, "", plaintextWithMetadata))
+    }
+
+    private fun pooledSendEncoding(): String {
+        val protoSize = sendProto.serializedSize
+        val plaintextSize = PushTransportDetails.getPaddedMessageBodySize(protoSize)
+        sendProto.writeTo(com.google.protobuf.CodedOutputStream.newInstance(sendScratch, 0, protoSize))
+        sendScratch[protoSize] = 0x80.toByte()
+        sendScratch.fill(0, protoSize + 1, plaintextSize + sendMetadataSize)
+        return MessageWrapper.wrapAndEncode(Envelope.Type.SESSION_MESSAGE, 1234L, "", sendScratch, plaintextSize + sendMetadataSize)
+    }
+
+    @Test
+    fun pooledSendEncodingMatchesLegacyTest() {
+        val legacy = legacySendEncoding()
+        val pooled = pooledSendEncoding()
+        assertEquals(legacy.length, pooled.length)
+        assertEquals(WebSocketMessage.parseFrom(Base64.decode(legacy)).request.body, WebSocketMessage.parseFrom(Base64.decode(pooled)).request.body)
+    }
+
+    /**
+     * Messages per second through serialization, padding, wrapping and base 64 encoding, before and after. The sealed box
+     * and signature need native libsodium, which JVM unit tests can't load, so they're left out of both sides.
+     */
+    @Test
+    @Category(Benchmark::class)
+    fun sendCodecBenchmark() {
+        fun messagesPerSecond(block: () -> String): Double {
+            val warmUpIterations = 5
+            val measurementIterations = 5
+            val iterationNanos = 200_000_000L
+            var best = 0.0
+            repeat(warmUpIterations + measurementIterations) { iteration ->
+                var count = 0
+                val start = System.nanoTime()
+                while (System.nanoTime() - start < iterationNanos) {
+                    block()
+                    count += 1
+                }
+                val throughput = count * 1e9 / (System.nanoTime() - start)
+                if (iteration >= warmUpIterations) { best = maxOf(best, throughput) }
+            }
+            return best
+        }
+        val before = messagesPerSecond(::legacySendEncoding)
+        val after = messagesPerSecond(::pooledSendEncoding)
+        println("Send codec: ${before.toLong()} messages/s before, ${after.toLong()} messages/s after.")
+    }
+}
@@ -0,0 +1,70 @@
+package org.session.libsession.messaging.utilities
+
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import org.session.libsession.messaging.messages.visible.Profile
+
+class ProfileStateCacheTest {
+    private val publicKey = "05" + "a".repeat(64)
+
+    @Before
+    fun setUp() {
+        ProfileStateCache.clear()
+    }
+
+    @Test
+    fun unchangedProfileIsSkippedTest() {
+        assertTrue(ProfileStateCache.hasChanged(publicKey, Profile("Alice", byteArrayOf(1, 2), "https://example.com/a")))
+        ProfileStateCache.update(publicKey, Profile("Alice", byteArrayOf(1, 2), "https://example.com/a"))
+        assertFalse(ProfileStateCache.hasChanged(publicKey, Profile("Alice", byteArrayOf(1, 2), "https://example.com/a")))
+    }
+
+    @Test
+    fun skippedWritesAreCountedTest() {
+        val suppressedWriteCount = ProfileStateCache.suppressedWriteCount.get()
+        ProfileStateCache.hasChanged(publicKey, Profile("Alice"))
+        ProfileStateCache.update(publicKey, Profile("Alice"))
+        ProfileStateCache.hasChanged(publicKey, Profile("Alice"))
+        ProfileStateCache.hasChanged(publicKey, Profile("Alice"))
+        ProfileStateCache.hasChanged(publicKey, Profile("Alicia"))
+        assertEquals(suppressedWriteCount + 2, ProfileStateCache.suppressedWriteCount.get())
+    }
+
+    @Test
+    fun eachFieldIsComparedTest() {
+        ProfileStateCache.update(publicKey, Profile("Alice", byteArrayOf(1, 2), "https://example.com/a"))
+        assertTrue(ProfileStateCache.hasChanged(publicKey, Profile("Alicia", byteArrayOf(1, 2), "https://example.com/a")))
+        assertTrue(ProfileStateCache.hasChanged(publicKey, Profile("Alice", byteArrayOf(1, 3), "https://example.com/a")))
+        assertTrue(ProfileStateCache.hasChanged(publicKey, Profile("Alice", null, "https://example.com/a")))
+        assertTrue(ProfileStateCache.hasChanged(publicKey, Profile("Alice", byteArrayOf(1, 2), "https://example.com/b")))
+        assertTrue(ProfileStateCache.hasChanged(publicKey, Profile("Alice")))
+    }
+
+    /**
+     * Names with the same `String.hashCode()` must still count as a change.
+     */
+    @Test
+    fun hashCollisionsAreDetectedTest() {
+        assertEquals("Aa".hashCode(), "BB".hashCode())
+        ProfileStateCache.update(publicKey, Profile("Aa"))
+        assertTrue(ProfileStateCache.hasChanged(publicKey, Profile("BB")))
+        ProfileStateCache.update(publicKey, Profile("FB"))
+        assertTrue(ProfileStateCache.hasChanged(publicKey, Profile("Ea")))
+    }
+
+    @Test
+    fun updatingKeepsACopyOfTheProfileKeyTest() {
+        val profileKey = byteArrayOf(1, 2)
+        ProfileStateCache.update(publicKey, Profile("Alice", profileKey, "https://example.com/a"))
+        profileKey[0] = 9
+        assertTrue(ProfileStateCache.hasChanged(publicKey, Profile("Alice", profileKey, "https://example.com/a")))
+    }
+
+    @Test
+    fun clearForgetsProfilesTest() {
+        ProfileStateCache.update(publicKey, Profile("Alice"))
+        ProfileStateCache.clear()
+        assertTrue(ProfileStateCache.hasChanged(publicKey, Profile("Alice")))
+    }
+}
@@ -13,35 +13,54 @@ public class PushTransportDetails {
   private static final String TAG = PushTransportDetails.class.getSimpleName();
 
   public static byte[] getStrippedPaddingMessageBody(byte[] messageWithPadding) {
-    int paddingStart = 0;
+    int strippedSize = getStrippedPaddingMessageBodySize(messageWithPadding, messageWithPadding.length);
 
-    for (int i=messageWithPadding.length-1;i>=0;i--) {
+    if (strippedSize == messageWithPadding.length) {
+      return messageWithPadding;
+    }
+
+    byte[] strippedMessage = new byte[strippedSize];
+    System.arraycopy(messageWithPadding, 0, strippedMessage, 0, strippedMessage.length);
+
+    return strippedMessage;
+  }
+
+  /**
+   * Returns the size of the message body within the first {@code size} bytes of {@code messageWithPadding},
+   * so that callers working on a reused buffer can strip the padding without copying.
+   */
+  public static int getStrippedPaddingMessageBodySize(byte[] messageWithPadding, int size) {
+    for (int i=size-1;i>=0;i--) {
       if (messageWithPadding[i] == (byte)0x80) {
-        paddingStart = i;
-        break;
+        return i;
       } else if (messageWithPadding[i] != (byte)0x00) {
         Log.w(TAG, "Padding byte is malformed, returning unstripped padding.");
-        return messageWithPadding;
+        return size;
       }
     }
 
-    byte[] strippedMessage = new byte[paddingStart];
-    System.arraycopy(messageWithPadding, 0, strippedMessage, 0, strippedMessage.length);
-
-    return strippedMessage;
+    return 0;
   }
 
   public static byte[] getPaddedMessageBody(byte[] messageBody) {
     // NOTE: This is dumb.  We have our own padding scheme, but so does the cipher.
     // The +1 -1 here is to make sure the Cipher has room to add one padding byte,
     // otherwise it'll add a full 16 extra bytes.
-    byte[] paddedMessage = new byte[getPaddedMessageLength(messageBody.length + 1) - 1];
+    byte[] paddedMessage = new byte[getPaddedMessageBodySize(messageBody.length)];
     System.arraycopy(messageBody, 0, paddedMessage, 0, messageBody.length);
     paddedMessage[messageBody.length] = (byte)0x80;
 
     return paddedMessage;
   }
 
+  /**
+   * Returns the size {@link #getPaddedMessageBody(byte[])} pads a {@code messageBodySize} byte body to,
+   * so that callers can pad into a reused buffer.
+   */
+  public static int getPaddedMessageBodySize(int messageBodySize) {
+    return getPaddedMessageLength(messageBodySize + 1) - 1;
+  }
+
   private static int getPaddedMessageLength(int messageLength) {
     int messageLengthWithTerminator = messageLength + 1;
     int messagePartCount            = messageLengthWithTerminator / 160;
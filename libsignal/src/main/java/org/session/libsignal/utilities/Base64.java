@@ -816,6 +816,62 @@ public class Base64
         assert encoded != null;
         return encoded;
     }   // end encodeBytes
+
+
+    /**
+     * Encodes a byte array into Base64 notation using <var>destination</var>
+     * as scratch space, so the returned String is the only allocation.
+     * <var>destination</var> must hold at least <tt>4 * ((len + 2) / 3)</tt>
+     * chars. No options (such as {@link #DO_BREAK_LINES} or {@link #GZIP})
+     * are supported.
+     *
+     * @param source The data to convert
+     * @param off Offset in array where conversion should begin
+     * @param len Length of data to convert
+     * @param destination The array to encode into
+     * @return The Base64-encoded data as a String
+     * @throws IllegalArgumentException if source array, offset, or length are invalid
+     */
+    public static String encodeBytes( byte[] source, int off, int len, char[] destination ) {
+
+        if( off < 0 || len < 0 || off + len > source.length ){
+            throw new IllegalArgumentException( String.format(
+            "Cannot have offset of %d and length of %d with array of length %d", off, len, source.length ) );
+        }   // end if
+        int encodedLength = 4 * ( ( len + 2 ) / 3 );
+        if( destination.length < encodedLength ){
+            throw new IllegalArgumentException( String.format(
+            "Destination array with length %d cannot hold %d encoded characters.", destination.length, encodedLength ) );
+        }   // end if
+
+        byte[] ALPHABET = _STANDARD_ALPHABET;
+        int    e        = 0;
+        int    d        = 0;
+        int    len2     = len - 2;
+
+        for( ; d < len2; d += 3, e += 4 ) {
+            int inBuff = ( ( source[ off + d ] & 0xFF ) << 16 )
+                       | ( ( source[ off + d + 1 ] & 0xFF ) << 8 )
+                       |   ( source[ off + d + 2 ] & 0xFF );
+            destination[ e     ] = (char)ALPHABET[ ( inBuff >>> 18 )        ];
+            destination[ e + 1 ] = (char)ALPHABET[ ( inBuff >>> 12 ) & 0x3f ];
+            destination[ e + 2 ] = (char)ALPHABET[ ( inBuff >>>  6 ) & 0x3f ];
+            destination[ e + 3 ] = (char)ALPHABET[ ( inBuff        ) & 0x3f ];
+        }   // end for: each piece of array
+
+        if( d < len ) {
+            int remaining = len - d;
+            int inBuff    = ( ( source[ off + d ] & 0xFF ) << 16 )
+                          | ( remaining > 1 ? ( ( source[ off + d + 1 ] & 0xFF ) << 8 ) : 0 );
+            destination[ e     ] = (char)ALPHABET[ ( inBuff >>> 18 )        ];
+            destination[ e + 1 ] = (char)ALPHABET[ ( inBuff >>> 12 ) & 0x3f ];
+            destination[ e + 2 ] = remaining > 1 ? (char)ALPHABET[ ( inBuff >>> 6 ) & 0x3f ] : (char)EQUALS_SIGN;
+            destination[ e + 3 ] = (char)EQUALS_SIGN;
+            e += 4;
+        }   // end if: some padding needed
+
+        return new String( destination, 0, e );
+    }   // end encodeBytes
     
     
 
@@ -1245,6 +1301,61 @@ public class Base64
     }
 
     
+    /**
+     * Decodes data from Base64 notation directly into <var>destination</var>,
+     * skipping the intermediate arrays {@link #decode(String)} allocates.
+     * <var>destination</var> must hold at least <tt>s.length() * 3 / 4</tt>
+     * bytes. Unlike {@link #decode(String)} this does not detect gzip-compressed
+     * data.
+     *
+     * @param s the string to decode
+     * @param destination the array to decode into
+     * @return the number of bytes written to <var>destination</var>
+     * @throws java.io.IOException If bogus characters exist in source data
+     */
+    public static int decode( String s, byte[] destination ) throws java.io.IOException {
+
+        if( s == null ){
+            throw new NullPointerException( "Input string was null." );
+        }   // end if
+        if( destination.length < s.length() * 3 / 4 ){
+            throw new IllegalArgumentException( String.format(
+            "Destination array with length %d cannot hold %d decoded characters.", destination.length, s.length() ) );
+        }   // end if
+
+        byte[] DECODABET   = getDecodabet( NO_OPTIONS );
+        byte[] b4          = new byte[4];
+        int    b4Posn      = 0;
+        int    outBuffPosn = 0;
+
+        for( int i = 0; i < s.length(); i++ ) {
+            char c         = s.charAt( i );
+            byte sbiCrop   = (byte)(c & 0x7f);
+            byte sbiDecode = DECODABET[ sbiCrop ];
+
+            if( c <= 0x7f && sbiDecode >= WHITE_SPACE_ENC ) {
+                if( sbiDecode >= EQUALS_SIGN_ENC ) {
+                    b4[ b4Posn++ ] = sbiCrop;
+                    if( b4Posn > 3 ) {
+                        outBuffPosn += decode4to3( b4, 0, destination, outBuffPosn, NO_OPTIONS );
+                        b4Posn = 0;
+
+                        if( sbiCrop == EQUALS_SIGN ) {
+                            break;
+                        }   // end if: equals sign
+                    }   // end if: quartet built
+                }   // end if: equals sign or better
+            }   // end if: white space, equals sign or better
+            else {
+                throw new java.io.IOException( String.format(
+                "Bad Base64 input character '%c' in string position %d", c, i ) );
+            }   // end else
+        }   // each input character
+
+        return outBuffPosn;
+    }   // end decode
+
+
     public static byte[] decodeWithoutPadding(String source) throws java.io.IOException {
 		int padding    = source.length() % 4;
 		
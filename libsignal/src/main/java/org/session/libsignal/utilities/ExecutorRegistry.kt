@@ -0,0 +1,260 @@
+package org.session.libsignal.utilities
+
+import android.os.Looper
+import java.util.concurrent.BlockingQueue
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.RejectedExecutionHandler
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledThreadPoolExecutor
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * The app's shared thread pools, each with a bounded number of threads and a bounded queue, so that a burst of work
+ * queues up instead of spawning a thread per task. Subsystems should use `cpu`, `io` or `scheduled` rather than
+ * creating pools of their own; work that has to run serially can get its own single threaded pool from
+ * `newSerialExecutor`, and work that needs its own cap on concurrency a pool from `newFixedExecutor`, which are
+ * registered here as well so that their metrics are reported alongside the others.
+ */
+object ExecutorRegistry {
+
+    /**
+     * What happens to a task submitted while its pool's queue is full.
+     */
+    enum class BackpressurePolicy {
+        /** The submitting thread runs the task itself, which slows it down until the pool catches up. */
+        CALLER_RUNS,
+        /** The submitting thread waits until there's room in the queue, which keeps tasks in order. */
+        BLOCK,
+        /**
+         * Like `BLOCK`, except on the main thread, which must never wait, and on the pool's own threads, which could be
+         * waiting for themselves to drain the queue; there the task gets a thread of its own instead. Either way the
+         * task never runs on the submitting thread.
+         */
+        BLOCK_OFF_MAIN_THREAD
+    }
+
+    data class PoolStats(val name: String, val threads: Int, val maxThreads: Int, val active: Int, val queued: Int,
+        val completed: Long, val rejected: Long) {
+
+        override fun toString(): String {
+            return "$name: $active/$threads active (max $maxThreads), $queued queued, $completed completed, $rejected rejected"
+        }
+    }
+
+    private class InstrumentedRejectionHandler(private val policy: BackpressurePolicy) : RejectedExecutionHandler {
+        val rejectedCount = AtomicLong()
+
+        override fun rejectedExecution(task: Runnable, executor: ThreadPoolExecutor) {
+            if (executor.isShutdown) throw RejectedExecutionException("Executor has been shut down.")
+            rejectedCount.incrementAndGet()
+            when (policy) {
+                BackpressurePolicy.CALLER_RUNS -> task.run()
+                BackpressurePolicy.BLOCK -> put(executor, task)
+                BackpressurePolicy.BLOCK_OFF_MAIN_THREAD -> {
+                    if (!isMainThread() && !isPoolThread(executor)) {
+                        put(executor, task)
+                    } else if (executor is ElasticPool) {
+                        executor.handOff(task)
+                    } else {
+                        Thread(task).start()
+                    }
+                }
+            }
+        }
+
+        private fun put(executor: ThreadPoolExecutor, task: Runnable) {
+            try {
+                executor.queue.put(task)
+            } catch (e: InterruptedException) {
+                Thread.currentThread().interrupt()
+                throw RejectedExecutionException(e)
+            }
+        }
+    }
+
+    /**
+     * Makes its pool start threads, up to the pool's maximum, before tasks are queued. A plain `ThreadPoolExecutor`
+     * only adds threads beyond its core size once its queue is full.
+     */
+    private class ElasticQueue(capacity: Int) : LinkedBlockingQueue<Runnable>(capacity) {
+        lateinit var pool: ElasticPool
+
+        override fun offer(task: Runnable): Boolean {
+            // An idle thread will take it right away
+            if (pool.submittedCount.get() <= pool.poolSize) return super.offer(task)
+            // Returning false makes the pool start another thread
+            if (pool.poolSize < pool.maximumPoolSize) return false
+            return super.offer(task)
+        }
+
+        fun offerIfRoom(task: Runnable): Boolean {
+            return super.offer(task)
+        }
+    }
+
+    /**
+     * A pool that only queues tasks once all of its threads, up to the maximum, are busy. IO tasks sometimes wait on
+     * other IO tasks, which would never run if they were queued behind a full set of threads that are all waiting.
+     */
+    private class ElasticPool(private val name: String, coreThreadCount: Int, maxThreadCount: Int, queue: ElasticQueue,
+        rejectionHandler: RejectedExecutionHandler)
+        : ThreadPoolExecutor(coreThreadCount, maxThreadCount, 30, TimeUnit.SECONDS, queue, NamedThreadFactory(name, Thread.NORM_PRIORITY), rejectionHandler) {
+        /** Tasks that were submitted and haven't finished yet, whether they're running or queued. */
+        val submittedCount = AtomicInteger()
+        private val overflowThreadCounter = AtomicInteger()
+
+        init {
+            queue.pool = this
+        }
+
+        override fun execute(task: Runnable) {
+            submittedCount.incrementAndGet()
+            try {
+                super.execute(task)
+            } catch (e: RejectedExecutionException) {
+                submittedCount.decrementAndGet()
+                throw e
+            }
+        }
+
+        override fun afterExecute(task: Runnable?, error: Throwable?) {
+            submittedCount.decrementAndGet()
+        }
+
+        /**
+         * Queues `task` if there's still room, e.g. because a thread finished since it was rejected, and otherwise
+         * runs it on a thread of its own.
+         */
+        fun handOff(task: Runnable) {
+            if ((queue as ElasticQueue).offerIfRoom(task)) return
+            val runnable = Runnable {
+                try {
+                    poolThreadFactory.set(threadFactory)
+                    task.run()
+                } finally {
+                    submittedCount.decrementAndGet()
+                }
+            }
+            Thread(runnable, "$name-overflow-${overflowThreadCounter.getAndIncrement()}").start()
+        }
+    }
+
+    private class NamedThreadFactory(private val name: String, private val priority: Int) : ThreadFactory {
+        private val counter = AtomicInteger()
+
+        override fun newThread(runnable: Runnable): Thread {
+            val thread = Thread({ poolThreadFactory.set(this); runnable.run() }, "$name-${counter.getAndIncrement()}")
+            thread.priority = priority
+            return thread
+        }
+    }
+
+    private val pools = ConcurrentHashMap<String, () -> PoolStats>()
+
+    /** The factory that created the current thread, if it belongs to one of these pools. */
+    private val poolThreadFactory = ThreadLocal<ThreadFactory>()
+
+    private fun isPoolThread(executor: ThreadPoolExecutor): Boolean {
+        return poolThreadFactory.get() === executor.threadFactory
+    }
+
+    private val cpuThreadCount = Math.max(2, Math.min(Runtime.getRuntime().availableProcessors() - 1, 4))
+    // IO tasks mostly wait on the network or disk, so this pool has a lot more threads than cores. Some of them wait on
+    // each other, so it grows past its core size before it queues anything; the maximum is still far below what the
+    // unbounded pool it replaces reached under load.
+    private const val ioCoreThreadCount = 32
+    private const val ioMaxThreadCount = 256
+    private const val scheduledThreadCount = 4
+
+    /** Whether the current thread is the main thread, which `BLOCK_OFF_MAIN_THREAD` never blocks. Replaced in tests. */
+    internal var isMainThread: () -> Boolean = { Looper.myLooper() == Looper.getMainLooper() }
+
+    /**
+     * For computation, e.g. encryption and image processing.
+     */
+    @JvmStatic
+    val cpu: ThreadPoolExecutor = newPool("session-cpu", cpuThreadCount, 256, BackpressurePolicy.CALLER_RUNS)
+
+    /**
+     * For blocking work, e.g. network requests, database and file access. Tasks never run on the submitting thread,
+     * since that's often the main thread.
+     */
+    @JvmStatic
+    val io: ThreadPoolExecutor = newElasticPool("session-io", ioCoreThreadCount, ioMaxThreadCount, 1024)
+
+    /**
+     * For delayed and periodic work, e.g. polling. Tasks should hand anything slow off to `io`.
+     */
+    @JvmStatic
+    val scheduled: ScheduledExecutorService = newScheduledPool("session-scheduled", scheduledThreadCount)
+
+    /**
+     * Creates a single threaded pool that runs tasks in the order they're taken from `queue`.
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun newSerialExecutor(name: String, policy: BackpressurePolicy, queue: BlockingQueue<Runnable> = LinkedBlockingQueue(1024),
+        priority: Int = Thread.NORM_PRIORITY): ThreadPoolExecutor {
+        return newPool(name, 1, queue, policy, priority)
+    }
+
+    /**
+     * Creates a pool with at most `threadCount` threads, for work that has to be limited to that many tasks at once.
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun newFixedExecutor(name: String, threadCount: Int, policy: BackpressurePolicy,
+        queue: BlockingQueue<Runnable> = LinkedBlockingQueue(1024)): ThreadPoolExecutor {
+        return newPool(name, threadCount, queue, policy, Thread.NORM_PRIORITY)
+    }
+
+    private fun newPool(name: String, threadCount: Int, queueCapacity: Int, policy: BackpressurePolicy): ThreadPoolExecutor {
+        return newPool(name, threadCount, LinkedBlockingQueue(queueCapacity), policy, Thread.NORM_PRIORITY)
+    }
+
+    private fun newPool(name: String, threadCount: Int, queue: BlockingQueue<Runnable>, policy: BackpressurePolicy, priority: Int): ThreadPoolExecutor {
+        val rejectionHandler = InstrumentedRejectionHandler(policy)
+        val executor = ThreadPoolExecutor(threadCount, threadCount, 30, TimeUnit.SECONDS, queue, NamedThreadFactory(name, priority), rejectionHandler)
+        executor.allowCoreThreadTimeOut(true)
+        pools[name] = { getStats(name, executor, rejectionHandler.rejectedCount.get()) }
+        return executor
+    }
+
+    /**
+     * Creates a pool that starts threads up to `maxThreadCount` before it queues tasks, and that blocks submitters
+     * once the queue is full too, except on the main thread and the pool's own threads.
+     */
+    internal fun newElasticPool(name: String, coreThreadCount: Int, maxThreadCount: Int, queueCapacity: Int): ThreadPoolExecutor {
+        val rejectionHandler = InstrumentedRejectionHandler(BackpressurePolicy.BLOCK_OFF_MAIN_THREAD)
+        val executor = ElasticPool(name, coreThreadCount, maxThreadCount, ElasticQueue(queueCapacity), rejectionHandler)
+        executor.allowCoreThreadTimeOut(true)
+        pools[name] = { getStats(name, executor, rejectionHandler.rejectedCount.get()) }
+        return executor
+    }
+
+    private fun newScheduledPool(name: String, threadCount: Int): ScheduledExecutorService {
+        val executor = ScheduledThreadPoolExecutor(threadCount, NamedThreadFactory(name, Thread.NORM_PRIORITY))
+        // Scheduled tasks are only rejected after shutdown, which never happens for shared pools
+        pools[name] = { getStats(name, executor, 0) }
+        return executor
+    }
+
+    private fun getStats(name: String, executor: ThreadPoolExecutor, rejected: Long): PoolStats {
+        return PoolStats(name, executor.poolSize, executor.maximumPoolSize, executor.activeCount, executor.queue.size,
+            executor.completedTaskCount, rejected)
+    }
+
+    fun getStats(): List<PoolStats> {
+        return pools.values.map { it() }.sortedBy { it.name }
+    }
+
+    fun getReport(): String {
+        return getStats().joinToString("\n")
+    }
+}
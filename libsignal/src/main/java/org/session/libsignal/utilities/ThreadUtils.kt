@@ -3,15 +3,14 @@ package org.session.libsignal.utilities
 import java.util.concurrent.*
 
 object ThreadUtils {
-    val executorPool = Executors.newCachedThreadPool()
 
     @JvmStatic
     fun queue(target: Runnable) {
-        executorPool.execute(target)
+        ExecutorRegistry.io.execute(target)
     }
 
     fun queue(target: () -> Unit) {
-        executorPool.execute(target)
+        ExecutorRegistry.io.execute(target)
     }
 
     @JvmStatic
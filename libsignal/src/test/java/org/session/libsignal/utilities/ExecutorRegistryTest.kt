@@ -0,0 +1,180 @@
+package org.session.libsignal.utilities
+
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.Collections
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
+
+class ExecutorRegistryTest {
+
+    private val originalIsMainThread = ExecutorRegistry.isMainThread
+
+    @After
+    fun tearDown() {
+        ExecutorRegistry.isMainThread = originalIsMainThread
+    }
+
+    private fun getStats(name: String): ExecutorRegistry.PoolStats {
+        return ExecutorRegistry.getStats().first { it.name == name }
+    }
+
+    @Test
+    fun callerRunsWhenQueueIsFullTest() {
+        val executor = ExecutorRegistry.newSerialExecutor("test-caller-runs", ExecutorRegistry.BackpressurePolicy.CALLER_RUNS, LinkedBlockingQueue(1))
+        val started = CountDownLatch(1)
+        val release = CountDownLatch(1)
+        executor.execute { started.countDown(); release.await() }
+        started.await()
+        executor.execute { }
+        var ranOn: Thread? = null
+        executor.execute { ranOn = Thread.currentThread() }
+        assertSame(Thread.currentThread(), ranOn)
+        val stats = getStats("test-caller-runs")
+        assertEquals(1, stats.active)
+        assertEquals(1, stats.queued)
+        assertEquals(1, stats.rejected)
+        release.countDown()
+        executor.shutdown()
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS))
+    }
+
+    @Test
+    fun blockKeepsTasksInOrderTest() {
+        val executor = ExecutorRegistry.newSerialExecutor("test-block", ExecutorRegistry.BackpressurePolicy.BLOCK, LinkedBlockingQueue(2))
+        val order = Collections.synchronizedList(mutableListOf<Int>())
+        for (i in 0 until 1000) {
+            executor.execute { order.add(i) }
+        }
+        executor.shutdown()
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS))
+        assertEquals((0 until 1000).toList(), order)
+        assertTrue(getStats("test-block").rejected > 0)
+    }
+
+    /**
+     * A burst of slow tasks queues up behind a bounded number of threads instead of getting a thread each.
+     */
+    @Test
+    fun burstStaysBoundedTest() {
+        val taskCount = 1000
+        val done = CountDownLatch(taskCount)
+        val maxThreads = AtomicInteger()
+        val threadNames = Collections.newSetFromMap(ConcurrentHashMap<String, Boolean>())
+        ExecutorRegistry.isMainThread = { false }
+        for (i in 0 until taskCount) {
+            ExecutorRegistry.io.execute {
+                threadNames.add(Thread.currentThread().name)
+                maxThreads.accumulateAndGet(ExecutorRegistry.io.poolSize) { a, b -> Math.max(a, b) }
+                Thread.sleep(1)
+                done.countDown()
+            }
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS))
+        val stats = getStats("session-io")
+        assertTrue(maxThreads.get() <= stats.maxThreads)
+        assertTrue(threadNames.size <= stats.maxThreads)
+        assertFalse(threadNames.contains(Thread.currentThread().name))
+    }
+
+    /**
+     * A task that waits on another task it submitted would wait forever if that task were queued behind a full set of
+     * threads; the elastic pool starts another thread for it instead.
+     */
+    @Test
+    fun tasksWaitingOnEachOtherDontDeadlockTest() {
+        val executor = ExecutorRegistry.newElasticPool("test-elastic", 1, 4, 16)
+        val done = CountDownLatch(3)
+        executor.execute {
+            val inner = CountDownLatch(1)
+            executor.execute {
+                val innermost = CountDownLatch(1)
+                executor.execute { innermost.countDown(); done.countDown() }
+                innermost.await()
+                inner.countDown()
+                done.countDown()
+            }
+            inner.await()
+            done.countDown()
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS))
+        assertEquals(0, getStats("test-elastic").rejected)
+        executor.shutdown()
+    }
+
+    @Test
+    fun fullElasticPoolBlocksOffTheMainThreadTest() {
+        val executor = ExecutorRegistry.newElasticPool("test-elastic-block", 1, 1, 1)
+        val release = CountDownLatch(1)
+        val started = CountDownLatch(1)
+        ExecutorRegistry.isMainThread = { false }
+        executor.execute { started.countDown(); release.await() }
+        started.await()
+        executor.execute { }
+        val ranOn = AtomicReference<Thread>()
+        val submitted = CountDownLatch(1)
+        val submitter = Thread {
+            executor.execute { ranOn.set(Thread.currentThread()) }
+            submitted.countDown()
+        }
+        submitter.start()
+        assertFalse(submitted.await(200, TimeUnit.MILLISECONDS))
+        release.countDown()
+        assertTrue(submitted.await(5, TimeUnit.SECONDS))
+        executor.shutdown()
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS))
+        assertNotSame(submitter, ranOn.get())
+        assertEquals(1, getStats("test-elastic-block").rejected)
+    }
+
+    /**
+     * A pool thread blocking on its own full queue would wait for itself, since it's the thread that has to drain it.
+     */
+    @Test
+    fun fullElasticPoolHandsOffOnItsOwnThreadsTest() {
+        val executor = ExecutorRegistry.newElasticPool("test-elastic-own-thread", 1, 1, 1)
+        ExecutorRegistry.isMainThread = { false }
+        val ranOn = AtomicReference<Thread>()
+        val workerThread = AtomicReference<Thread>()
+        val done = CountDownLatch(2)
+        executor.execute {
+            workerThread.set(Thread.currentThread())
+            executor.execute { done.countDown() }
+            // The queue is full now; this would block forever if it waited for room
+            executor.execute { ranOn.set(Thread.currentThread()); done.countDown() }
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS))
+        assertNotSame(workerThread.get(), ranOn.get())
+        assertTrue(ranOn.get().name.startsWith("test-elastic-own-thread-overflow-"))
+        assertEquals(1, getStats("test-elastic-own-thread").rejected)
+        executor.shutdown()
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS))
+    }
+
+    @Test
+    fun fullElasticPoolHandsOffOnTheMainThreadTest() {
+        val executor = ExecutorRegistry.newElasticPool("test-elastic-hand-off", 1, 1, 1)
+        val release = CountDownLatch(1)
+        val started = CountDownLatch(1)
+        val mainThread = Thread.currentThread()
+        ExecutorRegistry.isMainThread = { Thread.currentThread() === mainThread }
+        executor.execute { started.countDown(); release.await() }
+        started.await()
+        executor.execute { }
+        val ranOn = AtomicReference<Thread>()
+        val done = CountDownLatch(1)
+        // Doesn't block, even though the pool is full
+        executor.execute { ranOn.set(Thread.currentThread()); done.countDown() }
+        assertTrue(done.await(5, TimeUnit.SECONDS))
+        assertNotSame(mainThread, ranOn.get())
+        assertEquals(1, getStats("test-elastic-hand-off").rejected)
+        release.countDown()
+        executor.shutdown()
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS))
+    }
+}